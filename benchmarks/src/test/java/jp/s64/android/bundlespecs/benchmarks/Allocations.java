@@ -0,0 +1,40 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import jp.s64.android.bundlespecs.tests.ThreadAllocations;
+
+/**
+ * Per-thread allocated bytes from {@code com.sun.management.ThreadMXBean}, see {@link ThreadAllocations}.
+ */
+final class Allocations {
+
+    private Allocations() {
+    }
+
+    static boolean isSupported() {
+        return ThreadAllocations.isThreadMXBeanSupported();
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, or {@code -1} if unsupported.
+     */
+    static long currentThread() {
+        return isSupported() ? ThreadAllocations.currentThread() : -1;
+    }
+
+}
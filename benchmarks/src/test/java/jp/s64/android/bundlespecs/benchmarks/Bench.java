@@ -0,0 +1,116 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Minimal time-boxed micro benchmark loop: warm up, then run the body in batches
+ * until the measurement window is spent, sampling thread allocations around the batches.
+ */
+final class Bench {
+
+    interface Body {
+
+        /**
+         * @return anything derived from the work, so that it can't be optimized away.
+         */
+        Object run() throws Exception;
+
+    }
+
+    static final class Result {
+
+        final long ops;
+        final double nanosPerOp;
+        final double bytesPerOp;
+
+        Result(long ops, double nanosPerOp, double bytesPerOp) {
+            this.ops = ops;
+            this.nanosPerOp = nanosPerOp;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        JsonReport.Row into(JsonReport.Row row) {
+            return row
+                    .put("ops", ops)
+                    .put("nanosPerOp", nanosPerOp)
+                    .put("bytesPerOp", bytesPerOp);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%,.1f ns/op, %,.1f B/op (%d ops)", nanosPerOp, bytesPerOp, ops);
+        }
+
+    }
+
+    private static volatile int sink;
+
+    private final long warmupNanos;
+    private final long measureNanos;
+
+    Bench() {
+        this(BenchmarkSettings.warmupMillis(), BenchmarkSettings.measureMillis());
+    }
+
+    Bench(long warmupMillis, long measureMillis) {
+        this.warmupNanos = TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        this.measureNanos = TimeUnit.MILLISECONDS.toNanos(measureMillis);
+    }
+
+    Result run(Body body) throws Exception {
+        long batch = 1;
+        {
+            final long until = System.nanoTime() + warmupNanos;
+            while (System.nanoTime() < until) {
+                final long start = System.nanoTime();
+                loop(body, batch);
+                if (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(10)) {
+                    batch *= 2;
+                }
+            }
+        }
+
+        long ops = 0;
+        long nanos = 0;
+        long bytes = 0;
+        do {
+            final long allocatedBefore = Allocations.currentThread();
+            final long start = System.nanoTime();
+            loop(body, batch);
+            nanos += System.nanoTime() - start;
+            bytes += Allocations.currentThread() - allocatedBefore;
+            ops += batch;
+        } while (nanos < measureNanos);
+
+        return new Result(
+                ops,
+                (double) nanos / ops,
+                Allocations.isSupported() ? (double) bytes / ops : Double.NaN
+        );
+    }
+
+    private static void loop(Body body, long count) throws Exception {
+        int hash = 0;
+        for (long i = 0; i < count; i++) {
+            hash += System.identityHashCode(body.run());
+        }
+        sink = hash;
+    }
+
+}
@@ -0,0 +1,72 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+
+/**
+ * Knobs passed from {@code benchmarks/build.gradle} as {@code bundlespecs.benchmark.*} system properties.
+ */
+final class BenchmarkSettings {
+
+    private static final String PREFIX = "bundlespecs.benchmark.";
+
+    private BenchmarkSettings() {
+    }
+
+    static int[] sizes() {
+        return sizes("sizes", "1,10,100,1000,10000,100000");
+    }
+
+    static int[] sizes(String name, String defaultValue) {
+        final String[] values = System.getProperty(PREFIX + name, defaultValue).split(",");
+        final int[] ret = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ret[i] = Integer.parseInt(values[i].trim());
+        }
+        return ret;
+    }
+
+    static String[] names(String name, String defaultValue) {
+        final String[] ret = System.getProperty(PREFIX + name, defaultValue).split(",");
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = ret[i].trim();
+        }
+        return ret;
+    }
+
+    static long seed() {
+        return Long.getLong(PREFIX + "seed", 0);
+    }
+
+    static long warmupMillis() {
+        return Long.getLong(PREFIX + "warmupMillis", 200);
+    }
+
+    static long measureMillis() {
+        return Long.getLong(PREFIX + "measureMillis", 500);
+    }
+
+    static File output(String name) {
+        final File dir = new File(System.getProperty(PREFIX + "output", "build/reports/benchmarks"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("Could not create " + dir);
+        }
+        return new File(dir, name + ".json");
+    }
+
+}
@@ -0,0 +1,149 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import jp.s64.android.bundlespecs.tests.BundleDelta;
+import jp.s64.android.bundlespecs.tests.BundleGenerator;
+import jp.s64.android.bundlespecs.tests.BundleSizeEstimator;
+
+/**
+ * Pushing a changed state as a {@link BundleDelta} against re-marshalling the whole Bundle:
+ * bytes on the wire, and time on each side (diff + encode against marshal, decode + apply
+ * against unmarshal) for a {@link BundleGenerator} payload with one nesting level, when
+ * 1 key or 10% of the keys change.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class BundleDeltaBenchmark {
+
+    @Test
+    public void delta() throws Exception {
+        final Bench bench = new Bench();
+        final long seed = BenchmarkSettings.seed();
+        final BundleSizeEstimator estimator = new BundleSizeEstimator();
+        final JsonReport report = new JsonReport("bundleDelta")
+                .meta("seed", seed);
+
+        for (int keys : BenchmarkSettings.sizes("deltaKeys", "100,1000")) {
+            final Bundle from = new BundleGenerator(seed).keys(keys).depth(1).generate();
+
+            for (int changed : new int[] {1, Math.max(1, keys / 10)}) {
+                final Bundle to = change(from, changed);
+                final byte[] parcelled = ScalabilityBenchmark.marshall(to);
+                final byte[] encoded = BundleDelta.between(from, to).toByteArray();
+                final Bundle target = to.deepCopy();
+
+                final Bench.Result marshal = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return ScalabilityBenchmark.marshall(to);
+                    }
+                });
+                final Bench.Result unmarshal = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        final Parcel parcel = Parcel.obtain();
+                        try {
+                            parcel.unmarshall(parcelled, 0, parcelled.length);
+                            parcel.setDataPosition(0);
+                            final Bundle ret = parcel.readBundle(getClass().getClassLoader());
+                            ret.size(); // unparcel
+                            return ret;
+                        } finally {
+                            parcel.recycle();
+                        }
+                    }
+                });
+                final Bench.Result diff = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return BundleDelta.between(from, to).toByteArray();
+                    }
+                });
+                final Bench.Result apply = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return BundleDelta.fromByteArray(encoded).apply(from);
+                    }
+                });
+                // applying the same delta again changes nothing, so the target can be reused
+                final Bench.Result applyTo = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        BundleDelta.fromByteArray(encoded).applyTo(target);
+                        return target;
+                    }
+                });
+
+                report.row()
+                        .put("keys", keys)
+                        .put("changedKeys", changed)
+                        .put("fullBytes", estimator.sizeOf(to))
+                        .put("deltaBytes", encoded.length)
+                        .put("marshal", marshal.into(new JsonReport.Row()))
+                        .put("unmarshal", unmarshal.into(new JsonReport.Row()))
+                        .put("diff", diff.into(new JsonReport.Row()))
+                        .put("apply", apply.into(new JsonReport.Row()))
+                        .put("applyTo", applyTo.into(new JsonReport.Row()));
+                System.out.println("keys " + keys + ", changed " + changed + ": "
+                        + estimator.sizeOf(to) + " B full, " + encoded.length + " B delta; marshal " + marshal
+                        + ", unmarshal " + unmarshal + ", diff " + diff + ", apply " + apply + ", applyTo " + applyTo);
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    /**
+     * @return a deep copy of {@code from} with {@code count} leaves of the root and its first child replaced.
+     */
+    private static Bundle change(Bundle from, int count) {
+        final Bundle ret = from.deepCopy();
+        final List<Bundle> levels = new ArrayList<>();
+        {
+            levels.add(ret);
+            if (ret.getBundle(BundleGenerator.CHILD_KEY + 0) != null) {
+                levels.add(ret.getBundle(BundleGenerator.CHILD_KEY + 0));
+            }
+        }
+        int done = 0;
+        for (int i = 0; done < count; i++) {
+            final Bundle level = levels.get(i % levels.size());
+            for (String key : level.keySet()) {
+                if (!key.startsWith(BundleGenerator.CHILD_KEY) && !level.containsKey(key + "'")) {
+                    level.remove(key);
+                    level.putInt(key + "'", done);
+                    break;
+                }
+            }
+            done++;
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,91 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import jp.s64.android.bundlespecs.tests.BundleProbe;
+
+/**
+ * What {@link BundleProbe} adds to a {@code get} and a {@code deepCopy()}: disabled, nearly only counting
+ * (sampling one call in {@code 1 << 20}), sampling one in 64, and measuring every call.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class BundleProbeBenchmark {
+
+    /**
+     * {@code -1} calls the Bundle directly, {@code 0} goes through the disabled probe.
+     */
+    private static final int[] SAMPLE_EVERY = {-1, 0, 1 << 20, 64, 1};
+
+    @Test
+    public void overhead() throws Exception {
+        final Bench bench = new Bench();
+        final JsonReport report = new JsonReport("bundleProbe");
+
+        final Bundle org = new Bundle();
+        {
+            org.putInt("key", 1);
+            org.putIntArray("array", new int[64]);
+        }
+
+        // the first pass only warms up every path, so the plain call isn't measured colder than the others
+        for (int pass = 0; pass < 2; pass++) {
+            for (final int sampleEvery : SAMPLE_EVERY) {
+                if (sampleEvery > 0) {
+                    BundleProbe.enable(sampleEvery);
+                }
+                try {
+                    final Bench.Result get = bench.run(new Bench.Body() {
+                        @Override
+                        public Object run() {
+                            return sampleEvery < 0 ? org.get("key") : BundleProbe.get(org, "key");
+                        }
+                    });
+                    final Bench.Result deepCopy = bench.run(new Bench.Body() {
+                        @Override
+                        public Object run() {
+                            return sampleEvery < 0 ? org.deepCopy() : BundleProbe.deepCopy(org);
+                        }
+                    });
+                    if (pass == 1) {
+                        report.row()
+                                .put("mode", mode(sampleEvery))
+                                .put("get", get.into(new JsonReport.Row()))
+                                .put("deepCopy", deepCopy.into(new JsonReport.Row()));
+                        System.out.println(mode(sampleEvery) + ": get " + get + ", deepCopy " + deepCopy);
+                    }
+                } finally {
+                    BundleProbe.disable();
+                }
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    private static String mode(int sampleEvery) {
+        return sampleEvery < 0 ? "plain" : (sampleEvery == 0 ? "disabled" : "1/" + sampleEvery);
+    }
+
+}
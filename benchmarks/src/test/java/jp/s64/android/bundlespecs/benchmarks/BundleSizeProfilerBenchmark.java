@@ -0,0 +1,101 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import jp.s64.android.bundlespecs.tests.BundleGenerator;
+import jp.s64.android.bundlespecs.tests.BundleSizeEstimator;
+import jp.s64.android.bundlespecs.tests.BundleSizeProfiler;
+
+/**
+ * What a {@link BundleSizeProfiler} scan costs next to a plain {@link BundleSizeEstimator#sizeOf(Bundle)},
+ * and how long its steps really take under a time budget ({@code -Pbenchmark.profilerBudgetMicros}).
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class BundleSizeProfilerBenchmark {
+
+    private static final int DEPTH = 2;
+
+    @Test
+    public void scanVersusEstimate() throws Exception {
+        final Bench bench = new Bench();
+        final long seed = BenchmarkSettings.seed();
+        final int budgetMicros = BenchmarkSettings.sizes("profilerBudgetMicros", "100")[0];
+        final JsonReport report = new JsonReport("bundleSizeProfiler")
+                .meta("seed", seed)
+                .meta("depth", DEPTH)
+                .meta("budgetMicros", budgetMicros);
+        final BundleSizeEstimator estimator = new BundleSizeEstimator();
+        final BundleSizeProfiler profiler = new BundleSizeProfiler();
+
+        for (int keys : BenchmarkSettings.sizes("profilerKeys", "10,100,1000,10000")) {
+            final Bundle org = new BundleGenerator(seed).keys(keys).depth(DEPTH).generate();
+
+            final Bench.Result estimate = bench.run(new Bench.Body() {
+                @Override
+                public Object run() {
+                    return estimator.sizeOf(org);
+                }
+            });
+            final Bench.Result scan = bench.run(new Bench.Body() {
+                @Override
+                public Object run() {
+                    return profiler.scan(org).run();
+                }
+            });
+
+            // one scan in budgeted steps, as an idle handler would run it
+            final BundleSizeProfiler.Scan stepped = profiler.scan(org);
+            long maxStepNanos = 0;
+            int steps = 0;
+            int overBudget = 0;
+            while (true) {
+                final long start = System.nanoTime();
+                final boolean done = stepped.step(budgetMicros * 1000L);
+                final long elapsed = System.nanoTime() - start;
+                maxStepNanos = Math.max(maxStepNanos, elapsed);
+                overBudget += elapsed > budgetMicros * 2000L ? 1 : 0;
+                steps++;
+                if (done) {
+                    break;
+                }
+            }
+
+            report.row()
+                    .put("keys", keys)
+                    .put("bytes", stepped.totalBytes())
+                    .put("estimate", estimate.into(new JsonReport.Row()))
+                    .put("scan", scan.into(new JsonReport.Row()))
+                    .put("steps", steps)
+                    .put("stepsOverTwiceBudget", overBudget)
+                    .put("maxStepMicros", maxStepNanos / 1000.0)
+                    .put("top", String.valueOf(stepped.top(1)));
+            System.out.println(keys + " keys: estimate " + estimate + ", scan " + scan
+                    + ", " + steps + " steps of at most " + (maxStepNanos / 1000) + " us, " + overBudget + " over 2x budget");
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+}
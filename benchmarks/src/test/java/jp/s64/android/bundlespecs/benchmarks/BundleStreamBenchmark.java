@@ -0,0 +1,203 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jp.s64.android.bundlespecs.tests.BundleShape;
+import jp.s64.android.bundlespecs.tests.BundleStream;
+
+/**
+ * Throughput and latency of {@link BundleStream} for payloads of 1 MB and up, built from the
+ * {@code BundleTest} container shapes as keys of about {@link #CHUNK_BYTES} each, over an
+ * in-process {@link BundleStream.FrameQueue} and over an OS pipe. Per run: time until the
+ * whole Bundle is decoded, time until its first entry is, and bytes allocated on the
+ * receiving thread.
+ *
+ * <p>The receiver drops decoded values, so 1 GB payloads fit the benchmark heap; pass e.g.
+ * {@code -Pbenchmark.streamSizesMb=1,16,256,1024 -Pbenchmark.streamShapes=BYTE_ARRAY,INT_ARRAY}.
+ * Scalar shapes (one key per value) and Binders, which can't be streamed, are left out.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class BundleStreamBenchmark {
+
+    static final int CHUNK_BYTES = 256 * 1024;
+    static final int QUEUE_CAPACITY = 8;
+
+    @Test
+    public void stream() throws Exception {
+        final Bench bench = new Bench();
+        final JsonReport report = new JsonReport("bundleStream")
+                .meta("frameSize", BundleStream.DEFAULT_FRAME_SIZE)
+                .meta("chunkBytes", CHUNK_BYTES)
+                .meta("queueCapacity", QUEUE_CAPACITY);
+        final ExecutorService sender = Executors.newSingleThreadExecutor();
+
+        try {
+            for (BundleShape shape : shapes()) {
+                final int elements = elementsPerChunk(shape);
+                for (int megabytes : BenchmarkSettings.sizes("streamSizesMb", "1,16")) {
+                    final Bundle payload = new Bundle();
+                    final int chunks = (int) ((long) megabytes * 1024 * 1024 / CHUNK_BYTES);
+                    for (int i = 0; i < chunks; i++) {
+                        shape.put(payload, "chunk" + i, elements);
+                    }
+                    final long bytes = streamedBytes(payload);
+
+                    for (String transport : new String[] {"queue", "pipe"}) {
+                        final Run run = new Run(payload, transport, sender);
+                        final Bench.Result result = bench.run(run);
+
+                        report.row()
+                                .put("shape", shape.name())
+                                .put("megabytes", megabytes)
+                                .put("transport", transport)
+                                .put("streamedBytes", bytes)
+                                .put("megabytesPerSecond", bytes / (result.nanosPerOp / 1e9) / (1024 * 1024))
+                                .put("firstEntryNanos", (double) run.firstEntryNanos / run.runs)
+                                .put("total", result.into(new JsonReport.Row()));
+                        System.out.println(shape + " " + megabytes + " MB over " + transport + ": " + result
+                                + ", first entry " + String.format("%,.1f ns", (double) run.firstEntryNanos / run.runs));
+                    }
+                }
+            }
+        } finally {
+            sender.shutdown();
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    /**
+     * Sends on the executor and receives on the benchmark thread; a pipe transport is opened per run.
+     */
+    static final class Run implements Bench.Body {
+
+        final Bundle payload;
+        final String transport;
+        final ExecutorService sender;
+
+        long runs;
+        long firstEntryNanos;
+
+        Run(Bundle payload, String transport, ExecutorService sender) {
+            this.payload = payload;
+            this.transport = transport;
+            this.sender = sender;
+        }
+
+        @Override
+        public Object run() throws Exception {
+            final BundleStream.FrameSink sink;
+            final BundleStream.FrameSource source;
+            final Pipe pipe;
+            if (transport.equals("pipe")) {
+                pipe = Pipe.open();
+                sink = BundleStream.sink(Channels.newOutputStream(pipe.sink()));
+                source = BundleStream.source(Channels.newInputStream(pipe.source()));
+            } else {
+                pipe = null;
+                final BundleStream.FrameQueue queue = new BundleStream.FrameQueue(QUEUE_CAPACITY);
+                sink = queue;
+                source = queue;
+            }
+
+            final long start = System.nanoTime();
+            final Future<?> sent = sender.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    BundleStream.send(payload, sink);
+                    return null;
+                }
+            });
+            final long[] first = new long[1];
+            final int ret = BundleStream.receive(source, getClass().getClassLoader(), new BundleStream.Listener() {
+                @Override
+                public void onEntry(String key, Object value) {
+                    if (first[0] == 0) {
+                        first[0] = System.nanoTime();
+                    }
+                }
+            });
+            sent.get();
+            runs++;
+            firstEntryNanos += first[0] - start;
+
+            if (pipe != null) {
+                pipe.sink().close();
+                pipe.source().close();
+            }
+            return ret;
+        }
+
+    }
+
+    static List<BundleShape> shapes() {
+        final List<BundleShape> ret = new ArrayList<>();
+        for (String name : BenchmarkSettings.names("streamShapes", "")) {
+            if (!name.isEmpty()) {
+                ret.add(BundleShape.valueOf(name));
+            }
+        }
+        if (ret.isEmpty()) {
+            for (BundleShape shape : BundleShape.values()) {
+                if (shape.isSupported() && !shape.isScalar()) {
+                    ret.add(shape);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return elements that make one value of {@code shape} about {@link #CHUNK_BYTES} on the stream.
+     */
+    static int elementsPerChunk(BundleShape shape) throws IOException {
+        final int sample = 4096;
+        final long empty = streamedBytes(shape.create(0));
+        final long full = streamedBytes(shape.create(sample));
+        return (int) Math.max(1, (long) CHUNK_BYTES * sample / Math.max(1, full - empty));
+    }
+
+    static long streamedBytes(Bundle bundle) throws IOException {
+        final long[] ret = new long[1];
+        BundleStream.send(bundle, new BundleStream.FrameSink() {
+            @Override
+            public void send(byte[] frame, int offset, int length) {
+                ret[0] += length;
+            }
+        });
+        return ret[0];
+    }
+
+}
@@ -0,0 +1,130 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import jp.s64.android.bundlespecs.tests.ByteArrayPool;
+import jp.s64.android.bundlespecs.tests.CompressedBundle;
+
+/**
+ * {@link CompressedBundle} on one large array per payload: a thumbnail-like {@code byte[]},
+ * sensor samples in an {@code int[]}, timestamps in a {@code long[]}, and random bytes that
+ * stay raw. Reports the compression ratio, the cost of {@code from} and of a decompressing
+ * get. Sizes are the array payload itself; Robolectric's Parcel doesn't have the
+ * native layout, so marshalled sizes would be misleading here.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class CompressionBenchmark {
+
+    private static final String KEY = "value";
+
+    @Test
+    public void compression() throws Exception {
+        final Bench bench = new Bench();
+        final long seed = BenchmarkSettings.seed();
+        final JsonReport report = new JsonReport("compression")
+                .meta("seed", seed)
+                .meta("threshold", CompressedBundle.DEFAULT_THRESHOLD);
+
+        for (int length : BenchmarkSettings.sizes("compressionSizes", "4096,65536,262144")) {
+            for (String payload : new String[] {"thumbnail", "sensor", "timestamps", "random"}) {
+                final Bundle org = payload(payload, length, new Random(seed));
+                final CompressedBundle compressed = CompressedBundle.from(org);
+
+                final Bench.Result from = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return CompressedBundle.from(org, CompressedBundle.DEFAULT_THRESHOLD, ByteArrayPool.DEFAULT);
+                    }
+                });
+                final Bench.Result get = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return compressed.get(KEY);
+                    }
+                });
+
+                final long stored = compressed.isCompressed(KEY) ? compressed.compressedBytes() : length;
+                report.row()
+                        .put("payload", payload)
+                        .put("length", length)
+                        .put("compressed", compressed.isCompressed(KEY))
+                        .put("storedBytes", stored)
+                        .put("ratio", (double) stored / length)
+                        .put("from", from.into(new JsonReport.Row()))
+                        .put("get", get.into(new JsonReport.Row()));
+                System.out.println(payload + " " + length + ": " + stored
+                        + " bytes, from " + from + ", get " + get);
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    static Bundle payload(String payload, int length, Random random) {
+        final Bundle ret = new Bundle();
+        switch (payload) {
+            case "thumbnail": {
+                // flat regions with a little noise, like a small ARGB image
+                final byte[] value = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    value[i] = (byte) ((i & 3) == 3 ? 0xFF : (i / 512) * 8 + (random.nextInt(8) == 0 ? 1 : 0));
+                }
+                ret.putByteArray(KEY, value);
+                break;
+            }
+            case "sensor": {
+                // slowly varying readings around a baseline
+                final int[] value = new int[length / 4];
+                int current = 1000;
+                for (int i = 0; i < value.length; i++) {
+                    current += random.nextInt(3) - 1;
+                    value[i] = current;
+                }
+                ret.putIntArray(KEY, value);
+                break;
+            }
+            case "timestamps": {
+                final long[] value = new long[length / 8];
+                long current = 1500000000000L;
+                for (int i = 0; i < value.length; i++) {
+                    current += 16 + random.nextInt(2);
+                    value[i] = current;
+                }
+                ret.putLongArray(KEY, value);
+                break;
+            }
+            default: {
+                final byte[] value = new byte[length];
+                random.nextBytes(value);
+                ret.putByteArray(KEY, value);
+                break;
+            }
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,428 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jp.s64.android.bundlespecs.tests.ConcurrentBundle;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Sharing a Bundle between threads.
+ *
+ * <p>{@link #races()} runs {@link Stress} tests on a plain Bundle and on {@link ConcurrentBundle}:
+ * first reads of a Bundle restored from a Parcel, two writers, and a reader racing a writer that
+ * makes the map grow. Outcomes other than {@code OK} are races; the plain Bundle's are reported,
+ * the ConcurrentBundle must have none.</p>
+ *
+ * <p>{@link #scaling()} measures total throughput from 1 to 64 threads for 100%, 90% and 50% reads
+ * over {@link #KEYS} keys, for ConcurrentBundle and for a Bundle behind one lock (the safe way to
+ * share a plain Bundle).</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class ConcurrentBundleBenchmark {
+
+    static final int KEYS = 1024;
+    static final int WRITES = 32;
+
+    static final String[] KEY_NAMES = new String[KEYS];
+
+    static {
+        for (int i = 0; i < KEYS; i++) {
+            KEY_NAMES[i] = "key" + i;
+        }
+    }
+
+    private static volatile int sink;
+
+    /**
+     * The operations the stress tests and the scaling loop need, on either container.
+     */
+    interface Target {
+
+        void putInt(String key, int value);
+
+        int getInt(String key, int defaultValue);
+
+        int size();
+
+    }
+
+    static Target plain(final Bundle bundle) {
+        return new Target() {
+            @Override
+            public void putInt(String key, int value) {
+                bundle.putInt(key, value);
+            }
+
+            @Override
+            public int getInt(String key, int defaultValue) {
+                return bundle.getInt(key, defaultValue);
+            }
+
+            @Override
+            public int size() {
+                return bundle.size();
+            }
+        };
+    }
+
+    static Target locked(final Bundle bundle) {
+        return new Target() {
+            @Override
+            public void putInt(String key, int value) {
+                synchronized (bundle) {
+                    bundle.putInt(key, value);
+                }
+            }
+
+            @Override
+            public int getInt(String key, int defaultValue) {
+                synchronized (bundle) {
+                    return bundle.getInt(key, defaultValue);
+                }
+            }
+
+            @Override
+            public int size() {
+                synchronized (bundle) {
+                    return bundle.size();
+                }
+            }
+        };
+    }
+
+    static Target concurrent(final ConcurrentBundle bundle) {
+        return new Target() {
+            @Override
+            public void putInt(String key, int value) {
+                bundle.putInt(key, value);
+            }
+
+            @Override
+            public int getInt(String key, int defaultValue) {
+                return bundle.getInt(key, defaultValue);
+            }
+
+            @Override
+            public int size() {
+                return bundle.size();
+            }
+        };
+    }
+
+    @Test
+    public void races() throws Exception {
+        final int iterations = BenchmarkSettings.sizes("stressIterations", "20000")[0];
+        final JsonReport report = new JsonReport("concurrentBundleStress")
+                .meta("iterations", iterations);
+
+        for (boolean concurrent : new boolean[] {false, true}) {
+            final String name = concurrent ? "ConcurrentBundle" : "Bundle";
+            final Map<String, Long> firstReads = Stress.run(new FirstReads(concurrent), 4, iterations);
+            final Map<String, Long> writeWrite = Stress.run(new WriteWrite(concurrent), 2, iterations);
+            final Map<String, Long> readWrite = Stress.run(new ReadWrite(concurrent), 2, iterations);
+
+            report.row()
+                    .put("container", name)
+                    .put("firstReads", outcomes(firstReads))
+                    .put("writeWrite", outcomes(writeWrite))
+                    .put("readWrite", outcomes(readWrite));
+            System.out.println(name + ": first reads " + firstReads + ", write/write " + writeWrite
+                    + ", read/write " + readWrite);
+
+            if (concurrent) {
+                final Map<String, Long> ok = Collections.singletonMap("OK", (long) iterations);
+                assertEquals(ok, firstReads);
+                assertEquals(ok, writeWrite);
+                assertEquals(ok, readWrite);
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    /**
+     * 4 threads each read a different key of a Bundle just restored from a Parcel.
+     */
+    static final class FirstReads implements Stress.Test<FirstReads.State> {
+
+        static final class State {
+
+            final Target target;
+            final int[] read = new int[4];
+
+            State(Target target) {
+                this.target = target;
+            }
+
+        }
+
+        private final boolean concurrent;
+        private final byte[] parcelled;
+
+        FirstReads(boolean concurrent) {
+            this.concurrent = concurrent;
+            final Bundle org = new Bundle();
+            for (int i = 0; i < 64; i++) {
+                org.putInt("key" + i, i);
+            }
+            this.parcelled = ScalabilityBenchmark.marshall(org);
+        }
+
+        @Override
+        public State newState() {
+            final Parcel parcel = Parcel.obtain();
+            try {
+                parcel.unmarshall(parcelled, 0, parcelled.length);
+                parcel.setDataPosition(0);
+                final Bundle restored = parcel.readBundle(getClass().getClassLoader());
+                return new State(concurrent ? concurrent(new ConcurrentBundle(restored)) : plain(restored));
+            } finally {
+                parcel.recycle();
+            }
+        }
+
+        @Override
+        public void actor(State state, int actor) {
+            state.read[actor] = state.target.getInt("key" + (actor * 17), -1);
+        }
+
+        @Override
+        public String arbiter(State state) {
+            for (int actor = 0; actor < state.read.length; actor++) {
+                if (state.read[actor] != actor * 17) {
+                    return "WRONG_VALUE";
+                }
+            }
+            return "OK";
+        }
+
+    }
+
+    /**
+     * 2 threads each put {@link #WRITES} keys of their own into the same container.
+     */
+    static final class WriteWrite implements Stress.Test<Target> {
+
+        private final boolean concurrent;
+
+        WriteWrite(boolean concurrent) {
+            this.concurrent = concurrent;
+        }
+
+        @Override
+        public Target newState() {
+            return concurrent ? concurrent(new ConcurrentBundle()) : plain(new Bundle());
+        }
+
+        @Override
+        public void actor(Target state, int actor) {
+            for (int i = 0; i < WRITES; i++) {
+                state.putInt(actor + "." + i, i);
+            }
+        }
+
+        @Override
+        public String arbiter(Target state) {
+            if (state.size() != 2 * WRITES) {
+                return "LOST_WRITE";
+            }
+            for (int actor = 0; actor < 2; actor++) {
+                for (int i = 0; i < WRITES; i++) {
+                    if (state.getInt(actor + "." + i, -1) != i) {
+                        return "WRONG_VALUE";
+                    }
+                }
+            }
+            return "OK";
+        }
+
+    }
+
+    /**
+     * One thread reads a key that is always there while another puts {@link #WRITES} new keys.
+     */
+    static final class ReadWrite implements Stress.Test<ReadWrite.State> {
+
+        static final class State {
+
+            final Target target;
+            volatile boolean missed;
+
+            State(Target target) {
+                this.target = target;
+            }
+
+        }
+
+        private final boolean concurrent;
+
+        ReadWrite(boolean concurrent) {
+            this.concurrent = concurrent;
+        }
+
+        @Override
+        public State newState() {
+            final State ret = new State(concurrent ? concurrent(new ConcurrentBundle()) : plain(new Bundle()));
+            ret.target.putInt("stable", 42);
+            return ret;
+        }
+
+        @Override
+        public void actor(State state, int actor) {
+            if (actor == 0) {
+                for (int i = 0; i < WRITES; i++) {
+                    state.target.putInt("key" + i, i);
+                }
+            } else {
+                for (int i = 0; i < WRITES * 4; i++) {
+                    if (state.target.getInt("stable", -1) != 42) {
+                        state.missed = true;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String arbiter(State state) {
+            return state.missed ? "MISSED_READ" : "OK";
+        }
+
+    }
+
+    static JsonReport.Row outcomes(Map<String, Long> outcomes) {
+        final JsonReport.Row ret = new JsonReport.Row();
+        for (Map.Entry<String, Long> entry : outcomes.entrySet()) {
+            ret.put(entry.getKey(), entry.getValue());
+        }
+        return ret;
+    }
+
+    @Test
+    public void scaling() throws Exception {
+        final long measureMillis = BenchmarkSettings.measureMillis();
+        final JsonReport report = new JsonReport("concurrentBundle")
+                .meta("keys", KEYS)
+                .meta("processors", Runtime.getRuntime().availableProcessors())
+                .meta("measureMillis", measureMillis);
+
+        for (int readPercent : new int[] {100, 90, 50}) {
+            for (String container : new String[] {"ConcurrentBundle", "lockedBundle"}) {
+                double single = 0;
+                for (int threads : BenchmarkSettings.sizes("concurrentThreads", "1,2,4,8,16,32,64")) {
+                    final Target target;
+                    if (container.equals("ConcurrentBundle")) {
+                        target = concurrent(new ConcurrentBundle());
+                    } else {
+                        target = locked(new Bundle());
+                    }
+                    for (int i = 0; i < KEYS; i++) {
+                        target.putInt(KEY_NAMES[i], i);
+                    }
+
+                    // short unmeasured run first, so the JIT has compiled the loop
+                    mix(target, threads, readPercent, Math.min(measureMillis, 100));
+                    final double opsPerSecond = mix(target, threads, readPercent, measureMillis);
+                    if (single == 0) {
+                        single = opsPerSecond / threads;
+                    }
+
+                    report.row()
+                            .put("container", container)
+                            .put("readPercent", readPercent)
+                            .put("threads", threads)
+                            .put("opsPerSecond", opsPerSecond)
+                            .put("speedup", opsPerSecond / single);
+                    System.out.println(String.format("%s %d%% reads, %d threads: %,.0f ops/s",
+                            container, readPercent, threads, opsPerSecond));
+                }
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    /**
+     * @return operations per second, all threads together.
+     */
+    static double mix(final Target target, int threads, final int readPercent, long millis) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong ops = new AtomicLong();
+        final AtomicBoolean stop = new AtomicBoolean();
+
+        for (int t = 0; t < threads; t++) {
+            final int seed = t * 0x9E3779B9 + 1;
+            new Thread() {
+                @Override
+                public void run() {
+                    int random = seed;
+                    long count = 0;
+                    int read = 0;
+                    try {
+                        start.await();
+                        while (!stop.get()) {
+                            for (int i = 0; i < 256; i++) {
+                                random ^= random << 13;
+                                random ^= random >>> 17;
+                                random ^= random << 5;
+                                final String key = KEY_NAMES[(random >>> 8) & (KEYS - 1)];
+                                if ((random >>> 1) % 100 < readPercent) {
+                                    read += target.getInt(key, 0);
+                                } else {
+                                    target.putInt(key, read);
+                                }
+                            }
+                            count += 256;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        sink = read;
+                        ops.addAndGet(count);
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        final long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(millis);
+        stop.set(true);
+        final long elapsed = System.nanoTime() - begin;
+        done.await(1, TimeUnit.MINUTES);
+        return ops.get() / (elapsed / 1e9);
+    }
+
+}
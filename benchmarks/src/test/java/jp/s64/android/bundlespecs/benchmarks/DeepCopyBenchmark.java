@@ -0,0 +1,63 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import jp.s64.android.bundlespecs.tests.BundleShape;
+
+/**
+ * {@code Bundle#deepCopy()} latency and allocated bytes for every {@link BundleShape}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class DeepCopyBenchmark {
+
+    @Test
+    public void deepCopy() throws Exception {
+        final Bench bench = new Bench();
+        final JsonReport report = new JsonReport("deepCopy");
+
+        for (BundleShape shape : BundleShape.values()) {
+            for (int size : BenchmarkSettings.sizes()) {
+                final Bundle org = shape.create(size);
+
+                final Bench.Result result = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return org.deepCopy();
+                    }
+                });
+
+                result.into(report.row()
+                        .put("shape", shape.name())
+                        .put("method", shape.method())
+                        .put("size", size)
+                );
+                System.out.println(shape + "[" + size + "]: " + result);
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+}
@@ -0,0 +1,91 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import jp.s64.android.bundlespecs.tests.BundleEquality;
+import jp.s64.android.bundlespecs.tests.BundleShape;
+import jp.s64.android.bundlespecs.tests.DeepCopyCache;
+
+/**
+ * What a {@link DeepCopyCache} hit costs ({@code hash64} + structural {@code equals}) against
+ * the {@code deepCopy()} it saves, for every {@link BundleShape}. The cache pays off where
+ * {@code cacheHit} is below {@code deepCopy}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class DeepCopyCacheBenchmark {
+
+    @Test
+    public void hashVersusCopy() throws Exception {
+        final Bench bench = new Bench();
+        final JsonReport report = new JsonReport("deepCopyCache");
+
+        for (BundleShape shape : BundleShape.values()) {
+            for (int size : BenchmarkSettings.sizes("cacheSizes", "1,10,100,1000,10000")) {
+                final Bundle org = shape.create(size);
+                final Bundle equal = shape.create(size);
+                final DeepCopyCache cache = new DeepCopyCache(16);
+                cache.get(org);
+
+                final Bench.Result deepCopy = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return org.deepCopy();
+                    }
+                });
+                final Bench.Result hash = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return BundleEquality.hash64(org);
+                    }
+                });
+                final Bench.Result equals = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return BundleEquality.equals(org, equal);
+                    }
+                });
+                final Bench.Result hit = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return cache.get(equal);
+                    }
+                });
+
+                report.row()
+                        .put("shape", shape.name())
+                        .put("method", shape.method())
+                        .put("size", size)
+                        .put("deepCopy", deepCopy.into(new JsonReport.Row()))
+                        .put("hash64", hash.into(new JsonReport.Row()))
+                        .put("equals", equals.into(new JsonReport.Row()))
+                        .put("cacheHit", hit.into(new JsonReport.Row()));
+                System.out.println(shape + "[" + size + "]: deepCopy " + deepCopy + ", cacheHit " + hit);
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+}
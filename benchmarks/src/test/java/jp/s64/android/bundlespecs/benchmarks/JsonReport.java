@@ -0,0 +1,161 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Build;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes {@code {"benchmark": ..., "sdk": ..., "results": [{...}, ...]}} to
+ * {@code build/reports/benchmarks/<name>.json}.
+ */
+final class JsonReport {
+
+    static final class Row {
+
+        private final Map<String, Object> values = new LinkedHashMap<>();
+
+        Row put(String name, Object value) {
+            values.put(name, value);
+            return this;
+        }
+
+    }
+
+    private final String name;
+    private final Map<String, Object> meta = new LinkedHashMap<>();
+    private final List<Row> rows = new ArrayList<>();
+
+    JsonReport(String name) {
+        this.name = name;
+        meta.put("benchmark", name);
+        meta.put("sdk", Build.VERSION.SDK_INT);
+        meta.put("warmupMillis", BenchmarkSettings.warmupMillis());
+        meta.put("measureMillis", BenchmarkSettings.measureMillis());
+    }
+
+    JsonReport meta(String name, Object value) {
+        meta.put(name, value);
+        return this;
+    }
+
+    Row row() {
+        final Row ret = new Row();
+        rows.add(ret);
+        return ret;
+    }
+
+    File write() throws IOException {
+        final StringBuilder json = new StringBuilder();
+        {
+            json.append("{\n");
+            for (Map.Entry<String, Object> entry : meta.entrySet()) {
+                json.append("  ");
+                appendString(json, entry.getKey());
+                json.append(": ");
+                appendValue(json, entry.getValue());
+                json.append(",\n");
+            }
+            json.append("  \"results\": [\n");
+            for (int i = 0; i < rows.size(); i++) {
+                json.append("    ");
+                appendObject(json, rows.get(i).values);
+                json.append(i + 1 < rows.size() ? ",\n" : "\n");
+            }
+            json.append("  ]\n}\n");
+        }
+
+        final File file = BenchmarkSettings.output(name);
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(json.toString());
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    private static void appendObject(StringBuilder json, Map<String, Object> values) {
+        json.append('{');
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (!first) {
+                json.append(", ");
+            }
+            first = false;
+            appendString(json, entry.getKey());
+            json.append(": ");
+            appendValue(json, entry.getValue());
+        }
+        json.append('}');
+    }
+
+    private static void appendValue(StringBuilder json, Object value) {
+        if (value == null) {
+            json.append("null");
+        } else if (value instanceof Double || value instanceof Float) {
+            final double number = ((Number) value).doubleValue();
+            if (Double.isNaN(number) || Double.isInfinite(number)) {
+                json.append("null");
+            } else {
+                json.append(String.format(Locale.US, "%.3f", number));
+            }
+        } else if (value instanceof Number || value instanceof Boolean) {
+            json.append(value);
+        } else if (value instanceof Row) {
+            appendObject(json, ((Row) value).values);
+        } else {
+            appendString(json, value.toString());
+        }
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format(Locale.US, "\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+}
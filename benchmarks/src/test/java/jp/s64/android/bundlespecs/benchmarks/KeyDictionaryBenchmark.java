@@ -0,0 +1,141 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import jp.s64.android.bundlespecs.tests.BundleGenerator;
+import jp.s64.android.bundlespecs.tests.BundleSizeEstimator;
+import jp.s64.android.bundlespecs.tests.KeyDictionaryCodec;
+
+/**
+ * {@link KeyDictionaryCodec} against {@code Parcel#writeBundle}: bytes, encode and decode time for
+ * a list of records sharing the same keys (the repeated-key case) and for a
+ * {@link BundleGenerator} tree, whose keys are all distinct but for the child links.
+ *
+ * <p>Values without a tag (Parcelables, Serializables) are embedded as {@code Parcel#marshall()}
+ * bytes, which under Robolectric are far larger than on a device, so {@code encodedBytes} of the
+ * generated payload is pessimistic.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class KeyDictionaryBenchmark {
+
+    @Test
+    public void keyDictionary() throws Exception {
+        final Bench bench = new Bench();
+        final long seed = BenchmarkSettings.seed();
+        final JsonReport report = new JsonReport("keyDictionary")
+                .meta("seed", seed);
+
+        for (int size : BenchmarkSettings.sizes("dictionarySizes", "10,100,1000")) {
+            run(bench, report, "records", size, records(size, seed));
+            run(bench, report, "generated", size, new BundleGenerator(seed).keys(size).depth(2).generate());
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    private static void run(Bench bench, JsonReport report, String payload, int size, final Bundle org) throws Exception {
+        final byte[] parcelled = ScalabilityBenchmark.marshall(org);
+        final byte[] encoded = KeyDictionaryCodec.encode(org);
+
+        final Bench.Result marshal = bench.run(new Bench.Body() {
+            @Override
+            public Object run() {
+                return ScalabilityBenchmark.marshall(org);
+            }
+        });
+        final Bench.Result unmarshal = bench.run(new Bench.Body() {
+            @Override
+            public Object run() {
+                final Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.unmarshall(parcelled, 0, parcelled.length);
+                    parcel.setDataPosition(0);
+                    final Bundle ret = parcel.readBundle(getClass().getClassLoader());
+                    ret.size(); // unparcel
+                    return ret;
+                } finally {
+                    parcel.recycle();
+                }
+            }
+        });
+        final Bench.Result encode = bench.run(new Bench.Body() {
+            @Override
+            public Object run() {
+                return KeyDictionaryCodec.encode(org);
+            }
+        });
+        final Bench.Result decode = bench.run(new Bench.Body() {
+            @Override
+            public Object run() {
+                return KeyDictionaryCodec.decode(encoded, getClass().getClassLoader());
+            }
+        });
+
+        final int parcelBytes = new BundleSizeEstimator().sizeOf(org);
+        report.row()
+                .put("payload", payload)
+                .put("size", size)
+                .put("parcelBytes", parcelBytes)
+                .put("encodedBytes", encoded.length)
+                .put("marshal", marshal.into(new JsonReport.Row()))
+                .put("unmarshal", unmarshal.into(new JsonReport.Row()))
+                .put("encode", encode.into(new JsonReport.Row()))
+                .put("decode", decode.into(new JsonReport.Row()));
+        System.out.println(payload + "[" + size + "]: " + parcelBytes + " B parcel, " + encoded.length
+                + " B encoded; marshal " + marshal + ", unmarshal " + unmarshal
+                + ", encode " + encode + ", decode " + decode);
+    }
+
+    /**
+     * @return {@code size} Bundles with the same eight keys, in an {@code ArrayList} under "records".
+     */
+    static Bundle records(int size, long seed) {
+        final Random random = new Random(seed);
+        final ArrayList<Parcelable> records = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            final Bundle record = new Bundle();
+            {
+                record.putLong("recordId", random.nextLong());
+                record.putInt("position", i);
+                record.putInt("unreadCount", random.nextInt(100));
+                record.putString("displayTitle", "title" + random.nextInt(1000));
+                record.putBoolean("isSelected", random.nextBoolean());
+                record.putBooleanArray("featureFlags", new boolean[] {random.nextBoolean(), true, false, true});
+                record.putDouble("score", random.nextDouble());
+                record.putIntArray("tagIds", new int[] {random.nextInt(50), random.nextInt(50)});
+            }
+            records.add(record);
+        }
+        final Bundle ret = new Bundle();
+        ret.putParcelableArrayList("records", records);
+        return ret;
+    }
+
+}
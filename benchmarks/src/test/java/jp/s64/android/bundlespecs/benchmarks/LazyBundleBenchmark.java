@@ -0,0 +1,105 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import jp.s64.android.bundlespecs.tests.BundleShape;
+import jp.s64.android.bundlespecs.tests.BundleSizeEstimator;
+import jp.s64.android.bundlespecs.tests.LazyBundle;
+
+/**
+ * Time-to-first-get of a restored state: {@code Parcel#readBundle} followed by one {@code getInt},
+ * against {@link LazyBundle#fromByteArray(byte[])} followed by the same read.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class LazyBundleBenchmark {
+
+    @Test
+    public void timeToFirstGet() throws Exception {
+        final Bench bench = new Bench();
+        final JsonReport report = new JsonReport("lazyBundle");
+
+        for (int size : BenchmarkSettings.sizes("lazySizes", "10,100,1000,10000")) {
+            final Bundle org = new Bundle();
+            {
+                org.putInt("first", 1);
+                BundleShape.PARCELABLE_ARRAY_LIST.fill(org, size);
+                org.putAll(BundleShape.SPARSE_PARCELABLE_ARRAY.create(size));
+                org.putAll(BundleShape.STRING_ARRAY_LIST.create(size));
+            }
+
+            final byte[] parcelled;
+            {
+                final Parcel parcel = Parcel.obtain();
+                org.writeToParcel(parcel, 0);
+                parcelled = parcel.marshall();
+                parcel.recycle();
+            }
+            final byte[] lazy = LazyBundle.from(org).toByteArray();
+
+            final Bench.Result bundleFirstGet = bench.run(new Bench.Body() {
+                @Override
+                public Object run() {
+                    final Parcel parcel = Parcel.obtain();
+                    try {
+                        parcel.unmarshall(parcelled, 0, parcelled.length);
+                        parcel.setDataPosition(0);
+                        return Bundle.CREATOR.createFromParcel(parcel).getInt("first");
+                    } finally {
+                        parcel.recycle();
+                    }
+                }
+            });
+            final Bench.Result lazyFirstGet = bench.run(new Bench.Body() {
+                @Override
+                public Object run() {
+                    return LazyBundle.fromByteArray(lazy).getInt("first");
+                }
+            });
+            final Bench.Result lazyAllGets = bench.run(new Bench.Body() {
+                @Override
+                public Object run() {
+                    final LazyBundle ret = LazyBundle.fromByteArray(lazy);
+                    for (String key : ret.keySet()) {
+                        ret.get(key);
+                    }
+                    return ret;
+                }
+            });
+
+            report.row()
+                    .put("size", size)
+                    .put("parcelBytes", new BundleSizeEstimator().sizeOf(org))
+                    .put("lazyBytes", lazy.length)
+                    .put("bundleFirstGet", bundleFirstGet.into(new JsonReport.Row()))
+                    .put("lazyFirstGet", lazyFirstGet.into(new JsonReport.Row()))
+                    .put("lazyAllGets", lazyAllGets.into(new JsonReport.Row()));
+            System.out.println("[" + size + "]: bundle " + bundleFirstGet + ", lazy " + lazyFirstGet + ", lazy all " + lazyAllGets);
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+}
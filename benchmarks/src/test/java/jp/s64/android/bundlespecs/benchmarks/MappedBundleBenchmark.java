@@ -0,0 +1,196 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.Random;
+
+import jp.s64.android.bundlespecs.tests.MappedBundle;
+
+/**
+ * Cold-start restore of a large saved state from a file: reading the file and
+ * {@code Parcel#unmarshall} + {@code readBundle}, against {@link MappedBundle#open(File)}.
+ * The state is {@code int[]} tiles of 256 KB plus 1000 small Strings, and each side is
+ * timed to the first {@code getInt}, to decoding every tile, and (mapped only) to touching
+ * every tile through its zero-copy view.
+ *
+ * <p>"Cold" here means a fresh read of the file, not an empty page cache, which a JVM can't
+ * arrange; on a device the mapped side additionally pays page faults for the pages it touches
+ * and nothing for the rest.</p>
+ *
+ * <p>Robolectric's Parcel is superlinear in its size (tens of seconds at 64 MB), so the Parcel
+ * side only runs up to {@code mappedParcelMaxMb}; the mapped side runs at every size.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class MappedBundleBenchmark {
+
+    private static final int TILE_INTS = 64 * 1024;
+    private static final int STRINGS = 1000;
+
+    @Test
+    public void coldRead() throws Exception {
+        final Bench bench = new Bench();
+        final long seed = BenchmarkSettings.seed();
+        final JsonReport report = new JsonReport("mappedBundle")
+                .meta("seed", seed)
+                .meta("tileBytes", TILE_INTS * 4)
+                .meta("strings", STRINGS);
+
+        final int parcelMaxMb = BenchmarkSettings.sizes("mappedParcelMaxMb", "16")[0];
+        report.meta("parcelMaxMb", parcelMaxMb);
+
+        for (int megabytes : BenchmarkSettings.sizes("mappedSizesMb", "1,16,256")) {
+            final boolean parcel = megabytes <= parcelMaxMb;
+            final int tiles = megabytes * 1024 * 1024 / (TILE_INTS * 4);
+            final File parcelFile = File.createTempFile("parcel", ".bin");
+            final File mappedFile = File.createTempFile("mapped", ".bin");
+            try {
+                {
+                    final Bundle org = state(tiles, new Random(seed));
+                    if (parcel) {
+                        final FileOutputStream out = new FileOutputStream(parcelFile);
+                        try {
+                            out.write(ScalabilityBenchmark.marshall(org));
+                        } finally {
+                            out.close();
+                        }
+                    }
+                    MappedBundle.write(mappedFile, org);
+                }
+
+                final Bench.Result parcelFirstGet = !parcel ? null : bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() throws Exception {
+                        return readParcel(parcelFile).getInt("first");
+                    }
+                });
+                final Bench.Result mappedFirstGet = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() throws Exception {
+                        return MappedBundle.open(mappedFile).getInt("first");
+                    }
+                });
+                final Bench.Result parcelAll = !parcel ? null : bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() throws Exception {
+                        final Bundle bundle = readParcel(parcelFile);
+                        int ret = 0;
+                        for (int i = 0; i < tiles; i++) {
+                            ret += bundle.getIntArray("tile" + i).length;
+                        }
+                        return ret;
+                    }
+                });
+                final Bench.Result mappedAll = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() throws Exception {
+                        final MappedBundle bundle = MappedBundle.open(mappedFile);
+                        int ret = 0;
+                        for (int i = 0; i < tiles; i++) {
+                            ret += bundle.getIntArray("tile" + i).length;
+                        }
+                        return ret;
+                    }
+                });
+                final Bench.Result mappedViews = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() throws Exception {
+                        final MappedBundle bundle = MappedBundle.open(mappedFile);
+                        int ret = 0;
+                        for (int i = 0; i < tiles; i++) {
+                            ret += bundle.getIntBuffer("tile" + i).get(TILE_INTS - 1);
+                        }
+                        return ret;
+                    }
+                });
+
+                final JsonReport.Row row = report.row()
+                        .put("megabytes", megabytes)
+                        .put("mappedFileBytes", mappedFile.length())
+                        .put("mappedFirstGet", mappedFirstGet.into(new JsonReport.Row()))
+                        .put("mappedAll", mappedAll.into(new JsonReport.Row()))
+                        .put("mappedViews", mappedViews.into(new JsonReport.Row()));
+                if (parcel) {
+                    row
+                            .put("parcelFileBytes", parcelFile.length())
+                            .put("parcelFirstGet", parcelFirstGet.into(new JsonReport.Row()))
+                            .put("parcelAll", parcelAll.into(new JsonReport.Row()));
+                }
+                System.out.println(megabytes + " MB: first get " + parcelFirstGet + " / " + mappedFirstGet
+                        + ", all " + parcelAll + " / " + mappedAll + ", views " + mappedViews);
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                parcelFile.delete();
+                //noinspection ResultOfMethodCallIgnored
+                mappedFile.delete();
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    static Bundle state(int tiles, Random random) {
+        final Bundle ret = new Bundle();
+        ret.putInt("first", 1);
+        for (int i = 0; i < STRINGS; i++) {
+            ret.putString("string" + i, Long.toHexString(random.nextLong()));
+        }
+        for (int i = 0; i < tiles; i++) {
+            final int[] tile = new int[TILE_INTS];
+            for (int j = 0; j < tile.length; j++) {
+                tile[j] = random.nextInt();
+            }
+            ret.putIntArray("tile" + i, tile);
+        }
+        return ret;
+    }
+
+    static Bundle readParcel(File file) throws Exception {
+        final byte[] bytes;
+        {
+            final RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                bytes = new byte[(int) in.length()];
+                in.readFully(bytes);
+            } finally {
+                in.close();
+            }
+        }
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(bytes, 0, bytes.length);
+            parcel.setDataPosition(0);
+            final Bundle ret = parcel.readBundle(MappedBundleBenchmark.class.getClassLoader());
+            ret.size(); // unparcel
+            return ret;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.ForkJoinPool;
+
+import jp.s64.android.bundlespecs.tests.BundleGenerator;
+import jp.s64.android.bundlespecs.tests.ParallelDeepCopy;
+
+/**
+ * Scaling of {@link ParallelDeepCopy} from 1 to N workers against {@code Bundle#deepCopy()}, on
+ * {@link BundleGenerator} trees ({@code -Pbenchmark.parallelKeys}, {@code -Pbenchmark.parallelism}).
+ * Speedups can't exceed {@code availableProcessors}, recorded in the report.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class ParallelDeepCopyBenchmark {
+
+    private static final int DEPTH = 3;
+    private static final int FANOUT = 4;
+
+    @Test
+    public void scaling() throws Exception {
+        final Bench bench = new Bench();
+        final long seed = BenchmarkSettings.seed();
+        final int threshold = BenchmarkSettings.sizes("parallelThreshold", String.valueOf(ParallelDeepCopy.DEFAULT_THRESHOLD))[0];
+        final JsonReport report = new JsonReport("parallelDeepCopy")
+                .meta("seed", seed)
+                .meta("depth", DEPTH)
+                .meta("fanout", FANOUT)
+                .meta("threshold", threshold)
+                .meta("availableProcessors", Runtime.getRuntime().availableProcessors());
+
+        for (int keys : BenchmarkSettings.sizes("parallelKeys", "10000,100000")) {
+            final Bundle org = new BundleGenerator(seed).keys(keys).depth(DEPTH).fanout(FANOUT).generate();
+
+            final Bench.Result deepCopy = bench.run(new Bench.Body() {
+                @Override
+                public Object run() {
+                    return org.deepCopy();
+                }
+            });
+            report.row()
+                    .put("keys", keys)
+                    .put("parallelism", 0)
+                    .put("deepCopy", deepCopy.into(new JsonReport.Row()));
+            System.out.println(keys + " keys: deepCopy " + deepCopy);
+
+            for (int parallelism : BenchmarkSettings.sizes("parallelism", "1,2,4,8")) {
+                final ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    final ParallelDeepCopy copy = new ParallelDeepCopy(pool, threshold);
+                    final Bench.Result parallel = bench.run(new Bench.Body() {
+                        @Override
+                        public Object run() {
+                            return copy.deepCopy(org);
+                        }
+                    });
+                    report.row()
+                            .put("keys", keys)
+                            .put("parallelism", parallelism)
+                            .put("parallel", parallel.into(new JsonReport.Row()));
+                    System.out.println(keys + " keys, " + parallelism + " workers: " + parallel);
+                } finally {
+                    pool.shutdown();
+                }
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+}
@@ -0,0 +1,138 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import jp.s64.android.bundlespecs.tests.ParcelableListCodec;
+
+/**
+ * A list of one Parcelable class through a Bundle: {@code putParcelableArrayList}, which names the
+ * class of every element, against {@link ParcelableListCodec.Packed}, which names it once.
+ * Bytes are {@code Parcel#dataSize()}; time is a Parcel round trip to the list.
+ *
+ * <p>Robolectric's Parcel slows down with its length, so 100,000 elements (many minutes per op)
+ * are left to {@code -Pbenchmark.parcelableListSizes=10,100,1000,10000,100000}.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class ParcelableListBenchmark {
+
+    private static final String KEY = "list";
+
+    @Test
+    public void homogeneousLists() throws Exception {
+        final Bench bench = new Bench();
+        final JsonReport report = new JsonReport("parcelableList");
+
+        for (String element : BenchmarkSettings.names("parcelableListElements", "Bundle,Intent")) {
+            for (int length : BenchmarkSettings.sizes("parcelableListSizes", "10,100,1000,10000")) {
+                final ArrayList<Parcelable> list = new ArrayList<>(length);
+                for (int i = 0; i < length; i++) {
+                    list.add(element(element, i));
+                }
+                final Bundle platform = new Bundle();
+                {
+                    platform.putParcelableArrayList(KEY, list);
+                }
+                final Bundle packed = new Bundle();
+                {
+                    packed.putParcelable(KEY, ParcelableListCodec.Packed.of(list));
+                }
+
+                final Bench.Result platformRoundTrip = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return roundTrip(platform).getParcelableArrayList(KEY);
+                    }
+                });
+                final Bench.Result packedRoundTrip = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return ((ParcelableListCodec.Packed<?>) roundTrip(packed).getParcelable(KEY)).list();
+                    }
+                });
+
+                final int platformBytes = dataSize(platform);
+                final int packedBytes = dataSize(packed);
+                report.row()
+                        .put("element", element)
+                        .put("length", length)
+                        .put("platformBytes", platformBytes)
+                        .put("packedBytes", packedBytes)
+                        .put("platform", platformRoundTrip.into(new JsonReport.Row()))
+                        .put("packed", packedRoundTrip.into(new JsonReport.Row()));
+                System.out.println(element + " x " + length + ": " + platformBytes + " -> " + packedBytes
+                        + " bytes, platform " + platformRoundTrip + ", packed " + packedRoundTrip);
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    private static Parcelable element(String element, int index) {
+        switch (element) {
+            case "Bundle": {
+                final Bundle ret = new Bundle();
+                ret.putInt("id", index);
+                ret.putString("name", "item" + index);
+                return ret;
+            }
+            case "Intent": {
+                final Intent ret = new Intent("jp.s64.android.bundlespecs.ITEM");
+                ret.putExtra("id", index);
+                return ret;
+            }
+            default:
+                throw new IllegalArgumentException(element);
+        }
+    }
+
+    private static Bundle roundTrip(Bundle bundle) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            parcel.setDataPosition(0);
+            final Bundle ret = parcel.readBundle(ParcelableListBenchmark.class.getClassLoader());
+            ret.size();
+            return ret;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static int dataSize(Bundle bundle) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.nio.ByteBuffer;
+
+import jp.s64.android.bundlespecs.tests.BundleGenerator;
+import jp.s64.android.bundlespecs.tests.BundleShape;
+import jp.s64.android.bundlespecs.tests.DirectBufferPool;
+import jp.s64.android.bundlespecs.tests.PooledMarshaller;
+
+/**
+ * Allocated bytes and time of marshalling the same kind of Bundle over and over:
+ * {@code Parcel.obtain()}/{@code marshall()}/{@code recycle()} against {@link PooledMarshaller}
+ * with a pooled buffer and with one the caller keeps, and back
+ * ({@code -Pbenchmark.pooledKeys}, {@code -Pbenchmark.seed}).
+ *
+ * <p>{@code mixed} payloads hold every shape; Parcelables and Serializables in them still go
+ * through a Parcel each. {@code primitives} payloads hold only shapes with a byte encoding of
+ * their own.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class PooledMarshalBenchmark {
+
+    private static final BundleShape[] PRIMITIVES = {
+            BundleShape.BOOLEAN, BundleShape.BYTE, BundleShape.CHAR, BundleShape.SHORT,
+            BundleShape.FLOAT, BundleShape.DOUBLE, BundleShape.LONG, BundleShape.CHAR_SEQUENCE,
+            BundleShape.BOOLEAN_ARRAY, BundleShape.BYTE_ARRAY, BundleShape.CHAR_ARRAY, BundleShape.SHORT_ARRAY,
+            BundleShape.INT_ARRAY, BundleShape.LONG_ARRAY, BundleShape.FLOAT_ARRAY, BundleShape.DOUBLE_ARRAY,
+            BundleShape.INTEGER_ARRAY_LIST, BundleShape.STRING_ARRAY_LIST, BundleShape.BUNDLE,
+    };
+
+    @Test
+    public void allocations() throws Exception {
+        final Bench bench = new Bench();
+        final long seed = BenchmarkSettings.seed();
+        final JsonReport report = new JsonReport("pooledMarshal")
+                .meta("seed", seed);
+
+        for (String payload : new String[] {"mixed", "primitives"}) {
+            for (int keys : BenchmarkSettings.sizes("pooledKeys", "10,100,1000")) {
+                final BundleGenerator generator = new BundleGenerator(seed).keys(keys);
+                if (payload.equals("primitives")) {
+                    generator.only(PRIMITIVES);
+                }
+                final Bundle org = generator.generate();
+                final DirectBufferPool pool = new DirectBufferPool(2, 16 * 1024 * 1024);
+                final PooledMarshaller marshaller = new PooledMarshaller(pool);
+
+                final byte[] parcelled;
+                {
+                    final Parcel parcel = Parcel.obtain();
+                    parcel.writeBundle(org);
+                    parcelled = parcel.marshall();
+                    parcel.recycle();
+                }
+                final ByteBuffer own = marshaller.marshal(org);
+                final int pooledBytes = own.limit();
+
+                final Bench.Result parcelMarshal = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        final Parcel parcel = Parcel.obtain();
+                        try {
+                            parcel.writeBundle(org);
+                            return parcel.marshall();
+                        } finally {
+                            parcel.recycle();
+                        }
+                    }
+                });
+                final Bench.Result pooledMarshal = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        final ByteBuffer ret = marshaller.marshal(org);
+                        marshaller.release(ret);
+                        return ret;
+                    }
+                });
+                final Bench.Result callerBuffer = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        own.clear();
+                        return marshaller.marshal(org, own);
+                    }
+                });
+                final Bench.Result parcelUnmarshal = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        final Parcel parcel = Parcel.obtain();
+                        try {
+                            parcel.unmarshall(parcelled, 0, parcelled.length);
+                            parcel.setDataPosition(0);
+                            final Bundle ret = parcel.readBundle(PooledMarshalBenchmark.class.getClassLoader());
+                            ret.size();
+                            return ret;
+                        } finally {
+                            parcel.recycle();
+                        }
+                    }
+                });
+                own.clear();
+                marshaller.marshal(org, own);
+                own.flip();
+                final Bench.Result pooledUnmarshal = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        own.position(0);
+                        return marshaller.unmarshal(own);
+                    }
+                });
+
+                report.row()
+                        .put("payload", payload)
+                        .put("keys", keys)
+                        .put("parcelBytes", parcelled.length)
+                        .put("pooledBytes", pooledBytes)
+                        .put("poolHits", pool.hitCount())
+                        .put("poolMisses", pool.missCount())
+                        .put("parcelMarshal", parcelMarshal.into(new JsonReport.Row()))
+                        .put("pooledMarshal", pooledMarshal.into(new JsonReport.Row()))
+                        .put("callerBuffer", callerBuffer.into(new JsonReport.Row()))
+                        .put("parcelUnmarshal", parcelUnmarshal.into(new JsonReport.Row()))
+                        .put("pooledUnmarshal", pooledUnmarshal.into(new JsonReport.Row()));
+                System.out.println(payload + ", " + keys + " keys: marshall " + parcelMarshal + ", pooled " + pooledMarshal
+                        + ", caller buffer " + callerBuffer + "; unmarshall " + parcelUnmarshal + ", pooled " + pooledUnmarshal);
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+}
@@ -0,0 +1,114 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import jp.s64.android.bundlespecs.tests.PrimitiveBundle;
+
+/**
+ * Builds and reads back {@code size} int, long and double fields plus an
+ * {@code ArrayList<Integer>} of {@code size} elements: a fresh Bundle against a reused
+ * {@link PrimitiveBundle}. The latter should report 0 allocated bytes per op.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class PrimitiveBundleBenchmark {
+
+    @Test
+    public void putAndGet() throws Exception {
+        final Bench bench = new Bench();
+        final JsonReport report = new JsonReport("primitiveBundle")
+                .meta("allocationsSupported", Allocations.isSupported());
+
+        for (final int size : BenchmarkSettings.sizes("primitiveSizes", "1,10,100,1000")) {
+            final String[] names = new String[size * 3];
+            final PrimitiveBundle.Keys keys = new PrimitiveBundle.Keys();
+            final int[] ids = new int[names.length];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = "key" + i;
+                ids[i] = keys.id(names[i]);
+            }
+            final int listId = keys.id("list");
+            final PrimitiveBundle primitive = new PrimitiveBundle(keys);
+
+            final Bench.Result bundle = bench.run(new Bench.Body() {
+                long sink;
+
+                @Override
+                public Object run() {
+                    final Bundle ret = new Bundle();
+                    final ArrayList<Integer> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        ret.putInt(names[i * 3], i + 1000);
+                        ret.putLong(names[i * 3 + 1], i + 1000L);
+                        ret.putDouble(names[i * 3 + 2], i + 0.5d);
+                        list.add(i + 1000);
+                    }
+                    ret.putIntegerArrayList("list", list);
+                    for (int i = 0; i < size; i++) {
+                        sink += ret.getInt(names[i * 3]) + ret.getLong(names[i * 3 + 1])
+                                + (long) ret.getDouble(names[i * 3 + 2]);
+                    }
+                    return ret;
+                }
+            });
+            final Bench.Result reused = bench.run(new Bench.Body() {
+                long sink;
+
+                @Override
+                public Object run() {
+                    primitive.clear();
+                    for (int i = 0; i < size; i++) {
+                        primitive.putInt(ids[i * 3], i + 1000);
+                        primitive.putLong(ids[i * 3 + 1], i + 1000L);
+                        primitive.putDouble(ids[i * 3 + 2], i + 0.5d);
+                        primitive.addInt(listId, i + 1000);
+                    }
+                    for (int i = 0; i < size; i++) {
+                        sink += primitive.getInt(ids[i * 3], 0) + primitive.getLong(ids[i * 3 + 1], 0L)
+                                + (long) primitive.getDouble(ids[i * 3 + 2], 0d);
+                    }
+                    return primitive;
+                }
+            });
+            final Bench.Result toBundle = bench.run(new Bench.Body() {
+                @Override
+                public Object run() {
+                    return primitive.toBundle();
+                }
+            });
+
+            report.row()
+                    .put("size", size)
+                    .put("bundle", bundle.into(new JsonReport.Row()))
+                    .put("primitiveBundle", reused.into(new JsonReport.Row()))
+                    .put("toBundle", toBundle.into(new JsonReport.Row()));
+            System.out.println("size " + size + ": Bundle " + bundle + ", PrimitiveBundle " + reused);
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+}
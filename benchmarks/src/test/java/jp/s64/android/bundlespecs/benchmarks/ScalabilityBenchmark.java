@@ -0,0 +1,152 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import jp.s64.android.bundlespecs.tests.BundleGenerator;
+
+/**
+ * How {@code deepCopy()}, marshal/unmarshal, {@code keySet()} and {@code get} scale with the
+ * number of keys and the nesting depth of a {@link BundleGenerator} payload. One flat row per
+ * (keys, depth), ready to be plotted; the point where ns/op stops growing linearly with
+ * {@code keys} is where {@code ArrayMap}'s binary search and array shifting take over.
+ *
+ * <p>Robolectric's {@code Parcel} grows worse than linearly, so marshal/unmarshal are only
+ * measured up to {@code -Pbenchmark.scaleParcelKeys} keys.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class ScalabilityBenchmark {
+
+    private static final int LOOKUPS = 1024;
+
+    @Test
+    public void scalability() throws Exception {
+        final Bench bench = new Bench();
+        final long seed = BenchmarkSettings.seed();
+        final int parcelKeys = BenchmarkSettings.sizes("scaleParcelKeys", "1000")[0];
+        final JsonReport report = new JsonReport("scalability")
+                .meta("seed", seed)
+                .meta("parcelKeys", parcelKeys);
+
+        for (int depth : BenchmarkSettings.sizes("scaleDepths", "0,1,4,16")) {
+            for (int keys : BenchmarkSettings.sizes("scaleKeys", "1,10,100,1000,10000,100000,1000000")) {
+                final Bundle org = new BundleGenerator(seed).keys(keys).depth(depth).generate();
+                final String[] lookups = lookups(org, seed);
+
+                final Bench.Result deepCopy = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return org.deepCopy();
+                    }
+                });
+                final JsonReport.Row row = report.row()
+                        .put("keys", keys)
+                        .put("depth", depth);
+                if (keys <= parcelKeys) {
+                    final byte[] parcelled = marshall(org);
+                    final Bench.Result marshal = bench.run(new Bench.Body() {
+                        @Override
+                        public Object run() {
+                            return marshall(org);
+                        }
+                    });
+                    final Bench.Result unmarshal = bench.run(new Bench.Body() {
+                        @Override
+                        public Object run() {
+                            final Parcel parcel = Parcel.obtain();
+                            try {
+                                parcel.unmarshall(parcelled, 0, parcelled.length);
+                                parcel.setDataPosition(0);
+                                final Bundle ret = parcel.readBundle(getClass().getClassLoader());
+                                ret.size(); // unparcel
+                                return ret;
+                            } finally {
+                                parcel.recycle();
+                            }
+                        }
+                    });
+                    row.put("parcelledBytes", parcelled.length)
+                            .put("marshal", marshal.into(new JsonReport.Row()))
+                            .put("unmarshal", unmarshal.into(new JsonReport.Row()));
+                }
+                final Bench.Result keySet = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return org.keySet().size();
+                    }
+                });
+                final Bench.Result get = bench.run(new Bench.Body() {
+                    int index;
+
+                    @Override
+                    public Object run() {
+                        return org.get(lookups[index++ & (LOOKUPS - 1)]);
+                    }
+                });
+
+                row.put("deepCopy", deepCopy.into(new JsonReport.Row()))
+                        .put("keySet", keySet.into(new JsonReport.Row()))
+                        .put("get", get.into(new JsonReport.Row()));
+                System.out.println("keys " + keys + ", depth " + depth + ": deepCopy " + deepCopy
+                        + ", keySet " + keySet + ", get " + get);
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    static byte[] marshall(Bundle bundle) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * @return {@link #LOOKUPS} keys picked at random from the root, or misses if it has no leaves.
+     */
+    private static String[] lookups(Bundle bundle, long seed) {
+        final List<String> leaves = new ArrayList<>();
+        for (String key : bundle.keySet()) {
+            if (!key.startsWith(BundleGenerator.CHILD_KEY)) {
+                leaves.add(key);
+            }
+        }
+        final Random random = new Random(seed);
+        final String[] ret = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            ret[i] = leaves.isEmpty() ? "missing" : leaves.get(random.nextInt(leaves.size()));
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,292 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import jp.s64.android.bundlespecs.processor.BundleSchemaProcessor;
+import jp.s64.android.bundlespecs.tests.BundleSchema;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Code generated from a {@link BundleSchema} against the {@code putX}/{@code getX} one would write
+ * by hand, with {@code new Bundle()} and with {@code new Bundle(size)}, for schemas of 10 to 500
+ * int, long, double, boolean, String, {@code int[]} and {@code ArrayList<String>} entries under
+ * random keys.
+ *
+ * <p>The schemas are written and run through {@link BundleSchemaProcessor} when the benchmark
+ * starts, so the field counts are a property rather than thousands of checked-in lines. Both sides
+ * are then called through {@link Codec}; nothing is reflective inside the measured loops.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class SchemaBenchmark {
+
+    /**
+     * What the compiled schema classes implement.
+     */
+    public interface Codec {
+
+        Bundle write();
+
+        /**
+         * @return a checksum of every entry.
+         */
+        long read(Bundle bundle);
+
+    }
+
+    private static final String PACKAGE = "schema";
+
+    private static final String[] TYPES = {
+            "int", "long", "double", "boolean", "String", "int[]", "java.util.ArrayList<String>"};
+    private static final String[] SUFFIXES = {
+            "Int", "Long", "Double", "Boolean", "String", "IntArray", "StringArrayList"};
+
+    @Test
+    public void writeAndRead() throws Exception {
+        final Bench bench = new Bench();
+        final JsonReport report = new JsonReport("schema")
+                .meta("seed", BenchmarkSettings.seed())
+                .meta("types", Arrays.toString(TYPES));
+        final Random random = new Random(BenchmarkSettings.seed());
+
+        for (int fields : BenchmarkSettings.sizes("schemaFields", "10,50,100,500")) {
+            final String className = "Fields" + fields;
+            final ClassLoader loader = compile(className, source(className, fields, random));
+            final Codec generated = codec(loader, className + "$Generated");
+            final Codec handwritten = codec(loader, className + "$Handwritten");
+            final Codec handwrittenSized = codec(loader, className + "$HandwrittenSized");
+
+            assertEquals(handwritten.read(generated.write()), generated.read(handwritten.write()));
+
+            final Bundle bundle = handwritten.write();
+            final Bench.Result writeGenerated = bench.run(write(generated));
+            final Bench.Result writeHandwritten = bench.run(write(handwritten));
+            final Bench.Result writeHandwrittenSized = bench.run(write(handwrittenSized));
+            final Bench.Result readGenerated = bench.run(read(generated, bundle));
+            final Bench.Result readHandwritten = bench.run(read(handwritten, bundle));
+
+            report.row()
+                    .put("fields", fields)
+                    .put("write", new JsonReport.Row()
+                            .put("generated", writeGenerated.into(new JsonReport.Row()))
+                            .put("handwritten", writeHandwritten.into(new JsonReport.Row()))
+                            .put("handwrittenSized", writeHandwrittenSized.into(new JsonReport.Row())))
+                    .put("read", new JsonReport.Row()
+                            .put("generated", readGenerated.into(new JsonReport.Row()))
+                            .put("handwritten", readHandwritten.into(new JsonReport.Row())));
+            System.out.println(fields + " fields: write generated " + writeGenerated
+                    + ", handwritten " + writeHandwritten + ", sized " + writeHandwrittenSized
+                    + "; read generated " + readGenerated + ", handwritten " + readHandwritten);
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    private static Bench.Body write(final Codec codec) {
+        return new Bench.Body() {
+            @Override
+            public Object run() {
+                return codec.write();
+            }
+        };
+    }
+
+    private static Bench.Body read(final Codec codec, final Bundle bundle) {
+        return new Bench.Body() {
+            long sink;
+
+            @Override
+            public Object run() {
+                sink += codec.read(bundle);
+                return bundle;
+            }
+        };
+    }
+
+    /**
+     * A schema of {@code fields} getters {@code f0()}… cycling through {@link #TYPES}, a constant
+     * implementation of it, and the three {@link Codec}s.
+     */
+    static String source(String className, int fields, Random random) {
+        final String[] keys = new String[fields];
+        final Set<String> used = new HashSet<>();
+        for (int i = 0; i < fields; i++) {
+            do {
+                keys[i] = "key_" + Integer.toString(random.nextInt() >>> 1, 36);
+            } while (!used.add(keys[i]));
+        }
+
+        final StringBuilder schema = new StringBuilder();
+        final StringBuilder value = new StringBuilder();
+        final StringBuilder put = new StringBuilder();
+        final StringBuilder getGenerated = new StringBuilder();
+        final StringBuilder getHandwritten = new StringBuilder();
+        for (int i = 0; i < fields; i++) {
+            final int type = i % TYPES.length;
+            schema.append("@BundleSchema.Key(\"").append(keys[i]).append("\") ")
+                    .append(TYPES[type]).append(" f").append(i).append("();\n");
+            value.append("public ").append(TYPES[type]).append(" f").append(i).append("() { return ")
+                    .append(constant(type, i)).append("; }\n");
+            put.append("ret.put").append(SUFFIXES[type]).append("(\"").append(keys[i])
+                    .append("\", value.f").append(i).append("());\n");
+            getGenerated.append("ret += ").append(checksum(type, "read.f" + i + "()")).append(";\n");
+            getHandwritten.append("ret += ").append(checksum(type,
+                    "bundle.get" + SUFFIXES[type] + "(\"" + keys[i] + "\")")).append(";\n");
+        }
+
+        return "package " + PACKAGE + ";\n"
+                + "import android.os.Bundle;\n"
+                + "import " + BundleSchema.class.getName() + ";\n"
+                + "import " + Codec.class.getCanonicalName() + ";\n"
+                + "public final class " + className + " {\n"
+                + "static final int[] INTS = {1, 2, 3, 4};\n"
+                + "static final java.util.ArrayList<String> STRINGS = new java.util.ArrayList<>(java.util.Arrays.asList(\"a\", \"b\", \"c\"));\n"
+                + "@BundleSchema public interface Schema {\n" + schema + "}\n"
+                + "static final class Value implements Schema {\n" + value + "}\n"
+                + "public static final class Generated implements Codec {\n"
+                + "private final Value value = new Value();\n"
+                + "public Bundle write() { return " + className + "_SchemaBundles.write(value); }\n"
+                + "public long read(Bundle bundle) {\n"
+                + "final Schema read = " + className + "_SchemaBundles.read(bundle);\n"
+                + "long ret = 0;\n" + getGenerated + "return ret;\n}\n"
+                + "}\n"
+                + "public static class Handwritten implements Codec {\n"
+                + "private final Value value = new Value();\n"
+                + "public Bundle write() { return put(new Bundle()); }\n"
+                + "Bundle put(Bundle ret) {\n" + put + "return ret;\n}\n"
+                + "public long read(Bundle bundle) {\n"
+                + "long ret = 0;\n" + getHandwritten + "return ret;\n}\n"
+                + "}\n"
+                + "public static final class HandwrittenSized extends Handwritten {\n"
+                + "public Bundle write() { return put(new Bundle(" + fields + ")); }\n"
+                + "}\n"
+                + "}\n";
+    }
+
+    private static String constant(int type, int i) {
+        switch (type) {
+            case 0:
+                return String.valueOf(i);
+            case 1:
+                return i + "L";
+            case 2:
+                return i + ".5d";
+            case 3:
+                return "true";
+            case 4:
+                return "\"v" + i + "\"";
+            case 5:
+                return "INTS";
+            default:
+                return "STRINGS";
+        }
+    }
+
+    private static String checksum(int type, String expression) {
+        switch (type) {
+            case 0:
+            case 1:
+                return expression;
+            case 2:
+                return "(long) " + expression;
+            case 3:
+                return "(" + expression + " ? 1 : 0)";
+            case 4:
+                return expression + ".length()";
+            case 5:
+                return expression + ".length";
+            default:
+                return expression + ".size()";
+        }
+    }
+
+    /**
+     * Compiles {@code source} with {@link BundleSchemaProcessor} against the jars and directories
+     * {@code Bundle}, {@code BundleSchema} and {@link Codec} were loaded from.
+     */
+    private static ClassLoader compile(String className, final String source) throws Exception {
+        final File dir = Files.createTempDirectory("schemaBenchmark").toFile();
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("SchemaBenchmark needs a JDK");
+        }
+        final StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null);
+        try {
+            files.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singleton(dir));
+            files.setLocation(StandardLocation.SOURCE_OUTPUT, Collections.singleton(dir));
+            files.setLocation(StandardLocation.CLASS_PATH, Arrays.asList(
+                    rootOf(Bundle.class), rootOf(BundleSchema.class), rootOf(Codec.class)));
+
+            final JavaFileObject file = new SimpleJavaFileObject(
+                    URI.create("string:///" + PACKAGE + "/" + className + ".java"), JavaFileObject.Kind.SOURCE) {
+                @Override
+                public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                    return source;
+                }
+            };
+            final JavaCompiler.CompilationTask task = compiler.getTask(
+                    null, files, null, Collections.singletonList("-nowarn"), null, Collections.singleton(file));
+            task.setProcessors(Collections.singletonList(new BundleSchemaProcessor()));
+            if (!task.call()) {
+                throw new IllegalStateException("Could not compile " + className);
+            }
+        } finally {
+            files.close();
+        }
+        return new URLClassLoader(new URL[] {dir.toURI().toURL()}, SchemaBenchmark.class.getClassLoader());
+    }
+
+    private static Codec codec(ClassLoader loader, String className) throws Exception {
+        return (Codec) loader.loadClass(PACKAGE + "." + className).newInstance();
+    }
+
+    private static File rootOf(Class<?> type) throws Exception {
+        final String resource = type.getName().replace('.', '/') + ".class";
+        final String url = SchemaBenchmark.class.getClassLoader().getResource(resource).toString();
+        if (url.startsWith("jar:")) {
+            return new File(new URI(url.substring("jar:".length(), url.indexOf("!/"))));
+        }
+        return new File(new URI(url.substring(0, url.length() - resource.length())));
+    }
+
+}
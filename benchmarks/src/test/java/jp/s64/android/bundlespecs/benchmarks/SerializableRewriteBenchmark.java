@@ -0,0 +1,160 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import jp.s64.android.bundlespecs.tests.BundleSizeEstimator;
+import jp.s64.android.bundlespecs.tests.SerializableRewriter;
+
+/**
+ * One value per payload that {@code Parcel#writeValue} would serialize: a {@code char}, an enum,
+ * {@code short[]}, {@code char[]}, {@code float[]} and a {@code HashSet<String>} of every length.
+ * Bytes are {@link BundleSizeEstimator}'s, with and without {@link SerializableRewriter#rewrite};
+ * time is a Parcel round trip to the first get, against rewrite + round trip + restore.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class SerializableRewriteBenchmark {
+
+    private static final String KEY = "value";
+
+    private static final String[] SCALARS = {"char", "enum"};
+    private static final String[] ARRAYS = {"short[]", "char[]", "float[]", "HashSet<String>"};
+
+    @Test
+    public void rewrite() throws Exception {
+        final Bench bench = new Bench();
+        final long seed = BenchmarkSettings.seed();
+        final JsonReport report = new JsonReport("serializableRewrite")
+                .meta("seed", seed);
+        final SerializableRewriter rewriter = new SerializableRewriter()
+                .register("TimeUnit", TimeUnit.class, SerializableRewriter.enumAdapter(TimeUnit.class));
+
+        for (String payload : SCALARS) {
+            run(bench, report, rewriter, payload, 1, payload(payload, 1, new Random(seed)));
+        }
+        for (int length : BenchmarkSettings.sizes("rewriteSizes", "1,100,10000")) {
+            for (String payload : ARRAYS) {
+                run(bench, report, rewriter, payload, length, payload(payload, length, new Random(seed)));
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    private static void run(Bench bench, JsonReport report, final SerializableRewriter rewriter,
+                            String payload, int length, final Bundle org) throws Exception {
+        final Bundle rewritten = rewriter.rewrite(org);
+        final BundleSizeEstimator estimator = new BundleSizeEstimator();
+        final int serializableBytes = estimator.sizeOf(org);
+        final int rewrittenBytes = estimator.sizeOf(rewritten);
+
+        final Bench.Result serializable = bench.run(new Bench.Body() {
+            @Override
+            public Object run() {
+                return roundTrip(org).get(KEY);
+            }
+        });
+        final Bench.Result rewriteRoundTrip = bench.run(new Bench.Body() {
+            @Override
+            public Object run() {
+                return rewriter.restore(roundTrip(rewriter.rewrite(org))).get(KEY);
+            }
+        });
+
+        report.row()
+                .put("payload", payload)
+                .put("length", length)
+                .put("serializableBytes", serializableBytes)
+                .put("rewrittenBytes", rewrittenBytes)
+                .put("savedBytes", serializableBytes - rewrittenBytes)
+                .put("serializable", serializable.into(new JsonReport.Row()))
+                .put("rewritten", rewriteRoundTrip.into(new JsonReport.Row()));
+        System.out.println(payload + " " + length + ": " + serializableBytes + " -> " + rewrittenBytes
+                + " bytes, serializable " + serializable + ", rewritten " + rewriteRoundTrip);
+    }
+
+    static Bundle roundTrip(Bundle bundle) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            parcel.setDataPosition(0);
+            final Bundle ret = parcel.readBundle(SerializableRewriteBenchmark.class.getClassLoader());
+            ret.size();
+            return ret;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    static Bundle payload(String payload, int length, Random random) {
+        final Bundle ret = new Bundle();
+        switch (payload) {
+            case "char":
+                ret.putChar(KEY, (char) ('a' + random.nextInt(26)));
+                break;
+            case "enum":
+                ret.putSerializable(KEY, TimeUnit.values()[random.nextInt(TimeUnit.values().length)]);
+                break;
+            case "short[]": {
+                final short[] value = new short[length];
+                for (int i = 0; i < length; i++) {
+                    value[i] = (short) random.nextInt();
+                }
+                ret.putShortArray(KEY, value);
+                break;
+            }
+            case "char[]": {
+                final char[] value = new char[length];
+                for (int i = 0; i < length; i++) {
+                    value[i] = (char) ('a' + random.nextInt(26));
+                }
+                ret.putCharArray(KEY, value);
+                break;
+            }
+            case "float[]": {
+                final float[] value = new float[length];
+                for (int i = 0; i < length; i++) {
+                    value[i] = random.nextFloat();
+                }
+                ret.putFloatArray(KEY, value);
+                break;
+            }
+            default: {
+                final HashSet<String> value = new HashSet<>();
+                for (int i = 0; i < length; i++) {
+                    value.add("tag" + i);
+                }
+                ret.putSerializable(KEY, value);
+                break;
+            }
+        }
+        return ret;
+    }
+
+}
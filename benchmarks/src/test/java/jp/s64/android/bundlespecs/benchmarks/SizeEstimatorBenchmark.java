@@ -0,0 +1,80 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import jp.s64.android.bundlespecs.tests.BundleShape;
+import jp.s64.android.bundlespecs.tests.BundleSizeEstimator;
+
+/**
+ * {@link BundleSizeEstimator} against marshalling into a Parcel just to read {@code dataSize()}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class SizeEstimatorBenchmark {
+
+    @Test
+    public void estimateVersusMarshal() throws Exception {
+        final Bench bench = new Bench();
+        final JsonReport report = new JsonReport("sizeEstimator");
+        final BundleSizeEstimator estimator = new BundleSizeEstimator();
+        final BundleSizeEstimator.Breakdown breakdown = new BundleSizeEstimator.Breakdown();
+
+        for (BundleShape shape : BundleShape.values()) {
+            for (int size : BenchmarkSettings.sizes()) {
+                final Bundle org = shape.create(size);
+
+                final Bench.Result estimate = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return estimator.sizeOf(org, breakdown);
+                    }
+                });
+                final Bench.Result marshal = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        final Parcel parcel = Parcel.obtain();
+                        try {
+                            org.writeToParcel(parcel, 0);
+                            return parcel.dataSize();
+                        } finally {
+                            parcel.recycle();
+                        }
+                    }
+                });
+
+                report.row()
+                        .put("shape", shape.name())
+                        .put("size", size)
+                        .put("estimatedBytes", estimator.sizeOf(org))
+                        .put("estimate", estimate.into(new JsonReport.Row()))
+                        .put("marshal", marshal.into(new JsonReport.Row()));
+                System.out.println(shape + "[" + size + "]: estimate " + estimate + ", marshal " + marshal);
+            }
+        }
+
+        System.out.println("Wrote " + report.meta("fallbacks", estimator.fallbackCount()).write());
+    }
+
+}
@@ -0,0 +1,123 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import jp.s64.android.bundlespecs.tests.BundleSnapshot;
+
+/**
+ * "Copy, then tweak one deeply nested key": {@code deepCopy()} + {@code putInt} against
+ * {@link BundleSnapshot#withPath(String[], Object)}. Allocated bytes per op are what each
+ * retained version costs.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class SnapshotBenchmark {
+
+    private static final int FANOUT = 4;
+    private static final int LEAF_KEYS = 16;
+
+    @Test
+    public void copyThenTweak() throws Exception {
+        final Bench bench = new Bench();
+        final JsonReport report = new JsonReport("snapshot")
+                .meta("fanout", FANOUT)
+                .meta("leafKeys", LEAF_KEYS);
+
+        for (int depth : BenchmarkSettings.sizes("snapshotDepths", "1,2,3,4,5,6")) {
+            final Bundle org = tree(depth);
+            final String[] path = path(depth);
+            final BundleSnapshot snapshot = BundleSnapshot.of(org);
+
+            final Bench.Result deepCopy = bench.run(new Bench.Body() {
+                int counter;
+
+                @Override
+                public Object run() {
+                    final Bundle ret = org.deepCopy();
+                    Bundle leaf = ret;
+                    for (int i = 0; i < path.length - 1; i++) {
+                        leaf = leaf.getBundle(path[i]);
+                    }
+                    leaf.putInt(path[path.length - 1], counter++);
+                    return ret;
+                }
+            });
+            final Bench.Result withPath = bench.run(new Bench.Body() {
+                int counter;
+
+                @Override
+                public Object run() {
+                    return snapshot.withPath(path, counter++);
+                }
+            });
+            final Bench.Result importTree = bench.run(new Bench.Body() {
+                @Override
+                public Object run() {
+                    return BundleSnapshot.of(org);
+                }
+            });
+            final Bench.Result toBundle = bench.run(new Bench.Body() {
+                @Override
+                public Object run() {
+                    return snapshot.toBundle();
+                }
+            });
+
+            report.row()
+                    .put("depth", depth)
+                    .put("deepCopyAndPut", deepCopy.into(new JsonReport.Row()))
+                    .put("withPath", withPath.into(new JsonReport.Row()))
+                    .put("of", importTree.into(new JsonReport.Row()))
+                    .put("toBundle", toBundle.into(new JsonReport.Row()));
+            System.out.println("depth " + depth + ": deepCopy " + deepCopy + ", withPath " + withPath);
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    static Bundle tree(int depth) {
+        final Bundle ret = new Bundle();
+        if (depth == 0) {
+            for (int i = 0; i < LEAF_KEYS; i++) {
+                ret.putInt("leaf" + i, i);
+            }
+            ret.putIntArray("array", new int[64]);
+        } else {
+            for (int i = 0; i < FANOUT; i++) {
+                ret.putBundle("child" + i, tree(depth - 1));
+            }
+        }
+        return ret;
+    }
+
+    static String[] path(int depth) {
+        final String[] ret = new String[depth + 1];
+        for (int i = 0; i < depth; i++) {
+            ret[i] = "child" + (i % FANOUT);
+        }
+        ret[depth] = "leaf0";
+        return ret;
+    }
+
+}
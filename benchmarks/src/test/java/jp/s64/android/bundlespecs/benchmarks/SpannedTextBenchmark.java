@@ -0,0 +1,156 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import jp.s64.android.bundlespecs.tests.SpanFlattener;
+
+/**
+ * {@code putCharSequence} and {@code putCharSequenceArray} of {@code Spanned} text as text length
+ * and span count grow: Parcel bytes and a Bundle round trip, as is and after {@link SpanFlattener}.
+ *
+ * <p>Each text is cut into {@code spans / 2} runs, each with a bold {@link StyleSpan} (adjacent
+ * runs merge into one) and a {@link ForegroundColorSpan} cycling through four colors (they don't).</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class SpannedTextBenchmark {
+
+    private static final String KEY = "text";
+    private static final int ARRAY_LENGTH = 16;
+    private static final int[] COLORS = {0xFFFF0000, 0xFF00FF00, 0xFF0000FF, 0xFF000000};
+
+    @Test
+    public void spannedText() throws Exception {
+        final Bench bench = new Bench();
+        final JsonReport report = new JsonReport("spannedText")
+                .meta("arrayLength", ARRAY_LENGTH);
+        final SpanFlattener flattener = new SpanFlattener();
+
+        for (int length : BenchmarkSettings.sizes("spannedLengths", "100,1000,10000")) {
+            for (int spans : BenchmarkSettings.sizes("spannedSpans", "0,10,100,1000")) {
+                if (spans > length * 2) {
+                    continue;
+                }
+                for (String kind : new String[] {"CharSequence", "CharSequence[]"}) {
+                    final Bundle org = payload(kind, length, spans);
+                    final SpanFlattener.Report saved = new SpanFlattener.Report();
+                    final Bundle flattened = flattener.flatten(org, saved);
+
+                    final Bench.Result asIs = bench.run(new Bench.Body() {
+                        @Override
+                        public Object run() {
+                            return roundTrip(org).get(KEY);
+                        }
+                    });
+                    final Bench.Result flattenAndRoundTrip = bench.run(new Bench.Body() {
+                        @Override
+                        public Object run() {
+                            return roundTrip(flattener.flatten(org)).get(KEY);
+                        }
+                    });
+
+                    final int bytes = dataSize(org);
+                    final int flattenedBytes = dataSize(flattened);
+                    report.row()
+                            .put("kind", kind)
+                            .put("length", length)
+                            .put("spans", spans)
+                            .put("bytes", bytes)
+                            .put("flattenedBytes", flattenedBytes)
+                            .put("spansAfter", saved.spansAfter())
+                            .put("reportedBytesSaved", saved.bytesSaved())
+                            .put("asIs", asIs.into(new JsonReport.Row()))
+                            .put("flattened", flattenAndRoundTrip.into(new JsonReport.Row()));
+                    System.out.println(kind + " " + length + " chars, " + spans + " spans: " + bytes + " -> "
+                            + flattenedBytes + " bytes, as is " + asIs + ", flattened " + flattenAndRoundTrip);
+                }
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    private static Bundle payload(String kind, int length, int spans) {
+        final Bundle ret = new Bundle();
+        if ("CharSequence".equals(kind)) {
+            ret.putCharSequence(KEY, text(length, spans));
+        } else {
+            final CharSequence[] array = new CharSequence[ARRAY_LENGTH];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = text(length / ARRAY_LENGTH, spans / ARRAY_LENGTH);
+            }
+            ret.putCharSequenceArray(KEY, array);
+        }
+        return ret;
+    }
+
+    private static CharSequence text(int length, int spans) {
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + i % 26));
+        }
+        if (spans == 0) {
+            return builder.toString();
+        }
+        final SpannableString ret = new SpannableString(builder);
+        final int runs = Math.max(1, spans / 2);
+        for (int i = 0; i < runs; i++) {
+            final int start = (int) ((long) length * i / runs);
+            final int end = (int) ((long) length * (i + 1) / runs);
+            ret.setSpan(new StyleSpan(Typeface.BOLD), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            ret.setSpan(new ForegroundColorSpan(COLORS[i % COLORS.length]), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return ret;
+    }
+
+    private static Bundle roundTrip(Bundle bundle) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            parcel.setDataPosition(0);
+            final Bundle ret = parcel.readBundle(SpannedTextBenchmark.class.getClassLoader());
+            ret.size();
+            return ret;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static int dataSize(Bundle bundle) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+}
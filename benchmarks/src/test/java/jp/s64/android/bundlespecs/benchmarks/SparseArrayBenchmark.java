@@ -0,0 +1,207 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.SparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+import jp.s64.android.bundlespecs.tests.ParcelableSparseArray;
+
+/**
+ * Per-position view state, {@code SparseArray<Parcelable>} against {@link ParcelableSparseArray}:
+ * bytes allocated to build it, and a Bundle round trip through a Parcel. Keys are contiguous
+ * ({@code dense}) or have random gaps ({@code sparse}).
+ *
+ * <p>Robolectric's Parcel slows down with its length, so the round trip only runs up to
+ * {@code -Pbenchmark.sparseParcelMax} entries; memory is measured at every size.</p>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 27)
+public class SparseArrayBenchmark {
+
+    private static final String KEY = "state";
+
+    @Test
+    public void sparseArrayVersusParcelableSparseArray() throws Exception {
+        final Bench bench = new Bench();
+        final long seed = BenchmarkSettings.seed();
+        final int parcelMax = BenchmarkSettings.sizes("sparseParcelMax", "10000")[0];
+        final JsonReport report = new JsonReport("sparseArray")
+                .meta("seed", seed)
+                .meta("parcelMax", parcelMax);
+
+        for (String layout : new String[] {"dense", "sparse"}) {
+            for (int size : BenchmarkSettings.sizes("sparseSizes", "1000,10000,100000,1000000")) {
+                final int[] keys = keys(layout, size, new Random(seed));
+                final ItemState[] values = new ItemState[size];
+                for (int i = 0; i < size; i++) {
+                    values[i] = new ItemState(i, i % 3 == 0);
+                }
+
+                final Bench.Result buildPlatform = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return platform(keys, values);
+                    }
+                });
+                final Bench.Result buildPacked = bench.run(new Bench.Body() {
+                    @Override
+                    public Object run() {
+                        return packed(keys, values);
+                    }
+                });
+
+                final JsonReport.Row row = report.row()
+                        .put("layout", layout)
+                        .put("size", size)
+                        .put("platformBuild", buildPlatform.into(new JsonReport.Row()))
+                        .put("packedBuild", buildPacked.into(new JsonReport.Row()));
+                String line = layout + " " + size + ": build " + buildPlatform + " -> " + buildPacked;
+
+                if (size <= parcelMax) {
+                    final Bundle platform = new Bundle();
+                    platform.putSparseParcelableArray(KEY, platform(keys, values));
+                    final Bundle packed = new Bundle();
+                    packed.putParcelable(KEY, packed(keys, values));
+
+                    final Bench.Result platformRoundTrip = bench.run(new Bench.Body() {
+                        @Override
+                        public Object run() {
+                            return roundTrip(platform).getSparseParcelableArray(KEY);
+                        }
+                    });
+                    final Bench.Result packedRoundTrip = bench.run(new Bench.Body() {
+                        @Override
+                        public Object run() {
+                            return roundTrip(packed).getParcelable(KEY);
+                        }
+                    });
+                    final int platformBytes = dataSize(platform);
+                    final int packedBytes = dataSize(packed);
+                    row.put("platformBytes", platformBytes)
+                            .put("packedBytes", packedBytes)
+                            .put("platformRoundTrip", platformRoundTrip.into(new JsonReport.Row()))
+                            .put("packedRoundTrip", packedRoundTrip.into(new JsonReport.Row()));
+                    line += ", " + platformBytes + " -> " + packedBytes + " bytes, round trip "
+                            + platformRoundTrip + " -> " + packedRoundTrip;
+                }
+                System.out.println(line);
+            }
+        }
+
+        System.out.println("Wrote " + report.write());
+    }
+
+    private static SparseArray<ItemState> platform(int[] keys, ItemState[] values) {
+        final SparseArray<ItemState> ret = new SparseArray<>();
+        for (int i = 0; i < keys.length; i++) {
+            ret.put(keys[i], values[i]);
+        }
+        return ret;
+    }
+
+    private static ParcelableSparseArray<ItemState> packed(int[] keys, ItemState[] values) {
+        final ParcelableSparseArray<ItemState> ret = new ParcelableSparseArray<>();
+        for (int i = 0; i < keys.length; i++) {
+            ret.put(keys[i], values[i]);
+        }
+        return ret;
+    }
+
+    private static int[] keys(String layout, int size, Random random) {
+        final int[] ret = new int[size];
+        int key = 0;
+        for (int i = 0; i < size; i++) {
+            ret[i] = key;
+            key += "dense".equals(layout) ? 1 : 1 + random.nextInt(8);
+        }
+        return ret;
+    }
+
+    private static Bundle roundTrip(Bundle bundle) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            parcel.setDataPosition(0);
+            final Bundle ret = parcel.readBundle(SparseArrayBenchmark.class.getClassLoader());
+            ret.size();
+            return ret;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static int dataSize(Bundle bundle) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * What a list item keeps across configuration changes.
+     */
+    public static final class ItemState implements Parcelable {
+
+        final int scrollY;
+        final boolean expanded;
+
+        ItemState(int scrollY, boolean expanded) {
+            this.scrollY = scrollY;
+            this.expanded = expanded;
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            dest.writeInt(scrollY);
+            dest.writeInt(expanded ? 1 : 0);
+        }
+
+        public static final Creator<ItemState> CREATOR = new Creator<ItemState>() {
+
+            @Override
+            public ItemState createFromParcel(Parcel source) {
+                return new ItemState(source.readInt(), source.readInt() != 0);
+            }
+
+            @Override
+            public ItemState[] newArray(int size) {
+                return new ItemState[size];
+            }
+
+        };
+
+    }
+
+}
@@ -0,0 +1,127 @@
+package jp.s64.android.bundlespecs.benchmarks;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * jcstress-style race harness: for every iteration a fresh state is handed to {@code actors}
+ * threads released together, and an arbiter classifies what they left behind. An actor
+ * throwing makes the outcome the exception's class name. On a single core, races only show
+ * up when the scheduler preempts an actor, so they are much rarer than on a device.
+ */
+final class Stress {
+
+    /**
+     * Busy-wait this long before yielding, so that actors on separate cores start together.
+     */
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 1 << 16 : 0;
+
+    interface Test<S> {
+
+        S newState() throws Exception;
+
+        void actor(S state, int actor) throws Exception;
+
+        /**
+         * @return the outcome, e.g. {@code "OK"}; called after every actor is done.
+         */
+        String arbiter(S state);
+
+    }
+
+    private Stress() {
+    }
+
+    /**
+     * @return iterations per outcome.
+     */
+    static <S> Map<String, Long> run(final Test<S> test, int actors, int iterations) throws Exception {
+        final Object[] state = new Object[1];
+        final Throwable[] thrown = new Throwable[actors];
+        final AtomicInteger epoch = new AtomicInteger();
+        final AtomicInteger pending = new AtomicInteger();
+        final Thread[] threads = new Thread[actors];
+
+        for (int a = 0; a < actors; a++) {
+            final int actor = a;
+            threads[a] = new Thread("stress-" + a) {
+                @Override
+                @SuppressWarnings("unchecked")
+                public void run() {
+                    int seen = 0;
+                    while (true) {
+                        int current;
+                        int spins = 0;
+                        while ((current = epoch.get()) == seen) {
+                            if (++spins > SPINS) {
+                                Thread.yield();
+                            }
+                        }
+                        if (current < 0) {
+                            return;
+                        }
+                        seen = current;
+                        try {
+                            test.actor((S) state[0], actor);
+                        } catch (Throwable e) {
+                            thrown[actor] = e;
+                        }
+                        pending.decrementAndGet();
+                    }
+                }
+            };
+            threads[a].start();
+        }
+
+        final Map<String, Long> ret = new TreeMap<>();
+        try {
+            for (int i = 0; i < iterations; i++) {
+                state[0] = test.newState();
+                pending.set(actors);
+                epoch.incrementAndGet(); // publishes state[0] and clears thrown
+                while (pending.get() > 0) {
+                    Thread.yield();
+                }
+
+                String outcome = null;
+                for (int a = 0; a < actors; a++) {
+                    if (thrown[a] != null && outcome == null) {
+                        outcome = thrown[a].getClass().getSimpleName();
+                    }
+                    thrown[a] = null;
+                }
+                @SuppressWarnings("unchecked")
+                final S finished = (S) state[0];
+                if (outcome == null) {
+                    outcome = test.arbiter(finished);
+                }
+                final Long count = ret.get(outcome);
+                ret.put(outcome, count != null ? count + 1 : 1);
+            }
+        } finally {
+            epoch.set(-1);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        }
+        return ret;
+    }
+
+}
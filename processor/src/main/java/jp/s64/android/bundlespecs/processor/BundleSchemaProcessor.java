@@ -0,0 +1,192 @@
+package jp.s64.android.bundlespecs.processor;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+/**
+ * Generates {@code <Name>Bundles} for every {@code @BundleSchema} interface: {@code KEY_*}
+ * constants, {@code write(value)} that puts each entry with its exact {@code putX} in ascending
+ * key hash order, a fluent {@code Writer} and a {@code Reader} that reads and type checks every
+ * entry once. Generated code uses no reflection.
+ */
+@SupportedAnnotationTypes(BundleSchemaProcessor.BUNDLE_SCHEMA)
+public final class BundleSchemaProcessor extends AbstractProcessor {
+
+    static final String BUNDLE_SCHEMA = "jp.s64.android.bundlespecs.tests.BundleSchema";
+    static final String KEY = BUNDLE_SCHEMA + ".Key";
+
+    /**
+     * Names the generated {@code Writer} declares itself.
+     */
+    private static final String[] RESERVED = {"toBundle"};
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                final List<SchemaField> fields = fieldsOf(element);
+                if (fields == null) {
+                    continue;
+                }
+                try {
+                    BundlesWriter.write(processingEnv, (TypeElement) element, fields);
+                } catch (IOException e) {
+                    error(element, "Could not write Bundles for " + element + ": " + e.getMessage());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the entries of {@code schema} in declaration order, or {@code null} after reporting
+     * why it can't be generated.
+     */
+    private List<SchemaField> fieldsOf(Element schema) {
+        if (schema.getKind() != ElementKind.INTERFACE) {
+            error(schema, "@BundleSchema must annotate an interface");
+            return null;
+        }
+        final TypeElement type = (TypeElement) schema;
+        if (!type.getTypeParameters().isEmpty()) {
+            error(schema, "@BundleSchema interfaces can't be generic");
+            return null;
+        }
+        for (Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if (e.getModifiers().contains(Modifier.PRIVATE)) {
+                error(schema, "@BundleSchema interfaces can't be private");
+                return null;
+            }
+        }
+
+        final Map<String, ExecutableElement> methods = new LinkedHashMap<>();
+        collectMethods(type, methods);
+
+        boolean valid = true;
+        final List<SchemaField> ret = new ArrayList<>(methods.size());
+        final Map<String, SchemaField> keys = new HashMap<>();
+        final Map<String, SchemaField> constants = new HashMap<>();
+        for (ExecutableElement method : methods.values()) {
+            final String name = method.getSimpleName().toString();
+            if (!method.getParameters().isEmpty()
+                    || !method.getTypeParameters().isEmpty()
+                    || method.getReturnType().getKind() == TypeKind.VOID) {
+                error(method, "@BundleSchema methods must be non-generic getters without parameters");
+                valid = false;
+                continue;
+            }
+            for (String reserved : RESERVED) {
+                if (reserved.equals(name)) {
+                    error(method, name + "() is reserved by the generated Writer");
+                    valid = false;
+                }
+            }
+
+            final String key = keyOf(method);
+            if (key.isEmpty()) {
+                error(method, "@BundleSchema.Key can't be empty");
+                valid = false;
+                continue;
+            }
+            final SchemaField field = SchemaField.of(
+                    method, key, processingEnv.getTypeUtils(), processingEnv.getElementUtils());
+            if (field == null) {
+                error(method, method.getReturnType() + " has no typed Bundle accessor");
+                valid = false;
+                continue;
+            }
+            if (keys.containsKey(key)) {
+                error(method, "Key \"" + key + "\" is already used by " + keys.get(key).method + "()");
+                valid = false;
+                continue;
+            }
+            if (constants.containsKey(field.constant)) {
+                error(method, field.constant + " is already used by " + constants.get(field.constant).method + "()");
+                valid = false;
+                continue;
+            }
+            keys.put(key, field);
+            constants.put(field.constant, field);
+            ret.add(field);
+        }
+        return valid ? ret : null;
+    }
+
+    /**
+     * Inherited getters first, so a sub-schema keeps the entries of its parent in front.
+     */
+    private void collectMethods(TypeElement type, Map<String, ExecutableElement> out) {
+        for (TypeMirror parent : type.getInterfaces()) {
+            collectMethods((TypeElement) ((DeclaredType) parent).asElement(), out);
+        }
+        for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            if (method.getModifiers().contains(Modifier.ABSTRACT)) {
+                out.put(method.getSimpleName().toString(), method);
+            }
+        }
+    }
+
+    private static String keyOf(ExecutableElement method) {
+        for (AnnotationMirror mirror : method.getAnnotationMirrors()) {
+            final TypeElement annotation = (TypeElement) mirror.getAnnotationType().asElement();
+            if (!annotation.getQualifiedName().contentEquals(KEY)) {
+                continue;
+            }
+            for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry
+                    : mirror.getElementValues().entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals("value")) {
+                    return (String) entry.getValue().getValue();
+                }
+            }
+        }
+        return method.getSimpleName().toString();
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+}
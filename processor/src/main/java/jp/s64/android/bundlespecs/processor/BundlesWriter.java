@@ -0,0 +1,297 @@
+package jp.s64.android.bundlespecs.processor;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+
+/**
+ * Source of {@code <Name>Bundles}. Types are spelled fully qualified except {@code Bundle}, so
+ * schemas never clash with an import.
+ */
+final class BundlesWriter {
+
+    private final StringBuilder out = new StringBuilder();
+    private final String className;
+    private int indent;
+
+    private BundlesWriter(String className) {
+        this.className = className;
+    }
+
+    static void write(ProcessingEnvironment env, TypeElement schema, List<SchemaField> fields) throws IOException {
+        final Elements elements = env.getElementUtils();
+        final String packageName = elements.getPackageOf(schema).getQualifiedName().toString();
+        final String className = className(schema);
+        final String source = new BundlesWriter(className)
+                .source(elements, packageName, schema.getQualifiedName().toString(), fields);
+
+        final String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        final Writer writer = env.getFiler().createSourceFile(qualifiedName, schema).openWriter();
+        try {
+            writer.write(source);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * {@code Outer.Inner} → {@code Outer_InnerBundles}.
+     */
+    static String className(TypeElement schema) {
+        String ret = schema.getSimpleName().toString();
+        for (Element e = schema.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+            ret = e.getSimpleName() + "_" + ret;
+        }
+        return ret + "Bundles";
+    }
+
+    /**
+     * The order {@code write} puts entries in: {@code ArrayMap} keeps its keys sorted by hash,
+     * so ascending hashes make every put an append instead of an insert that shifts the arrays.
+     */
+    static List<SchemaField> inPutOrder(List<SchemaField> fields) {
+        final List<SchemaField> ret = new ArrayList<>(fields);
+        Collections.sort(ret, new Comparator<SchemaField>() {
+            @Override
+            public int compare(SchemaField a, SchemaField b) {
+                final int ha = a.key.hashCode();
+                final int hb = b.key.hashCode();
+                return ha < hb ? -1 : (ha == hb ? 0 : 1);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Nested classes call the outer helpers qualified, as a getter of the same name would shadow them.
+     */
+    private String source(Elements elements, String packageName, String schema, List<SchemaField> fields) {
+        if (!packageName.isEmpty()) {
+            line("package " + packageName + ";");
+            line();
+        }
+        line("import android.os.Bundle;");
+        line();
+        line("/**");
+        line(" * Typed {@link Bundle} access for {@link " + schema + "}.");
+        line(" * Generated by {@code BundleSchemaProcessor}, do not edit.");
+        line(" */");
+        open("public final class " + className + " {");
+        line();
+        for (SchemaField field : fields) {
+            line("public static final String " + field.constant + " = " + elements.getConstantExpression(field.key) + ";");
+        }
+        line();
+        line("/**");
+        line(" * Number of entries {@link #write} puts.");
+        line(" */");
+        line("public static final int SIZE = " + fields.size() + ";");
+        line();
+        open("private " + className + "() {");
+        close("}");
+        line();
+        open("public static Writer writer() {");
+        line("return new Writer();");
+        close("}");
+        line();
+        writeMethod(schema, fields);
+        line();
+        line("/**");
+        line(" * Reads every entry once. A missing entry reads as {@code getX(key)} would answer it.");
+        line(" *");
+        line(" * @throws ClassCastException if an entry, or an element of a list, isn't of the declared type.");
+        line(" */");
+        open("public static Reader read(Bundle bundle) {");
+        line("return new Reader(bundle);");
+        close("}");
+        line();
+        open("private static ClassCastException mismatch(String key, String expected, Object actual) {");
+        line("return new ClassCastException(key + \" expected \" + expected + \" but was \" + actual.getClass().getName());");
+        close("}");
+        line();
+        writerClass(schema, fields);
+        line();
+        readerClass(schema, fields);
+        line();
+        close("}");
+        return out.toString();
+    }
+
+    private void writeMethod(String schema, List<SchemaField> fields) {
+        line("/**");
+        line(" * Puts every entry of {@code value} into a Bundle sized for them, in ascending key hash order.");
+        line(" */");
+        open("public static Bundle write(" + schema + " value) {");
+        line("final Bundle ret = new Bundle(SIZE);");
+        for (SchemaField field : inPutOrder(fields)) {
+            line("ret.put" + field.kind.suffix + "(" + field.constant + ", value." + field.method + "());");
+        }
+        line("return ret;");
+        close("}");
+    }
+
+    private void writerClass(String schema, List<SchemaField> fields) {
+        open("public static final class Writer implements " + schema + " {");
+        line();
+        for (SchemaField field : fields) {
+            line("private " + field.type + " " + field.method + ";");
+        }
+        line();
+        open("private Writer() {");
+        close("}");
+        for (SchemaField field : fields) {
+            line();
+            open("public Writer " + field.method + "(" + field.type + " " + field.method + ") {");
+            line("this." + field.method + " = " + field.method + ";");
+            line("return this;");
+            close("}");
+            line();
+            line("@Override");
+            open("public " + field.type + " " + field.method + "() {");
+            line("return " + field.method + ";");
+            close("}");
+        }
+        line();
+        open("public Bundle toBundle() {");
+        line("return " + className + ".write(this);");
+        close("}");
+        line();
+        close("}");
+    }
+
+    private void readerClass(String schema, List<SchemaField> fields) {
+        final Map<String, String> readers = readers(fields);
+
+        open("public static final class Reader implements " + schema + " {");
+        line();
+        for (SchemaField field : fields) {
+            line("private final " + field.type + " " + field.method + ";");
+        }
+        line();
+        open("private Reader(Bundle bundle) {");
+        for (SchemaField field : fields) {
+            line("this." + field.method + " = " + readers.get(field.type) + "(bundle, " + field.constant + ");");
+        }
+        close("}");
+        for (SchemaField field : fields) {
+            line();
+            line("@Override");
+            open("public " + field.type + " " + field.method + "() {");
+            line("return " + field.method + ";");
+            close("}");
+        }
+        line();
+        final Set<String> written = new HashSet<>();
+        for (SchemaField field : fields) {
+            if (written.add(field.type)) {
+                readMethod(readers.get(field.type), field);
+            }
+        }
+        close("}");
+    }
+
+    /**
+     * One {@code readX(bundle, key)} per declared type keeps the constructor at a few bytes of
+     * bytecode per entry; inlined checks would push large schemas past the JIT's size limit.
+     *
+     * @return the method name of each declared type.
+     */
+    private static Map<String, String> readers(List<SchemaField> fields) {
+        final Map<String, String> ret = new HashMap<>();
+        final Set<String> names = new HashSet<>();
+        for (SchemaField field : fields) {
+            if (ret.containsKey(field.type)) {
+                continue;
+            }
+            String name = "read" + field.kind.suffix;
+            for (int i = 2; !names.add(name); i++) {
+                name = "read" + field.kind.suffix + i;
+            }
+            ret.put(field.type, name);
+        }
+        return ret;
+    }
+
+    private void readMethod(String name, SchemaField field) {
+        if (!field.kind.isPrimitive() && !field.type.equals(field.checkType)) {
+            line("@SuppressWarnings(\"unchecked\")");
+        }
+        open("private static " + field.type + " " + name + "(Bundle bundle, String key) {");
+        line("final Object raw = bundle.get(key);");
+        open("if (raw == null) {");
+        line("return " + (field.kind.isPrimitive() ? field.kind.defaultValue : "null") + ";");
+        if (field.kind.isList()) {
+            reopen("} else if (raw instanceof java.util.ArrayList) {");
+            line("final java.util.ArrayList<?> list = (java.util.ArrayList<?>) raw;");
+            open("for (int i = 0, size = list.size(); i < size; i++) {");
+            line("final Object element = list.get(i);");
+            open("if (element != null && !(element instanceof " + field.checkType + ")) {");
+            line("throw " + className + ".mismatch(key, \"" + field.checkType + " elements\", element);");
+            close("}");
+            close("}");
+            line("return (" + field.type + ") list;");
+        } else {
+            reopen("} else if (raw instanceof " + field.checkType + ") {");
+            line("return (" + field.checkType + ") raw;");
+        }
+        close("}");
+        line("throw " + className + ".mismatch(key, \"" + field.type + "\", raw);");
+        close("}");
+        line();
+    }
+
+    private void line() {
+        out.append('\n');
+    }
+
+    private void line(String line) {
+        for (int i = 0; i < indent; i++) {
+            out.append("    ");
+        }
+        out.append(line).append('\n');
+    }
+
+    private void open(String line) {
+        line(line);
+        indent++;
+    }
+
+    private void reopen(String line) {
+        indent--;
+        open(line);
+    }
+
+    private void close(String line) {
+        indent--;
+        line(line);
+    }
+
+}
@@ -0,0 +1,274 @@
+package jp.s64.android.bundlespecs.processor;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.List;
+import java.util.Locale;
+
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+/**
+ * One entry of a {@code @BundleSchema}: the getter it comes from, its key and how it goes in and
+ * out of a Bundle.
+ */
+final class SchemaField {
+
+    /**
+     * Bundle value types, named after their {@code putX}/{@code getX} suffix.
+     */
+    enum Kind {
+
+        BOOLEAN("Boolean", "java.lang.Boolean", "false"),
+        BYTE("Byte", "java.lang.Byte", "(byte) 0"),
+        CHAR("Char", "java.lang.Character", "'\\0'"),
+        SHORT("Short", "java.lang.Short", "(short) 0"),
+        INT("Int", "java.lang.Integer", "0"),
+        LONG("Long", "java.lang.Long", "0L"),
+        FLOAT("Float", "java.lang.Float", "0f"),
+        DOUBLE("Double", "java.lang.Double", "0d"),
+        STRING("String", "java.lang.String", null),
+        CHAR_SEQUENCE("CharSequence", "java.lang.CharSequence", null),
+        BUNDLE("Bundle", "android.os.Bundle", null),
+        BINDER("Binder", "android.os.IBinder", null),
+        PARCELABLE("Parcelable", null, null),
+        SERIALIZABLE("Serializable", null, null),
+        BOOLEAN_ARRAY("BooleanArray", "boolean[]", null),
+        BYTE_ARRAY("ByteArray", "byte[]", null),
+        CHAR_ARRAY("CharArray", "char[]", null),
+        SHORT_ARRAY("ShortArray", "short[]", null),
+        INT_ARRAY("IntArray", "int[]", null),
+        LONG_ARRAY("LongArray", "long[]", null),
+        FLOAT_ARRAY("FloatArray", "float[]", null),
+        DOUBLE_ARRAY("DoubleArray", "double[]", null),
+        STRING_ARRAY("StringArray", "java.lang.String[]", null),
+        CHAR_SEQUENCE_ARRAY("CharSequenceArray", "java.lang.CharSequence[]", null),
+        PARCELABLE_ARRAY("ParcelableArray", "android.os.Parcelable[]", null),
+        INTEGER_LIST("IntegerArrayList", "java.lang.Integer", null),
+        STRING_LIST("StringArrayList", "java.lang.String", null),
+        CHAR_SEQUENCE_LIST("CharSequenceArrayList", "java.lang.CharSequence", null),
+        PARCELABLE_LIST("ParcelableArrayList", null, null);
+
+        final String suffix;
+
+        /**
+         * What a read value is checked against; for lists, every element. {@code null} when it depends
+         * on the declared type.
+         */
+        final String checkType;
+
+        /**
+         * Value of a missing primitive entry, as {@code getX(key)} answers it.
+         */
+        final String defaultValue;
+
+        Kind(String suffix, String checkType, String defaultValue) {
+            this.suffix = suffix;
+            this.checkType = checkType;
+            this.defaultValue = defaultValue;
+        }
+
+        boolean isPrimitive() {
+            return defaultValue != null;
+        }
+
+        boolean isList() {
+            return suffix.endsWith("ArrayList");
+        }
+
+    }
+
+    final String method;
+    final String key;
+    final String constant;
+    final String type;
+    final Kind kind;
+    final String checkType;
+
+    SchemaField(String method, String key, String type, Kind kind, String checkType) {
+        this.method = method;
+        this.key = key;
+        this.constant = constantName(method);
+        this.type = type;
+        this.kind = kind;
+        this.checkType = checkType;
+    }
+
+    /**
+     * @return the field of {@code method}, or {@code null} if its return type has no {@code putX}.
+     */
+    static SchemaField of(ExecutableElement method, String key, Types types, Elements elements) {
+        final TypeMirror type = method.getReturnType();
+        final Kind kind = kindOf(type, types, elements);
+        if (kind == null) {
+            return null;
+        }
+        final String checkType;
+        if (kind == Kind.PARCELABLE || kind == Kind.SERIALIZABLE) {
+            checkType = types.erasure(type).toString();
+        } else if (kind == Kind.PARCELABLE_LIST) {
+            checkType = types.erasure(elementType(type, types)).toString();
+        } else {
+            checkType = kind.checkType;
+        }
+        return new SchemaField(method.getSimpleName().toString(), key, type.toString(), kind, checkType);
+    }
+
+    /**
+     * {@code userId} → {@code KEY_USER_ID}.
+     */
+    static String constantName(String method) {
+        final StringBuilder ret = new StringBuilder("KEY_");
+        for (int i = 0; i < method.length(); i++) {
+            final char c = method.charAt(i);
+            if (Character.isUpperCase(c) && i > 0 && !Character.isUpperCase(method.charAt(i - 1))) {
+                ret.append('_');
+            }
+            ret.append(c);
+        }
+        return ret.toString().toUpperCase(Locale.US);
+    }
+
+    private static Kind kindOf(TypeMirror type, Types types, Elements elements) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                return Kind.BOOLEAN;
+            case BYTE:
+                return Kind.BYTE;
+            case CHAR:
+                return Kind.CHAR;
+            case SHORT:
+                return Kind.SHORT;
+            case INT:
+                return Kind.INT;
+            case LONG:
+                return Kind.LONG;
+            case FLOAT:
+                return Kind.FLOAT;
+            case DOUBLE:
+                return Kind.DOUBLE;
+            case ARRAY:
+                return arrayKindOf(((ArrayType) type).getComponentType(), types, elements);
+            case DECLARED:
+                break;
+            default:
+                return null;
+        }
+
+        if (isType(type, "java.lang.String", types, elements)) {
+            return Kind.STRING;
+        } else if (isType(type, "java.lang.CharSequence", types, elements)) {
+            return Kind.CHAR_SEQUENCE;
+        } else if (isType(type, "android.os.Bundle", types, elements)) {
+            return Kind.BUNDLE;
+        } else if (isType(type, "android.os.IBinder", types, elements)) {
+            return Kind.BINDER;
+        } else if (isType(types.erasure(type), "java.util.ArrayList", types, elements)) {
+            // putIntegerArrayList and friends take exactly ArrayList<Integer>, no wildcard
+            final List<? extends TypeMirror> arguments = ((DeclaredType) type).getTypeArguments();
+            final TypeMirror element = elementType(type, types);
+            if (element == null) {
+                return null;
+            } else if (isType(arguments.get(0), "java.lang.Integer", types, elements)) {
+                return Kind.INTEGER_LIST;
+            } else if (isType(arguments.get(0), "java.lang.String", types, elements)) {
+                return Kind.STRING_LIST;
+            } else if (isType(arguments.get(0), "java.lang.CharSequence", types, elements)) {
+                return Kind.CHAR_SEQUENCE_LIST;
+            } else if (isSubtype(element, "android.os.Parcelable", types, elements)) {
+                return Kind.PARCELABLE_LIST;
+            }
+            return null;
+        } else if (isSubtype(type, "android.os.Parcelable", types, elements)) {
+            return Kind.PARCELABLE;
+        } else if (isSubtype(type, "java.io.Serializable", types, elements)) {
+            return Kind.SERIALIZABLE;
+        }
+        return null;
+    }
+
+    /**
+     * Only arrays that come back from a Parcel with the same component type: a {@code Foo[]} of
+     * Parcelables is read back as {@code Parcelable[]}.
+     */
+    private static Kind arrayKindOf(TypeMirror component, Types types, Elements elements) {
+        switch (component.getKind()) {
+            case BOOLEAN:
+                return Kind.BOOLEAN_ARRAY;
+            case BYTE:
+                return Kind.BYTE_ARRAY;
+            case CHAR:
+                return Kind.CHAR_ARRAY;
+            case SHORT:
+                return Kind.SHORT_ARRAY;
+            case INT:
+                return Kind.INT_ARRAY;
+            case LONG:
+                return Kind.LONG_ARRAY;
+            case FLOAT:
+                return Kind.FLOAT_ARRAY;
+            case DOUBLE:
+                return Kind.DOUBLE_ARRAY;
+            case DECLARED:
+                break;
+            default:
+                return null;
+        }
+        if (isType(component, "java.lang.String", types, elements)) {
+            return Kind.STRING_ARRAY;
+        } else if (isType(component, "java.lang.CharSequence", types, elements)) {
+            return Kind.CHAR_SEQUENCE_ARRAY;
+        } else if (isType(component, "android.os.Parcelable", types, elements)) {
+            return Kind.PARCELABLE_ARRAY;
+        }
+        return null;
+    }
+
+    /**
+     * @return {@code T} of {@code ArrayList<T>} or {@code ArrayList<? extends T>}, or {@code null}
+     * for a raw or unbounded list.
+     */
+    private static TypeMirror elementType(TypeMirror list, Types types) {
+        final List<? extends TypeMirror> arguments = ((DeclaredType) list).getTypeArguments();
+        if (arguments.size() != 1) {
+            return null;
+        }
+        final TypeMirror argument = arguments.get(0);
+        if (argument.getKind() == TypeKind.WILDCARD) {
+            return ((WildcardType) argument).getExtendsBound();
+        }
+        return argument.getKind() == TypeKind.DECLARED ? argument : null;
+    }
+
+    private static boolean isType(TypeMirror type, String name, Types types, Elements elements) {
+        final TypeElement element = elements.getTypeElement(name);
+        return element != null && types.isSameType(type, types.erasure(element.asType()));
+    }
+
+    private static boolean isSubtype(TypeMirror type, String name, Types types, Elements elements) {
+        final TypeElement element = elements.getTypeElement(name);
+        return element != null && types.isAssignable(type, types.erasure(element.asType()));
+    }
+
+}
@@ -0,0 +1,205 @@
+package jp.s64.android.bundlespecs.processor;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BundleSchemaProcessorTest {
+
+    private static final String ANNOTATION = "package jp.s64.android.bundlespecs.tests;\n"
+            + "public @interface BundleSchema {\n"
+            + "    @interface Key { String value(); }\n"
+            + "}\n";
+
+    /**
+     * Just what generated code for {@code int} and {@code String} entries calls.
+     */
+    private static final String BUNDLE = "package android.os;\n"
+            + "public final class Bundle {\n"
+            + "    public Bundle(int capacity) { }\n"
+            + "    public Object get(String key) { return null; }\n"
+            + "    public void putInt(String key, int value) { }\n"
+            + "    public void putString(String key, String value) { }\n"
+            + "}\n";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+
+    @Test
+    public void testGeneratesInPutOrder() throws IOException {
+        final String source = process("test.Schema", "package test;\n"
+                + "import jp.s64.android.bundlespecs.tests.BundleSchema;\n"
+                + "@BundleSchema interface Schema {\n"
+                + "    int userCount();\n"
+                + "    @BundleSchema.Key(\"a\") String name();\n"
+                + "    long[] b();\n"
+                + "}\n");
+
+        assertTrue(source, source.contains("public static final String KEY_USER_COUNT = \"userCount\";"));
+        assertTrue(source, source.contains("public static final String KEY_NAME = \"a\";"));
+        assertTrue(source, source.contains("public static final int SIZE = 3;"));
+
+        final int a = source.indexOf("ret.putString(KEY_NAME, value.name());");
+        final int b = source.indexOf("ret.putLongArray(KEY_B, value.b());");
+        final int userCount = source.indexOf("ret.putInt(KEY_USER_COUNT, value.userCount());");
+        assertTrue(source, 0 < a && a < b && b < userCount);
+    }
+
+    @Test
+    public void testRejectsUnsupportedTypes() throws IOException {
+        process("test.Schema", "package test;\n"
+                + "import jp.s64.android.bundlespecs.tests.BundleSchema;\n"
+                + "@BundleSchema interface Schema {\n"
+                + "    java.util.List<String> list();\n"
+                + "    java.util.ArrayList<Long> longs();\n"
+                + "    Object[] objects();\n"
+                + "}\n");
+
+        assertEquals(Arrays.asList(
+                "java.util.List<java.lang.String> has no typed Bundle accessor",
+                "java.util.ArrayList<java.lang.Long> has no typed Bundle accessor",
+                "java.lang.Object[] has no typed Bundle accessor"), errors());
+    }
+
+    @Test
+    public void testRejectsInvalidSchemas() throws IOException {
+        process("test.Schema", "package test;\n"
+                + "import jp.s64.android.bundlespecs.tests.BundleSchema;\n"
+                + "@BundleSchema class Schema {\n"
+                + "    @BundleSchema interface Keys {\n"
+                + "        int a();\n"
+                + "        @BundleSchema.Key(\"a\") int b();\n"
+                + "        int c(int arg);\n"
+                + "        String toBundle();\n"
+                + "    }\n"
+                + "}\n");
+
+        assertEquals(Arrays.asList(
+                "@BundleSchema must annotate an interface",
+                "Key \"a\" is already used by a()",
+                "@BundleSchema methods must be non-generic getters without parameters",
+                "toBundle() is reserved by the generated Writer"), errors());
+    }
+
+    @Test
+    public void testGettersNamedLikeHelpers() throws IOException {
+        final String schema = "package test;\n"
+                + "import jp.s64.android.bundlespecs.tests.BundleSchema;\n"
+                + "@BundleSchema interface Schema {\n"
+                + "    int write();\n"
+                + "    String mismatch();\n"
+                + "}\n";
+        final String source = process("test.Schema", schema);
+
+        // compiled apart, against a stub Bundle
+        final DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null);
+        files.setLocation(StandardLocation.CLASS_OUTPUT, Collections.singletonList(folder.newFolder()));
+        final boolean compiled = compiler.getTask(null, files, diagnostics, Collections.singletonList("-proc:none"), null, Arrays.asList(
+                new Source("jp.s64.android.bundlespecs.tests.BundleSchema", ANNOTATION),
+                new Source("android.os.Bundle", BUNDLE),
+                new Source("test.Schema", schema),
+                new Source("test.SchemaBundles", source))).call();
+        files.close();
+
+        assertTrue(diagnostics.getDiagnostics().toString(), compiled);
+    }
+
+    @Test
+    public void testConstantName() {
+        assertEquals("KEY_USER_ID", SchemaField.constantName("userId"));
+        assertEquals("KEY_URL", SchemaField.constantName("URL"));
+        assertEquals("KEY_A_BYTE", SchemaField.constantName("aByte"));
+    }
+
+    /**
+     * Runs only the processor, as {@code android.os} isn't on this classpath.
+     *
+     * @return the generated source of {@code schema}, or {@code ""} if there is none.
+     */
+    private String process(String schema, String source) throws IOException {
+        final File generated = folder.newFolder();
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        final StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null);
+        final List<JavaFileObject> sources = new ArrayList<>();
+        sources.add(new Source("jp.s64.android.bundlespecs.tests.BundleSchema", ANNOTATION));
+        sources.add(new Source(schema, source));
+
+        final JavaCompiler.CompilationTask task = compiler.getTask(null, files, diagnostics,
+                Arrays.asList("-proc:only", "-s", generated.getPath()), null, sources);
+        task.setProcessors(Collections.singletonList(new BundleSchemaProcessor()));
+        task.call();
+        files.close();
+
+        final String name = schema.substring(schema.lastIndexOf('.') + 1);
+        final File out = new File(generated, schema.replace('.', '/').replace(name, name + "Bundles") + ".java");
+        return out.exists() ? new String(Files.readAllBytes(out.toPath()), Charset.forName("UTF-8")) : "";
+    }
+
+    private List<String> errors() {
+        final List<String> ret = new ArrayList<>();
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                ret.add(diagnostic.getMessage(null));
+            }
+        }
+        return ret;
+    }
+
+    private static final class Source extends SimpleJavaFileObject {
+
+        private final String source;
+
+        Source(String name, String source) {
+            super(new File(name.replace('.', '/') + ".java").toURI(), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+
+    }
+
+}
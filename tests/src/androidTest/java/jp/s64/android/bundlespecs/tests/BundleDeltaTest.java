@@ -0,0 +1,266 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Binder;
+import android.os.Bundle;
+import android.support.test.espresso.core.internal.deps.guava.collect.Lists;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class BundleDeltaTest {
+
+    @Test
+    public void testAddedRemovedChanged() {
+        final Bundle from = new Bundle();
+        {
+            from.putInt("same", 1);
+            from.putInt("changed", 1);
+            from.putInt("removed", 1);
+            from.putString("nulled", "value");
+        }
+        final Bundle to = new Bundle();
+        {
+            to.putInt("same", 1);
+            to.putInt("changed", 2);
+            to.putInt("added", 1);
+            to.putString("nulled", null);
+        }
+
+        final BundleDelta delta = BundleDelta.between(from, to);
+
+        assertEquals(Collections.singleton("added"), delta.addedKeys());
+        assertEquals(Collections.singleton("removed"), delta.removedKeys());
+        assertEquals(Lists.newArrayList("changed", "nulled"), sorted(delta.changedKeys()));
+
+        final Bundle applied = delta.apply(from);
+        assertTrue(BundleEquality.equals(to, applied));
+        assertTrue(applied.containsKey("nulled")); // null is a value, not a removal
+        assertEquals(1, from.getInt("changed"));
+    }
+
+    @Test
+    public void testIdenticalIsEmpty() {
+        final Bundle from = new BundleGenerator(0).keys(100).depth(2).generate();
+        final BundleDelta delta = BundleDelta.between(from, BundleCopies.deepCopy(from));
+
+        assertTrue(delta.isEmpty());
+        assertTrue(delta.changedKeys().isEmpty());
+    }
+
+    @Test
+    public void testNestedBundleIsPatched() {
+        final Bundle nested = new Bundle();
+        for (int i = 0; i < 100; i++) {
+            nested.putIntArray("array" + i, new int[100]);
+        }
+        final Bundle from = new Bundle();
+        from.putBundle("nested", nested);
+
+        final Bundle to = BundleCopies.deepCopy(from);
+        to.getBundle("nested").putInt("array50", 1);
+
+        final BundleDelta delta = BundleDelta.between(from, to);
+        final BundleDelta whole = BundleDelta.between(new Bundle(), to);
+
+        assertEquals(Collections.singleton("nested"), delta.changedKeys());
+        assertTrue(delta.byteSize() * 100 < whole.byteSize());
+
+        final Bundle applied = delta.apply(from);
+        assertEquals(1, applied.getBundle("nested").getInt("array50"));
+        assertTrue(BundleEquality.equals(to, applied));
+        assertNotNull(from.getBundle("nested").getIntArray("array50"));
+    }
+
+    @Test
+    public void testSparseArrayIsPatched() {
+        final Bundle leaf = new Bundle();
+        leaf.putInt("value", 1);
+        final SparseArray<Bundle> sparse = new SparseArray<>();
+        {
+            sparse.put(1, leaf);
+            sparse.put(2, new Bundle());
+            sparse.put(3, new Bundle());
+        }
+        final Bundle from = new Bundle();
+        from.putSparseParcelableArray("sparse", sparse);
+
+        final SparseArray<Bundle> changed = sparse.clone();
+        {
+            final Bundle changedLeaf = new Bundle(leaf);
+            changedLeaf.putInt("value", 2);
+            changed.put(1, changedLeaf);
+            changed.remove(2);
+            changed.put(4, new Bundle());
+        }
+        final Bundle to = new Bundle();
+        to.putSparseParcelableArray("sparse", changed);
+
+        final Bundle applied = BundleDelta.between(from, to).apply(from);
+        final SparseArray<Bundle> result = applied.getSparseParcelableArray("sparse");
+
+        assertTrue(BundleEquality.equals(to, applied));
+        assertEquals(2, result.get(1).getInt("value"));
+        assertNull(result.get(2));
+        assertNotNull(result.get(4));
+        // deepCopy() shares SparseArrays, the base must not see the patch
+        assertEquals(1, sparse.get(1).getInt("value"));
+        assertNotNull(sparse.get(2));
+    }
+
+    @Test
+    public void testTypeChangeIsChange() {
+        final Bundle from = new Bundle();
+        {
+            from.putCharSequence("cs", "value");
+            from.putIntegerArrayList("list", Lists.newArrayList(1));
+        }
+        final Bundle to = new Bundle();
+        {
+            to.putCharSequence("cs", new StringBuilder("value"));
+            to.putStringArrayList("list", Lists.newArrayList("1"));
+        }
+
+        final BundleDelta delta = BundleDelta.between(from, to);
+        assertEquals(2, delta.changedKeys().size());
+
+        final Bundle applied = delta.apply(from);
+        assertTrue(applied.get("cs") instanceof String); // 🚨 like after a Parcel round trip
+        assertEquals("value", applied.getCharSequence("cs"));
+        assertEquals("1", applied.getStringArrayList("list").get(0));
+    }
+
+    @Test
+    public void testByteArrayRoundTrip() {
+        final Bundle from = new BundleGenerator(1).keys(50).depth(2).generate();
+        final Bundle to = mutate(from, new Random(1), 10);
+
+        final BundleDelta delta = BundleDelta.fromByteArray(BundleDelta.between(from, to).toByteArray());
+        final Bundle applied = delta.apply(from);
+
+        assertTrue(BundleEquality.equals(to, applied));
+    }
+
+    @Test
+    public void testApplyToInPlace() {
+        final Bundle from = new BundleGenerator(2).keys(20).depth(1).generate();
+        final Bundle to = mutate(from, new Random(2), 5);
+        final BundleDelta delta = BundleDelta.between(from, to);
+
+        delta.applyTo(from);
+
+        assertTrue(BundleEquality.equals(to, from));
+    }
+
+    @Test
+    public void testRandomEdits() {
+        final Random random = new Random(0);
+        for (int i = 0; i < 50; i++) {
+            final Bundle from = new BundleGenerator(i).keys(30).depth(2).fanout(2).generate();
+            final Bundle to = mutate(from, random, 1 + random.nextInt(20));
+            assertTrue(String.valueOf(i), BundleEquality.equals(to, BundleDelta.between(from, to).apply(from)));
+        }
+    }
+
+    @Test
+    public void testBinderIsKeptLive() {
+        final Binder binder = new Binder();
+        final Bundle to = new Bundle();
+        to.putBinder("binder", binder);
+
+        final BundleDelta delta = BundleDelta.between(new Bundle(), to);
+
+        assertSame(binder, delta.apply(new Bundle()).getBinder("binder"));
+        try {
+            delta.toByteArray();
+            assertTrue(false);
+        } catch (IllegalStateException expected) {
+            // can't be flattened
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPatchWithoutTarget() {
+        final Bundle from = new Bundle();
+        from.putBundle("nested", new Bundle());
+        final Bundle to = BundleCopies.deepCopy(from);
+        to.getBundle("nested").putInt("key", 1);
+
+        BundleDelta.between(from, to).apply(new Bundle());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotADelta() {
+        BundleDelta.fromByteArray(new byte[16]);
+    }
+
+    /**
+     * Puts, replaces and removes ints and Strings at random depths of a copy of {@code from}.
+     */
+    static Bundle mutate(Bundle from, Random random, int edits) {
+        final Bundle ret = BundleCopies.deepCopy(from);
+        for (int i = 0; i < edits; i++) {
+            Bundle target = ret;
+            while (target.containsKey(BundleGenerator.CHILD_KEY + 0) && random.nextBoolean()) {
+                target = target.getBundle(BundleGenerator.CHILD_KEY + random.nextInt(2));
+                if (target == null) {
+                    target = ret;
+                    break;
+                }
+            }
+            final ArrayList<String> keys = new ArrayList<>(target.keySet());
+            switch (random.nextInt(3)) {
+                case 0:
+                    target.putInt("edit" + random.nextInt(1000), random.nextInt());
+                    break;
+                case 1:
+                    if (!keys.isEmpty()) {
+                        target.putString(keys.get(random.nextInt(keys.size())), "edit" + i);
+                    }
+                    break;
+                default:
+                    if (!keys.isEmpty()) {
+                        target.remove(keys.get(random.nextInt(keys.size())));
+                    }
+                    break;
+            }
+        }
+        return ret;
+    }
+
+    private static ArrayList<String> sorted(Set<String> keys) {
+        final ArrayList<String> ret = new ArrayList<>(keys);
+        Collections.sort(ret);
+        return ret;
+    }
+
+}
@@ -0,0 +1,200 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class BundleEqualityTest {
+
+    @Test
+    public void testEveryShape() {
+        for (BundleShape shape : BundleShape.values()) {
+            if (!shape.isSupported()) {
+                continue;
+            }
+            for (int size : new int[] {0, 1, 2, 100}) {
+                final String message = shape + "@" + size;
+                final Bundle org = shape.create(size);
+                final Bundle copied = BundleCopies.deepCopy(org);
+
+                assertTrue(message, BundleEquality.equals(org, copied));
+                assertEquals(message, BundleEquality.hash64(org), BundleEquality.hash64(copied));
+                assertEquals(message, BundleKey.of(org), BundleKey.of(copied));
+
+                if (shape != BundleShape.BINDER || size == 0) {
+                    // every other shape is built from values, not identities
+                    final Bundle again = shape.create(size);
+                    assertTrue(message, BundleEquality.equals(org, again));
+                    assertEquals(message, BundleEquality.hash64(org), BundleEquality.hash64(again));
+                } else {
+                    assertFalse(message, BundleEquality.equals(org, shape.create(size))); // 🚨 Binders compare by identity
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testIdentityEqualityOfPlatformBundle() {
+        final Bundle a = BundleShape.BUNDLE.create(3);
+        final Bundle b = BundleShape.BUNDLE.create(3);
+
+        assertNotEquals(a, b); // 🚨
+        assertTrue(BundleEquality.equals(a, b));
+    }
+
+    @Test
+    public void testTypesAreNotCoerced() {
+        final Bundle intBundle = new Bundle();
+        {
+            intBundle.putInt("key", 1);
+        }
+        final Bundle longBundle = new Bundle();
+        {
+            longBundle.putLong("key", 1);
+        }
+        final Bundle intArray = new Bundle();
+        {
+            intArray.putIntArray("key", new int[] {1});
+        }
+        final Bundle integerList = new Bundle();
+        {
+            final ArrayList<Integer> list = new ArrayList<>();
+            list.add(1);
+            integerList.putIntegerArrayList("key", list);
+        }
+        final Bundle zero = new Bundle();
+        {
+            zero.putFloat("key", 0f);
+        }
+        final Bundle negativeZero = new Bundle();
+        {
+            negativeZero.putFloat("key", -0f);
+        }
+
+        final Bundle[] bundles = {intBundle, longBundle, intArray, integerList, zero, negativeZero};
+        final Set<Long> hashes = new HashSet<>();
+        for (int i = 0; i < bundles.length; i++) {
+            hashes.add(BundleEquality.hash64(bundles[i]));
+            for (int j = 0; j < bundles.length; j++) {
+                assertEquals(i + " vs " + j, i == j, BundleEquality.equals(bundles[i], bundles[j]));
+            }
+        }
+        assertEquals(bundles.length, hashes.size());
+    }
+
+    @Test
+    public void testNullValueAndMissingKey() {
+        final Bundle withNull = new Bundle();
+        {
+            withNull.putString("a", null);
+        }
+        final Bundle withOther = new Bundle();
+        {
+            withOther.putString("b", null);
+        }
+
+        assertFalse(BundleEquality.equals(withNull, withOther));
+        assertFalse(BundleEquality.equals(withNull, new Bundle()));
+        assertTrue(BundleEquality.equals(withNull, BundleCopies.deepCopy(withNull)));
+    }
+
+    @Test
+    public void testNestedStructures() {
+        final Bundle org = nested(1);
+
+        assertTrue(BundleEquality.equals(org, nested(1)));
+        assertEquals(BundleEquality.hash64(org), BundleEquality.hash64(nested(1)));
+        assertFalse(BundleEquality.equals(org, nested(2)));
+        assertNotEquals(BundleEquality.hash64(org), BundleEquality.hash64(nested(2)));
+    }
+
+    @Test
+    public void testKeyOrderIsIrrelevant() {
+        final Bundle forward = new Bundle();
+        final Bundle backward = new Bundle();
+        for (int i = 0; i < 100; i++) {
+            forward.putInt("key" + i, i);
+            backward.putInt("key" + (99 - i), 99 - i);
+        }
+
+        assertTrue(BundleEquality.equals(forward, backward));
+        assertEquals(BundleEquality.hash64(forward), BundleEquality.hash64(backward));
+    }
+
+    @Test
+    public void testBinderIdentity() {
+        final Bundle extras = new Bundle();
+        {
+            extras.putBinder("binder", new Binder());
+        }
+        final Bundle a = new Bundle();
+        {
+            a.putParcelable("binder", new Intent().putExtras(extras));
+        }
+        final Bundle b = new Bundle();
+        {
+            b.putParcelable("binder", new Intent().putExtras(extras));
+        }
+
+        assertTrue(BundleEquality.equals(a, b));
+        assertFalse(BundleEquality.valueEquals(new Binder(), new Binder()));
+    }
+
+    private static Bundle nested(int leaf) {
+        final Bundle inner = new Bundle();
+        {
+            inner.putInt("leaf", leaf);
+            inner.putDoubleArray("doubles", new double[] {0.5, Double.NaN});
+        }
+        final SparseArray<Parcelable> sparse = new SparseArray<>();
+        {
+            sparse.put(3, inner);
+            sparse.put(7, new Intent("action").putExtra("inner", inner));
+        }
+        final ArrayList<Parcelable> list = new ArrayList<>();
+        {
+            list.add(BundleCopies.deepCopy(inner));
+        }
+        final Bundle ret = new Bundle();
+        {
+            ret.putBundle("bundle", inner);
+            ret.putSparseParcelableArray("sparse", sparse);
+            ret.putParcelableArrayList("list", list);
+            ret.putParcelableArray("array", new Parcelable[] {inner, null});
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,113 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class BundleGeneratorTest {
+
+    @Test
+    public void testSameSeedSameBundle() {
+        final Bundle a = new BundleGenerator(42).keys(500).depth(2).fanout(2).generate();
+        final Bundle b = new BundleGenerator(42).keys(500).depth(2).fanout(2).generate();
+        final Bundle c = new BundleGenerator(43).keys(500).depth(2).fanout(2).generate();
+
+        assertTrue(BundleEquality.equals(a, b));
+        assertFalse(BundleEquality.equals(a, c));
+    }
+
+    @Test
+    public void testKeysAreSpreadOverTheTree() {
+        for (int depth = 0; depth <= 3; depth++) {
+            for (int fanout = 1; fanout <= 3; fanout++) {
+                for (int keys : new int[] {0, 1, 7, 1000}) {
+                    final String message = keys + " keys, depth " + depth + ", fanout " + fanout;
+                    final BundleGenerator generator = new BundleGenerator(0).keys(keys).depth(depth).fanout(fanout);
+                    final Bundle bundle = generator.generate();
+
+                    final int[] counts = new int[2];
+                    count(bundle, 0, depth, fanout, counts);
+                    assertEquals(message, keys, counts[0]);
+                    assertEquals(message, generator.nodeCount(), counts[1]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMix() {
+        final Bundle bundle = new BundleGenerator(0)
+                .keys(1000)
+                .only(BundleShape.INT_ARRAY, BundleShape.STRING_ARRAY_LIST)
+                .mix(BundleShape.LONG, 2)
+                .valueSize(3)
+                .generate();
+
+        int longs = 0;
+        for (String key : bundle.keySet()) {
+            final Object value = bundle.get(key);
+            if (value instanceof Long) {
+                longs++;
+            } else if (value instanceof int[]) {
+                assertEquals(3, ((int[]) value).length);
+            } else {
+                assertEquals(3, bundle.getStringArrayList(key).size());
+            }
+        }
+        assertTrue(String.valueOf(longs), longs > 400 && longs < 600);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testEmptyMix() {
+        new BundleGenerator(0).only().keys(1).generate();
+    }
+
+    @Test
+    public void testMillionKeys() {
+        final Bundle bundle = new BundleGenerator(0).keys(1000000).only(BundleShape.INT_ARRAY).valueSize(0).generate();
+
+        assertEquals(1000000, bundle.size());
+    }
+
+    private static void count(Bundle bundle, int level, int depth, int fanout, int[] counts) {
+        counts[1]++;
+        for (String key : bundle.keySet()) {
+            if (key.startsWith(BundleGenerator.CHILD_KEY)) {
+                assertTrue(level < depth);
+                count(bundle.getBundle(key), level + 1, depth, fanout, counts);
+            } else {
+                counts[0]++;
+            }
+        }
+        if (level < depth) {
+            for (int i = 0; i < fanout; i++) {
+                assertNotNull(bundle.getBundle(BundleGenerator.CHILD_KEY + i));
+            }
+        }
+    }
+
+}
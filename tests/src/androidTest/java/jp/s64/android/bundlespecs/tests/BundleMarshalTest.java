@@ -0,0 +1,99 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class BundleMarshalTest {
+
+    private static final String TAG = "BundleMarshalTest";
+
+    private final MarshalHarness harness = new MarshalHarness();
+
+    @Test
+    public void testEveryShape() {
+        for (BundleShape shape : BundleShape.values()) {
+            if (!shape.isSupported()) {
+                continue;
+            }
+            for (int size : new int[] {1, 1000}) {
+                final Bundle org = shape.create(size);
+                final MarshalReport report = harness.measure(org);
+
+                Log.i(TAG, shape + "[" + size + "]: " + report);
+
+                int sum = 0;
+                for (MarshalReport.Entry entry : report.entries) {
+                    sum += entry.bytes;
+                }
+                assertEquals(org.size(), report.entries.size());
+                assertEquals(shape.toString(), 4 + 4 + 4 + sum, report.bytes); // length, magic, N
+            }
+        }
+    }
+
+    @Test
+    public void testBudgets() {
+        final Bundle org = BundleShape.BYTE_ARRAY.create(600 * 1024);
+        final MarshalReport report = harness.measure(org);
+
+        assertTrue(report.exceeds(50 * MarshalHarness.KB));
+        assertTrue(report.exceeds(500 * MarshalHarness.KB));
+        assertFalse(report.exceeds(1024 * MarshalHarness.KB));
+        assertEquals(Arrays.asList(50 * MarshalHarness.KB, 500 * MarshalHarness.KB), report.exceededBudgets());
+    }
+
+    @Test
+    public void testWireTypes() {
+        assertEquals(ParcelValueType.SERIALIZABLE, typeOf(BundleShape.CHAR_ARRAY)); // 🚨
+        assertEquals(ParcelValueType.SERIALIZABLE, typeOf(BundleShape.FLOAT_ARRAY)); // 🚨
+        assertEquals(ParcelValueType.SERIALIZABLE, typeOf(BundleShape.SHORT_ARRAY)); // 🚨
+        assertEquals(ParcelValueType.STRING, typeOf(BundleShape.SERIALIZABLE)); // 🚨
+        assertEquals(ParcelValueType.BOOLEAN, typeOf(BundleShape.BOOLEAN));
+        assertEquals(ParcelValueType.BUNDLE, typeOf(BundleShape.PARCELABLE_BUNDLE)); // 🚨
+        assertEquals(ParcelValueType.PARCELABLE, typeOf(BundleShape.PARCELABLE_INTENT));
+        assertEquals(ParcelValueType.LIST, typeOf(BundleShape.STRING_ARRAY_LIST));
+        assertEquals(ParcelValueType.LIST, typeOf(BundleShape.INTEGER_ARRAY_LIST));
+    }
+
+    @Test
+    public void testSerializableOverhead() {
+        final int size = 1000;
+        final int floats = harness.measure(BundleShape.FLOAT_ARRAY.create(size)).bytes;
+        final int ints = harness.measure(BundleShape.INT_ARRAY.create(size)).bytes;
+
+        Log.i(TAG, "float[" + size + "]: " + floats + " bytes, int[" + size + "]: " + ints + " bytes");
+        assertTrue(floats > ints);
+    }
+
+    private ParcelValueType typeOf(BundleShape shape) {
+        return harness.measure(shape.create(1)).entries.get(0).type;
+    }
+
+}
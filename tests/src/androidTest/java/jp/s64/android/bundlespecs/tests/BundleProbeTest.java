@@ -0,0 +1,147 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class BundleProbeTest {
+
+    @After
+    public void disable() {
+        BundleProbe.disable();
+        BundleProbe.tag(null);
+    }
+
+    @Test
+    public void testDisabledRecordsNothing() {
+        BundleProbe.enable(1);
+        BundleProbe.disable();
+        assertFalse(BundleProbe.isEnabled());
+
+        final Bundle bundle = new Bundle();
+        BundleProbe.put(bundle, "key", 1);
+        assertEquals(1, BundleProbe.get(bundle, "key"));
+
+        assertTrue(BundleProbe.report().byType().isEmpty());
+        assertTrue(BundleProbe.report().byKey().isEmpty());
+    }
+
+    @Test
+    public void testCountsPerTypeAndKey() {
+        BundleProbe.enable(1);
+
+        final Bundle bundle = new Bundle();
+        BundleProbe.put(bundle, "int", 1);
+        BundleProbe.put(bundle, "string", "value");
+        BundleProbe.put(bundle, "bytes", new byte[1024]);
+        for (int i = 0; i < 10; i++) {
+            BundleProbe.get(bundle, "int");
+        }
+        BundleProbe.get(bundle, "missing");
+
+        final BundleProbe.Report report = BundleProbe.report();
+
+        assertEquals(1, report.type(BundleProbe.Op.PUT, ParcelValueType.INTEGER).calls);
+        assertEquals(1, report.type(BundleProbe.Op.PUT, ParcelValueType.BYTE_ARRAY).calls);
+        assertEquals(10, report.type(BundleProbe.Op.GET, ParcelValueType.INTEGER).calls);
+        assertEquals(1, report.type(BundleProbe.Op.GET, ParcelValueType.NULL).calls);
+        assertNull(report.type(BundleProbe.Op.GET, ParcelValueType.STRING));
+
+        final BundleProbe.Row get = report.key(BundleProbe.Op.GET, "int");
+        assertEquals(10, get.calls);
+        assertEquals(10, get.sampled);
+        assertTrue(get.percentileNanos(50) <= get.percentileNanos(99));
+        assertNotNull(report.key(BundleProbe.Op.GET, "missing"));
+    }
+
+    @Test
+    public void testSampling() {
+        BundleProbe.enable(4);
+
+        final Bundle bundle = new Bundle();
+        for (int i = 0; i < 100; i++) {
+            BundleProbe.put(bundle, "key", i);
+        }
+
+        final BundleProbe.Row row = BundleProbe.report().key(BundleProbe.Op.PUT, "key");
+        assertEquals(100, row.calls);
+        assertEquals(25, row.sampled);
+    }
+
+    @Test
+    public void testWholeBundleOpsUseTag() {
+        BundleProbe.enable(1);
+
+        final Bundle org = new Bundle();
+        org.putIntArray("key", new int[1000]);
+
+        BundleProbe.tag("intArray");
+        final Bundle read = BundleProbe.unmarshall(BundleProbe.marshall(org), getClass().getClassLoader());
+        BundleProbe.tag(null);
+        BundleProbe.marshall(org);
+
+        assertEquals(1000, read.getIntArray("key").length);
+        final BundleProbe.Report report = BundleProbe.report();
+        assertEquals(2, report.type(BundleProbe.Op.MARSHALL, ParcelValueType.BUNDLE).calls);
+        assertEquals(1, report.key(BundleProbe.Op.MARSHALL, "intArray").calls);
+        assertEquals(1, report.key(BundleProbe.Op.UNMARSHALL, "intArray").calls);
+    }
+
+    @Test
+    public void testAllocatedBytes() {
+        BundleProbe.enable(1);
+
+        final Bundle org = new Bundle();
+        org.putByteArray("key", new byte[64 * 1024]);
+        BundleProbe.tag("byteArray");
+        BundleProbe.deepCopy(org);
+
+        final BundleProbe.Row row = BundleProbe.report().key(BundleProbe.Op.DEEP_COPY, "byteArray");
+        assertEquals(1, row.sampled);
+        if (row.totalBytes >= 0) {
+            assertTrue(String.valueOf(row.totalBytes), row.totalBytes >= 64 * 1024);
+        }
+    }
+
+    @Test
+    public void testKeysAreBounded() {
+        BundleProbe.enable(1);
+
+        final Bundle bundle = new Bundle();
+        for (int i = 0; i < BundleProbe.MAX_KEYS + 10; i++) {
+            BundleProbe.put(bundle, "key" + i, i);
+        }
+
+        final BundleProbe.Report report = BundleProbe.report();
+        assertEquals(BundleProbe.MAX_KEYS + 1, report.byKey().size());
+        assertEquals(10, report.key(BundleProbe.Op.PUT, BundleProbe.OTHER_KEYS).calls);
+        assertEquals(BundleProbe.MAX_KEYS + 10, report.type(BundleProbe.Op.PUT, ParcelValueType.INTEGER).calls);
+    }
+
+}
@@ -0,0 +1,218 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class BundleSchemaTest {
+
+    @BundleSchema
+    interface Values {
+
+        boolean flag();
+
+        byte aByte();
+
+        char aChar();
+
+        short aShort();
+
+        int count();
+
+        long userId();
+
+        float ratio();
+
+        double score();
+
+        @BundleSchema.Key("user_name")
+        String name();
+
+        CharSequence label();
+
+        Bundle extras();
+
+        Intent intent();
+
+        TimeUnit unit();
+
+        int[] ints();
+
+        long[] longs();
+
+        String[] strings();
+
+        Parcelable[] parcelables();
+
+        ArrayList<Integer> integers();
+
+        ArrayList<String> names();
+
+        ArrayList<CharSequence> labels();
+
+        ArrayList<Intent> intents();
+
+    }
+
+    @BundleSchema
+    interface Child extends Values {
+
+        int depth();
+
+    }
+
+    @Test
+    public void testKeyConstants() {
+        assertEquals("userId", BundleSchemaTest_ValuesBundles.KEY_USER_ID);
+        assertEquals("user_name", BundleSchemaTest_ValuesBundles.KEY_NAME);
+        assertEquals(21, BundleSchemaTest_ValuesBundles.SIZE);
+        assertEquals(22, BundleSchemaTest_ChildBundles.SIZE);
+
+        final Bundle bundle = BundleSchemaTest_ValuesBundles.writer()
+                .userId(42)
+                .name("a")
+                .toBundle();
+        assertEquals(42, bundle.getLong("userId"));
+        assertEquals("a", bundle.getString("user_name"));
+        assertEquals(21, bundle.size());
+    }
+
+    @Test
+    public void testRoundTrip() {
+        final Bundle extras = new Bundle();
+        {
+            extras.putInt("nested", 1);
+        }
+        final Bundle org = BundleSchemaTest_ChildBundles.writer()
+                .flag(true)
+                .aByte((byte) 1)
+                .aChar('c')
+                .aShort((short) 2)
+                .count(3)
+                .userId(4L)
+                .ratio(5f)
+                .score(6d)
+                .name("name")
+                .label("label")
+                .extras(extras)
+                .intent(new Intent("action"))
+                .unit(TimeUnit.SECONDS)
+                .ints(new int[] {7, 8})
+                .longs(new long[] {9L})
+                .strings(new String[] {"x", "y"})
+                .parcelables(new Parcelable[] {new Bundle()})
+                .integers(new ArrayList<>(Arrays.asList(10, 11)))
+                .names(new ArrayList<>(Arrays.asList("p", "q")))
+                .labels(new ArrayList<CharSequence>(Arrays.asList("r")))
+                .intents(new ArrayList<>(Arrays.asList(new Intent("s"))))
+                .depth(12)
+                .toBundle();
+
+        final Child read = BundleSchemaTest_ChildBundles.read(LazyBundleTest.roundTrip(org));
+
+        assertTrue(read.flag());
+        assertEquals(1, read.aByte());
+        assertEquals('c', read.aChar());
+        assertEquals(2, read.aShort());
+        assertEquals(3, read.count());
+        assertEquals(4L, read.userId());
+        assertEquals(5f, read.ratio(), 0f);
+        assertEquals(6d, read.score(), 0d);
+        assertEquals("name", read.name());
+        assertEquals("label", read.label().toString());
+        assertEquals(1, read.extras().getInt("nested"));
+        assertEquals("action", read.intent().getAction());
+        assertEquals(TimeUnit.SECONDS, read.unit());
+        assertArrayEquals(new int[] {7, 8}, read.ints());
+        assertArrayEquals(new long[] {9L}, read.longs());
+        assertArrayEquals(new String[] {"x", "y"}, read.strings());
+        assertEquals(1, read.parcelables().length);
+        assertEquals(Arrays.asList(10, 11), read.integers());
+        assertEquals(Arrays.asList("p", "q"), read.names());
+        assertEquals("r", read.labels().get(0).toString());
+        assertEquals("s", read.intents().get(0).getAction());
+        assertEquals(12, read.depth());
+    }
+
+    @Test
+    public void testMissingEntries() {
+        final Values read = BundleSchemaTest_ValuesBundles.read(new Bundle());
+        final Bundle empty = new Bundle();
+
+        assertEquals(empty.getBoolean("flag"), read.flag());
+        assertEquals(empty.getChar("aChar"), read.aChar());
+        assertEquals(empty.getLong("userId"), read.userId());
+        assertEquals(empty.getDouble("score"), read.score(), 0d);
+        assertNull(read.name());
+        assertNull(read.ints());
+        assertNull(read.names());
+    }
+
+    @Test
+    public void testMismatchedListThrows() {
+        final Bundle bundle = new Bundle();
+        {
+            bundle.putIntegerArrayList(BundleSchemaTest_ValuesBundles.KEY_NAMES, new ArrayList<>(Arrays.asList(1)));
+        }
+
+        // the unchecked list getStringArrayList would hand out 🚨
+        assertEquals(1, bundle.getStringArrayList(BundleSchemaTest_ValuesBundles.KEY_NAMES).size());
+
+        try {
+            BundleSchemaTest_ValuesBundles.read(bundle);
+            fail();
+        } catch (ClassCastException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("names expected java.lang.String elements"));
+        }
+    }
+
+    @Test
+    public void testMismatchedValueThrows() {
+        final Bundle bundle = new Bundle();
+        {
+            bundle.putInt(BundleSchemaTest_ValuesBundles.KEY_USER_ID, 1);
+        }
+
+        // getLong answers the default 🚨
+        assertEquals(0L, bundle.getLong(BundleSchemaTest_ValuesBundles.KEY_USER_ID));
+
+        try {
+            BundleSchemaTest_ValuesBundles.read(bundle);
+            fail();
+        } catch (ClassCastException e) {
+            assertEquals("userId expected long but was java.lang.Integer", e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(AndroidJUnit4.class)
+public class BundleSizeEstimatorTest {
+
+    private final MarshalHarness harness = new MarshalHarness();
+
+    @Test
+    public void testEveryShape() {
+        final BundleSizeEstimator estimator = new BundleSizeEstimator();
+        final BundleSizeEstimator.Breakdown breakdown = new BundleSizeEstimator.Breakdown();
+
+        for (BundleShape shape : BundleShape.values()) {
+            if (!shape.isSupported()) {
+                continue;
+            }
+            for (int size : new int[] {0, 1, 2, 3, 100}) {
+                final Bundle org = shape.create(size);
+                final MarshalReport report = harness.measure(org);
+
+                final String message = shape + "[" + size + "]";
+                assertEquals(message, report.bytes, estimator.sizeOf(org, breakdown));
+
+                final Map<String, Integer> expected = new HashMap<>();
+                for (MarshalReport.Entry entry : report.entries) {
+                    expected.put(entry.key, entry.bytes);
+                }
+                final Map<String, Integer> actual = new HashMap<>();
+                for (int i = 0; i < breakdown.size(); i++) {
+                    actual.put(breakdown.key(i), breakdown.bytes(i));
+                }
+                assertEquals(message, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyBundle() {
+        final Bundle org = new Bundle();
+        assertEquals(harness.measure(org).bytes, new BundleSizeEstimator().sizeOf(org));
+    }
+
+    @Test
+    public void testNullValues() {
+        final Bundle org = new Bundle();
+        {
+            org.putString("string", null);
+            org.putIntArray("intArray", null);
+            org.putBundle("bundle", null);
+            org.putParcelable("parcelable", null);
+            org.putSerializable("serializable", null);
+        }
+        assertEquals(harness.measure(org).bytes, new BundleSizeEstimator().sizeOf(org));
+    }
+
+    @Test
+    public void testSizer() {
+        final Intent value = new Intent("action");
+
+        final Bundle org = new Bundle();
+        {
+            org.putParcelable("key", value);
+        }
+
+        final BundleSizeEstimator estimator = new BundleSizeEstimator()
+                .register(Intent.class, new BundleSizeEstimator.Sizer<Intent>() {
+                    @Override
+                    public int sizeOf(Intent value, BundleSizeEstimator estimator) {
+                        final Parcel parcel = Parcel.obtain();
+                        try {
+                            value.writeToParcel(parcel, 0);
+                            return parcel.dataSize();
+                        } finally {
+                            parcel.recycle();
+                        }
+                    }
+                });
+
+        assertEquals(harness.measure(org).bytes, estimator.sizeOf(org));
+        assertEquals(0, estimator.fallbackCount());
+    }
+
+}
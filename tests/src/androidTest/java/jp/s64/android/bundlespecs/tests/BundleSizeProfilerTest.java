@@ -0,0 +1,236 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class BundleSizeProfilerTest {
+
+    @Test
+    public void testTotalMatchesEstimator() {
+        final BundleSizeEstimator estimator = new BundleSizeEstimator();
+        final BundleSizeProfiler profiler = new BundleSizeProfiler();
+
+        for (BundleShape shape : BundleShape.values()) {
+            if (!shape.isSupported()) {
+                continue;
+            }
+            for (int size : new int[] {0, 1, 3}) {
+                final Bundle bundle = shape.create(size);
+                assertEquals(shape + "[" + size + "]", estimator.sizeOf(bundle), profiler.scan(bundle).run().totalBytes());
+            }
+        }
+        final Bundle nested = nested();
+        assertEquals(estimator.sizeOf(nested), profiler.scan(nested).run().totalBytes());
+        assertEquals(4, profiler.scan(new Bundle()).run().totalBytes());
+    }
+
+    @Test
+    public void testNestedPathsIncludeChildren() {
+        final BundleSizeEstimator estimator = new BundleSizeEstimator();
+        final Bundle bundle = nested();
+        final BundleSizeProfiler.Scan scan = new BundleSizeProfiler().scan(bundle).run();
+
+        final List<BundleSizeProfiler.Entry> top = scan.top(3);
+        assertEquals("photo", top.get(0).path);
+        assertEquals(estimator.sizeOfEntry("photo", bundle.get("photo")), top.get(0).bytes);
+        assertEquals("state", top.get(1).path);
+        assertEquals(estimator.sizeOfEntry("state", bundle.get("state")), top.get(1).bytes);
+        assertEquals("state/text", top.get(2).path);
+
+        assertEquals(estimator.sizeOfEntry("inner", bundle.getBundle("state").get("inner")), bytes(scan, "state/inner"));
+        assertEquals(estimator.sizeOfEntry("deep", 1L), bytes(scan, "state/inner/deep"));
+    }
+
+    @Test
+    public void testStepsWithinBudget() {
+        final Bundle bundle = nested();
+        final BundleSizeProfiler profiler = new BundleSizeProfiler();
+        final BundleSizeProfiler.Scan scan = profiler.scan(bundle);
+
+        int steps = 0;
+        while (!scan.step(0)) {
+            steps++;
+            assertEquals(-1, scan.totalBytes());
+        }
+        assertTrue(scan.isDone());
+        assertTrue(steps > 4);
+        assertEquals(new BundleSizeEstimator().sizeOf(bundle), scan.totalBytes());
+        assertEquals(1, profiler.scanCount());
+    }
+
+    @Test
+    public void testIntentExtras() {
+        final Intent intent = new Intent("action");
+        {
+            intent.putExtra("big", new int[1000]);
+            intent.putExtra("small", 1);
+        }
+        final Bundle bundle = new Bundle();
+        {
+            bundle.putParcelable("intent", intent);
+            bundle.putInt("id", 1);
+        }
+
+        final BundleSizeProfiler profiler = new BundleSizeProfiler();
+        final BundleSizeProfiler.Scan scan = profiler.scan(bundle).run();
+
+        assertEquals("intent", scan.top(1).get(0).path);
+        assertEquals("intent/big", scan.top(2).get(1).path);
+        assertEquals(new BundleSizeEstimator().sizeOf(bundle), scan.totalBytes());
+
+        assertEquals("big", profiler.scan(intent).run().top(1).get(0).path);
+        assertEquals(4, profiler.scan(new Intent()).run().totalBytes());
+    }
+
+    @Test
+    public void testMaxDepth() {
+        final BundleSizeProfiler.Scan scan = new BundleSizeProfiler(16, 1, 1).scan(nested()).run();
+
+        assertTrue(bytes(scan, "state") > 0);
+        assertEquals(-1, bytes(scan, "state/text"));
+        assertEquals(new BundleSizeEstimator().sizeOf(nested()), scan.totalBytes());
+    }
+
+    @Test
+    public void testEvictsLightestPath() {
+        final BundleSizeEstimator estimator = new BundleSizeEstimator();
+        final BundleSizeProfiler profiler = new BundleSizeProfiler(2, 1, 1);
+        for (String key : new String[] {"heavy", "light", "new"}) {
+            final Bundle bundle = new Bundle();
+            bundle.putByteArray(key, new byte[key.equals("heavy") ? 1000 : key.equals("light") ? 0 : 100]);
+            profiler.scan(bundle).run();
+        }
+
+        final List<BundleSizeProfiler.Entry> top = profiler.top(2);
+        assertEquals("heavy", top.get(0).path);
+        assertEquals(0, top.get(0).error);
+        assertEquals("new", top.get(1).path);
+        assertEquals(estimator.sizeOfEntry("light", new byte[0]), top.get(1).error);
+    }
+
+    @Test
+    public void testAggregatesAcrossScans() {
+        final BundleSizeProfiler profiler = new BundleSizeProfiler();
+        for (int i = 0; i < 10; i++) {
+            final Bundle bundle = new Bundle();
+            bundle.putByteArray("bytes", new byte[i * 100]);
+            bundle.putInt("int", i);
+            profiler.scan(bundle).run();
+        }
+
+        final List<BundleSizeProfiler.Entry> top = profiler.top(10);
+        assertEquals(2, top.size());
+        assertEquals("bytes", top.get(0).path);
+        assertEquals(10, top.get(0).count);
+        assertEquals(new BundleSizeEstimator().sizeOfEntry("bytes", new byte[900]), top.get(0).maxBytes);
+        assertEquals(0, top.get(0).error);
+        assertEquals(10, profiler.scanCount());
+
+        profiler.reset();
+        assertTrue(profiler.top(10).isEmpty());
+        assertEquals(0, profiler.scanCount());
+    }
+
+    @Test
+    public void testBoundedMemoryKeepsHeavyHitters() {
+        final BundleSizeProfiler profiler = new BundleSizeProfiler(8, 8, 1);
+        for (int i = 0; i < 1000; i++) {
+            final Bundle bundle = new Bundle();
+            bundle.putIntArray("heavy", new int[256]);
+            bundle.putInt("unique" + i, i);
+            profiler.scan(bundle).run();
+        }
+
+        final List<BundleSizeProfiler.Entry> top = profiler.top(100);
+        assertEquals(8, top.size());
+        assertEquals("heavy", top.get(0).path);
+        assertEquals(1000, top.get(0).count);
+
+        long bound = 0;
+        for (BundleSizeProfiler.Entry entry : top) {
+            assertTrue(entry.error <= entry.bytes);
+            bound = Math.max(bound, entry.error);
+        }
+        // Space-Saving overestimates a unique key by at most the lightest total
+        assertTrue(top.get(7).bytes >= bound);
+    }
+
+    @Test
+    public void testSampling() {
+        final BundleSizeProfiler profiler = new BundleSizeProfiler(16, 8, 4);
+        final List<Boolean> sampled = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            sampled.add(profiler.shouldSample());
+        }
+        int count = 0;
+        for (boolean s : sampled) {
+            count += s ? 1 : 0;
+        }
+        assertEquals(2, count);
+        assertFalse(sampled.get(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsZeroCapacity() {
+        new BundleSizeProfiler(0, 8, 1);
+    }
+
+    private static Bundle nested() {
+        final Bundle inner = new Bundle();
+        {
+            inner.putLong("deep", 1);
+        }
+        final Bundle state = new Bundle();
+        {
+            state.putString("text", BundleShape.text(200));
+            state.putBundle("inner", inner);
+            state.putInt("count", 1);
+        }
+        final Bundle ret = new Bundle();
+        {
+            ret.putByteArray("photo", new byte[4096]);
+            ret.putBundle("state", state);
+            ret.putInt("id", 1);
+            ret.putBundle("empty", new Bundle());
+        }
+        return ret;
+    }
+
+    private static long bytes(BundleSizeProfiler.Scan scan, String path) {
+        for (BundleSizeProfiler.Entry entry : scan.top(Integer.MAX_VALUE)) {
+            if (entry.path.equals(path)) {
+                return entry.bytes;
+            }
+        }
+        return -1;
+    }
+
+}
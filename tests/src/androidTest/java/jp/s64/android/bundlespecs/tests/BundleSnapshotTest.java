@@ -0,0 +1,207 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcelable;
+import android.support.test.espresso.core.internal.deps.guava.collect.Lists;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class BundleSnapshotTest {
+
+    @Test
+    public void testWithLeavesOriginalUntouched() {
+        final Bundle org = new Bundle();
+        {
+            org.putInt("a", 1);
+            org.putString("b", "two");
+        }
+
+        final BundleSnapshot first = BundleSnapshot.of(org);
+        final BundleSnapshot second = first.with("a", 2);
+
+        assertEquals(1, first.getInt("a"));
+        assertEquals(2, second.getInt("a"));
+        assertEquals("two", second.getString("b"));
+        assertEquals(2, second.size());
+
+        final BundleSnapshot third = second.without("b");
+        assertTrue(second.containsKey("b"));
+        assertFalse(third.containsKey("b"));
+        assertEquals(1, third.size());
+        assertSame(third, third.without("b"));
+    }
+
+    @Test
+    public void testWithPathSharesSiblings() {
+        final Bundle inner = new Bundle();
+        {
+            inner.putInt("x", 1);
+        }
+        final Bundle org = new Bundle();
+        {
+            org.putBundle("left", inner);
+            org.putBundle("right", BundleShape.BUNDLE.create(100));
+        }
+
+        final BundleSnapshot first = BundleSnapshot.of(org);
+        final BundleSnapshot second = first.withPath(new String[] {"left", "y"}, 2);
+
+        assertSame(first.getSnapshot("right"), second.getSnapshot("right"));
+        assertEquals(1, second.getSnapshot("left").getInt("x"));
+        assertEquals(2, second.getSnapshot("left").getInt("y"));
+        assertFalse(first.getSnapshot("left").containsKey("y"));
+
+        final BundleSnapshot created = BundleSnapshot.EMPTY.withPath(new String[] {"a", "b", "c"}, "value");
+        assertEquals("value", created.getSnapshot("a").getSnapshot("b").getString("c"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWithPathThroughNonBundle() {
+        BundleSnapshot.EMPTY.with("a", 1).withPath(new String[] {"a", "b"}, 2);
+    }
+
+    @Test
+    public void testHashCollisions() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+
+        final BundleSnapshot snapshot = BundleSnapshot.EMPTY
+                .with("Aa", 1)
+                .with("BB", 2)
+                .with("AaBB", 3)
+                .with("BBAa", 4);
+
+        assertEquals(1, snapshot.getInt("Aa"));
+        assertEquals(2, snapshot.getInt("BB"));
+        assertEquals(3, snapshot.getInt("AaBB"));
+        assertEquals(4, snapshot.getInt("BBAa"));
+        assertEquals(2, snapshot.without("Aa").getInt("BB"));
+        assertFalse(snapshot.without("Aa").containsKey("Aa"));
+    }
+
+    @Test
+    public void testHashCollisionsShareASlotWithOtherHashes() {
+        // " " shares only the first level's slot with the fully colliding "Aa" and "BB"
+        assertEquals("Aa".hashCode() & 31, " ".hashCode() & 31);
+
+        final BundleSnapshot snapshot = BundleSnapshot.EMPTY
+                .with("Aa", 1)
+                .with("BB", 2)
+                .with(" ", 3);
+
+        assertEquals(1, snapshot.getInt("Aa"));
+        assertEquals(2, snapshot.getInt("BB"));
+        assertEquals(3, snapshot.getInt(" "));
+        assertEquals(3, snapshot.with("Aa", 4).getInt(" "));
+        assertEquals(4, snapshot.with("Aa", 4).getInt("Aa"));
+        assertEquals(2, snapshot.without(" ").getInt("BB"));
+        assertFalse(snapshot.without("BB").containsKey("BB"));
+        assertEquals(1, snapshot.without("BB").without(" ").getInt("Aa"));
+        assertEquals(3, snapshot.toBundle().size());
+    }
+
+    @Test
+    public void testMatchesHashMap() {
+        final Random random = new Random(0);
+        final Map<String, Integer> expected = new HashMap<>();
+        BundleSnapshot snapshot = BundleSnapshot.EMPTY;
+
+        for (int i = 0; i < 10000; i++) {
+            final String key = "key" + random.nextInt(2000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                snapshot = snapshot.without(key);
+            } else {
+                expected.put(key, i);
+                snapshot = snapshot.with(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), snapshot.size());
+        assertEquals(expected.keySet(), snapshot.keySet());
+        for (Map.Entry<String, Integer> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), snapshot.getInt(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testDeepCopySemantics() {
+        final IBinder binder = new Binder();
+        final Serializable serializable = "myStringValue";
+        final Bundle bundle = new Bundle();
+        final ArrayList<Parcelable> list = Lists.<Parcelable>newArrayList(new Bundle(), new Intent());
+        final int[] ints = new int[] {1, 2};
+        final boolean[] booleans = new boolean[] {true};
+
+        final Bundle org = new Bundle();
+        {
+            org.putBinder("binder", binder);
+            org.putSerializable("serializable", serializable);
+            org.putBundle("bundle", bundle);
+            org.putParcelableArrayList("list", list);
+            org.putIntArray("ints", ints);
+            org.putBooleanArray("booleans", booleans);
+        }
+
+        final Bundle copied = BundleSnapshot.of(org).toBundle();
+
+        assertSame(binder, copied.getBinder("binder")); // 🚨
+        assertSame(serializable, copied.getSerializable("serializable")); // 🚨
+        assertNotSame(bundle, copied.getBundle("bundle"));
+        assertNotSame(list, copied.getParcelableArrayList("list"));
+        assertFalse(copied.getParcelableArrayList("list").containsAll(list)); // 🚨
+        assertSame(list.get(1), copied.getParcelableArrayList("list").get(1));
+        assertNotSame(ints, copied.getIntArray("ints"));
+        assertSame(booleans, copied.getBooleanArray("booleans")); // 🚨
+
+        ints[0] = 100;
+        assertEquals(1, copied.getIntArray("ints")[0]);
+    }
+
+    @Test
+    public void testNestedBundleGetters() {
+        final BundleSnapshot snapshot = BundleSnapshot.EMPTY.with("key", new Bundle());
+
+        assertTrue(snapshot.get("key") instanceof Bundle);
+        assertNotNull(snapshot.getBundle("key"));
+        assertNotNull(snapshot.getParcelable("key")); // 🚨
+        assertNull(snapshot.getString("key"));
+        assertNotNull(snapshot.getSnapshot("key"));
+    }
+
+}
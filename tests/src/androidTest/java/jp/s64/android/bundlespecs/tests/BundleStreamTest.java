@@ -0,0 +1,255 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Binder;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static jp.s64.android.bundlespecs.tests.LazyBundleTest.assertSameValue;
+import static jp.s64.android.bundlespecs.tests.LazyBundleTest.roundTrip;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class BundleStreamTest {
+
+    @Test
+    public void testEveryShapeButBinder() throws Exception {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            for (BundleShape shape : BundleShape.values()) {
+                if (!shape.isSupported() || shape == BundleShape.BINDER) {
+                    continue;
+                }
+                for (int size : new int[] {0, 1, 3, 100}) {
+                    final Bundle org = shape.create(size);
+                    final Bundle restored = roundTrip(org);
+                    final BundleStream.FrameQueue queue = new BundleStream.FrameQueue(2);
+                    final Future<?> sent = executor.submit(new Callable<Void>() {
+                        @Override
+                        public Void call() throws Exception {
+                            BundleStream.send(org, queue, 16);
+                            return null;
+                        }
+                    });
+                    final Bundle received = BundleStream.receive(queue, getClass().getClassLoader());
+                    sent.get();
+
+                    assertEquals(restored.keySet(), received.keySet());
+                    for (String key : restored.keySet()) {
+                        assertSameValue(shape + "[" + size + "]." + key, restored.get(key), received.get(key));
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDecodesBeforeTheLastFrame() throws IOException {
+        final Bundle org = new Bundle();
+        {
+            org.putInt("first", 1);
+            org.putByteArray("large", new byte[100 * 1024]);
+        }
+        final List<byte[]> frames = record(org, 1024);
+        final int[] consumed = new int[1];
+        final int[] consumedAtFirstEntry = new int[] {-1};
+        final Iterator<byte[]> iterator = frames.iterator();
+
+        final int count = BundleStream.receive(
+                new BundleStream.FrameSource() {
+                    @Override
+                    public ByteBuffer receive() {
+                        consumed[0]++;
+                        return iterator.hasNext() ? ByteBuffer.wrap(iterator.next()) : null;
+                    }
+                },
+                getClass().getClassLoader(),
+                new BundleStream.Listener() {
+                    @Override
+                    public void onEntry(String key, Object value) {
+                        if (consumedAtFirstEntry[0] < 0) {
+                            consumedAtFirstEntry[0] = consumed[0];
+                        }
+                    }
+                }
+        );
+
+        assertEquals(2, count);
+        assertEquals(frames.size(), consumed[0]);
+        assertTrue(frames.size() > 100);
+        assertTrue(consumedAtFirstEntry[0] < frames.size() / 10);
+        for (byte[] frame : frames.subList(0, frames.size() - 1)) {
+            assertEquals(1024, frame.length);
+        }
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        final Bundle org = new Bundle();
+        org.putByteArray("large", new byte[1024 * 1024]);
+        final BundleStream.FrameQueue queue = new BundleStream.FrameQueue(4);
+
+        final Thread sender = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    BundleStream.send(org, queue, 1024);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        sender.start();
+        sender.join(200);
+        assertTrue(sender.isAlive()); // blocked on the full queue
+
+        final Bundle received = BundleStream.receive(queue, getClass().getClassLoader());
+        sender.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(sender.isAlive());
+        assertEquals(1024 * 1024, received.getByteArray("large").length);
+    }
+
+    @Test
+    public void testSeveralBundlesOverAPipe() throws Exception {
+        final Pipe pipe = Pipe.open();
+        final BundleStream.FrameSink sink = BundleStream.sink(Channels.newOutputStream(pipe.sink()));
+        final BundleStream.FrameSource source = BundleStream.source(Channels.newInputStream(pipe.source()));
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<?> sent = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 3; i++) {
+                        final Bundle bundle = BundleShape.INT_ARRAY.create(10000 * i);
+                        bundle.putInt("index", i);
+                        BundleStream.send(bundle, sink, 4096);
+                    }
+                    pipe.sink().close();
+                    return null;
+                }
+            });
+
+            for (int i = 0; i < 3; i++) {
+                final Bundle received = BundleStream.receive(source, getClass().getClassLoader());
+                assertEquals(i, received.getInt("index"));
+                assertEquals(10000 * i, received.getIntArray(BundleShape.KEY).length);
+            }
+            sent.get();
+            try {
+                BundleStream.receive(source, getClass().getClassLoader());
+                fail();
+            } catch (EOFException expected) {
+                // ok
+            }
+        } finally {
+            executor.shutdown();
+            pipe.source().close();
+        }
+    }
+
+    @Test
+    public void testBinderAbortsTheStream() throws IOException {
+        final Bundle org = new Bundle();
+        {
+            org.putString("a", "a");
+            org.putBinder("b", new Binder());
+            org.putString("c", "c");
+        }
+        final List<byte[]> frames = new ArrayList<>();
+        try {
+            BundleStream.send(org, recorder(frames), 16);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            // ok
+        }
+
+        final List<String> keys = new ArrayList<>();
+        try {
+            BundleStream.receive(replay(frames), getClass().getClassLoader(), new BundleStream.Listener() {
+                @Override
+                public void onEntry(String key, Object value) {
+                    keys.add(key);
+                }
+            });
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("aborted"));
+        }
+        assertEquals(new ArrayList<>(org.keySet()).subList(0, keys.size()), keys);
+    }
+
+    @Test
+    public void testRejectsGarbage() {
+        final List<byte[]> frames = Arrays.asList(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+        try {
+            BundleStream.receive(replay(frames), getClass().getClassLoader());
+            fail();
+        } catch (IOException expected) {
+            assertEquals("Not a BundleStream", expected.getMessage());
+        }
+    }
+
+    static List<byte[]> record(Bundle bundle, int frameSize) throws IOException {
+        final List<byte[]> ret = new ArrayList<>();
+        BundleStream.send(bundle, recorder(ret), frameSize);
+        return ret;
+    }
+
+    static BundleStream.FrameSink recorder(final List<byte[]> frames) {
+        return new BundleStream.FrameSink() {
+            @Override
+            public void send(byte[] frame, int offset, int length) {
+                frames.add(Arrays.copyOfRange(frame, offset, offset + length));
+            }
+        };
+    }
+
+    static BundleStream.FrameSource replay(List<byte[]> frames) {
+        final Iterator<byte[]> iterator = frames.iterator();
+        return new BundleStream.FrameSource() {
+            @Override
+            public ByteBuffer receive() {
+                return iterator.hasNext() ? ByteBuffer.wrap(iterator.next()) : null;
+            }
+        };
+    }
+
+}
@@ -23,11 +23,17 @@ import android.os.IBinder;
 import android.os.Parcelable;
 import android.support.test.espresso.core.internal.deps.guava.collect.Lists;
 import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
 import android.util.Size;
 import android.util.SizeF;
 import android.util.SparseArray;
 
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TestName;
 import org.junit.runner.RunWith;
 
 import java.io.Serializable;
@@ -39,11 +45,37 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 @RunWith(AndroidJUnit4.class)
 public class BundleTest {
 
+    @Rule
+    public final TestName name = new TestName();
+
+    /**
+     * Records every {@code deepCopy()} below under its test name, as an allocation baseline per type.
+     */
+    @BeforeClass
+    public static void enableProbe() {
+        BundleProbe.enable(1);
+    }
+
+    @Before
+    public void tagProbe() {
+        BundleProbe.tag(name.getMethodName());
+    }
+
+    @AfterClass
+    public static void logProbe() {
+        BundleProbe.disable();
+        BundleProbe.tag(null);
+        for (BundleProbe.Row row : BundleProbe.report().byKey()) {
+            Log.i("BundleTest", row.toString());
+        }
+    }
+
     @Test
     public void testBinderTypeCheck() {
         final String key = "key";
@@ -54,7 +86,7 @@ public class BundleTest {
             org.putBinder(key, orgBinder);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(copied.getBinder(key), org.getBinder(key));
         assertEquals( // 🚨
@@ -75,7 +107,7 @@ public class BundleTest {
             org.putBundle(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertNotEquals(org.getBundle(key), copied.getBundle(key));// 🚨
         assertNotEquals(
@@ -98,7 +130,7 @@ public class BundleTest {
             org.putParcelable(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertNotEquals(org.getParcelable(key), copied.getParcelable(key)); // 🚨
         assertNotEquals(
@@ -121,7 +153,7 @@ public class BundleTest {
             org.putParcelable(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(copied.get(key) instanceof Intent);
         assertFalse(copied.get(key) instanceof Bundle);
@@ -138,7 +170,7 @@ public class BundleTest {
             org.putByte(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(org.getByte(key), copied.getByte(key));
         assertTrue(copied.get(key) instanceof Byte);
@@ -155,7 +187,7 @@ public class BundleTest {
             org.putByteArray(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(org.getByteArray(key), org.getByteArray(key));
         assertTrue(copied.get(key) instanceof byte[]);
@@ -172,7 +204,7 @@ public class BundleTest {
             org.getChar(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(org.getChar(key), copied.getChar(key));
         assertNull(copied.get(key)); // 🚨
@@ -190,7 +222,7 @@ public class BundleTest {
             org.putCharArray(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(Arrays.equals(org.getCharArray(key), copied.getCharArray(key)));
         assertTrue(copied.get(key) instanceof char[]);
@@ -207,7 +239,7 @@ public class BundleTest {
             org.putCharSequence(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(org.getCharSequence(key), copied.getCharSequence(key));
         assertTrue(copied.get(key) instanceof CharSequence);
@@ -225,7 +257,7 @@ public class BundleTest {
             org.putCharSequenceArray(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(Arrays.equals(
                 org.getCharSequenceArray(key), copied.getCharSequenceArray(key)
@@ -245,7 +277,7 @@ public class BundleTest {
             org.putCharSequenceArrayList(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(org.getCharSequenceArrayList(key).containsAll(copied.getCharSequenceArrayList(key)));
         assertTrue(copied.getCharSequenceArrayList(key).containsAll(org.getCharSequenceArrayList(key)));
@@ -268,7 +300,7 @@ public class BundleTest {
             org.putFloat(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(org.getFloat(key), copied.getFloat(key), 0f);
         assertTrue(copied.get(key) instanceof Float);
@@ -289,7 +321,7 @@ public class BundleTest {
             org.putFloatArray(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(Arrays.equals(
                 org.getFloatArray(key), copied.getFloatArray(key)
@@ -311,7 +343,7 @@ public class BundleTest {
             org.putIntegerArrayList(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(org.getIntegerArrayList(key).containsAll(copied.getIntegerArrayList(key)));
         assertTrue(copied.getIntegerArrayList(key).containsAll(org.getIntegerArrayList(key)));
@@ -333,7 +365,7 @@ public class BundleTest {
             org.putParcelableArray(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(Arrays.equals(
                 org.getParcelableArray(key), copied.getParcelableArray(key)
@@ -354,7 +386,7 @@ public class BundleTest {
             org.putParcelableArrayList(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertFalse(org.getParcelableArrayList(key).containsAll(copied.getParcelableArrayList(key))); // 🚨
         assertFalse(copied.getParcelableArrayList(key).containsAll(org.getParcelableArrayList(key))); // 🚨
@@ -376,7 +408,7 @@ public class BundleTest {
             org.putSerializable(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(org.getSerializable(key), copied.getSerializable(key));
         assertEquals( // 🚨
@@ -400,7 +432,7 @@ public class BundleTest {
             org.putShort(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(org.getShort(key), copied.getShort(key));
         assertTrue(copied.get(key) instanceof Short);
@@ -421,7 +453,7 @@ public class BundleTest {
             org.putShortArray(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(Arrays.equals(
                 org.getShortArray(key), copied.getShortArray(key)
@@ -445,7 +477,7 @@ public class BundleTest {
             org.putSize(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(org.getSize(key), copied.getSize(key));
         assertTrue(copied.get(key) instanceof Size);
@@ -463,7 +495,7 @@ public class BundleTest {
             org.putSizeF(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(org.getSizeF(key), copied.getSizeF(key));
         assertTrue(copied.get(key) instanceof SizeF);
@@ -485,9 +517,9 @@ public class BundleTest {
             org.putSparseParcelableArray(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
-        // TODO: (not) equality check
+        assertSame(orgValue, copied.get(key)); // 🚨 deepCopy() shares SparseArrays, see BundleMatrixTest
         assertTrue(orgValue.getClass().isInstance(copied.get(key)));
         assertNull(copied.getParcelableArray(key));
         assertNull(copied.getParcelableArrayList(key));
@@ -503,7 +535,7 @@ public class BundleTest {
             org.putStringArrayList(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(org.getStringArrayList(key).containsAll(copied.getStringArrayList(key)));
         assertTrue(copied.getStringArrayList(key).containsAll(org.getStringArrayList(key)));
@@ -525,7 +557,7 @@ public class BundleTest {
             org.putBoolean(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(org.getBoolean(key), copied.getBoolean(key));
         assertTrue(copied.get(key) instanceof Boolean);
@@ -544,7 +576,7 @@ public class BundleTest {
             org.putBooleanArray(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(Arrays.equals(
                 org.getBooleanArray(key), copied.getBooleanArray(key)
@@ -564,7 +596,7 @@ public class BundleTest {
             org.putDouble(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(org.getDouble(key), copied.getDouble(key), 0);
         assertTrue(copied.get(key) instanceof Double);
@@ -585,7 +617,7 @@ public class BundleTest {
             org.putDoubleArray(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(Arrays.equals(
                 org.getDoubleArray(key), copied.getDoubleArray(key)
@@ -609,7 +641,7 @@ public class BundleTest {
             org.putIntArray(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(Arrays.equals(
                 org.getIntArray(key), copied.getIntArray(key)
@@ -635,7 +667,7 @@ public class BundleTest {
             org.putLong(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertEquals(org.getLong(key), copied.getLong(key));
         assertTrue(copied.get(key) instanceof Long);
@@ -656,7 +688,7 @@ public class BundleTest {
             org.putLongArray(key, orgValue);
         }
 
-        Bundle copied = org.deepCopy();
+        Bundle copied = BundleProbe.deepCopy(org);
 
         assertTrue(Arrays.equals(
                 org.getLongArray(key), copied.getLongArray(key)
@@ -0,0 +1,194 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class CompressedBundleTest {
+
+    @Test
+    public void testLz4RoundTrip() {
+        final Random random = new Random(0);
+        for (int length : new int[] {0, 1, 12, 13, 64, 1000, 65536, 300000}) {
+            for (int pattern = 0; pattern < 4; pattern++) {
+                final byte[] src = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    switch (pattern) {
+                        case 0:
+                            src[i] = 0;
+                            break;
+                        case 1:
+                            src[i] = (byte) random.nextInt();
+                            break;
+                        case 2:
+                            src[i] = (byte) (i % 7);
+                            break;
+                        default:
+                            src[i] = (byte) (random.nextInt(16) == 0 ? random.nextInt() : i / 100);
+                            break;
+                    }
+                }
+                final byte[] compressed = new byte[Lz4.maxCompressedLength(length) + 3];
+                final int compressedLength = Lz4.compress(src, 0, length, compressed, 3);
+                final byte[] restored = new byte[length + 2];
+                Lz4.decompress(compressed, 3, compressedLength, restored, 2, length);
+
+                assertArrayEquals(length + "/" + pattern, src, Arrays.copyOfRange(restored, 2, length + 2));
+                if (pattern == 0 && length > 1000) {
+                    assertTrue(compressedLength < length / 100);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLz4Malformed() {
+        final byte[] src = new byte[1000];
+        final byte[] compressed = new byte[Lz4.maxCompressedLength(src.length)];
+        final int length = Lz4.compress(src, 0, src.length, compressed, 0);
+
+        Lz4.decompress(compressed, 0, length - 1, new byte[src.length], 0, src.length);
+    }
+
+    @Test
+    public void testThreshold() {
+        final Bundle org = new Bundle();
+        {
+            org.putByteArray("small", new byte[100]);
+            org.putByteArray("bytes", new byte[10000]);
+            org.putIntArray("ints", ramp(10000));
+            org.putLongArray("longs", timestamps(10000));
+            org.putByteArray("random", random(10000));
+            org.putString("string", "value");
+        }
+
+        final CompressedBundle compressed = CompressedBundle.from(org);
+
+        assertFalse(compressed.isCompressed("small"));
+        assertTrue(compressed.isCompressed("bytes"));
+        assertTrue(compressed.isCompressed("ints"));
+        assertTrue(compressed.isCompressed("longs"));
+        assertFalse(compressed.isCompressed("random")); // doesn't shrink enough
+        assertFalse(compressed.isCompressed("string"));
+        assertEquals(10000 + 40000 + 80000, compressed.uncompressedBytes());
+        assertTrue(compressed.compressedBytes() < compressed.uncompressedBytes() / 2);
+
+        assertArrayEquals(org.getByteArray("bytes"), compressed.getByteArray("bytes"));
+        assertArrayEquals(org.getIntArray("ints"), compressed.getIntArray("ints"));
+        assertArrayEquals(org.getLongArray("longs"), compressed.getLongArray("longs"));
+        assertSame(org.getByteArray("random"), compressed.getByteArray("random"));
+        assertSame(org.getByteArray("small"), compressed.getByteArray("small"));
+        assertEquals("value", compressed.getString("string"));
+    }
+
+    @Test
+    public void testDecompressesOnEveryGet() {
+        final Bundle org = new Bundle();
+        org.putIntArray("ints", ramp(10000));
+
+        final CompressedBundle compressed = CompressedBundle.from(org);
+
+        assertNotSame(compressed.getIntArray("ints"), compressed.getIntArray("ints"));
+        assertNull(compressed.getByteArray("ints"));
+        assertNull(compressed.getLongArray("ints"));
+        assertTrue(compressed.get("ints") instanceof int[]);
+    }
+
+    @Test
+    public void testParcelKeepsValuesCompressed() {
+        final Bundle org = new Bundle();
+        {
+            org.putIntArray("ints", ramp(10000));
+            org.putInt("int", 1);
+        }
+        final CompressedBundle compressed = CompressedBundle.from(org);
+
+        final Bundle outer = new Bundle();
+        outer.putParcelable("compressed", compressed);
+        final Bundle restored = LazyBundleTest.roundTrip(outer);
+        final CompressedBundle read = restored.getParcelable("compressed");
+
+        assertNotSame(compressed, read);
+        assertTrue(read.isCompressed("ints"));
+        assertEquals(compressed.compressedBytes(), read.compressedBytes());
+        assertArrayEquals(org.getIntArray("ints"), read.getIntArray("ints"));
+        assertEquals(1, read.getInt("int"));
+        assertTrue(BundleEquality.equals(org, read.toBundle()));
+    }
+
+    @Test
+    public void testPoolReusesBuffers() {
+        final ByteArrayPool pool = new ByteArrayPool(2, 1024 * 1024);
+        final Bundle org = new Bundle();
+        org.putLongArray("longs", timestamps(10000));
+
+        final CompressedBundle compressed = CompressedBundle.from(org, 1024, pool);
+        final long misses = pool.missCount();
+        for (int i = 0; i < 10; i++) {
+            compressed.getLongArray("longs");
+            CompressedBundle.from(org, 1024, pool);
+        }
+
+        assertEquals(misses, pool.missCount());
+        assertTrue(pool.hitCount() >= 30);
+
+        final byte[] buffer = pool.acquire(3000);
+        assertEquals(4096, buffer.length);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire(2049));
+    }
+
+    static int[] ramp(int length) {
+        final int[] ret = new int[length];
+        for (int i = 0; i < length; i++) {
+            ret[i] = i / 16;
+        }
+        return ret;
+    }
+
+    static long[] timestamps(int length) {
+        final long[] ret = new long[length];
+        for (int i = 0; i < length; i++) {
+            ret[i] = 1500000000000L + i * 20;
+        }
+        return ret;
+    }
+
+    static byte[] random(int length) {
+        final byte[] ret = new byte[length];
+        new Random(length).nextBytes(ret);
+        return ret;
+    }
+
+}
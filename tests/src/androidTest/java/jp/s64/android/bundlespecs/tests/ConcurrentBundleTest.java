@@ -0,0 +1,200 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static jp.s64.android.bundlespecs.tests.LazyBundleTest.assertSameValue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class ConcurrentBundleTest {
+
+    @Test
+    public void testEveryShape() {
+        for (BundleShape shape : BundleShape.values()) {
+            if (!shape.isSupported()) {
+                continue;
+            }
+            final Bundle org = shape.create(3);
+            final ConcurrentBundle concurrent = new ConcurrentBundle(org);
+
+            assertEquals(org.keySet(), concurrent.keySet());
+            for (String key : org.keySet()) {
+                assertSame(shape + "." + key, org.get(key), concurrent.get(key));
+            }
+            final Bundle exported = concurrent.toBundle();
+            for (String key : org.keySet()) {
+                assertSameValue(shape + "." + key, org.get(key), exported.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void testTypedAccessors() {
+        final ConcurrentBundle concurrent = new ConcurrentBundle()
+                .putInt("int", 1)
+                .putLong("long", 2L)
+                .putString("string", "three")
+                .putCharSequence("charSequence", "four")
+                .putIntArray("ints", new int[] {5})
+                .putString("null", null);
+
+        assertEquals(1, concurrent.getInt("int"));
+        assertEquals(0, concurrent.getInt("long")); // like Bundle, no widening or narrowing
+        assertEquals(2L, concurrent.getLong("long"));
+        assertEquals("three", concurrent.getString("string"));
+        assertEquals("four", concurrent.getString("charSequence")); // 🚨 as in BundleTest
+        assertNull(concurrent.getIntArray("string"));
+        assertEquals(5, concurrent.getIntArray("ints")[0]);
+
+        assertTrue(concurrent.containsKey("null"));
+        assertNull(concurrent.get("null"));
+        assertEquals("default", concurrent.getString("null", "default"));
+        assertTrue(concurrent.toBundle().containsKey("null"));
+
+        assertEquals(1, concurrent.putIfAbsent("int", 10));
+        assertNull(concurrent.putIfAbsent("absent", 10));
+        assertEquals(1, concurrent.getInt("int"));
+        concurrent.remove("int");
+        assertFalse(concurrent.containsKey("int"));
+        assertEquals(6, concurrent.size());
+        concurrent.clear();
+        assertTrue(concurrent.isEmpty());
+    }
+
+    @Test
+    public void testNullKeys() {
+        final ConcurrentBundle concurrent = new ConcurrentBundle().putInt("int", 1);
+
+        assertNull(concurrent.get(null));
+        assertFalse(concurrent.containsKey(null));
+        assertEquals(0, concurrent.getInt(null));
+        assertEquals("default", concurrent.getString(null, "default"));
+
+        for (Runnable write : new Runnable[] {
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        concurrent.put(null, 1);
+                    }
+                },
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        concurrent.putIfAbsent(null, 1);
+                    }
+                },
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        concurrent.remove(null);
+                    }
+                },
+        }) {
+            try {
+                write.run();
+                fail();
+            } catch (NullPointerException expected) {
+                assertEquals("key", expected.getMessage());
+            }
+        }
+        assertEquals(1, concurrent.size());
+    }
+
+    @Test
+    public void testConcurrentPutsAreNotLost() throws Exception {
+        final ConcurrentBundle concurrent = new ConcurrentBundle(4);
+        final int threads = 8;
+        final int keys = 2000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                final int thread = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        for (int i = 0; i < keys; i++) {
+                            concurrent.putInt(thread + "." + i, i);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(threads * keys, concurrent.size());
+        assertEquals(threads * keys, concurrent.toBundle().size());
+        assertEquals(keys - 1, concurrent.getInt((threads - 1) + "." + (keys - 1)));
+    }
+
+    @Test
+    public void testToBundleIsASnapshot() throws Exception {
+        final ConcurrentBundle concurrent = new ConcurrentBundle();
+        final AtomicBoolean done = new AtomicBoolean();
+        final Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20000; i++) {
+                    concurrent.putInt("key" + i, i);
+                }
+                done.set(true);
+            }
+        };
+        writer.start();
+
+        int snapshots = 0;
+        while (!done.get() || snapshots == 0) {
+            final Bundle snapshot = concurrent.toBundle();
+            // keys are put in order, so every snapshot must be a prefix without gaps
+            for (int i = 0; i < snapshot.size(); i++) {
+                assertTrue(snapshot.size() + " keys but no key" + i, snapshot.containsKey("key" + i));
+            }
+            snapshots++;
+        }
+        writer.join();
+        assertEquals(20000, concurrent.toBundle().size());
+    }
+
+}
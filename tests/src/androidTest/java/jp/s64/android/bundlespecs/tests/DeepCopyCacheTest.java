@@ -0,0 +1,83 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class DeepCopyCacheTest {
+
+    @Test
+    public void testEqualInputsShareOneCopy() {
+        final DeepCopyCache cache = new DeepCopyCache(4);
+        final Bundle a = BundleShape.INT_ARRAY.create(10);
+        final Bundle b = BundleShape.INT_ARRAY.create(10);
+
+        final Bundle copied = cache.get(a);
+        assertNotSame(a, copied);
+        assertNotSame(a.getIntArray(BundleShape.KEY), copied.getIntArray(BundleShape.KEY));
+        assertTrue(BundleEquality.equals(a, copied));
+
+        assertSame(copied, cache.get(b));
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        final DeepCopyCache cache = new DeepCopyCache(2);
+        final Bundle first = cache.get(BundleShape.INT_ARRAY.create(1));
+        final Bundle second = cache.get(BundleShape.INT_ARRAY.create(2));
+
+        assertSame(first, cache.get(BundleShape.INT_ARRAY.create(1)));
+        cache.get(BundleShape.INT_ARRAY.create(3));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+        assertSame(first, cache.get(BundleShape.INT_ARRAY.create(1)));
+        assertNotSame(second, cache.get(BundleShape.INT_ARRAY.create(2)));
+    }
+
+    @Test
+    public void testMutatedCopyIsNotHandedOutAgain() {
+        final DeepCopyCache cache = new DeepCopyCache(4);
+        final Bundle org = BundleShape.BUNDLE.create(3);
+
+        final Bundle copied = cache.get(org);
+        copied.putInt("mutated", 1);
+
+        final Bundle again = cache.get(org);
+        assertNotSame(copied, again);
+        assertTrue(BundleEquality.equals(org, again));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxEntriesMustBePositive() {
+        new DeepCopyCache(0);
+    }
+
+}
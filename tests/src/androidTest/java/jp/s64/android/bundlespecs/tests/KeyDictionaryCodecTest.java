@@ -0,0 +1,197 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class KeyDictionaryCodecTest {
+
+    @Test
+    public void testEveryShape() {
+        for (BundleShape shape : BundleShape.values()) {
+            if (!shape.isSupported() || shape == BundleShape.BINDER) {
+                continue;
+            }
+            for (int size : new int[] {0, 1, 3}) {
+                final Bundle org = shape.create(size);
+                final Bundle restored = LazyBundleTest.roundTrip(org);
+                final Bundle decoded = KeyDictionaryCodec.decode(KeyDictionaryCodec.encode(org), getClass().getClassLoader());
+
+                assertEquals(restored.keySet(), decoded.keySet());
+                for (String key : restored.keySet()) {
+                    LazyBundleTest.assertSameValue(shape + "[" + size + "]." + key, restored.get(key), decoded.get(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testKeysAreWrittenOnce() {
+        final Bundle org = new Bundle();
+        for (int i = 0; i < 100; i++) {
+            final Bundle item = new Bundle();
+            item.putInt("repeatedKeyName", i);
+            org.putBundle("item" + i, item);
+        }
+
+        final byte[] encoded = KeyDictionaryCodec.encode(org);
+
+        assertEquals(1, count(encoded, "repeatedKeyName".getBytes(Charset.forName("UTF-8"))));
+        final Bundle decoded = KeyDictionaryCodec.decode(encoded, getClass().getClassLoader());
+        assertEquals(99, decoded.getBundle("item99").getInt("repeatedKeyName"));
+        assertTrue(BundleEquality.equals(org, decoded));
+    }
+
+    @Test
+    public void testVarints() {
+        final Bundle org = new Bundle();
+        {
+            org.putIntArray("ints", new int[] {0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE});
+            org.putLongArray("longs", new long[] {0, -1, Long.MAX_VALUE, Long.MIN_VALUE});
+            org.putShortArray("shorts", new short[] {Short.MIN_VALUE, Short.MAX_VALUE});
+            org.putCharArray("chars", new char[] {0, Character.MAX_VALUE});
+            org.putInt("int", Integer.MIN_VALUE);
+            org.putLong("long", Long.MIN_VALUE);
+            org.putShort("short", (short) -1);
+            org.putChar("char", Character.MAX_VALUE);
+        }
+
+        final Bundle decoded = KeyDictionaryCodec.decode(KeyDictionaryCodec.encode(org), null);
+
+        assertTrue(BundleEquality.equals(org, decoded));
+
+        final Bundle small = new Bundle();
+        small.putIntArray("a", new int[100]);
+        assertTrue(KeyDictionaryCodec.encode(small).length < 100 + 20);
+    }
+
+    @Test
+    public void testBooleanArrayIsPacked() {
+        final boolean[] array = new boolean[17];
+        array[0] = true;
+        array[8] = true;
+        array[16] = true;
+        final Bundle org = new Bundle();
+        org.putBooleanArray("a", array);
+
+        final byte[] encoded = KeyDictionaryCodec.encode(org);
+        final boolean[] decoded = KeyDictionaryCodec.decode(encoded, null).getBooleanArray("a");
+
+        assertTrue(Arrays.equals(array, decoded));
+        // header 8, dictionary 1 + 2, size 1, key 1, tag 1, length 1, bits 3
+        assertEquals(18, encoded.length);
+    }
+
+    @Test
+    public void testStrings() {
+        final String[] values = {"", "ascii", "日本語", "😀", "\uD800 unpaired", "\u0000nul", null};
+        final Bundle org = new Bundle();
+        org.putStringArray("strings", values);
+        org.putString("日本語キー", "value");
+
+        final Bundle decoded = KeyDictionaryCodec.decode(KeyDictionaryCodec.encode(org), null);
+
+        assertArrayEquals(values, decoded.getStringArray("strings"));
+        assertEquals("value", decoded.getString("日本語キー"));
+    }
+
+    @Test
+    public void testSparseArray() {
+        final SparseArray<Bundle> sparse = new SparseArray<>();
+        {
+            sparse.put(Integer.MIN_VALUE, new Bundle());
+            sparse.put(-1, null);
+            sparse.put(Integer.MAX_VALUE, new Bundle());
+        }
+        sparse.get(Integer.MAX_VALUE).putString("key", "value");
+        final Bundle org = new Bundle();
+        org.putSparseParcelableArray("sparse", sparse);
+
+        final SparseArray<Bundle> decoded = KeyDictionaryCodec
+                .decode(KeyDictionaryCodec.encode(org), null)
+                .getSparseParcelableArray("sparse");
+
+        assertEquals(3, decoded.size());
+        assertEquals(Integer.MIN_VALUE, decoded.keyAt(0));
+        assertNull(decoded.get(-1));
+        assertEquals("value", decoded.get(Integer.MAX_VALUE).getString("key"));
+    }
+
+    @Test
+    public void testParcel() {
+        final Bundle org = new BundleGenerator(0).keys(50).depth(2).generate();
+
+        final Parcel parcel = Parcel.obtain();
+        final Bundle decoded;
+        try {
+            KeyDictionaryCodec.writeToParcel(org, parcel);
+            parcel.setDataPosition(0);
+            decoded = KeyDictionaryCodec.readFromParcel(parcel, getClass().getClassLoader());
+        } finally {
+            parcel.recycle();
+        }
+
+        final Bundle restored = LazyBundleTest.roundTrip(org);
+        for (String key : restored.keySet()) {
+            LazyBundleTest.assertSameValue(key, restored.get(key), decoded.get(key));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBinderCantBeEncoded() {
+        final Bundle org = new Bundle();
+        org.putBinder("binder", new Binder());
+
+        KeyDictionaryCodec.encode(org);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotAPayload() {
+        KeyDictionaryCodec.decode(new byte[16], null);
+    }
+
+    private static int count(byte[] data, byte[] pattern) {
+        int ret = 0;
+        for (int i = 0; i + pattern.length <= data.length; i++) {
+            int j = 0;
+            while (j < pattern.length && data[i + j] == pattern[j]) {
+                j++;
+            }
+            if (j == pattern.length) {
+                ret++;
+            }
+        }
+        return ret;
+    }
+
+}
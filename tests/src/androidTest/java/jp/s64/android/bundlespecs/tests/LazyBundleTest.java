@@ -0,0 +1,197 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.test.espresso.core.internal.deps.guava.collect.Lists;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class LazyBundleTest {
+
+    @Test
+    public void testEveryShape() {
+        for (BundleShape shape : BundleShape.values()) {
+            if (!shape.isSupported()) {
+                continue;
+            }
+            for (int size : new int[] {0, 1, 3}) {
+                final Bundle org = shape.create(size);
+                final Bundle restored = roundTrip(org);
+                final LazyBundle lazy = shape == BundleShape.BINDER
+                        ? LazyBundle.from(org)
+                        : LazyBundle.fromByteArray(LazyBundle.from(org).toByteArray());
+
+                assertEquals(restored.keySet(), lazy.keySet());
+                for (String key : restored.keySet()) {
+                    assertSameValue(shape + "[" + size + "]." + key, restored.get(key), lazy.get(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTypeCoercion() {
+        final Bundle org = new Bundle();
+        {
+            org.putSerializable("serializable", "myStringValue");
+            org.putCharSequence("charSequence", "myCsValue");
+            org.putCharSequenceArrayList("charSequenceArrayList", Lists.<CharSequence>newArrayList("one", "two"));
+            org.putBundle("bundle", new Bundle());
+            org.putParcelable("intent", new Intent());
+            org.putChar("char", 'X');
+            org.putFloat("float", Float.MAX_VALUE);
+        }
+
+        final LazyBundle lazy = LazyBundle.fromByteArray(LazyBundle.from(org).toByteArray());
+
+        assertEquals("myStringValue", lazy.getString("serializable")); // 🚨
+        assertEquals("myStringValue", lazy.getCharSequence("serializable")); // 🚨
+        assertEquals("myCsValue", lazy.getString("charSequence")); // 🚨
+        assertNotNull(lazy.getStringArrayList("charSequenceArrayList")); // 🚨
+        assertNotNull(lazy.getIntegerArrayList("charSequenceArrayList")); // 🚨
+        assertNull(lazy.getCharSequenceArray("charSequenceArrayList"));
+        assertNotNull(lazy.getParcelable("bundle")); // 🚨
+        assertNull(lazy.getBundle("intent"));
+        assertTrue(lazy.get("intent") instanceof Intent);
+        assertEquals('X', lazy.getChar("char"));
+        assertNull(lazy.getString("char"));
+        assertEquals(Float.MAX_VALUE, lazy.getFloat("float"), 0f);
+        assertEquals(0.0, lazy.getDouble("float"), 0.0);
+        assertEquals(-1, lazy.getInt("missing", -1));
+    }
+
+    @Test
+    public void testDecodesOnlyWhatIsRead() {
+        final Bundle org = new Bundle();
+        {
+            org.putInt("first", 1);
+            BundleShape.PARCELABLE_ARRAY_LIST.fill(org, 1000);
+            BundleShape.SPARSE_PARCELABLE_ARRAY.put(org, "sparse", 0, 1000);
+        }
+
+        final LazyBundle lazy = LazyBundle.fromByteArray(LazyBundle.from(org).toByteArray());
+
+        assertEquals(1, lazy.getInt("first"));
+        assertEquals(1, lazy.decodedCount());
+        assertEquals(3, lazy.size());
+        assertEquals(1, lazy.decodedCount());
+    }
+
+    @Test
+    public void testParcelable() {
+        final IBinder binder = new Binder();
+
+        final Bundle org = new Bundle();
+        {
+            org.putBinder("binder", binder);
+            org.putInt("int", 1);
+        }
+
+        final Bundle outer = new Bundle();
+        {
+            outer.putParcelable("lazy", LazyBundle.from(org));
+        }
+
+        final Bundle restored = roundTrip(outer);
+        restored.setClassLoader(LazyBundle.class.getClassLoader());
+
+        final LazyBundle lazy = restored.getParcelable("lazy");
+        assertSame(binder, lazy.getBinder("binder"));
+        assertEquals(1, lazy.getInt("int"));
+        assertEquals(org.keySet(), lazy.toBundle().keySet());
+    }
+
+    static Bundle roundTrip(Bundle org) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(org);
+            parcel.setDataPosition(0);
+            final Bundle ret = parcel.readBundle(LazyBundleTest.class.getClassLoader());
+            ret.size();
+            return ret;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    static void assertSameValue(String message, Object expected, Object actual) {
+        if (expected == null || actual == null) {
+            assertSame(message, expected, actual);
+            return;
+        }
+        assertEquals(message, expected.getClass(), actual.getClass());
+
+        if (expected instanceof Bundle) {
+            final Bundle e = (Bundle) expected;
+            final Bundle a = (Bundle) actual;
+            assertEquals(message, e.keySet(), a.keySet());
+            for (String key : e.keySet()) {
+                assertSameValue(message + "." + key, e.get(key), a.get(key));
+            }
+        } else if (expected instanceof Intent) {
+            assertEquals(message, ((Intent) expected).toUri(0), ((Intent) actual).toUri(0));
+        } else if (expected instanceof IBinder) {
+            assertSame(message, expected, actual);
+        } else if (expected instanceof List) {
+            final List<?> e = (List<?>) expected;
+            final List<?> a = (List<?>) actual;
+            assertEquals(message, e.size(), a.size());
+            for (int i = 0; i < e.size(); i++) {
+                assertSameValue(message + "[" + i + "]", e.get(i), a.get(i));
+            }
+        } else if (expected instanceof SparseArray) {
+            final SparseArray<?> e = (SparseArray<?>) expected;
+            final SparseArray<?> a = (SparseArray<?>) actual;
+            assertEquals(message, e.size(), a.size());
+            for (int i = 0; i < e.size(); i++) {
+                assertEquals(message, e.keyAt(i), a.keyAt(i));
+                assertSameValue(message + "{" + e.keyAt(i) + "}", e.valueAt(i), a.valueAt(i));
+            }
+        } else if (expected instanceof Parcelable[]) {
+            assertSameValue(
+                    message,
+                    new ArrayList<Object>(Arrays.asList((Object[]) expected)),
+                    new ArrayList<Object>(Arrays.asList((Object[]) actual))
+            );
+        } else if (expected.getClass().isArray()) {
+            assertTrue(message, Arrays.deepEquals(new Object[] {expected}, new Object[] {actual}));
+        } else {
+            assertEquals(message, expected, actual);
+        }
+    }
+
+}
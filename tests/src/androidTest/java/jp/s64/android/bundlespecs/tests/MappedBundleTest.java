@@ -0,0 +1,339 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ReadOnlyBufferException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import static jp.s64.android.bundlespecs.tests.LazyBundleTest.assertSameValue;
+import static jp.s64.android.bundlespecs.tests.LazyBundleTest.roundTrip;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class MappedBundleTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testEveryShapeButBinder() throws IOException {
+        for (BundleShape shape : BundleShape.values()) {
+            if (!shape.isSupported() || shape == BundleShape.BINDER) {
+                continue;
+            }
+            for (int size : new int[] {0, 1, 3}) {
+                final Bundle org = shape.create(size);
+                final Bundle restored = roundTrip(org);
+                final MappedBundle mapped = writeAndOpen(org);
+
+                assertEquals(restored.keySet(), mapped.keySet());
+                for (String key : restored.keySet()) {
+                    assertSameValue(shape + "[" + size + "]." + key, restored.get(key), mapped.get(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRejectsBinders() throws IOException {
+        final File file = folder.newFile();
+        final Bundle nested = new Bundle();
+        nested.putBinder("binder", new Binder());
+
+        final Bundle[] rejected = new Bundle[] {new Bundle(), new Bundle(), new Bundle()};
+        rejected[0].putBinder("binder", new Binder());
+        rejected[1].putBundle("nested", nested);
+        rejected[2].putSerializable("list", new ArrayList<>(Arrays.<Object>asList(1, new Binder())));
+
+        for (Bundle bundle : rejected) {
+            try {
+                MappedBundle.write(file, bundle);
+                fail(bundle.toString());
+            } catch (IllegalArgumentException expected) {
+                // ok
+            }
+        }
+        assertEquals(0, file.length());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testPropagatesWriteErrors() throws IOException {
+        final Bundle bundle = new Bundle();
+        bundle.putParcelable("broken", new Broken());
+        try {
+            MappedBundle.write(folder.newFile(), bundle);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("broken", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void testNullKeys() throws IOException {
+        final File file = folder.newFile();
+        final Bundle nested = new Bundle();
+        nested.putInt(null, 1);
+
+        final Bundle[] rejected = new Bundle[] {new Bundle(), new Bundle()};
+        rejected[0].putInt(null, 1);
+        rejected[1].putBundle("nested", nested);
+
+        for (Bundle bundle : rejected) {
+            try {
+                MappedBundle.write(file, bundle);
+                fail(bundle.toString());
+            } catch (IllegalArgumentException expected) {
+                // ok
+            }
+        }
+        assertEquals(0, file.length());
+
+        final Bundle org = new Bundle();
+        org.putInt("x", 1);
+        final MappedBundle mapped = writeAndOpen(org);
+        assertNull(mapped.get(null));
+        assertFalse(mapped.containsKey(null));
+        assertNull(mapped.getMappedBundle(null));
+        assertNull(mapped.getIntBuffer(null));
+    }
+
+    @Test
+    public void testDecodesLazily() throws IOException {
+        final Bundle nested = new Bundle();
+        {
+            nested.putInt("x", 1);
+            nested.putIntArray("ints", new int[] {1, 2, 3});
+        }
+        final Bundle org = new Bundle();
+        {
+            org.putBundle("nested", nested);
+            for (int i = 0; i < 100; i++) {
+                org.putString("key" + i, "value" + i);
+            }
+        }
+
+        final MappedBundle mapped = writeAndOpen(org);
+
+        assertEquals(101, mapped.size());
+        assertEquals(0, mapped.decodedCount());
+        assertEquals("value42", mapped.getString("key42"));
+        assertSame(mapped.getString("key42"), mapped.getString("key42"));
+        assertEquals(1, mapped.decodedCount());
+
+        final MappedBundle lazyNested = mapped.getMappedBundle("nested");
+        assertEquals(1, mapped.decodedCount());
+        assertEquals(1, lazyNested.getInt("x"));
+        assertEquals(1, lazyNested.decodedCount());
+        assertNull(mapped.getMappedBundle("key1"));
+        assertNull(mapped.get("missing"));
+        assertFalse(mapped.containsKey("missing"));
+
+        assertEquals(1, mapped.getBundle("nested").getInt("x"));
+    }
+
+    @Test
+    public void testArrayViews() throws IOException {
+        final int[] ints = new int[10000];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = i * 31;
+        }
+        final Bundle org = new Bundle();
+        {
+            org.putByteArray("bytes", new byte[] {1, 2, 3});
+            org.putIntArray("ints", ints);
+            org.putLongArray("longs", new long[] {Long.MIN_VALUE, 0, Long.MAX_VALUE});
+            org.putDoubleArray("doubles", new double[] {0.5, -1});
+            org.putFloatArray("floats", new float[] {1.5f});
+            org.putShortArray("shorts", new short[] {-1, 7});
+            org.putCharArray("chars", new char[] {'a', 'あ'});
+        }
+
+        final MappedBundle mapped = writeAndOpen(org);
+
+        final IntBuffer view = mapped.getIntBuffer("ints");
+        assertEquals(ints.length, view.remaining());
+        for (int i = 0; i < ints.length; i++) {
+            assertEquals(ints[i], view.get(i));
+        }
+        assertArrayEquals(ints, mapped.getIntArray("ints"));
+        assertEquals(1, mapped.decodedCount());
+
+        final ByteBuffer bytes = mapped.getByteBuffer("bytes");
+        assertEquals(3, bytes.remaining());
+        assertEquals(2, bytes.get(1));
+        try {
+            bytes.put(0, (byte) 0);
+            fail();
+        } catch (ReadOnlyBufferException expected) {
+            // ok
+        }
+
+        assertEquals(Long.MAX_VALUE, mapped.getLongBuffer("longs").get(2));
+        assertEquals(-1, mapped.getDoubleBuffer("doubles").get(1), 0);
+        assertEquals(1.5f, mapped.getFloatBuffer("floats").get(0), 0);
+        assertEquals(7, mapped.getShortBuffer("shorts").get(1));
+        assertEquals('あ', mapped.getCharBuffer("chars").get(1));
+
+        assertNull(mapped.getIntBuffer("longs"));
+        assertNull(mapped.getIntBuffer("missing"));
+    }
+
+    @Test
+    public void testSerializableKeepsItsClass() throws IOException {
+        final Date date = new Date(1234567890L);
+        final Bundle org = new Bundle();
+        {
+            org.putSerializable("date", date);
+            org.putSerializable("custom", new Custom(42));
+        }
+
+        final MappedBundle mapped = writeAndOpen(org);
+
+        assertEquals(date, mapped.getSerializable("date"));
+        assertEquals(42, ((Custom) mapped.getSerializable("custom")).value);
+    }
+
+    @Test
+    public void testLargeValuesSpanBuffers() throws IOException {
+        final byte[] bytes = new byte[300 * 1024 + 3];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        final Bundle org = new Bundle();
+        {
+            org.putByteArray("bytes", bytes);
+            org.putLongArray("longs", new long[100 * 1024]);
+            org.putString("last", "after");
+            for (int i = 0; i < 10000; i++) {
+                org.putInt("key" + i, i);
+            }
+        }
+
+        final MappedBundle mapped = writeAndOpen(org);
+
+        assertArrayEquals(bytes, mapped.getByteArray("bytes"));
+        assertEquals(100 * 1024, mapped.getLongArray("longs").length);
+        assertEquals("after", mapped.getString("last"));
+        assertEquals(9999, mapped.getInt("key9999"));
+        assertEquals(org.keySet(), mapped.keySet());
+    }
+
+    @Test
+    public void testReplacesAndValidates() throws IOException {
+        final File file = folder.newFile();
+
+        final Bundle first = new Bundle();
+        first.putInt("version", 1);
+        MappedBundle.write(file, first);
+        final MappedBundle opened = MappedBundle.open(file);
+
+        final Bundle second = new Bundle();
+        second.putInt("version", 2);
+        MappedBundle.write(file, second);
+
+        assertEquals(1, opened.getInt("version"));
+        assertEquals(2, MappedBundle.open(file).getInt("version"));
+
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 1);
+        raf.close();
+        try {
+            MappedBundle.open(file);
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().startsWith("Truncated"));
+        }
+        try {
+            MappedBundle.open(folder.newFile());
+            fail();
+        } catch (IOException expected) {
+            assertNotNull(expected.getMessage());
+        }
+    }
+
+    private MappedBundle writeAndOpen(Bundle bundle) throws IOException {
+        final File file = folder.newFile();
+        MappedBundle.write(file, bundle);
+        return MappedBundle.open(file);
+    }
+
+    static final class Custom implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final int value;
+
+        Custom(int value) {
+            this.value = value;
+        }
+
+    }
+
+    static final class Broken implements Parcelable {
+
+        public static final Creator<Broken> CREATOR = new Creator<Broken>() {
+            @Override
+            public Broken createFromParcel(Parcel source) {
+                return new Broken();
+            }
+
+            @Override
+            public Broken[] newArray(int size) {
+                return new Broken[size];
+            }
+        };
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            throw new IllegalStateException("broken");
+        }
+
+    }
+
+}
@@ -0,0 +1,168 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcelable;
+import android.support.test.espresso.core.internal.deps.guava.collect.Lists;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ParallelDeepCopyTest {
+
+    @Test
+    public void testEveryShapeMatchesDeepCopy() {
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        final ParallelDeepCopy parallel = new ParallelDeepCopy(pool, 0);
+        try {
+            for (BundleShape shape : BundleShape.values()) {
+                if (!shape.isSupported()) {
+                    continue;
+                }
+                for (int size : new int[] {0, 1, 3}) {
+                    final Bundle org = shape.create(size);
+                    assertSameCopy(shape + "[" + size + "]", org, org.deepCopy(), parallel.deepCopy(org));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testLargeTreeMatchesDeepCopy() {
+        final Bundle org = new BundleGenerator(0).keys(20000).depth(3).fanout(4).generate();
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (int threshold : new int[] {0, 16, 1024, Integer.MAX_VALUE}) {
+                final Bundle copied = new ParallelDeepCopy(pool, threshold).deepCopy(org);
+                assertSameCopy("threshold " + threshold, org, org.deepCopy(), copied);
+                assertTrue(BundleEquality.equals(org, copied));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSharing() {
+        final IBinder binder = new Binder();
+        final Serializable serializable = "myStringValue";
+        final ArrayList<Parcelable> list = Lists.<Parcelable>newArrayList(BundleShape.intBundle(100), new Intent());
+        final boolean[] booleans = new boolean[] {true};
+        final Bundle nested = new Bundle();
+        {
+            nested.putBinder("binder", binder);
+            nested.putParcelableArrayList("list", list);
+        }
+        final Bundle org = new Bundle();
+        {
+            org.putSerializable("serializable", serializable);
+            org.putBundle("nested", nested);
+            org.putBooleanArray("booleans", booleans);
+            org.putIntArray("ints", new int[100000]);
+        }
+
+        final Bundle copied = new ParallelDeepCopy(null, 0).deepCopy(org);
+
+        assertSame(binder, copied.getBundle("nested").getBinder("binder")); // 🚨
+        assertSame(serializable, copied.getSerializable("serializable")); // 🚨
+        assertSame(booleans, copied.getBooleanArray("booleans")); // 🚨
+        assertNotSame(nested, copied.getBundle("nested"));
+        final ArrayList<Parcelable> copiedList = copied.getBundle("nested").getParcelableArrayList("list");
+        assertNotSame(list, copiedList);
+        assertNotSame(list.get(0), copiedList.get(0));
+        assertSame(list.get(1), copiedList.get(1));
+        assertNotSame(org.getIntArray("ints"), copied.getIntArray("ints"));
+    }
+
+    @Test
+    public void testWork() {
+        final Bundle org = new Bundle();
+        {
+            org.putInt("a", 1);
+            org.putIntArray("ints", new int[640]);
+            org.putBooleanArray("booleans", new boolean[640]);
+            org.putBundle("nested", BundleShape.intBundle(5));
+        }
+        assertEquals(4 + 10 + 5, ParallelDeepCopy.work(org, Integer.MAX_VALUE));
+        // stops descending once past the limit
+        final Bundle tree = new BundleGenerator(0).keys(100000).depth(3).fanout(4).generate();
+        assertTrue(ParallelDeepCopy.work(tree, 100) < 10000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeThreshold() {
+        new ParallelDeepCopy(null, -1);
+    }
+
+    /**
+     * {@code actual} must be a copy exactly where {@code expected} is one, and equal everywhere.
+     */
+    private static void assertSameCopy(String message, Object org, Object expected, Object actual) {
+        if (org instanceof Number || org instanceof Boolean || org instanceof Character) {
+            // Bundle#get boxes; which box comes back carries no meaning
+            assertEquals(message, expected, actual);
+            return;
+        }
+        if (expected == org) {
+            assertSame(message, org, actual);
+            return;
+        }
+        assertNotSame(message, org, actual);
+        assertEquals(message, expected.getClass(), actual.getClass());
+        if (org instanceof Bundle) {
+            final Bundle o = (Bundle) org;
+            final Bundle e = (Bundle) expected;
+            final Bundle a = (Bundle) actual;
+            assertEquals(message, e.keySet(), a.keySet());
+            assertSame(message, e.getClassLoader(), a.getClassLoader());
+            for (String key : o.keySet()) {
+                assertSameCopy(message + "." + key, o.get(key), e.get(key), a.get(key));
+            }
+        } else if (org instanceof List) {
+            final List<?> o = (List<?>) org;
+            final List<?> e = (List<?>) expected;
+            final List<?> a = (List<?>) actual;
+            assertEquals(message, e.size(), a.size());
+            for (int i = 0; i < o.size(); i++) {
+                assertSameCopy(message + "[" + i + "]", o.get(i), e.get(i), a.get(i));
+            }
+        } else {
+            assertTrue(message, BundleEquality.valueEquals(expected, actual));
+            assertFalse(message, actual == expected);
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Intent;
+import android.os.BadParcelableException;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ParcelableListCodecTest {
+
+    @Test
+    public void testHomogeneousListIsSmaller() {
+        final ArrayList<Parcelable> org = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            org.add(BundleShape.intent(2));
+        }
+
+        final Parcel parcel = Parcel.obtain();
+        final Parcel platform = Parcel.obtain();
+        try {
+            ParcelableListCodec.writeList(org, parcel, 0);
+            platform.writeList(org);
+            assertTrue(parcel.dataSize() + " < " + platform.dataSize(), parcel.dataSize() < platform.dataSize());
+
+            parcel.setDataPosition(0);
+            final ArrayList<Intent> read = ParcelableListCodec.readList(parcel, getClass().getClassLoader());
+            assertEquals(parcel.dataSize(), parcel.dataPosition());
+            assertEquals(org.size(), read.size());
+            for (int i = 0; i < org.size(); i++) {
+                assertEquals(Intent.class, read.get(i).getClass());
+                assertEquals(1, read.get(i).getIntExtra(BundleShape.KEY + 1, -1));
+            }
+        } finally {
+            parcel.recycle();
+            platform.recycle();
+        }
+    }
+
+    @Test
+    public void testMixedListFallsBack() {
+        final List<Parcelable> org = Arrays.<Parcelable>asList(new Bundle(), new Intent(), null, BundleShape.intBundle(1));
+
+        final List<Parcelable> read = roundTrip(org);
+
+        assertEquals(4, read.size());
+        assertEquals(Bundle.class, read.get(0).getClass());
+        assertEquals(Intent.class, read.get(1).getClass());
+        assertNull(read.get(2));
+        assertEquals(0, ((Bundle) read.get(3)).getInt(BundleShape.KEY + 0, -1));
+    }
+
+    @Test
+    public void testNullsInHomogeneousList() {
+        final List<Parcelable> read = roundTrip(Arrays.<Parcelable>asList(null, BundleShape.intBundle(1), null));
+
+        assertEquals(3, read.size());
+        assertNull(read.get(0));
+        assertTrue(BundleEquality.equals(BundleShape.intBundle(1), (Bundle) read.get(1)));
+        assertNull(read.get(2));
+
+        assertEquals(Arrays.asList(null, null), roundTrip(Arrays.<Parcelable>asList(null, null)));
+        assertEquals(new ArrayList<Parcelable>(), roundTrip(new ArrayList<Parcelable>()));
+        assertNull(roundTrip(null));
+    }
+
+    @Test
+    public void testArray() {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            ParcelableListCodec.writeArray(new Parcelable[] {new Bundle(), new Bundle()}, parcel, 0);
+            ParcelableListCodec.writeArray(null, parcel, 0);
+            parcel.setDataPosition(0);
+
+            final Parcelable[] read = ParcelableListCodec.readArray(parcel, null);
+            assertEquals(Parcelable[].class, read.getClass());
+            assertEquals(2, read.length);
+            assertEquals(Bundle.class, read[1].getClass());
+            assertNull(ParcelableListCodec.readArray(parcel, null));
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    @Test
+    public void testPackedInBundle() {
+        final ArrayList<Bundle> list = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            list.add(BundleShape.intBundle(i));
+        }
+        final Bundle org = new Bundle();
+        {
+            org.putParcelable("list", ParcelableListCodec.Packed.of(list));
+            org.putInt("id", 1);
+        }
+
+        final Bundle restored = LazyBundleTest.roundTrip(org);
+        final ParcelableListCodec.Packed<Bundle> packed = restored.getParcelable("list");
+
+        assertEquals(10, packed.list().size());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(BundleEquality.equals(list.get(i), packed.list().get(i)));
+        }
+        assertEquals(10, packed.toArray().length);
+        assertEquals(1, restored.getInt("id"));
+    }
+
+    @Test
+    public void testCreatorIsCached() {
+        final ClassLoader loader = getClass().getClassLoader();
+        assertSame(Bundle.CREATOR, ParcelableListCodec.creator(Bundle.class.getName(), loader));
+        assertSame(
+                ParcelableListCodec.creator(Intent.class.getName(), loader),
+                ParcelableListCodec.creator(Intent.class.getName(), loader));
+    }
+
+    @Test(expected = BadParcelableException.class)
+    public void testUnknownClass() {
+        ParcelableListCodec.creator("jp.s64.android.bundlespecs.tests.Missing", getClass().getClassLoader());
+    }
+
+    @Test(expected = BadParcelableException.class)
+    public void testNotParcelable() {
+        ParcelableListCodec.creator(String.class.getName(), getClass().getClassLoader());
+    }
+
+    private static List<Parcelable> roundTrip(List<Parcelable> org) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            ParcelableListCodec.writeList(org, parcel, 0);
+            parcel.setDataPosition(0);
+            final List<Parcelable> ret = ParcelableListCodec.readList(parcel, ParcelableListCodecTest.class.getClassLoader());
+            assertEquals(parcel.dataSize(), parcel.dataPosition());
+            return ret;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+}
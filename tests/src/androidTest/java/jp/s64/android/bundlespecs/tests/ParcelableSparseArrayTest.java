@@ -0,0 +1,240 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ParcelableSparseArrayTest {
+
+    @Test
+    public void testMatchesTreeMap() {
+        final Random random = new Random(0);
+        final TreeMap<Integer, Bundle> expected = new TreeMap<>();
+        final ParcelableSparseArray<Bundle> array = new ParcelableSparseArray<>();
+
+        for (int i = 0; i < 10000; i++) {
+            final int key = random.nextInt(2000) - 1000;
+            if (random.nextInt(4) == 0) {
+                expected.remove(key);
+                array.remove(key);
+            } else {
+                final Bundle value = BundleShape.intBundle(1);
+                expected.put(key, value);
+                array.put(key, value);
+            }
+        }
+
+        assertEquals(expected.size(), array.size());
+        int index = 0;
+        for (Integer key : expected.keySet()) {
+            assertEquals((int) key, array.keyAt(index));
+            assertSame(expected.get(key), array.valueAt(index));
+            assertSame(expected.get(key), array.get(key));
+            index++;
+        }
+        assertNull(array.get(5000));
+        assertTrue(array.indexOfKey(5000) < 0);
+    }
+
+    @Test
+    public void testPutAll() {
+        final ParcelableSparseArray<Bundle> array = new ParcelableSparseArray<>();
+        final Bundle a = new Bundle();
+        final Bundle b = new Bundle();
+        final Bundle c = new Bundle();
+
+        array.putAll(new int[] {1, 2, 3}, new Bundle[] {a, a, a});
+        array.putAll(new int[] {10, 11}, new Bundle[] {a, a});
+        assertEquals(5, array.size());
+
+        // sorted and overlapping: merged, new values win
+        array.putAll(new int[] {0, 2, 5, 11, 20}, new Bundle[] {b, b, b, b, b});
+        assertEquals(8, array.size());
+        assertSame(b, array.get(0));
+        assertSame(a, array.get(1));
+        assertSame(b, array.get(2));
+        assertSame(b, array.get(11));
+        assertEquals(20, array.keyAt(7));
+
+        // unsorted
+        array.putAll(new int[] {7, 6, 7}, new Bundle[] {c, c, b});
+        assertEquals(10, array.size());
+        assertSame(b, array.get(7));
+        for (int i = 1; i < array.size(); i++) {
+            assertTrue(array.keyAt(i - 1) < array.keyAt(i));
+        }
+    }
+
+    @Test
+    public void testRange() {
+        final ParcelableSparseArray<Bundle> array = new ParcelableSparseArray<>();
+        for (int i = 0; i < 100; i += 10) {
+            array.put(i, BundleShape.intBundle(i));
+        }
+
+        assertEquals(0, array.ceilingIndex(-5));
+        assertEquals(2, array.ceilingIndex(15));
+        assertEquals(2, array.ceilingIndex(20));
+        assertEquals(10, array.ceilingIndex(1000));
+
+        final ParcelableSparseArray<Bundle> range = array.range(15, 50);
+        assertEquals(3, range.size());
+        assertEquals(20, range.keyAt(0));
+        assertEquals(40, range.keyAt(2));
+        assertSame(array.get(30), range.get(30));
+        assertEquals(0, array.range(50, 15).size());
+    }
+
+    @Test
+    public void testSparseArrayBoundary() {
+        final SparseArray<Parcelable> org = new SparseArray<>();
+        {
+            org.append(0, new Bundle());
+            org.append(1, new Intent());
+            org.append(5, BundleShape.intBundle(2));
+        }
+
+        final ParcelableSparseArray<Parcelable> array = ParcelableSparseArray.from(org);
+        final SparseArray<Parcelable> back = array.toSparseArray();
+
+        assertEquals(3, back.size());
+        for (int i = 0; i < org.size(); i++) {
+            assertEquals(org.keyAt(i), back.keyAt(i));
+            assertSame(org.valueAt(i), back.valueAt(i));
+        }
+        assertTrue(BundleEquality.valueEquals(org, back));
+    }
+
+    @Test
+    public void testEquality() {
+        final ParcelableSparseArray<Bundle> a = new ParcelableSparseArray<>();
+        final ParcelableSparseArray<Bundle> b = new ParcelableSparseArray<>(100);
+        for (int i = 0; i < 10; i++) {
+            a.put(i * 2, BundleShape.intBundle(i));
+            b.put(i * 2, BundleShape.intBundle(i));
+        }
+
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+
+        b.put(2, BundleShape.intBundle(3));
+        assertNotEquals(a, b);
+        b.put(2, BundleShape.intBundle(1));
+        b.remove(18);
+        assertNotEquals(a, b);
+        b.put(19, BundleShape.intBundle(9));
+        assertNotEquals(a, b);
+
+        assertEquals(new ParcelableSparseArray<Bundle>(), new ParcelableSparseArray<Bundle>(10));
+    }
+
+    @Test
+    public void testDenseParcel() {
+        final ParcelableSparseArray<Bundle> array = new ParcelableSparseArray<>();
+        final SparseArray<Bundle> platform = new SparseArray<>();
+        for (int i = 0; i < 100; i++) {
+            array.put(1000 + i, BundleShape.intBundle(1));
+            platform.put(1000 + i, BundleShape.intBundle(1));
+        }
+        assertTrue(array.isDense());
+
+        final ParcelableSparseArray<Bundle> read = roundTrip(array);
+        assertEquals(array, read);
+        assertEquals(1099, read.keyAt(99));
+        assertTrue(dataSize(array) < dataSize(platform));
+    }
+
+    @Test
+    public void testSparseParcel() {
+        final ParcelableSparseArray<Parcelable> array = new ParcelableSparseArray<>();
+        {
+            array.put(-7, new Intent("action"));
+            array.put(3, null);
+            array.put(Integer.MAX_VALUE, new Bundle());
+            array.put(Integer.MIN_VALUE, BundleShape.intBundle(1));
+        }
+        assertFalse(array.isDense());
+
+        final ParcelableSparseArray<Parcelable> read = roundTrip(array);
+        assertEquals(array, read);
+        assertEquals(Intent.class, read.get(-7).getClass());
+        assertNull(read.get(3));
+        assertEquals(0, roundTrip(new ParcelableSparseArray<Parcelable>()).size());
+    }
+
+    @Test
+    public void testInBundle() {
+        final ParcelableSparseArray<Bundle> array = new ParcelableSparseArray<>();
+        array.put(1, BundleShape.intBundle(1));
+        final Bundle org = new Bundle();
+        org.putParcelable("state", array);
+
+        final Bundle restored = LazyBundleTest.roundTrip(org);
+
+        assertEquals(array, restored.getParcelable("state"));
+    }
+
+    @Test(expected = ArrayIndexOutOfBoundsException.class)
+    public void testValueAtOutOfRange() {
+        final ParcelableSparseArray<Bundle> array = new ParcelableSparseArray<>(10);
+        array.valueAt(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Parcelable> ParcelableSparseArray<T> roundTrip(ParcelableSparseArray<T> array) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            array.writeToParcel(parcel, 0);
+            parcel.setDataPosition(0);
+            final ParcelableSparseArray<T> ret = ParcelableSparseArray.CREATOR.createFromParcel(parcel);
+            assertEquals(parcel.dataSize(), parcel.dataPosition());
+            return ret;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static int dataSize(Object value) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeValue(value);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+}
@@ -0,0 +1,156 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import android.os.Binder;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(AndroidJUnit4.class)
+public class PooledMarshallerTest {
+
+    @Test
+    public void testEveryShape() {
+        final PooledMarshaller marshaller = new PooledMarshaller(new DirectBufferPool(2, 1024 * 1024));
+        for (BundleShape shape : BundleShape.values()) {
+            if (!shape.isSupported() || shape == BundleShape.BINDER) {
+                continue;
+            }
+            for (int size : new int[] {0, 1, 3}) {
+                final Bundle org = shape.create(size);
+                final Bundle expected = LazyBundleTest.roundTrip(org);
+
+                final ByteBuffer buffer = marshaller.marshal(org);
+                assertTrue(buffer.isDirect());
+                final Bundle actual = marshaller.unmarshal(buffer);
+                assertEquals(buffer.limit(), buffer.position());
+                marshaller.release(buffer);
+
+                assertEquals(expected.keySet(), actual.keySet());
+                for (String key : expected.keySet()) {
+                    LazyBundleTest.assertSameValue(shape + "[" + size + "]." + key, expected.get(key), actual.get(key));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNestedBundles() {
+        final Bundle org = new BundleGenerator(0).keys(200).depth(2).fanout(3).generate();
+        final PooledMarshaller marshaller = new PooledMarshaller();
+
+        final ByteBuffer buffer = marshaller.marshal(org);
+        final Bundle actual = marshaller.unmarshal(buffer);
+        marshaller.release(buffer);
+
+        LazyBundleTest.assertSameValue("tree", LazyBundleTest.roundTrip(org), actual);
+        assertTrue(BundleEquality.equals(org, actual));
+    }
+
+    @Test
+    public void testCallerBuffer() {
+        final PooledMarshaller marshaller = new PooledMarshaller();
+        final Bundle first = BundleShape.intBundle(10);
+        final Bundle second = BundleShape.STRING_ARRAY_LIST.create(3);
+
+        for (ByteBuffer buffer : new ByteBuffer[] {
+                ByteBuffer.allocate(4096),
+                ByteBuffer.allocateDirect(4096).order(ByteOrder.LITTLE_ENDIAN)}) {
+            final ByteOrder order = buffer.order();
+            buffer.position(7);
+
+            final int firstSize = marshaller.marshal(first, buffer);
+            final int secondSize = marshaller.marshal(second, buffer);
+            assertEquals(7 + firstSize + secondSize, buffer.position());
+            assertSame(order, buffer.order());
+
+            buffer.flip().position(7);
+            assertTrue(BundleEquality.equals(first, marshaller.unmarshal(buffer)));
+            assertTrue(BundleEquality.equals(second, marshaller.unmarshal(buffer)));
+            assertEquals(buffer.limit(), buffer.position());
+        }
+    }
+
+    @Test
+    public void testOverflowLeavesBufferAsItWas() {
+        final ByteBuffer buffer = ByteBuffer.allocate(64);
+        buffer.position(3);
+        try {
+            new PooledMarshaller().marshal(BundleShape.intBundle(100), buffer);
+            fail();
+        } catch (BufferOverflowException expected) {
+            assertEquals(3, buffer.position());
+        }
+    }
+
+    @Test
+    public void testSizeHint() {
+        final DirectBufferPool pool = new DirectBufferPool(2, 1024 * 1024);
+        final PooledMarshaller marshaller = new PooledMarshaller(pool);
+        final Bundle large = BundleShape.intBundle(5000);
+        final Bundle small = BundleShape.intBundle(10);
+
+        // grows past the first guess, then fits at once
+        final ByteBuffer first = marshaller.marshal(large);
+        final int size = first.limit();
+        assertEquals(size, marshaller.sizeHint());
+        marshaller.release(first);
+
+        final long misses = pool.missCount();
+        marshaller.release(marshaller.marshal(large));
+        assertEquals(misses, pool.missCount());
+
+        // shrinks by an eighth of the gap per smaller Bundle
+        marshaller.release(marshaller.marshal(small));
+        final int hint = marshaller.sizeHint();
+        assertTrue(hint < size);
+        assertTrue(hint > size / 2);
+    }
+
+    @Test
+    public void testBinder() {
+        final Bundle org = new Bundle();
+        {
+            org.putInt("int", 1);
+            org.putBinder("binder", new Binder());
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(1024);
+        try {
+            new PooledMarshaller().marshal(org, buffer);
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals(0, buffer.position());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNotMarshalled() {
+        new PooledMarshaller().unmarshal(ByteBuffer.wrap(new byte[16]));
+    }
+
+}
@@ -0,0 +1,186 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class PrimitiveBundleTest {
+
+    private final PrimitiveBundle.Keys keys = new PrimitiveBundle.Keys();
+
+    private final int booleanKey = keys.id("boolean");
+    private final int byteKey = keys.id("byte");
+    private final int charKey = keys.id("char");
+    private final int shortKey = keys.id("short");
+    private final int intKey = keys.id("int");
+    private final int longKey = keys.id("long");
+    private final int floatKey = keys.id("float");
+    private final int doubleKey = keys.id("double");
+    private final int listKey = keys.id("list");
+    private final int stringKey = keys.id("string");
+
+    @Test
+    public void testKeysAreInterned() {
+        assertEquals(intKey, keys.id("int"));
+        assertEquals("int", keys.name(intKey));
+        assertEquals(10, keys.size());
+    }
+
+    @Test
+    public void testToBundleMatchesPlatformPuts() {
+        final PrimitiveBundle primitive = new PrimitiveBundle(keys);
+        {
+            primitive.putBoolean(booleanKey, true);
+            primitive.putByte(byteKey, (byte) 1);
+            primitive.putChar(charKey, 'c');
+            primitive.putShort(shortKey, (short) 2);
+            primitive.putInt(intKey, 3);
+            primitive.putLong(longKey, 4L);
+            primitive.putFloat(floatKey, 5f);
+            primitive.putDouble(doubleKey, 6d);
+            primitive.addInt(listKey, 7);
+            primitive.addInt(listKey, 8);
+            primitive.putObject(stringKey, "nine");
+        }
+
+        final Bundle expected = new Bundle();
+        {
+            expected.putBoolean("boolean", true);
+            expected.putByte("byte", (byte) 1);
+            expected.putChar("char", 'c');
+            expected.putShort("short", (short) 2);
+            expected.putInt("int", 3);
+            expected.putLong("long", 4L);
+            expected.putFloat("float", 5f);
+            expected.putDouble("double", 6d);
+            expected.putIntegerArrayList("list", new ArrayList<>(Arrays.asList(7, 8)));
+            expected.putString("string", "nine");
+        }
+
+        final Bundle actual = primitive.toBundle();
+        assertEquals(expected.keySet(), actual.keySet());
+        for (String key : expected.keySet()) {
+            assertEquals(key, expected.get(key), actual.get(key));
+            assertEquals(key, expected.get(key).getClass(), actual.get(key).getClass());
+            assertEquals(key, expected.get(key), primitive.get(key));
+        }
+    }
+
+    @Test
+    public void testTypedGettersKeepBundleSemantics() {
+        final PrimitiveBundle primitive = new PrimitiveBundle(keys);
+        {
+            primitive.putLong(intKey, 1L);
+            primitive.putFloat(floatKey, 1.5f);
+        }
+
+        assertEquals(-1, primitive.getInt(intKey, -1)); // 🚨 same as Bundle#getInt on a long
+        assertEquals(1L, primitive.getLong(intKey, -1L));
+        assertEquals(-1d, primitive.getDouble(floatKey, -1d), 0d);
+        assertEquals(1.5f, primitive.getFloat("float", -1f), 0f);
+        assertEquals(-1, primitive.getInt("unknown", -1));
+        assertNull(primitive.get("unknown"));
+
+        primitive.putInt(intKey, 2);
+        assertEquals(2, primitive.getInt(intKey, -1));
+        assertEquals(2, primitive.getInt("int"));
+        assertEquals(2, primitive.size());
+    }
+
+    @Test
+    public void testIntList() {
+        final PrimitiveBundle primitive = new PrimitiveBundle(keys);
+        {
+            primitive.putIntegerArrayList(listKey, Arrays.asList(1, 2, 3));
+            for (int i = 0; i < 100; i++) {
+                primitive.addInt(listKey, i);
+            }
+        }
+
+        assertEquals(103, primitive.intListSize(listKey));
+        assertEquals(3, primitive.intListGet(listKey, 2));
+        assertEquals(99, primitive.intListGet(listKey, 102));
+        assertEquals(103, primitive.getIntegerArrayList("list").size());
+        assertEquals(-1, primitive.intListSize(intKey));
+
+        primitive.putInt(listKey, 1);
+        assertEquals(-1, primitive.intListSize(listKey));
+        assertEquals(1, primitive.getInt(listKey, -1));
+    }
+
+    @Test
+    public void testClearAndRemove() {
+        final PrimitiveBundle primitive = new PrimitiveBundle(keys, 1);
+        for (int round = 0; round < 3; round++) {
+            primitive.clear();
+            assertTrue(primitive.isEmpty());
+            assertFalse(primitive.containsKey("int"));
+
+            primitive.putInt(intKey, round);
+            primitive.putLong(longKey, round);
+            primitive.addInt(listKey, round);
+            assertEquals(round, primitive.getInt(intKey, -1));
+            assertEquals(1, primitive.intListSize(listKey));
+        }
+
+        primitive.remove(intKey);
+        assertFalse(primitive.containsKey("int"));
+        assertEquals(2L, primitive.getLong(longKey, -1L));
+        assertEquals(2, primitive.intListGet(listKey, 0));
+        assertEquals(2, primitive.toBundle().size());
+    }
+
+    @Test
+    public void testRemoveThenAddIntReusesSlot() {
+        final PrimitiveBundle primitive = new PrimitiveBundle(keys);
+        {
+            primitive.putInt(intKey, 1);
+            primitive.addInt(listKey, 7);
+            primitive.remove(intKey);
+            primitive.addInt(longKey, 5);
+        }
+
+        assertFalse(primitive.containsKey("int"));
+        assertEquals(7, primitive.intListGet(listKey, 0));
+        assertEquals(1, primitive.intListSize(longKey));
+        assertEquals(5, primitive.intListGet(longKey, 0));
+        assertEquals(2, primitive.toBundle().size());
+    }
+
+    @Test
+    public void testKeysInternedAfterConstruction() {
+        final PrimitiveBundle primitive = new PrimitiveBundle(keys);
+        final int late = keys.id("late" + keys.size());
+
+        primitive.putInt(late, 1);
+        assertEquals(1, primitive.getInt(late, -1));
+    }
+
+}
@@ -0,0 +1,244 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.SparseArray;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SerializableRewriterTest {
+
+    static final class Point implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final int x;
+        final int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+
+    }
+
+    static final SerializableRewriter.Adapter<Point> POINT = new SerializableRewriter.Adapter<Point>() {
+        @Override
+        public Object encode(Point value) {
+            return new int[] {value.x, value.y};
+        }
+
+        @Override
+        public Point decode(Object encoded) {
+            final int[] xy = (int[]) encoded;
+            return new Point(xy[0], xy[1]);
+        }
+    };
+
+    @Test
+    public void testScanSkipsTaggedSerializables() {
+        final Bundle bundle = new Bundle();
+        {
+            bundle.putSerializable("string", "value");
+            bundle.putBoolean("boolean", true);
+            bundle.putStringArrayList("list", new ArrayList<>(Arrays.asList("one", "two")));
+            bundle.putBooleanArray("booleans", new boolean[] {true});
+        }
+
+        assertTrue(new SerializableRewriter().scan(bundle).isEmpty());
+    }
+
+    @Test
+    public void testScanFindsNestedValues() {
+        final Bundle nested = new Bundle();
+        {
+            nested.putShortArray("shorts", new short[] {1});
+        }
+        final SparseArray<Object> sparse = new SparseArray<>();
+        {
+            sparse.put(7, TimeUnit.SECONDS);
+        }
+        // putSparseParcelableArray is typed, the Bundle underneath is not
+        @SuppressWarnings("unchecked")
+        final SparseArray<Parcelable> sparseValues = (SparseArray<Parcelable>) (SparseArray<?>) sparse;
+        final HashMap<String, Object> map = new HashMap<>();
+        {
+            map.put("point", new Point(1, 2));
+        }
+        final Bundle bundle = new Bundle();
+        {
+            bundle.putChar("char", 'c');
+            bundle.putBundle("nested", nested);
+            bundle.putSerializable("map", map);
+            bundle.putSparseParcelableArray("sparse", sparseValues);
+            bundle.putSerializable("chars", new ArrayList<>(Arrays.asList('a', 'b')));
+        }
+
+        final List<SerializableRewriter.Finding> findings = new SerializableRewriter().scan(bundle);
+
+        assertEquals(6, findings.size());
+        assertEquals(Arrays.asList(
+                "char: java.lang.Character -> char",
+                "chars[0]: java.lang.Character -> char",
+                "chars[1]: java.lang.Character -> char",
+                "map[point]: jp.s64.android.bundlespecs.tests.SerializableRewriterTest$Point",
+                "nested/shorts: [S -> short[]",
+                "sparse[7]: java.util.concurrent.TimeUnit"), sorted(findings));
+    }
+
+    @Test
+    public void testRewriteRoundTrip() {
+        final Bundle nested = new Bundle();
+        {
+            nested.putFloatArray("floats", new float[] {1.5f, Float.NaN});
+        }
+        final Bundle org = new Bundle();
+        {
+            org.putChar("char", 'c');
+            org.putShortArray("shorts", new short[] {Short.MIN_VALUE, -1, 2});
+            org.putCharArray("chars", new char[] {'a', '\uD800'});
+            org.putBundle("nested", nested);
+            org.putSerializable("set", new HashSet<>(Arrays.asList("x", "y")));
+            org.putSerializable("linked", new LinkedHashSet<>(Arrays.asList("q", "p")));
+            org.putSerializable("list", new ArrayList<>(Arrays.asList('d', "e")));
+            org.putString("string", "unchanged");
+        }
+        final SerializableRewriter rewriter = new SerializableRewriter();
+
+        final Bundle rewritten = rewriter.rewrite(org);
+        assertNotSame(org, rewritten);
+        assertTrue(rewriter.scan(rewritten).isEmpty());
+        assertEquals('c', org.getChar("char"));
+
+        final Bundle restored = rewriter.restore(LazyBundleTest.roundTrip(rewritten));
+
+        assertEquals(org.keySet(), restored.keySet());
+        assertEquals('c', restored.getChar("char"));
+        assertArrayEquals(new short[] {Short.MIN_VALUE, -1, 2}, restored.getShortArray("shorts"));
+        assertArrayEquals(new char[] {'a', '\uD800'}, restored.getCharArray("chars"));
+        assertArrayEquals(new float[] {1.5f, Float.NaN}, restored.getBundle("nested").getFloatArray("floats"), 0f);
+        assertEquals(new HashSet<>(Arrays.asList("x", "y")), restored.getSerializable("set"));
+        assertEquals(LinkedHashSet.class, restored.getSerializable("linked").getClass());
+        assertEquals(Arrays.asList("q", "p"), new ArrayList<>((LinkedHashSet<?>) restored.getSerializable("linked")));
+        assertEquals(Arrays.asList('d', "e"), restored.getSerializable("list"));
+        assertEquals("unchanged", restored.getString("string"));
+    }
+
+    @Test
+    public void testRegisteredAdapters() {
+        final Bundle org = new Bundle();
+        {
+            org.putSerializable("point", new Point(3, 4));
+            org.putSerializable("unit", TimeUnit.MINUTES);
+        }
+        final SerializableRewriter rewriter = new SerializableRewriter()
+                .register("point", Point.class, POINT)
+                .register("TimeUnit", TimeUnit.class, SerializableRewriter.enumAdapter(TimeUnit.class));
+
+        assertEquals(Arrays.asList(
+                "point: jp.s64.android.bundlespecs.tests.SerializableRewriterTest$Point -> point",
+                "unit: java.util.concurrent.TimeUnit -> TimeUnit"), sorted(rewriter.scan(org)));
+
+        final Bundle restored = rewriter.restore(LazyBundleTest.roundTrip(rewriter.rewrite(org)));
+        final Point point = (Point) restored.getSerializable("point");
+        assertEquals(3, point.x);
+        assertEquals(4, point.y);
+        assertSame(TimeUnit.MINUTES, restored.getSerializable("unit"));
+    }
+
+    @Test
+    public void testUnchangedIsShared() {
+        final Bundle nested = new Bundle();
+        {
+            nested.putInt("int", 1);
+        }
+        final Bundle org = new Bundle();
+        {
+            org.putBundle("nested", nested);
+            org.putChar("char", 'c');
+        }
+        final SerializableRewriter rewriter = new SerializableRewriter();
+
+        assertSame(nested, rewriter.rewrite(org).getBundle("nested"));
+        assertSame(nested, rewriter.rewrite(nested));
+        assertSame(nested, rewriter.restore(nested));
+    }
+
+    @Test
+    public void testMixedSetStaysSerializable() {
+        final Bundle org = new Bundle();
+        {
+            org.putSerializable("set", new HashSet<Object>(Arrays.asList("a", 1)));
+        }
+        final SerializableRewriter rewriter = new SerializableRewriter();
+
+        assertSame(org, rewriter.rewrite(org));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRestoreWithoutAdapter() {
+        final Bundle org = new Bundle();
+        {
+            org.putSerializable("point", new Point(3, 4));
+        }
+        final Bundle rewritten = new SerializableRewriter().register("point", Point.class, POINT).rewrite(org);
+
+        new SerializableRewriter().restore(rewritten);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateId() {
+        new SerializableRewriter().register("char", Point.class, POINT);
+    }
+
+    @Test
+    public void testMissingIsNull() {
+        assertNull(new SerializableRewriter().restore(new Bundle()).get("key"));
+    }
+
+    private static List<String> sorted(List<SerializableRewriter.Finding> findings) {
+        final List<String> ret = new ArrayList<>();
+        for (SerializableRewriter.Finding finding : findings) {
+            ret.add(finding.toString());
+        }
+        Collections.sort(ret);
+        return ret;
+    }
+
+}
@@ -0,0 +1,196 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.graphics.Typeface;
+import android.os.Bundle;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.BulletSpan;
+import android.text.style.CharacterStyle;
+import android.text.style.ClickableSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StyleSpan;
+import android.view.View;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class SpanFlattenerTest {
+
+    @Test
+    public void testMergesCharacterStyles() {
+        final SpannableString text = new SpannableString("hello world");
+        for (int i = 0; i < 5; i++) {
+            text.setSpan(new StyleSpan(Typeface.BOLD), i, i + 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        text.setSpan(new ForegroundColorSpan(0xFFFF0000), 6, 8, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new ForegroundColorSpan(0xFF00FF00), 8, 11, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        final Spanned flattened = (Spanned) new SpanFlattener().flatten(text);
+
+        assertEquals("hello world", flattened.toString());
+        final StyleSpan[] styles = flattened.getSpans(0, flattened.length(), StyleSpan.class);
+        assertEquals(1, styles.length);
+        assertEquals(0, flattened.getSpanStart(styles[0]));
+        assertEquals(5, flattened.getSpanEnd(styles[0]));
+        assertEquals(2, flattened.getSpans(0, flattened.length(), ForegroundColorSpan.class).length);
+        assertEquals(7, text.getSpans(0, text.length(), Object.class).length);
+    }
+
+    @Test
+    public void testDedupesButKeepsParagraphs() {
+        final SpannableString text = new SpannableString("one\ntwo\n");
+        text.setSpan(new BulletSpan(), 0, 4, Spanned.SPAN_PARAGRAPH);
+        text.setSpan(new BulletSpan(), 0, 4, Spanned.SPAN_PARAGRAPH);
+        text.setSpan(new BulletSpan(), 4, 8, Spanned.SPAN_PARAGRAPH);
+
+        final Spanned flattened = (Spanned) new SpanFlattener().flatten(text);
+        assertEquals(2, flattened.getSpans(0, flattened.length(), BulletSpan.class).length);
+
+        final Spanned notDeduped = (Spanned) new SpanFlattener().dedupe(false).flatten(text);
+        assertSame(text, notDeduped);
+    }
+
+    @Test
+    public void testWhitelist() {
+        final SpannableString text = new SpannableString("text");
+        text.setSpan(new StyleSpan(Typeface.BOLD), 0, 2, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new ForegroundColorSpan(0xFFFF0000), 0, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new ClickableSpan() {
+            @Override
+            public void onClick(View widget) {
+            }
+        }, 0, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        final Spanned parcelable = (Spanned) new SpanFlattener().flatten(text);
+        assertEquals(2, parcelable.getSpans(0, 4, Object.class).length);
+
+        final Spanned styles = (Spanned) new SpanFlattener().keep(StyleSpan.class).flatten(text);
+        assertEquals(1, styles.getSpans(0, 4, Object.class).length);
+        assertEquals(1, styles.getSpans(0, 4, StyleSpan.class).length);
+
+        final CharSequence plain = new SpanFlattener().keep().flatten(text);
+        assertEquals(String.class, plain.getClass());
+        assertEquals("text", plain);
+    }
+
+    @Test
+    public void testWrappedSpans() {
+        final SpannableString text = new SpannableString("hello world");
+        text.setSpan(CharacterStyle.wrap(new StyleSpan(Typeface.BOLD)), 0, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new StyleSpan(Typeface.BOLD), 3, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(CharacterStyle.wrap(new ForegroundColorSpan(0xFFFF0000)), 6, 11, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        // a Parcel unwraps them, so they are kept, and equal ones merge
+        final Spanned flattened = (Spanned) new SpanFlattener().flatten(text);
+        final CharacterStyle[] spans = flattened.getSpans(0, flattened.length(), CharacterStyle.class);
+        assertEquals(2, spans.length);
+        assertTrue(spans[0].getUnderlying() instanceof StyleSpan);
+        assertEquals(0, flattened.getSpanStart(spans[0]));
+        assertEquals(5, flattened.getSpanEnd(spans[0]));
+        assertTrue(spans[1].getUnderlying() instanceof ForegroundColorSpan);
+
+        final Spanned colors = (Spanned) new SpanFlattener().keep(ForegroundColorSpan.class).flatten(text);
+        assertEquals(1, colors.getSpans(0, colors.length(), Object.class).length);
+    }
+
+    @Test
+    public void testUnchangedIsShared() {
+        final SpannableString text = new SpannableString("text");
+        text.setSpan(new StyleSpan(Typeface.BOLD), 0, 2, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        final Bundle org = new Bundle();
+        {
+            org.putCharSequence("text", text);
+            org.putCharSequenceArray("array", new CharSequence[] {"plain", text});
+            org.putString("string", "value");
+        }
+
+        final SpanFlattener flattener = new SpanFlattener();
+        assertSame(text, flattener.flatten(text));
+        assertSame("plain", flattener.flatten("plain"));
+        assertSame(org, flattener.flatten(org));
+    }
+
+    @Test
+    public void testBundle() {
+        final Bundle inner = new Bundle();
+        {
+            inner.putCharSequence("text", styled("inner"));
+        }
+        final ArrayList<CharSequence> list = new ArrayList<>();
+        {
+            list.add(styled("first"));
+            list.add("second");
+        }
+        final Bundle org = new Bundle();
+        {
+            org.putCharSequence("text", styled("title"));
+            org.putCharSequenceArray("array", new CharSequence[] {styled("a"), "b"});
+            org.putCharSequenceArrayList("list", list);
+            org.putBundle("inner", inner);
+            org.putInt("int", 1);
+        }
+
+        final SpanFlattener.Report report = new SpanFlattener.Report();
+        final Bundle flattened = new SpanFlattener().flatten(org, report);
+
+        assertNotSame(org, flattened);
+        assertEquals(1, spanCount(flattened.getCharSequence("text")));
+        assertEquals(1, spanCount(flattened.getCharSequenceArray("array")[0]));
+        assertEquals("b", flattened.getCharSequenceArray("array")[1]);
+        assertEquals(1, spanCount(flattened.getCharSequenceArrayList("list").get(0)));
+        assertEquals(1, spanCount(flattened.getBundle("inner").getCharSequence("text")));
+        assertEquals(1, flattened.getInt("int"));
+        assertEquals(styled("title").length(), spanCount(org.getCharSequence("text")));
+
+        final Bundle restored = LazyBundleTest.roundTrip(flattened);
+        assertEquals("title", restored.getCharSequence("text").toString());
+        assertEquals(1, spanCount(restored.getCharSequence("text")));
+
+        assertEquals(4, report.texts());
+        assertEquals(4, report.spansAfter());
+        assertEquals(("title" + "a" + "first" + "inner").length(), report.spansBefore());
+        assertTrue(report.bytesSaved() > 0);
+        assertTrue(report.bytesAfter() > 0);
+
+        report.clear();
+        assertEquals(0, report.texts());
+    }
+
+    private static CharSequence styled(String text) {
+        final SpannableString ret = new SpannableString(text);
+        for (int i = 0; i < text.length(); i++) {
+            ret.setSpan(new StyleSpan(Typeface.ITALIC), i, i + 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return ret;
+    }
+
+    private static int spanCount(CharSequence text) {
+        return text instanceof Spanned ? ((Spanned) text).getSpans(0, text.length(), Object.class).length : 0;
+    }
+
+}
@@ -0,0 +1,180 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable big-endian byte array with {@link ByteBuffer}-like absolute and relative puts,
+ * or a fixed window onto a caller's buffer.
+ */
+final class BufferWriter {
+
+    private byte[] data;
+    private ByteBuffer buffer;
+
+    BufferWriter() {
+        this(256);
+    }
+
+    BufferWriter(int capacity) {
+        data = new byte[Math.max(capacity, 16)];
+        buffer = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Writes into {@code target} from its position, in its byte order, without growing: a put
+     * past its limit throws {@code BufferOverflowException}. {@link #array()} and
+     * {@link #toByteArray()} are unsupported.
+     */
+    BufferWriter(ByteBuffer target) {
+        data = null;
+        buffer = target;
+    }
+
+    int position() {
+        return buffer.position();
+    }
+
+    BufferWriter position(int position) {
+        ensure(position - buffer.position());
+        buffer.position(position);
+        return this;
+    }
+
+    BufferWriter putInt(int value) {
+        ensure(4).putInt(value);
+        return this;
+    }
+
+    BufferWriter putInt(int index, int value) {
+        buffer.putInt(index, value);
+        return this;
+    }
+
+    BufferWriter putLong(long value) {
+        ensure(8).putLong(value);
+        return this;
+    }
+
+    BufferWriter putFloat(float value) {
+        ensure(4).putFloat(value);
+        return this;
+    }
+
+    BufferWriter putDouble(double value) {
+        ensure(8).putDouble(value);
+        return this;
+    }
+
+    BufferWriter putShort(short value) {
+        ensure(2).putShort(value);
+        return this;
+    }
+
+    BufferWriter putChar(char value) {
+        ensure(2).putChar(value);
+        return this;
+    }
+
+    BufferWriter put(byte value) {
+        ensure(1).put(value);
+        return this;
+    }
+
+    BufferWriter put(byte[] value, int offset, int length) {
+        ensure(length).put(value, offset, length);
+        return this;
+    }
+
+    /**
+     * @return length-prefixed UTF-16 string; {@code -1} for {@code null}.
+     */
+    BufferWriter putString(String value) {
+        if (value == null) {
+            return putInt(-1);
+        }
+        final int length = value.length();
+        final ByteBuffer out = ensure(4 + length * 2);
+        out.putInt(length);
+        for (int i = 0; i < length; i++) {
+            out.putChar(value.charAt(i));
+        }
+        return this;
+    }
+
+    /**
+     * Unsigned LEB128: 7 bits per byte, low group first, high bit set on all but the last byte.
+     */
+    BufferWriter putVarInt(int value) {
+        final ByteBuffer out = ensure(5);
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+        return this;
+    }
+
+    /**
+     * @see #putVarInt(int)
+     */
+    BufferWriter putVarLong(long value) {
+        final ByteBuffer out = ensure(10);
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+        return this;
+    }
+
+    byte[] toByteArray() {
+        checkOwned();
+        return Arrays.copyOf(data, buffer.position());
+    }
+
+    /**
+     * @return the backing array, valid up to {@link #position()}.
+     */
+    byte[] array() {
+        checkOwned();
+        return data;
+    }
+
+    void reset() {
+        buffer.clear();
+    }
+
+    private void checkOwned() {
+        if (data == null) {
+            throw new UnsupportedOperationException("writing into a caller's buffer");
+        }
+    }
+
+    private ByteBuffer ensure(int bytes) {
+        if (data != null && buffer.remaining() < bytes) {
+            final int position = buffer.position();
+            data = Arrays.copyOf(data, Math.max(data.length * 2, position + bytes));
+            buffer = ByteBuffer.wrap(data);
+            buffer.position(position);
+        }
+        return buffer;
+    }
+
+}
@@ -0,0 +1,110 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.PersistableBundle;
+
+import java.util.ArrayList;
+
+/**
+ * {@code Bundle#deepCopy()} semantics on every API level.
+ *
+ * <p>As {@code BundleTest} shows, nested Bundles and ArrayLists are copied recursively and
+ * {@code int[]}, {@code long[]}, {@code float[]}, {@code double[]}, {@code byte[]},
+ * {@code short[]}, {@code char[]} and {@code Object[]} are cloned (shallowly), while
+ * everything else (Binders, Serializables, other Parcelables, SparseArrays and
+ * {@code boolean[]}) is shared. 🚨</p>
+ */
+final class BundleCopies {
+
+    private BundleCopies() {
+    }
+
+    static Bundle deepCopy(Bundle from) {
+        final Bundle ret = new Bundle(from.size());
+        {
+            ret.setClassLoader(from.getClassLoader());
+            for (String key : from.keySet()) {
+                BundleValues.put(ret, key, deepCopyValue(from.get(key)));
+            }
+        }
+        return ret;
+    }
+
+    static Object deepCopyValue(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Bundle) {
+            return deepCopy((Bundle) value);
+        } else if (ParcelValueType.isPersistableBundle(value)) {
+            return deepCopyPersistableBundle(value);
+        } else if (value instanceof ArrayList) {
+            return deepCopyArrayList((ArrayList<?>) value);
+        } else if (value.getClass().isArray()) {
+            if (value instanceof int[]) {
+                return ((int[]) value).clone();
+            } else if (value instanceof long[]) {
+                return ((long[]) value).clone();
+            } else if (value instanceof float[]) {
+                return ((float[]) value).clone();
+            } else if (value instanceof double[]) {
+                return ((double[]) value).clone();
+            } else if (value instanceof Object[]) {
+                return ((Object[]) value).clone();
+            } else if (value instanceof byte[]) {
+                return ((byte[]) value).clone();
+            } else if (value instanceof short[]) {
+                return ((short[]) value).clone();
+            } else if (value instanceof char[]) {
+                return ((char[]) value).clone();
+            }
+        }
+        return value;
+    }
+
+    static ArrayList<Object> deepCopyArrayList(ArrayList<?> from) {
+        final int size = from.size();
+        final ArrayList<Object> ret = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ret.add(deepCopyValue(from.get(i)));
+        }
+        return ret;
+    }
+
+    /**
+     * @return whether {@link #deepCopyValue(Object)} would return a different instance.
+     */
+    static boolean isCopied(Object value) {
+        return value instanceof Bundle
+                || ParcelValueType.isPersistableBundle(value)
+                || value instanceof ArrayList
+                || (value != null && value.getClass().isArray() && !(value instanceof boolean[]));
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static Object deepCopyPersistableBundle(Object value) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return ((PersistableBundle) value).deepCopy();
+        }
+        return new PersistableBundle((PersistableBundle) value);
+    }
+
+}
@@ -0,0 +1,436 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.SparseArray;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The keys that differ between two Bundles, encoded so that only those travel.
+ *
+ * <p>{@link #between(Bundle, Bundle)} compares with {@link BundleEquality#valueEquals(Object, Object)},
+ * so a value counts as changed when its class changes too ({@code String} to {@code StringBuilder},
+ * {@code ArrayList<Integer>} to {@code ArrayList<String>}). Nested Bundles and {@code SparseArray}s
+ * present on both sides are diffed recursively instead of being sent whole:</p>
+ *
+ * <pre>
+ * int magic 'BDLT', int version, ops
+ * ops: int count, count x { byte op, String key, payload }
+ *   PUT, REPLACE: value, see {@link ValueCodec}
+ *   REMOVE: -
+ *   PATCH_BUNDLE: ops
+ *   PATCH_SPARSE_ARRAY: int count, count x { byte op, int key, payload }
+ * </pre>
+ *
+ * <p>Values are written with {@link ValueCodec}, so after {@link #applyTo(Bundle)} they read back
+ * exactly as if the whole Bundle had been re-marshalled: plain CharSequences as Strings,
+ * Lists as ArrayLists and so on. Binders stay live references like in {@link LazyBundle}.</p>
+ */
+public final class BundleDelta implements Parcelable {
+
+    static final int MAGIC = 0x42444C54; // 'B' 'D' 'L' 'T'
+    static final int VERSION = 1;
+
+    static final byte PUT = 1;
+    static final byte REPLACE = 2;
+    static final byte REMOVE = 3;
+    static final byte PATCH_BUNDLE = 4;
+    static final byte PATCH_SPARSE_ARRAY = 5;
+
+    private static final int HEADER_SIZE = 4 * 2;
+
+    private final byte[] data;
+    private final ByteBuffer buffer;
+    private final Object[] objects;
+
+    private ClassLoader classLoader = BundleDelta.class.getClassLoader();
+
+    private BundleDelta(byte[] data, Object[] objects) {
+        this.data = data;
+        this.buffer = ByteBuffer.wrap(data);
+        this.objects = objects;
+
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a BundleDelta: " + Integer.toHexString(buffer.getInt(0)));
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported BundleDelta version: " + buffer.getInt(4));
+        }
+    }
+
+    /**
+     * @return what turns {@code from} into {@code to}; neither is modified.
+     */
+    public static BundleDelta between(Bundle from, Bundle to) {
+        final List<Object> objects = new ArrayList<>();
+        final BufferWriter out = new BufferWriter();
+        {
+            out.putInt(MAGIC).putInt(VERSION);
+            writeOps(out, from, to, objects);
+        }
+        return new BundleDelta(out.toByteArray(), objects.toArray());
+    }
+
+    /**
+     * @param data bytes of {@link #toByteArray()}.
+     */
+    public static BundleDelta fromByteArray(byte[] data) {
+        return new BundleDelta(data, new Object[0]);
+    }
+
+    /**
+     * @throws IllegalStateException if a value (e.g. a Binder) can only live in this process.
+     */
+    public byte[] toByteArray() {
+        if (objects.length > 0) {
+            throw new IllegalStateException(objects.length + " values can't be flattened; use writeToParcel");
+        }
+        return data.clone();
+    }
+
+    /**
+     * @return bytes of the encoded delta, not counting values kept as live references.
+     */
+    public int byteSize() {
+        return data.length;
+    }
+
+    public void setClassLoader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    public boolean isEmpty() {
+        return buffer.getInt(HEADER_SIZE) == 0;
+    }
+
+    /**
+     * Applies the delta to {@code target} in place. Nested Bundles are patched in place too,
+     * nested SparseArrays are replaced by patched copies since {@code deepCopy()} shares them.
+     *
+     * @throws IllegalArgumentException if a Bundle or SparseArray to patch is missing from {@code target}.
+     */
+    public void applyTo(Bundle target) {
+        final ByteBuffer in = buffer.duplicate();
+        in.position(HEADER_SIZE);
+        applyOps(in, target);
+    }
+
+    /**
+     * @return a patched {@link BundleCopies deep copy} of {@code base}, which is left untouched.
+     */
+    public Bundle apply(Bundle base) {
+        final Bundle ret = BundleCopies.deepCopy(base);
+        applyTo(ret);
+        return ret;
+    }
+
+    /**
+     * @return top-level keys that {@code to} has and {@code from} hadn't.
+     */
+    public Set<String> addedKeys() {
+        return keys(PUT);
+    }
+
+    /**
+     * @return top-level keys that {@code from} had and {@code to} hasn't.
+     */
+    public Set<String> removedKeys() {
+        return keys(REMOVE);
+    }
+
+    /**
+     * @return top-level keys present on both sides with different values, patched or replaced.
+     */
+    public Set<String> changedKeys() {
+        final Set<String> ret = new LinkedHashSet<>(keys(REPLACE));
+        ret.addAll(keys(PATCH_BUNDLE));
+        ret.addAll(keys(PATCH_SPARSE_ARRAY));
+        return Collections.unmodifiableSet(ret);
+    }
+
+    private Set<String> keys(byte op) {
+        final ByteBuffer in = buffer.duplicate();
+        in.position(HEADER_SIZE);
+
+        final Set<String> ret = new LinkedHashSet<>();
+        final int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            final byte current = in.get();
+            final String key = ValueCodec.readString(in);
+            if (current == op) {
+                ret.add(key);
+            }
+            skipPayload(in, current);
+        }
+        return Collections.unmodifiableSet(ret);
+    }
+
+    private static int writeOps(BufferWriter out, Bundle from, Bundle to, List<Object> objects) {
+        final int countAt = out.position();
+        out.putInt(0);
+
+        int count = 0;
+        for (String key : from.keySet()) {
+            if (!to.containsKey(key)) {
+                out.put(REMOVE).putString(key);
+                count++;
+            }
+        }
+        for (String key : to.keySet()) {
+            final Object value = to.get(key);
+            if (!from.containsKey(key)) {
+                out.put(PUT).putString(key);
+                ValueCodec.write(out, value, objects);
+                count++;
+                continue;
+            }
+            final Object old = from.get(key);
+            if (BundleEquality.valueEquals(old, value)) {
+                continue;
+            }
+            final int start = out.position();
+            final int objectCount = objects.size();
+            if (isPatchable(old, value)) {
+                out.put(value instanceof Bundle ? PATCH_BUNDLE : PATCH_SPARSE_ARRAY).putString(key);
+                if (writePatch(out, old, value, objects)) {
+                    count++;
+                    continue;
+                }
+                out.position(start);
+                objects.subList(objectCount, objects.size()).clear();
+            }
+            out.put(REPLACE).putString(key);
+            ValueCodec.write(out, value, objects);
+            count++;
+        }
+
+        out.putInt(countAt, count);
+        return count;
+    }
+
+    private static int writeSparseOps(BufferWriter out, SparseArray<?> from, SparseArray<?> to, List<Object> objects) {
+        final int countAt = out.position();
+        out.putInt(0);
+
+        int count = 0;
+        for (int i = 0; i < from.size(); i++) {
+            final int key = from.keyAt(i);
+            if (to.indexOfKey(key) < 0) {
+                out.put(REMOVE).putInt(key);
+                count++;
+            }
+        }
+        for (int i = 0; i < to.size(); i++) {
+            final int key = to.keyAt(i);
+            final Object value = to.valueAt(i);
+            final int index = from.indexOfKey(key);
+            if (index < 0) {
+                out.put(PUT).putInt(key);
+                ValueCodec.write(out, value, objects);
+                count++;
+                continue;
+            }
+            final Object old = from.valueAt(index);
+            if (BundleEquality.valueEquals(old, value)) {
+                continue;
+            }
+            final int start = out.position();
+            final int objectCount = objects.size();
+            if (isPatchable(old, value)) {
+                out.put(value instanceof Bundle ? PATCH_BUNDLE : PATCH_SPARSE_ARRAY).putInt(key);
+                if (writePatch(out, old, value, objects)) {
+                    count++;
+                    continue;
+                }
+                out.position(start);
+                objects.subList(objectCount, objects.size()).clear();
+            }
+            out.put(REPLACE).putInt(key);
+            ValueCodec.write(out, value, objects);
+            count++;
+        }
+
+        out.putInt(countAt, count);
+        return count;
+    }
+
+    /**
+     * @return {@code false}, with {@code out} and {@code objects} rolled back by the caller, if the patch came out empty.
+     */
+    private static boolean writePatch(BufferWriter out, Object old, Object value, List<Object> objects) {
+        final int count = value instanceof Bundle
+                ? writeOps(out, (Bundle) old, (Bundle) value, objects)
+                : writeSparseOps(out, (SparseArray<?>) old, (SparseArray<?>) value, objects);
+        return count > 0;
+    }
+
+    private static boolean isPatchable(Object old, Object value) {
+        return old != null && value != null && old.getClass() == value.getClass()
+                && (value.getClass() == Bundle.class || value.getClass() == SparseArray.class);
+    }
+
+    private void applyOps(ByteBuffer in, Bundle target) {
+        final int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            final byte op = in.get();
+            final String key = ValueCodec.readString(in);
+            switch (op) {
+                case PUT:
+                case REPLACE:
+                    BundleValues.put(target, key, ValueCodec.read(in, objects, classLoader));
+                    break;
+                case REMOVE:
+                    target.remove(key);
+                    break;
+                case PATCH_BUNDLE: {
+                    final Object nested = target.get(key);
+                    if (!(nested instanceof Bundle)) {
+                        throw new IllegalArgumentException(key + " is not a Bundle in the target: " + nested);
+                    }
+                    applyOps(in, (Bundle) nested);
+                    break;
+                }
+                case PATCH_SPARSE_ARRAY: {
+                    final Object nested = target.get(key);
+                    if (!(nested instanceof SparseArray)) {
+                        throw new IllegalArgumentException(key + " is not a SparseArray in the target: " + nested);
+                    }
+                    BundleValues.put(target, key, applySparseOps(in, (SparseArray<?>) nested));
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown op " + op + " at " + (in.position() - 1));
+            }
+        }
+    }
+
+    private SparseArray<Object> applySparseOps(ByteBuffer in, SparseArray<?> from) {
+        @SuppressWarnings("unchecked")
+        final SparseArray<Object> ret = ((SparseArray<Object>) from).clone();
+
+        final int count = in.getInt();
+        for (int i = 0; i < count; i++) {
+            final byte op = in.get();
+            final int key = in.getInt();
+            switch (op) {
+                case PUT:
+                case REPLACE:
+                    ret.put(key, ValueCodec.read(in, objects, classLoader));
+                    break;
+                case REMOVE:
+                    ret.remove(key);
+                    break;
+                case PATCH_BUNDLE: {
+                    final Object nested = ret.get(key);
+                    if (!(nested instanceof Bundle)) {
+                        throw new IllegalArgumentException(key + " is not a Bundle in the target: " + nested);
+                    }
+                    // shared with whoever else holds the SparseArray
+                    final Bundle copy = BundleCopies.deepCopy((Bundle) nested);
+                    applyOps(in, copy);
+                    ret.put(key, copy);
+                    break;
+                }
+                case PATCH_SPARSE_ARRAY: {
+                    final Object nested = ret.get(key);
+                    if (!(nested instanceof SparseArray)) {
+                        throw new IllegalArgumentException(key + " is not a SparseArray in the target: " + nested);
+                    }
+                    ret.put(key, applySparseOps(in, (SparseArray<?>) nested));
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException("Unknown op " + op + " at " + (in.position() - 5));
+            }
+        }
+        return ret;
+    }
+
+    private void skipPayload(ByteBuffer in, byte op) {
+        switch (op) {
+            case PUT:
+            case REPLACE:
+                ValueCodec.read(in, objects, classLoader);
+                break;
+            case REMOVE:
+                break;
+            case PATCH_BUNDLE: {
+                final int count = in.getInt();
+                for (int i = 0; i < count; i++) {
+                    final byte nested = in.get();
+                    ValueCodec.readString(in);
+                    skipPayload(in, nested);
+                }
+                break;
+            }
+            case PATCH_SPARSE_ARRAY: {
+                final int count = in.getInt();
+                for (int i = 0; i < count; i++) {
+                    final byte nested = in.get();
+                    in.getInt();
+                    skipPayload(in, nested);
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown op " + op + " at " + (in.position() - 1));
+        }
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(data);
+        dest.writeInt(objects.length);
+        for (Object object : objects) {
+            dest.writeValue(object);
+        }
+    }
+
+    public static final Creator<BundleDelta> CREATOR = new Creator<BundleDelta>() {
+
+        @Override
+        public BundleDelta createFromParcel(Parcel source) {
+            final byte[] data = source.createByteArray();
+            final Object[] objects = new Object[source.readInt()];
+            for (int i = 0; i < objects.length; i++) {
+                objects[i] = source.readValue(BundleDelta.class.getClassLoader());
+            }
+            return new BundleDelta(data, objects);
+        }
+
+        @Override
+        public BundleDelta[] newArray(int size) {
+            return new BundleDelta[size];
+        }
+
+    };
+
+}
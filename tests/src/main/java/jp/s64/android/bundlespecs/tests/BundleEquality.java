@@ -0,0 +1,348 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.PersistableBundle;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Structural equality and a 64-bit content hash for Bundles.
+ *
+ * <p>{@code Bundle} keeps {@code Object}'s identity {@code equals()} (see
+ * {@code testBundleTypeCheck}), so two Bundles holding the same state never compare equal.
+ * Here nested Bundles, PersistableBundles, Intents (filter, flags and extras), arrays,
+ * Lists, Maps, SparseArrays and SparseBooleanArrays are compared element by element;
+ * everything else ({@code Size}, {@code SizeF}, boxed primitives, Strings, Serializables)
+ * falls back to its own {@code equals()}, which means identity for Binders and most
+ * Parcelables.</p>
+ *
+ * <p>Types are never coerced: {@code putInt("a", 1)} and {@code putLong("a", 1)} differ,
+ * as do {@code 0f} and {@code -0f}. Key order is irrelevant.</p>
+ */
+public final class BundleEquality {
+
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+    private static final long MULTIPLIER = 0xC2B2AE3D27D4EB4FL;
+
+    private BundleEquality() {
+    }
+
+    public static boolean equals(Bundle a, Bundle b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.size() != b.size()) {
+            return false;
+        }
+        for (String key : a.keySet()) {
+            final Object value = a.get(key);
+            if (value == null && !b.containsKey(key)) {
+                return false;
+            }
+            if (!valueEquals(value, b.get(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a hash consistent with {@link #equals(Bundle, Bundle)}; recomputed on every call.
+     */
+    public static long hash64(Bundle bundle) {
+        if (bundle == null) {
+            return 0;
+        }
+        long ret = 0;
+        for (String key : bundle.keySet()) {
+            // summed, so that the result doesn't depend on the iteration order
+            ret += mix(hashString(key) * MULTIPLIER + valueHash64(bundle.get(key)));
+        }
+        return mix(ret + bundle.size());
+    }
+
+    public static boolean valueEquals(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.getClass() != b.getClass()) {
+            return false;
+        }
+        if (a instanceof Bundle) {
+            return equals((Bundle) a, (Bundle) b);
+        } else if (ParcelValueType.isPersistableBundle(a)) {
+            return persistableBundleEquals(a, b);
+        } else if (a instanceof Intent) {
+            return intentEquals((Intent) a, (Intent) b);
+        } else if (a instanceof List) {
+            return listEquals((List<?>) a, (List<?>) b);
+        } else if (a instanceof Map) {
+            return mapEquals((Map<?, ?>) a, (Map<?, ?>) b);
+        } else if (a instanceof SparseArray) {
+            return sparseArrayEquals((SparseArray<?>) a, (SparseArray<?>) b);
+        } else if (a instanceof SparseBooleanArray) {
+            return sparseBooleanArrayEquals((SparseBooleanArray) a, (SparseBooleanArray) b);
+        } else if (a.getClass().isArray()) {
+            return arrayEquals(a, b);
+        }
+        return a.equals(b);
+    }
+
+    public static long valueHash64(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return hashString((String) value);
+        } else if (value instanceof Bundle) {
+            return hash64((Bundle) value);
+        } else if (ParcelValueType.isPersistableBundle(value)) {
+            return persistableBundleHash64(value);
+        } else if (value instanceof Intent) {
+            final Intent intent = (Intent) value;
+            return mix((intent.filterHashCode() * MULTIPLIER + intent.getFlags()) * MULTIPLIER
+                    + hash64(intent.getExtras()));
+        } else if (value instanceof List) {
+            final List<?> list = (List<?>) value;
+            long ret = SEED;
+            for (int i = 0, size = list.size(); i < size; i++) {
+                ret = ret * MULTIPLIER + valueHash64(list.get(i));
+            }
+            return mix(ret);
+        } else if (value instanceof Map) {
+            long ret = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                ret += mix(valueHash64(entry.getKey()) * MULTIPLIER + valueHash64(entry.getValue()));
+            }
+            return mix(ret);
+        } else if (value instanceof SparseArray) {
+            final SparseArray<?> array = (SparseArray<?>) value;
+            long ret = SEED;
+            for (int i = 0, size = array.size(); i < size; i++) {
+                ret = (ret * MULTIPLIER + array.keyAt(i)) * MULTIPLIER + valueHash64(array.valueAt(i));
+            }
+            return mix(ret);
+        } else if (value instanceof SparseBooleanArray) {
+            final SparseBooleanArray array = (SparseBooleanArray) value;
+            long ret = SEED;
+            for (int i = 0, size = array.size(); i < size; i++) {
+                ret = ret * MULTIPLIER + (array.keyAt(i) * 2L + (array.valueAt(i) ? 1 : 0));
+            }
+            return mix(ret);
+        } else if (value.getClass().isArray()) {
+            return arrayHash64(value);
+        } else if (value instanceof Long) {
+            return mix((Long) value ^ SEED);
+        } else if (value instanceof Double) {
+            return mix(Double.doubleToLongBits((Double) value) ^ SEED);
+        }
+        // boxed primitives, Size, SizeF, Serializables and other Parcelables
+        return mix(value.hashCode() * MULTIPLIER + value.getClass().getName().hashCode());
+    }
+
+    private static boolean listEquals(List<?> a, List<?> b) {
+        final int size = a.size();
+        if (size != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (!valueEquals(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean mapEquals(Map<?, ?> a, Map<?, ?> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (Map.Entry<?, ?> entry : a.entrySet()) {
+            final Object value = entry.getValue();
+            if (value == null && !b.containsKey(entry.getKey())) {
+                return false;
+            }
+            if (!valueEquals(value, b.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sparseArrayEquals(SparseArray<?> a, SparseArray<?> b) {
+        final int size = a.size();
+        if (size != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (a.keyAt(i) != b.keyAt(i) || !valueEquals(a.valueAt(i), b.valueAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sparseBooleanArrayEquals(SparseBooleanArray a, SparseBooleanArray b) {
+        final int size = a.size();
+        if (size != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (a.keyAt(i) != b.keyAt(i) || a.valueAt(i) != b.valueAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean intentEquals(Intent a, Intent b) {
+        return a.filterEquals(b) && a.getFlags() == b.getFlags() && equals(a.getExtras(), b.getExtras());
+    }
+
+    private static boolean arrayEquals(Object a, Object b) {
+        if (a instanceof Object[]) {
+            final Object[] left = (Object[]) a;
+            final Object[] right = (Object[]) b;
+            if (left.length != right.length) {
+                return false;
+            }
+            for (int i = 0; i < left.length; i++) {
+                if (!valueEquals(left[i], right[i])) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (a instanceof int[]) {
+            return Arrays.equals((int[]) a, (int[]) b);
+        } else if (a instanceof long[]) {
+            return Arrays.equals((long[]) a, (long[]) b);
+        } else if (a instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        } else if (a instanceof boolean[]) {
+            return Arrays.equals((boolean[]) a, (boolean[]) b);
+        } else if (a instanceof char[]) {
+            return Arrays.equals((char[]) a, (char[]) b);
+        } else if (a instanceof short[]) {
+            return Arrays.equals((short[]) a, (short[]) b);
+        } else if (a instanceof float[]) {
+            return Arrays.equals((float[]) a, (float[]) b);
+        } else {
+            return Arrays.equals((double[]) a, (double[]) b);
+        }
+    }
+
+    private static long arrayHash64(Object value) {
+        long ret = SEED + value.getClass().getName().hashCode();
+        if (value instanceof Object[]) {
+            for (Object element : (Object[]) value) {
+                ret = ret * MULTIPLIER + valueHash64(element);
+            }
+        } else if (value instanceof int[]) {
+            for (int element : (int[]) value) {
+                ret = ret * MULTIPLIER + element;
+            }
+        } else if (value instanceof long[]) {
+            for (long element : (long[]) value) {
+                ret = ret * MULTIPLIER + element;
+            }
+        } else if (value instanceof byte[]) {
+            for (byte element : (byte[]) value) {
+                ret = ret * MULTIPLIER + element;
+            }
+        } else if (value instanceof boolean[]) {
+            for (boolean element : (boolean[]) value) {
+                ret = ret * MULTIPLIER + (element ? 1 : 2);
+            }
+        } else if (value instanceof char[]) {
+            for (char element : (char[]) value) {
+                ret = ret * MULTIPLIER + element;
+            }
+        } else if (value instanceof short[]) {
+            for (short element : (short[]) value) {
+                ret = ret * MULTIPLIER + element;
+            }
+        } else if (value instanceof float[]) {
+            for (float element : (float[]) value) {
+                ret = ret * MULTIPLIER + Float.floatToIntBits(element);
+            }
+        } else {
+            for (double element : (double[]) value) {
+                ret = ret * MULTIPLIER + Double.doubleToLongBits(element);
+            }
+        }
+        return mix(ret);
+    }
+
+    private static long hashString(String value) {
+        long ret = SEED;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            ret = ret * MULTIPLIER + value.charAt(i);
+        }
+        return mix(ret);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static boolean persistableBundleEquals(Object a, Object b) {
+        final PersistableBundle left = (PersistableBundle) a;
+        final PersistableBundle right = (PersistableBundle) b;
+        if (left.size() != right.size()) {
+            return false;
+        }
+        for (String key : left.keySet()) {
+            final Object value = left.get(key);
+            if (value == null && !right.containsKey(key)) {
+                return false;
+            }
+            if (!valueEquals(value, right.get(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static long persistableBundleHash64(Object value) {
+        final PersistableBundle bundle = (PersistableBundle) value;
+        long ret = SEED;
+        for (String key : bundle.keySet()) {
+            ret += mix(hashString(key) * MULTIPLIER + valueHash64(bundle.get(key)));
+        }
+        return mix(ret + bundle.size());
+    }
+
+    /**
+     * MurmurHash3's 64-bit finalizer.
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
@@ -0,0 +1,223 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Seeded generator of large, nested Bundles built from the {@link BundleShape}s {@code BundleTest} covers.
+ *
+ * <p>{@link #keys(int)} leaf entries are spread evenly over a tree of nested Bundles that is
+ * {@link #depth(int)} levels deep with {@link #fanout(int)} children per level (child keys
+ * {@code child0}, {@code child1}, ...). Each leaf picks a shape by {@link #mix(BundleShape, int) weight}
+ * and holds {@link #valueSize(int)} elements. The same settings and seed always give an
+ * equal Bundle.</p>
+ *
+ * <p>Keys are put in {@code hashCode()} order, so that {@code ArrayMap} appends instead of
+ * shifting its arrays and generating a million keys stays linear.</p>
+ */
+public final class BundleGenerator {
+
+    public static final String CHILD_KEY = "child";
+
+    private final long seed;
+    private final Map<BundleShape, Integer> weights = new EnumMap<>(BundleShape.class);
+
+    private int keys = 100;
+    private int depth;
+    private int fanout = 1;
+    private int valueSize = 4;
+
+    /**
+     * Starts with every supported shape weighted equally, except {@link BundleShape#BINDER}:
+     * a Parcel holding Binders can't be {@code marshall()}ed.
+     */
+    public BundleGenerator(long seed) {
+        this.seed = seed;
+        for (BundleShape shape : BundleShape.values()) {
+            if (shape != BundleShape.BINDER && shape.isSupported()) {
+                weights.put(shape, 1);
+            }
+        }
+    }
+
+    /**
+     * @param keys total leaf entries over the whole tree, not counting the child Bundles.
+     */
+    public BundleGenerator keys(int keys) {
+        if (keys < 0) {
+            throw new IllegalArgumentException("keys must not be negative: " + keys);
+        }
+        this.keys = keys;
+        return this;
+    }
+
+    public BundleGenerator depth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("depth must not be negative: " + depth);
+        }
+        this.depth = depth;
+        return this;
+    }
+
+    public BundleGenerator fanout(int fanout) {
+        if (fanout < 1) {
+            throw new IllegalArgumentException("fanout must be positive: " + fanout);
+        }
+        this.fanout = fanout;
+        return this;
+    }
+
+    /**
+     * @param valueSize elements per array, list, text or nested payload of a leaf.
+     */
+    public BundleGenerator valueSize(int valueSize) {
+        if (valueSize < 0) {
+            throw new IllegalArgumentException("valueSize must not be negative: " + valueSize);
+        }
+        this.valueSize = valueSize;
+        return this;
+    }
+
+    /**
+     * Uses only {@code shapes}, weighted equally.
+     */
+    public BundleGenerator only(BundleShape... shapes) {
+        weights.clear();
+        for (BundleShape shape : shapes) {
+            mix(shape, 1);
+        }
+        return this;
+    }
+
+    /**
+     * @param weight relative frequency of {@code shape}; {@code 0} removes it.
+     */
+    public BundleGenerator mix(BundleShape shape, int weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight must not be negative: " + weight);
+        }
+        if (weight == 0 || !shape.isSupported()) {
+            weights.remove(shape);
+        } else {
+            weights.put(shape, weight);
+        }
+        return this;
+    }
+
+    /**
+     * @return number of Bundles in the tree, the root included.
+     */
+    public int nodeCount() {
+        int ret = 0;
+        int level = 1;
+        for (int i = 0; i <= depth; i++) {
+            ret += level;
+            level *= fanout;
+        }
+        return ret;
+    }
+
+    public Bundle generate() {
+        if (keys > 0 && weights.isEmpty()) {
+            throw new IllegalStateException("no shape to generate");
+        }
+        final BundleShape[] shapes = weights.keySet().toArray(new BundleShape[weights.size()]);
+        final int[] cumulative = new int[shapes.length];
+        int total = 0;
+        for (int i = 0; i < shapes.length; i++) {
+            total += weights.get(shapes[i]);
+            cumulative[i] = total;
+        }
+
+        final Random random = new Random(seed);
+        final int nodes = nodeCount();
+        final int[] remaining = {keys};
+        return generate(random, shapes, cumulative, total, 0, nodes, remaining);
+    }
+
+    private Bundle generate(Random random, BundleShape[] shapes, int[] cumulative, int total,
+                            int level, int nodesLeft, int[] remaining) {
+        // spread what is left evenly over this node and the ones not generated yet
+        final int leaves = (remaining[0] + nodesLeft - 1) / nodesLeft;
+        remaining[0] -= leaves;
+
+        final String[] names = new String[leaves + (level < depth ? fanout : 0)];
+        final Set<String> used = new HashSet<>(names.length * 2);
+        for (int i = 0; i < leaves; i++) {
+            String name;
+            do {
+                name = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+            } while (!used.add(name) || name.startsWith(CHILD_KEY));
+            names[i] = name;
+        }
+        for (int i = 0; i < names.length - leaves; i++) {
+            names[leaves + i] = CHILD_KEY + i;
+        }
+
+        final BundleShape[] picked = new BundleShape[leaves];
+        final int[] indices = new int[leaves];
+        for (int i = 0; i < leaves; i++) {
+            final int roll = random.nextInt(total);
+            int shape = 0;
+            while (cumulative[shape] <= roll) {
+                shape++;
+            }
+            picked[i] = shapes[shape];
+            indices[i] = random.nextInt(1000);
+        }
+
+        final Integer[] order = new Integer[names.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                final int left = names[a].hashCode();
+                final int right = names[b].hashCode();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+        });
+
+        int nodesAfter = nodesLeft - 1;
+        int subtree = 0;
+        for (int i = level + 1, width = 1; i <= depth; i++, width *= fanout) {
+            subtree += width;
+        }
+
+        final Bundle ret = new Bundle(names.length);
+        for (int i : order) {
+            if (i < leaves) {
+                picked[i].put(ret, names[i], indices[i], valueSize);
+            } else {
+                ret.putBundle(names[i], generate(random, shapes, cumulative, total, level + 1, nodesAfter, remaining));
+                nodesAfter -= subtree;
+            }
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,79 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+/**
+ * A Bundle usable as a {@code HashMap} key: {@link BundleEquality structural} {@code equals()}
+ * with the 64-bit content hash computed once.
+ *
+ * <p>The Bundle is not copied, so it must not be mutated while the key is in use;
+ * the cached hash would go stale.</p>
+ */
+public final class BundleKey {
+
+    private final Bundle bundle;
+    private final long hash64;
+
+    private BundleKey(Bundle bundle, long hash64) {
+        this.bundle = bundle;
+        this.hash64 = hash64;
+    }
+
+    public static BundleKey of(Bundle bundle) {
+        return new BundleKey(bundle, BundleEquality.hash64(bundle));
+    }
+
+    /**
+     * Reuses a hash already known to match {@code bundle}, e.g. that of the original of a deep copy.
+     */
+    static BundleKey of(Bundle bundle, long hash64) {
+        return new BundleKey(bundle, hash64);
+    }
+
+    public Bundle bundle() {
+        return bundle;
+    }
+
+    public long hash64() {
+        return hash64;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BundleKey)) {
+            return false;
+        }
+        final BundleKey that = (BundleKey) o;
+        return hash64 == that.hash64 && BundleEquality.equals(bundle, that.bundle);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (hash64 ^ (hash64 >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return "BundleKey{" + Long.toHexString(hash64) + "}";
+    }
+
+}
@@ -0,0 +1,257 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcelable;
+import android.util.Size;
+import android.util.SizeF;
+import android.util.SparseArray;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * Read side of {@link Bundle} for containers that store values their own way.
+ *
+ * <p>Every typed getter has the platform's coercion rules: it casts whatever {@link #get(String)}
+ * returns and answers the default on a mismatch. So, as {@code BundleTest} documents, a String put
+ * with {@code putSerializable} is readable through {@link #getString(String)}, and
+ * {@link #getStringArrayList(String)} hands out any {@code ArrayList} unchecked. 🚨</p>
+ */
+public abstract class BundleLike {
+
+    public abstract Object get(String key);
+
+    public abstract Set<String> keySet();
+
+    public int size() {
+        return keySet().size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public boolean containsKey(String key) {
+        return keySet().contains(key);
+    }
+
+    /**
+     * @return a new {@link Bundle} holding the same value references.
+     */
+    public Bundle toBundle() {
+        final Bundle ret = new Bundle();
+        for (String key : keySet()) {
+            BundleValues.put(ret, key, get(key));
+        }
+        return ret;
+    }
+
+    public boolean getBoolean(String key) {
+        return getBoolean(key, false);
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        final Object o = get(key);
+        return o instanceof Boolean ? (Boolean) o : defaultValue;
+    }
+
+    public byte getByte(String key) {
+        return getByte(key, (byte) 0);
+    }
+
+    public Byte getByte(String key, byte defaultValue) {
+        final Object o = get(key);
+        return o instanceof Byte ? (Byte) o : defaultValue;
+    }
+
+    public char getChar(String key) {
+        return getChar(key, (char) 0);
+    }
+
+    public char getChar(String key, char defaultValue) {
+        final Object o = get(key);
+        return o instanceof Character ? (Character) o : defaultValue;
+    }
+
+    public short getShort(String key) {
+        return getShort(key, (short) 0);
+    }
+
+    public short getShort(String key, short defaultValue) {
+        final Object o = get(key);
+        return o instanceof Short ? (Short) o : defaultValue;
+    }
+
+    public int getInt(String key) {
+        return getInt(key, 0);
+    }
+
+    public int getInt(String key, int defaultValue) {
+        final Object o = get(key);
+        return o instanceof Integer ? (Integer) o : defaultValue;
+    }
+
+    public long getLong(String key) {
+        return getLong(key, 0L);
+    }
+
+    public long getLong(String key, long defaultValue) {
+        final Object o = get(key);
+        return o instanceof Long ? (Long) o : defaultValue;
+    }
+
+    public float getFloat(String key) {
+        return getFloat(key, 0f);
+    }
+
+    public float getFloat(String key, float defaultValue) {
+        final Object o = get(key);
+        return o instanceof Float ? (Float) o : defaultValue;
+    }
+
+    public double getDouble(String key) {
+        return getDouble(key, 0.0);
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        final Object o = get(key);
+        return o instanceof Double ? (Double) o : defaultValue;
+    }
+
+    public String getString(String key) {
+        return cast(get(key), String.class);
+    }
+
+    public String getString(String key, String defaultValue) {
+        final String s = getString(key);
+        return s == null ? defaultValue : s;
+    }
+
+    public CharSequence getCharSequence(String key) {
+        return cast(get(key), CharSequence.class);
+    }
+
+    public CharSequence getCharSequence(String key, CharSequence defaultValue) {
+        final CharSequence cs = getCharSequence(key);
+        return cs == null ? defaultValue : cs;
+    }
+
+    public Size getSize(String key) {
+        final Object o = get(key);
+        return ParcelValueType.isSize(o) ? (Size) o : null;
+    }
+
+    public SizeF getSizeF(String key) {
+        final Object o = get(key);
+        return ParcelValueType.isSizeF(o) ? (SizeF) o : null;
+    }
+
+    public Bundle getBundle(String key) {
+        return cast(get(key), Bundle.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> T getParcelable(String key) {
+        return (T) cast(get(key), Parcelable.class);
+    }
+
+    public Parcelable[] getParcelableArray(String key) {
+        return cast(get(key), Parcelable[].class);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> ArrayList<T> getParcelableArrayList(String key) {
+        return cast(get(key), ArrayList.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> SparseArray<T> getSparseParcelableArray(String key) {
+        return cast(get(key), SparseArray.class);
+    }
+
+    public Serializable getSerializable(String key) {
+        return cast(get(key), Serializable.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ArrayList<Integer> getIntegerArrayList(String key) {
+        return cast(get(key), ArrayList.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ArrayList<String> getStringArrayList(String key) {
+        return cast(get(key), ArrayList.class);
+    }
+
+    @SuppressWarnings("unchecked")
+    public ArrayList<CharSequence> getCharSequenceArrayList(String key) {
+        return cast(get(key), ArrayList.class);
+    }
+
+    public boolean[] getBooleanArray(String key) {
+        return cast(get(key), boolean[].class);
+    }
+
+    public byte[] getByteArray(String key) {
+        return cast(get(key), byte[].class);
+    }
+
+    public short[] getShortArray(String key) {
+        return cast(get(key), short[].class);
+    }
+
+    public char[] getCharArray(String key) {
+        return cast(get(key), char[].class);
+    }
+
+    public int[] getIntArray(String key) {
+        return cast(get(key), int[].class);
+    }
+
+    public long[] getLongArray(String key) {
+        return cast(get(key), long[].class);
+    }
+
+    public float[] getFloatArray(String key) {
+        return cast(get(key), float[].class);
+    }
+
+    public double[] getDoubleArray(String key) {
+        return cast(get(key), double[].class);
+    }
+
+    public String[] getStringArray(String key) {
+        return cast(get(key), String[].class);
+    }
+
+    public CharSequence[] getCharSequenceArray(String key) {
+        return cast(get(key), CharSequence[].class);
+    }
+
+    public IBinder getBinder(String key) {
+        return cast(get(key), IBinder.class);
+    }
+
+    private static <T> T cast(Object o, Class<T> type) {
+        return type.isInstance(o) ? type.cast(o) : null;
+    }
+
+}
@@ -0,0 +1,493 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Call counts, latency histograms and allocated bytes of Bundle operations,
+ * per {@link ParcelValueType} and per key.
+ *
+ * <p>Route the calls to measure through the static wrappers ({@link #put}, {@link #get},
+ * {@link #deepCopy}, {@link #marshall}, {@link #unmarshall}). While disabled, which is the default,
+ * a wrapper costs one volatile read on top of the plain call. After {@link #enable(int)} every call is
+ * counted, and every n-th call is timed and its allocations read from {@link ThreadAllocations}.</p>
+ *
+ * <p>Whole-Bundle operations are recorded as {@link ParcelValueType#BUNDLE} under the key set by
+ * {@link #tag(String)} on the calling thread, e.g. the name of the running test. At most
+ * {@link #MAX_KEYS} distinct keys are tracked per operation, the rest add up in {@link #OTHER_KEYS}.</p>
+ */
+public final class BundleProbe {
+
+    public enum Op {
+        PUT,
+        GET,
+        DEEP_COPY,
+        MARSHALL,
+        UNMARSHALL,
+    }
+
+    public static final int MAX_KEYS = 1024;
+    public static final String OTHER_KEYS = "(other)";
+
+    private static final ThreadLocal<String> TAG = new ThreadLocal<>();
+
+    private static volatile Recorder recorder;
+    private static volatile Recorder last;
+
+    private BundleProbe() {
+    }
+
+    /**
+     * Starts recording into fresh aggregates, and the allocation counter along with it
+     * (see {@link ThreadAllocations#start()}).
+     *
+     * @param sampleEvery time and weigh one call out of {@code sampleEvery}; {@code 1} measures every call.
+     */
+    public static void enable(int sampleEvery) {
+        if (sampleEvery <= 0) {
+            throw new IllegalArgumentException("sampleEvery must be positive: " + sampleEvery);
+        }
+        if (recorder == null) {
+            ThreadAllocations.start();
+        }
+        recorder = new Recorder(sampleEvery);
+    }
+
+    /**
+     * Stops recording and the allocation counter; {@link #report()} keeps returning what was recorded
+     * until the next {@link #enable(int)}.
+     */
+    public static void disable() {
+        final Recorder current = recorder;
+        if (current != null) {
+            last = current;
+            recorder = null;
+            ThreadAllocations.stop();
+        }
+    }
+
+    public static boolean isEnabled() {
+        return recorder != null;
+    }
+
+    /**
+     * Names the whole-Bundle operations of the current thread; {@code null} leaves them out of the per-key view.
+     */
+    public static void tag(String tag) {
+        TAG.set(tag);
+    }
+
+    public static Report report() {
+        final Recorder current = recorder != null ? recorder : last;
+        return current != null ? current.report() : new Report(Collections.<Row>emptyList(), Collections.<Row>emptyList());
+    }
+
+    public static void put(Bundle bundle, String key, Object value) {
+        final Recorder r = recorder;
+        if (r == null) {
+            BundleValues.put(bundle, key, value);
+            return;
+        }
+        if (!r.shouldSample()) {
+            BundleValues.put(bundle, key, value);
+            r.count(Op.PUT, ParcelValueType.of(value), key);
+            return;
+        }
+        final long bytes = ThreadAllocations.currentThread();
+        final long start = System.nanoTime();
+        BundleValues.put(bundle, key, value);
+        final long nanos = System.nanoTime() - start;
+        r.record(Op.PUT, ParcelValueType.of(value), key, nanos, allocatedSince(bytes));
+    }
+
+    public static Object get(Bundle bundle, String key) {
+        final Recorder r = recorder;
+        if (r == null) {
+            return bundle.get(key);
+        }
+        if (!r.shouldSample()) {
+            final Object ret = bundle.get(key);
+            r.count(Op.GET, ParcelValueType.of(ret), key);
+            return ret;
+        }
+        final long bytes = ThreadAllocations.currentThread();
+        final long start = System.nanoTime();
+        final Object ret = bundle.get(key);
+        final long nanos = System.nanoTime() - start;
+        r.record(Op.GET, ParcelValueType.of(ret), key, nanos, allocatedSince(bytes));
+        return ret;
+    }
+
+    /**
+     * {@link Bundle#deepCopy()}, so API 26 and up only; {@link BundleCopies} has the same semantics before that.
+     */
+    @TargetApi(Build.VERSION_CODES.O)
+    public static Bundle deepCopy(Bundle bundle) {
+        final Recorder r = recorder;
+        if (r == null) {
+            return bundle.deepCopy();
+        }
+        if (!r.shouldSample()) {
+            final Bundle ret = bundle.deepCopy();
+            r.count(Op.DEEP_COPY, ParcelValueType.BUNDLE, TAG.get());
+            return ret;
+        }
+        final long bytes = ThreadAllocations.currentThread();
+        final long start = System.nanoTime();
+        final Bundle ret = bundle.deepCopy();
+        final long nanos = System.nanoTime() - start;
+        r.record(Op.DEEP_COPY, ParcelValueType.BUNDLE, TAG.get(), nanos, allocatedSince(bytes));
+        return ret;
+    }
+
+    public static byte[] marshall(Bundle bundle) {
+        final Recorder r = recorder;
+        if (r == null) {
+            return doMarshall(bundle);
+        }
+        if (!r.shouldSample()) {
+            final byte[] ret = doMarshall(bundle);
+            r.count(Op.MARSHALL, ParcelValueType.BUNDLE, TAG.get());
+            return ret;
+        }
+        final long bytes = ThreadAllocations.currentThread();
+        final long start = System.nanoTime();
+        final byte[] ret = doMarshall(bundle);
+        final long nanos = System.nanoTime() - start;
+        r.record(Op.MARSHALL, ParcelValueType.BUNDLE, TAG.get(), nanos, allocatedSince(bytes));
+        return ret;
+    }
+
+    /**
+     * Reads back what {@link #marshall(Bundle)} wrote, unparcelled eagerly so the cost is not deferred to the first get.
+     */
+    public static Bundle unmarshall(byte[] data, ClassLoader loader) {
+        final Recorder r = recorder;
+        if (r == null) {
+            return doUnmarshall(data, loader);
+        }
+        if (!r.shouldSample()) {
+            final Bundle ret = doUnmarshall(data, loader);
+            r.count(Op.UNMARSHALL, ParcelValueType.BUNDLE, TAG.get());
+            return ret;
+        }
+        final long bytes = ThreadAllocations.currentThread();
+        final long start = System.nanoTime();
+        final Bundle ret = doUnmarshall(data, loader);
+        final long nanos = System.nanoTime() - start;
+        r.record(Op.UNMARSHALL, ParcelValueType.BUNDLE, TAG.get(), nanos, allocatedSince(bytes));
+        return ret;
+    }
+
+    private static byte[] doMarshall(Bundle bundle) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static Bundle doUnmarshall(byte[] data, ClassLoader loader) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.unmarshall(data, 0, data.length);
+            parcel.setDataPosition(0);
+            final Bundle ret = parcel.readBundle(loader);
+            ret.size(); // Bundle is unparcelled lazily
+            return ret;
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Includes the bytes reading the counter allocates itself, which {@code Recorder#OVERHEAD} takes off again.
+     */
+    private static long allocatedSince(long before) {
+        if (before < 0) {
+            return -1;
+        }
+        final long after = ThreadAllocations.currentThread();
+        return after < before ? -1 : after - before;
+    }
+
+    /**
+     * Aggregates of one (operation, type) or (operation, key) pair.
+     */
+    public static final class Row {
+
+        public final Op op;
+        /**
+         * The {@link ParcelValueType} name or the key.
+         */
+        public final String name;
+        public final long calls;
+        public final long sampled;
+        public final long totalNanos;
+        /**
+         * {@code -1} if allocations can't be read on this runtime.
+         */
+        public final long totalBytes;
+        private final long[] histogram;
+
+        Row(Op op, String name, long calls, long sampled, long totalNanos, long totalBytes, long[] histogram) {
+            this.op = op;
+            this.name = name;
+            this.calls = calls;
+            this.sampled = sampled;
+            this.totalNanos = totalNanos;
+            this.totalBytes = totalBytes;
+            this.histogram = histogram;
+        }
+
+        public double meanNanos() {
+            return sampled == 0 ? Double.NaN : (double) totalNanos / sampled;
+        }
+
+        public double meanBytes() {
+            return sampled == 0 || totalBytes < 0 ? Double.NaN : (double) totalBytes / sampled;
+        }
+
+        /**
+         * @return the upper bound of the power-of-two latency bucket holding the {@code percentile}-th sample.
+         */
+        public long percentileNanos(double percentile) {
+            final long rank = (long) Math.ceil(sampled * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0) {
+                    return i == 0 ? 0 : (i >= 63 ? Long.MAX_VALUE : (1L << i) - 1);
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-10s %-36s %,10d calls %,8d sampled %,12.1f ns/op p50<=%,d p99<=%,d %,12.1f B/op",
+                    op, name, calls, sampled, meanNanos(),
+                    percentileNanos(50), percentileNanos(99), meanBytes());
+        }
+
+    }
+
+    public static final class Report {
+
+        private final List<Row> byType;
+        private final List<Row> byKey;
+
+        Report(List<Row> byType, List<Row> byKey) {
+            this.byType = Collections.unmodifiableList(byType);
+            this.byKey = Collections.unmodifiableList(byKey);
+        }
+
+        public List<Row> byType() {
+            return byType;
+        }
+
+        public List<Row> byKey() {
+            return byKey;
+        }
+
+        /**
+         * @return the aggregates of {@code op} on values of {@code type}, or {@code null} if there was no call.
+         */
+        public Row type(Op op, ParcelValueType type) {
+            return find(byType, op, type.name());
+        }
+
+        /**
+         * @return the aggregates of {@code op} on {@code key} (or tag), or {@code null} if there was no call.
+         */
+        public Row key(Op op, String key) {
+            return find(byKey, op, key);
+        }
+
+        private static Row find(List<Row> rows, Op op, String name) {
+            for (Row row : rows) {
+                if (row.op == op && row.name.equals(name)) {
+                    return row;
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder ret = new StringBuilder("# By type\n");
+            for (Row row : byType) {
+                ret.append(row).append('\n');
+            }
+            ret.append("# By key\n");
+            for (Row row : byKey) {
+                ret.append(row).append('\n');
+            }
+            return ret.toString();
+        }
+
+    }
+
+    private static final class Stats {
+
+        private long calls;
+        private long sampled;
+        private long totalNanos;
+        private long totalBytes;
+        private final long[] histogram = new long[64];
+
+        synchronized void count() {
+            calls++;
+        }
+
+        synchronized void record(long nanos, long bytes) {
+            calls++;
+            sampled++;
+            totalNanos += nanos;
+            histogram[64 - Long.numberOfLeadingZeros(Math.max(0, nanos))]++;
+            if (bytes < 0 || totalBytes < 0) {
+                totalBytes = -1;
+            } else {
+                totalBytes += bytes;
+            }
+        }
+
+        synchronized Row toRow(Op op, String name) {
+            return new Row(op, name, calls, sampled, totalNanos, totalBytes, histogram.clone());
+        }
+
+    }
+
+    private static final class Recorder {
+
+        private static final Op[] OPS = Op.values();
+        private static final ParcelValueType[] TYPES = ParcelValueType.values();
+
+        /**
+         * Bytes two back-to-back {@link ThreadAllocations#currentThread()} reads allocate themselves.
+         */
+        private static final long OVERHEAD = calibrate();
+
+        private final int sampleEvery;
+        private final AtomicInteger ticks = new AtomicInteger();
+        private final Stats[][] byType = new Stats[OPS.length][TYPES.length];
+        private final List<ConcurrentHashMap<String, Stats>> byKey = new ArrayList<>(OPS.length);
+
+        Recorder(int sampleEvery) {
+            this.sampleEvery = sampleEvery;
+            for (int i = 0; i < OPS.length; i++) {
+                for (int j = 0; j < TYPES.length; j++) {
+                    byType[i][j] = new Stats();
+                }
+                byKey.add(new ConcurrentHashMap<String, Stats>());
+            }
+        }
+
+        boolean shouldSample() {
+            return sampleEvery == 1 || (ticks.getAndIncrement() & Integer.MAX_VALUE) % sampleEvery == 0;
+        }
+
+        void count(Op op, ParcelValueType type, String key) {
+            byType[op.ordinal()][type.ordinal()].count();
+            final Stats stats = keyStats(op, key);
+            if (stats != null) {
+                stats.count();
+            }
+        }
+
+        void record(Op op, ParcelValueType type, String key, long nanos, long bytes) {
+            final long net = bytes < 0 ? -1 : Math.max(0, bytes - OVERHEAD);
+            byType[op.ordinal()][type.ordinal()].record(nanos, net);
+            final Stats stats = keyStats(op, key);
+            if (stats != null) {
+                stats.record(nanos, net);
+            }
+        }
+
+        private Stats keyStats(Op op, String key) {
+            if (key == null) {
+                return null;
+            }
+            final ConcurrentHashMap<String, Stats> stats = byKey.get(op.ordinal());
+            final Stats ret = stats.get(key);
+            if (ret != null) {
+                return ret;
+            }
+            final String name = stats.size() < MAX_KEYS ? key : OTHER_KEYS;
+            final Stats created = new Stats();
+            final Stats raced = stats.putIfAbsent(name, created);
+            return raced != null ? raced : created;
+        }
+
+        Report report() {
+            final List<Row> types = new ArrayList<>();
+            final List<Row> keys = new ArrayList<>();
+            for (Op op : OPS) {
+                for (ParcelValueType type : TYPES) {
+                    final Row row = byType[op.ordinal()][type.ordinal()].toRow(op, type.name());
+                    if (row.calls > 0) {
+                        types.add(row);
+                    }
+                }
+                final List<Row> rows = new ArrayList<>();
+                for (Map.Entry<String, Stats> entry : byKey.get(op.ordinal()).entrySet()) {
+                    rows.add(entry.getValue().toRow(op, entry.getKey()));
+                }
+                Collections.sort(rows, BY_NAME);
+                keys.addAll(rows);
+            }
+            return new Report(types, keys);
+        }
+
+        private static final Comparator<Row> BY_NAME = new Comparator<Row>() {
+            @Override
+            public int compare(Row o1, Row o2) {
+                return o1.name.compareTo(o2.name);
+            }
+        };
+
+        private static long calibrate() {
+            long ret = Long.MAX_VALUE;
+            for (int i = 0; i < 16; i++) {
+                final long before = ThreadAllocations.currentThread();
+                final long bytes = allocatedSince(before);
+                if (bytes < 0) {
+                    return 0;
+                }
+                ret = Math.min(ret, bytes);
+            }
+            return ret;
+        }
+
+    }
+
+}
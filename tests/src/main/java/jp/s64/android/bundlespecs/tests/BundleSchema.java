@@ -0,0 +1,62 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface whose no-arg methods describe the entries of a Bundle.
+ *
+ * <p>{@code :processor} generates {@code <Name>Bundles} next to it, with a {@code KEY_*} constant per
+ * entry, {@code write(value)} and a typed {@code read(bundle)}. Generated code calls the exact
+ * {@code putX} of each type and checks what it reads back, so the mismatches {@code BundleTest}
+ * marks with 🚨 (an {@code ArrayList<Integer>} from {@code getStringArrayList}, a String from
+ * {@code getSerializable}, …) throw {@link ClassCastException} instead of going unnoticed.</p>
+ *
+ * <pre>
+ * &#64;BundleSchema
+ * interface UserArgs {
+ *     long id();
+ *     &#64;BundleSchema.Key("user_name") String name();
+ * }
+ *
+ * Bundle args = UserArgsBundles.writer().id(1).name("a").toBundle();
+ * UserArgs user = UserArgsBundles.read(args);
+ * </pre>
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface BundleSchema {
+
+    /**
+     * Overrides the key of an entry, which defaults to the method name.
+     */
+    @Documented
+    @Retention(RetentionPolicy.CLASS)
+    @Target(ElementType.METHOD)
+    @interface Key {
+
+        String value();
+
+    }
+
+}
@@ -0,0 +1,391 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcelable;
+import android.util.Size;
+import android.util.SizeF;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+
+/**
+ * Every value type covered by {@code BundleTest}, as a payload factory.
+ *
+ * <p>Container types put a single {@code key} holding {@code size} elements.
+ * Scalar types put {@code size} keys ({@code key}, {@code key1}, {@code key2}, ...)
+ * so that both kinds scale with the requested payload size.</p>
+ */
+public enum BundleShape {
+
+    BINDER("putBinder", Build.VERSION_CODES.JELLY_BEAN_MR2) {
+        @Override
+        @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putBinder(key, new Binder());
+        }
+    },
+    BUNDLE("putBundle") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putBundle(key, intBundle(size));
+        }
+    },
+    PARCELABLE_BUNDLE("putParcelable") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putParcelable(key, intBundle(size));
+        }
+    },
+    PARCELABLE_INTENT("putParcelable") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putParcelable(key, intent(size));
+        }
+    },
+    BYTE("putByte") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putByte(key, (byte) index);
+        }
+    },
+    BYTE_ARRAY("putByteArray") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final byte[] value = new byte[size];
+            for (int i = 0; i < size; i++) {
+                value[i] = (byte) i;
+            }
+            bundle.putByteArray(key, value);
+        }
+    },
+    CHAR("putChar") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putChar(key, (char) ('A' + index % 26));
+        }
+    },
+    CHAR_ARRAY("putCharArray") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final char[] value = new char[size];
+            for (int i = 0; i < size; i++) {
+                value[i] = (char) ('A' + i % 26);
+            }
+            bundle.putCharArray(key, value);
+        }
+    },
+    CHAR_SEQUENCE("putCharSequence") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putCharSequence(key, text(size));
+        }
+    },
+    CHAR_SEQUENCE_ARRAY("putCharSequenceArray") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final CharSequence[] value = new CharSequence[size];
+            for (int i = 0; i < size; i++) {
+                value[i] = String.valueOf(i);
+            }
+            bundle.putCharSequenceArray(key, value);
+        }
+    },
+    CHAR_SEQUENCE_ARRAY_LIST("putCharSequenceArrayList") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final ArrayList<CharSequence> value = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                value.add(String.valueOf(i));
+            }
+            bundle.putCharSequenceArrayList(key, value);
+        }
+    },
+    FLOAT("putFloat") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putFloat(key, index);
+        }
+    },
+    FLOAT_ARRAY("putFloatArray") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final float[] value = new float[size];
+            for (int i = 0; i < size; i++) {
+                value[i] = i;
+            }
+            bundle.putFloatArray(key, value);
+        }
+    },
+    INTEGER_ARRAY_LIST("putIntegerArrayList") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final ArrayList<Integer> value = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                value.add(i);
+            }
+            bundle.putIntegerArrayList(key, value);
+        }
+    },
+    PARCELABLE_ARRAY("putParcelableArray") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final Parcelable[] value = new Parcelable[size];
+            for (int i = 0; i < size; i++) {
+                value[i] = parcelable(i);
+            }
+            bundle.putParcelableArray(key, value);
+        }
+    },
+    PARCELABLE_ARRAY_LIST("putParcelableArrayList") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final ArrayList<Parcelable> value = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                value.add(parcelable(i));
+            }
+            bundle.putParcelableArrayList(key, value);
+        }
+    },
+    SERIALIZABLE("putSerializable") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putSerializable(key, text(size));
+        }
+    },
+    SHORT("putShort") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putShort(key, (short) index);
+        }
+    },
+    SHORT_ARRAY("putShortArray") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final short[] value = new short[size];
+            for (int i = 0; i < size; i++) {
+                value[i] = (short) i;
+            }
+            bundle.putShortArray(key, value);
+        }
+    },
+    SIZE("putSize", Build.VERSION_CODES.LOLLIPOP) {
+        @Override
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putSize(key, new Size(index, index));
+        }
+    },
+    SIZE_F("putSizeF", Build.VERSION_CODES.LOLLIPOP) {
+        @Override
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putSizeF(key, new SizeF(index, index));
+        }
+    },
+    SPARSE_PARCELABLE_ARRAY("putSparseParcelableArray") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final SparseArray<Parcelable> value = new SparseArray<>(size);
+            for (int i = 0; i < size; i++) {
+                value.append(i, parcelable(i));
+            }
+            bundle.putSparseParcelableArray(key, value);
+        }
+    },
+    STRING_ARRAY_LIST("putStringArrayList") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final ArrayList<String> value = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                value.add(String.valueOf(i));
+            }
+            bundle.putStringArrayList(key, value);
+        }
+    },
+    BOOLEAN("putBoolean") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putBoolean(key, index % 2 == 0);
+        }
+    },
+    BOOLEAN_ARRAY("putBooleanArray") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final boolean[] value = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                value[i] = i % 2 == 0;
+            }
+            bundle.putBooleanArray(key, value);
+        }
+    },
+    DOUBLE("putDouble") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putDouble(key, index);
+        }
+    },
+    DOUBLE_ARRAY("putDoubleArray") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final double[] value = new double[size];
+            for (int i = 0; i < size; i++) {
+                value[i] = i;
+            }
+            bundle.putDoubleArray(key, value);
+        }
+    },
+    INT_ARRAY("putIntArray") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final int[] value = new int[size];
+            for (int i = 0; i < size; i++) {
+                value[i] = i;
+            }
+            bundle.putIntArray(key, value);
+        }
+    },
+    LONG("putLong") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            bundle.putLong(key, index);
+        }
+    },
+    LONG_ARRAY("putLongArray") {
+        @Override
+        void put(Bundle bundle, String key, int index, int size) {
+            final long[] value = new long[size];
+            for (int i = 0; i < size; i++) {
+                value[i] = i;
+            }
+            bundle.putLongArray(key, value);
+        }
+    },
+    ;
+
+    public static final String KEY = "key";
+
+    private final String method;
+    private final int minSdkVersion;
+
+    BundleShape(String method) {
+        this(method, Build.VERSION_CODES.JELLY_BEAN);
+    }
+
+    BundleShape(String method, int minSdkVersion) {
+        this.method = method;
+        this.minSdkVersion = minSdkVersion;
+    }
+
+    abstract void put(Bundle bundle, String key, int index, int size);
+
+    /**
+     * @return name of the {@code Bundle#putX} method this shape exercises.
+     */
+    public String method() {
+        return method;
+    }
+
+    public int minSdkVersion() {
+        return minSdkVersion;
+    }
+
+    public boolean isSupported() {
+        return Build.VERSION.SDK_INT >= minSdkVersion;
+    }
+
+    /**
+     * @return {@code true} if {@code size} is the number of keys rather than the number of elements.
+     */
+    public boolean isScalar() {
+        switch (this) {
+            case BINDER:
+            case BYTE:
+            case CHAR:
+            case FLOAT:
+            case SHORT:
+            case SIZE:
+            case SIZE_F:
+            case BOOLEAN:
+            case DOUBLE:
+            case LONG:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Puts one value of this shape under {@code key}; a container holds {@code size} elements.
+     */
+    public void put(Bundle bundle, String key, int size) {
+        put(bundle, key, 0, size);
+    }
+
+    public void fill(Bundle bundle, int size) {
+        if (isScalar()) {
+            for (int i = 0; i < size; i++) {
+                put(bundle, i == 0 ? KEY : KEY + i, i, size);
+            }
+        } else {
+            put(bundle, KEY, 0, size);
+        }
+    }
+
+    public Bundle create(int size) {
+        final Bundle ret = new Bundle();
+        {
+            fill(ret, size);
+        }
+        return ret;
+    }
+
+    static Bundle intBundle(int size) {
+        final Bundle ret = new Bundle();
+        for (int i = 0; i < size; i++) {
+            ret.putInt(KEY + i, i);
+        }
+        return ret;
+    }
+
+    static Intent intent(int size) {
+        final Intent ret = new Intent();
+        for (int i = 0; i < size; i++) {
+            ret.putExtra(KEY + i, i);
+        }
+        return ret;
+    }
+
+    static Parcelable parcelable(int index) {
+        // same mix as the BundleTest fixtures: { new Bundle(), new Intent() }
+        return index % 2 == 0 ? new Bundle() : new Intent();
+    }
+
+    static String text(int size) {
+        final StringBuilder ret = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            ret.append((char) ('a' + i % 26));
+        }
+        return ret.toString();
+    }
+
+}
@@ -0,0 +1,390 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes how many bytes {@code Bundle#writeToParcel} would produce, by walking the values
+ * with the same rules as {@code Parcel#writeValue} instead of marshalling them.
+ *
+ * <p>Values whose layout is owned by their class (any {@link Parcelable} other than
+ * Bundle, and {@link Spanned} text) are measured by writing only that value into a recycled
+ * Parcel, unless a {@link Sizer} is {@link #register(Class, Sizer) registered} for the class.
+ * {@link #fallbackCount()} tells how often that happened.</p>
+ *
+ * <p>Not thread-safe; keep one instance per thread.</p>
+ */
+public final class BundleSizeEstimator {
+
+    /**
+     * Computes the bytes {@code value.writeToParcel(parcel, 0)} produces, without the class name header.
+     */
+    public interface Sizer<T> {
+
+        int sizeOf(T value, BundleSizeEstimator estimator);
+
+    }
+
+    /**
+     * Reusable per-key result, so that estimating on every {@code onSaveInstanceState} doesn't allocate.
+     */
+    public static final class Breakdown {
+
+        private String[] keys = new String[8];
+        private int[] bytes = new int[8];
+        private int size;
+
+        public int size() {
+            return size;
+        }
+
+        public String key(int index) {
+            return keys[index];
+        }
+
+        /**
+         * @return bytes of the key and its value, including the value type tag.
+         */
+        public int bytes(int index) {
+            return bytes[index];
+        }
+
+        public void clear() {
+            Arrays.fill(keys, 0, size, null);
+            size = 0;
+        }
+
+        void add(String key, int bytes) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                this.bytes = Arrays.copyOf(this.bytes, size * 2);
+            }
+            keys[size] = key;
+            this.bytes[size] = bytes;
+            size++;
+        }
+
+    }
+
+    private static final int INT = 4;
+    private static final int LONG = 8;
+
+    private static int binderObjectSize = -1;
+
+    private final Map<Class<?>, Sizer<Object>> sizers = new HashMap<>();
+    private final CountingOutputStream counter = new CountingOutputStream();
+
+    private int fallbacks;
+
+    /**
+     * Registers a {@link Sizer} for exactly {@code type} (subclasses are not matched).
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Parcelable> BundleSizeEstimator register(Class<T> type, Sizer<? super T> sizer) {
+        sizers.put(type, (Sizer<Object>) sizer);
+        return this;
+    }
+
+    /**
+     * @return how many values so far had to be measured with a Parcel.
+     */
+    public int fallbackCount() {
+        return fallbacks;
+    }
+
+    /**
+     * @return bytes of {@code bundle.writeToParcel(parcel, 0)}.
+     */
+    public int sizeOf(Bundle bundle) {
+        return sizeOf(bundle, null);
+    }
+
+    /**
+     * @param breakdown receives one entry per top-level key; may be {@code null}.
+     * @return bytes of {@code bundle.writeToParcel(parcel, 0)}.
+     */
+    public int sizeOf(Bundle bundle, Breakdown breakdown) {
+        if (breakdown != null) {
+            breakdown.clear();
+        }
+        if (bundle.isEmpty() && isArrayMapBundle()) {
+            return INT;
+        }
+
+        int ret = INT + INT + INT; // length, magic, N
+        for (String key : bundle.keySet()) {
+            final int bytes = sizeOfEntry(key, bundle.get(key));
+            if (breakdown != null) {
+                breakdown.add(key, bytes);
+            }
+            ret += bytes;
+        }
+        return ret;
+    }
+
+    /**
+     * @return bytes of one Bundle map entry, key included.
+     */
+    public int sizeOfEntry(String key, Object value) {
+        return (isArrayMapBundle() ? sizeOfString(key) : INT + sizeOfString(key)) + sizeOfValue(value);
+    }
+
+    /**
+     * @return bytes of {@code Parcel#writeValue(value)}, type tag included.
+     */
+    @SuppressWarnings("unchecked")
+    public int sizeOfValue(Object v) {
+        switch (ParcelValueType.of(v)) {
+            case NULL:
+                return INT;
+            case STRING:
+                return INT + sizeOfString((String) v);
+            case INTEGER:
+            case SHORT:
+            case FLOAT:
+            case BOOLEAN:
+            case BYTE:
+                return INT + INT;
+            case LONG:
+            case DOUBLE:
+            case SIZE:
+            case SIZE_F:
+                return INT + LONG;
+            case MAP:
+                return INT + sizeOfMap((Map<Object, Object>) v);
+            case BUNDLE:
+                return INT + sizeOf((Bundle) v);
+            case PERSISTABLE_BUNDLE:
+                return INT + sizeOfParcelableBody((Parcelable) v);
+            case PARCELABLE:
+                return INT + sizeOfParcelable((Parcelable) v);
+            case CHAR_SEQUENCE:
+                return INT + sizeOfCharSequence((CharSequence) v);
+            case LIST:
+                return INT + sizeOfList((List<Object>) v);
+            case SPARSE_ARRAY:
+                return INT + sizeOfSparseArray((SparseArray<Object>) v);
+            case BOOLEAN_ARRAY:
+                return INT + INT + INT * ((boolean[]) v).length;
+            case BYTE_ARRAY:
+                return INT + INT + pad(((byte[]) v).length);
+            case STRING_ARRAY: {
+                int ret = INT + INT;
+                for (String item : (String[]) v) {
+                    ret += sizeOfString(item);
+                }
+                return ret;
+            }
+            case CHAR_SEQUENCE_ARRAY: {
+                int ret = INT + INT;
+                for (CharSequence item : (CharSequence[]) v) {
+                    ret += sizeOfCharSequence(item);
+                }
+                return ret;
+            }
+            case IBINDER:
+                return INT + binderObjectSize();
+            case PARCELABLE_ARRAY: {
+                int ret = INT + INT;
+                for (Parcelable item : (Parcelable[]) v) {
+                    ret += sizeOfParcelable(item);
+                }
+                return ret;
+            }
+            case INT_ARRAY:
+                return INT + INT + INT * ((int[]) v).length;
+            case LONG_ARRAY:
+                return INT + INT + LONG * ((long[]) v).length;
+            case DOUBLE_ARRAY:
+                return INT + INT + LONG * ((double[]) v).length;
+            case OBJECT_ARRAY: {
+                int ret = INT + INT;
+                for (Object item : (Object[]) v) {
+                    ret += sizeOfValue(item);
+                }
+                return ret;
+            }
+            case SERIALIZABLE:
+                return INT + sizeOfSerializable((Serializable) v);
+            default:
+                throw new IllegalArgumentException("Parcel: unable to marshal value " + v);
+        }
+    }
+
+    /**
+     * @return bytes of {@code Parcel#writeString(value)}: length, UTF-16 units and a terminator, 4-byte aligned.
+     */
+    public int sizeOfString(String value) {
+        return value == null ? INT : INT + pad((value.length() + 1) * 2);
+    }
+
+    /**
+     * @return bytes of {@code Parcel#writeParcelable(value, 0)}: class name followed by the body.
+     */
+    public int sizeOfParcelable(Parcelable value) {
+        if (value == null) {
+            return sizeOfString(null);
+        }
+        return sizeOfString(value.getClass().getName()) + sizeOfParcelableBody(value);
+    }
+
+    private int sizeOfParcelableBody(Parcelable value) {
+        if (value instanceof Bundle) {
+            return sizeOf((Bundle) value);
+        }
+        final Sizer<Object> sizer = sizers.get(value.getClass());
+        if (sizer != null) {
+            return sizer.sizeOf(value, this);
+        }
+
+        fallbacks++;
+        final Parcel parcel = Parcel.obtain();
+        try {
+            value.writeToParcel(parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * @return bytes of {@code TextUtils#writeToParcel(value, parcel, 0)}.
+     */
+    public int sizeOfCharSequence(CharSequence value) {
+        if (!(value instanceof Spanned)) {
+            return INT + sizeOfString(value != null ? value.toString() : null);
+        }
+
+        fallbacks++;
+        final Parcel parcel = Parcel.obtain();
+        try {
+            TextUtils.writeToParcel(value, parcel, 0);
+            return parcel.dataSize();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * @return bytes of {@code Parcel#writeSerializable(value)}: class name and the serialized stream.
+     */
+    public int sizeOfSerializable(Serializable value) {
+        if (value == null) {
+            return sizeOfString(null);
+        }
+        counter.count = 0;
+        try {
+            final ObjectOutputStream out = new ObjectOutputStream(counter);
+            out.writeObject(value);
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException("Parcelable encountered IOException writing serializable object (name = "
+                    + value.getClass().getName() + ")", e);
+        }
+        return sizeOfString(value.getClass().getName()) + INT + pad(counter.count);
+    }
+
+    private int sizeOfMap(Map<Object, Object> value) {
+        if (value == null) {
+            return INT;
+        }
+        int ret = INT;
+        for (Map.Entry<Object, Object> entry : value.entrySet()) {
+            ret += sizeOfValue(entry.getKey()) + sizeOfValue(entry.getValue());
+        }
+        return ret;
+    }
+
+    private int sizeOfList(List<Object> value) {
+        int ret = INT;
+        for (int i = 0, size = value.size(); i < size; i++) {
+            ret += sizeOfValue(value.get(i));
+        }
+        return ret;
+    }
+
+    private int sizeOfSparseArray(SparseArray<Object> value) {
+        int ret = INT;
+        for (int i = 0, size = value.size(); i < size; i++) {
+            ret += INT + sizeOfValue(value.valueAt(i));
+        }
+        return ret;
+    }
+
+    static int pad(int bytes) {
+        return (bytes + 3) & ~3;
+    }
+
+    /**
+     * Bundles are ArrayMap based since API 21: keys are plain strings and an empty Bundle is a single 0.
+     * Before that, keys went through {@code writeValue} and an empty Bundle still had the full header.
+     */
+    static boolean isArrayMapBundle() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * {@code flat_binder_object} is 16 or 24 bytes depending on the binder ABI the kernel speaks,
+     * so it is measured once.
+     */
+    static int binderObjectSize() {
+        if (binderObjectSize < 0) {
+            final Parcel parcel = Parcel.obtain();
+            try {
+                parcel.writeStrongBinder(new Binder());
+                binderObjectSize = parcel.dataSize();
+            } finally {
+                parcel.recycle();
+            }
+        }
+        return binderObjectSize;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        int count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+    }
+
+}
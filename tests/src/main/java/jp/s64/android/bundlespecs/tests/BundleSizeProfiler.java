@@ -0,0 +1,412 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Finds the keys that make a Bundle heavy, before it hits the binder limit.
+ *
+ * <p>A {@link Scan} walks one payload with {@link BundleSizeEstimator}, a few entries per
+ * {@link Scan#step(long)} so that it can run on the main thread within a time budget. Every key
+ * and nested path (keys joined by {@code /}, {@link #DEFAULT_MAX_DEPTH} levels deep, into Intent
+ * extras too) gets its estimated bytes, nested Bundles included. {@link Scan#top(int)} ranks
+ * them for that payload.</p>
+ *
+ * <p>Across scans, {@link #top(int)} keeps the heaviest paths by total bytes in at most
+ * {@code capacity} slots, with the weighted Space-Saving algorithm: a new path evicts the lightest
+ * one and inherits its total as {@link Entry#error}. Every path whose true total exceeds the
+ * smallest tracked total is guaranteed to be in the table.</p>
+ *
+ * <p>Thread-safe; each scan belongs to the thread stepping it.</p>
+ */
+public final class BundleSizeProfiler {
+
+    public static final int DEFAULT_CAPACITY = 256;
+    public static final int DEFAULT_MAX_DEPTH = 8;
+
+    /**
+     * Length, magic and N in front of a non-empty nested Bundle, as in {@link BundleSizeEstimator#sizeOf(Bundle)}.
+     */
+    private static final int BUNDLE_HEADER = 12;
+
+    /**
+     * Aggregates of one path.
+     */
+    public static final class Entry {
+
+        public final String path;
+
+        /**
+         * Estimated bytes; across scans, the sum over every scan that saw the path.
+         */
+        public final long bytes;
+
+        /**
+         * The heaviest single occurrence.
+         */
+        public final long maxBytes;
+
+        public final long count;
+
+        /**
+         * How much of {@link #bytes} may belong to paths evicted before this one was tracked; {@code 0} for a scan.
+         */
+        public final long error;
+
+        Entry(String path, long bytes, long maxBytes, long count, long error) {
+            this.path = path;
+            this.bytes = bytes;
+            this.maxBytes = maxBytes;
+            this.count = count;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return path + ": " + bytes + " bytes (max " + maxBytes + ", " + count + "x"
+                    + (error > 0 ? ", ±" + error : "") + ")";
+        }
+
+    }
+
+    private static final Comparator<Entry> BY_BYTES = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            return o1.bytes < o2.bytes ? 1 : (o1.bytes == o2.bytes ? o1.path.compareTo(o2.path) : -1);
+        }
+    };
+
+    private final int capacity;
+    private final int maxDepth;
+    private final int sampleEvery;
+    private final AtomicInteger ticks = new AtomicInteger();
+
+    private final Map<String, Slot> slots = new HashMap<>();
+    private final Slot[] heap;
+    private int size;
+    private long scans;
+
+    public BundleSizeProfiler() {
+        this(DEFAULT_CAPACITY, DEFAULT_MAX_DEPTH, 1);
+    }
+
+    /**
+     * @param capacity    paths tracked across scans, and per scan.
+     * @param maxDepth    nesting levels that get their own paths; deeper Bundles count as one value.
+     * @param sampleEvery {@link #shouldSample()} answers {@code true} once per this many calls.
+     */
+    public BundleSizeProfiler(int capacity, int maxDepth, int sampleEvery) {
+        if (capacity <= 0 || maxDepth <= 0 || sampleEvery <= 0) {
+            throw new IllegalArgumentException("capacity, maxDepth and sampleEvery must be positive");
+        }
+        this.capacity = capacity;
+        this.maxDepth = maxDepth;
+        this.sampleEvery = sampleEvery;
+        this.heap = new Slot[capacity];
+    }
+
+    /**
+     * @return whether the payload at hand should be scanned, one out of {@code sampleEvery}.
+     */
+    public boolean shouldSample() {
+        return sampleEvery == 1 || (ticks.getAndIncrement() & Integer.MAX_VALUE) % sampleEvery == 0;
+    }
+
+    /**
+     * Starts scanning {@code bundle}; nothing is read before the first {@link Scan#step(long)}.
+     */
+    public Scan scan(Bundle bundle) {
+        return new Scan(bundle);
+    }
+
+    /**
+     * Scans the extras of {@code intent}, or an empty Bundle if it has none.
+     */
+    public Scan scan(Intent intent) {
+        final Bundle extras = intent.getExtras();
+        return new Scan(extras != null ? extras : new Bundle());
+    }
+
+    /**
+     * @return the {@code k} heaviest paths so far, by total bytes.
+     */
+    public synchronized List<Entry> top(int k) {
+        final List<Entry> ret = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ret.add(heap[i].toEntry());
+        }
+        Collections.sort(ret, BY_BYTES);
+        return ret.size() > k ? new ArrayList<>(ret.subList(0, k)) : ret;
+    }
+
+    /**
+     * @return scans that ran to the end.
+     */
+    public synchronized long scanCount() {
+        return scans;
+    }
+
+    public synchronized void reset() {
+        slots.clear();
+        for (int i = 0; i < size; i++) {
+            heap[i] = null;
+        }
+        size = 0;
+        scans = 0;
+    }
+
+    private synchronized void record(List<Entry> entries) {
+        scans++;
+        for (Entry entry : entries) {
+            add(entry.path, entry.bytes);
+        }
+    }
+
+    private void add(String path, long bytes) {
+        Slot slot = slots.get(path);
+        boolean appended = false;
+        if (slot == null) {
+            if (size < capacity) {
+                slot = new Slot(path, 0);
+                slot.index = size;
+                heap[size++] = slot;
+                appended = true;
+            } else {
+                // Space-Saving: take over the lightest slot and its total as the error bound
+                slot = heap[0];
+                slots.remove(slot.path);
+                slot.reuse(path);
+            }
+            slots.put(path, slot);
+        }
+        slot.bytes += bytes;
+        slot.maxBytes = Math.max(slot.maxBytes, bytes);
+        slot.count++;
+        // totals only grow, so a slot moves down unless it starts at the bottom
+        if (appended) {
+            siftUp(slot.index);
+        } else {
+            siftDown(slot.index);
+        }
+    }
+
+    private void siftUp(int index) {
+        final Slot slot = heap[index];
+        while (index > 0) {
+            final int parent = (index - 1) / 2;
+            if (heap[parent].bytes <= slot.bytes) {
+                break;
+            }
+            heap[index] = heap[parent];
+            heap[index].index = index;
+            index = parent;
+        }
+        heap[index] = slot;
+        slot.index = index;
+    }
+
+    private void siftDown(int index) {
+        final Slot slot = heap[index];
+        while (true) {
+            final int left = index * 2 + 1;
+            if (left >= size) {
+                break;
+            }
+            final int right = left + 1;
+            final int child = right < size && heap[right].bytes < heap[left].bytes ? right : left;
+            if (heap[child].bytes >= slot.bytes) {
+                break;
+            }
+            heap[index] = heap[child];
+            heap[index].index = index;
+            index = child;
+        }
+        heap[index] = slot;
+        slot.index = index;
+    }
+
+    private static final class Slot {
+
+        String path;
+        long bytes;
+        long maxBytes;
+        long count;
+        long error;
+        int index;
+
+        Slot(String path, long bytes) {
+            this.path = path;
+            this.bytes = bytes;
+        }
+
+        void reuse(String path) {
+            this.path = path;
+            this.error = bytes;
+            this.maxBytes = 0;
+            this.count = 0;
+        }
+
+        Entry toEntry() {
+            return new Entry(path, bytes, maxBytes, count, error);
+        }
+
+    }
+
+    /**
+     * One payload, walked depth first. The walk sees each Bundle as it is when it gets there,
+     * so don't mutate it between steps if the numbers must add up.
+     */
+    public final class Scan {
+
+        private final BundleSizeEstimator estimator = new BundleSizeEstimator();
+        private final ArrayDeque<Frame> stack = new ArrayDeque<>();
+        private final PriorityQueue<Entry> top = new PriorityQueue<>(capacity, Collections.reverseOrder(BY_BYTES));
+        private final List<Entry> paths = new ArrayList<>();
+        private long totalBytes = -1;
+
+        Scan(Bundle bundle) {
+            stack.push(new Frame(null, bundle, BUNDLE_HEADER, 0, false));
+        }
+
+        /**
+         * Estimates entries until the walk is over or {@code budgetNanos} have passed; at least one.
+         *
+         * @return whether the walk is over.
+         */
+        public boolean step(long budgetNanos) {
+            final long deadline = System.nanoTime() + budgetNanos;
+            while (!stack.isEmpty()) {
+                visit(stack.peek());
+                if (System.nanoTime() - deadline >= 0) {
+                    break;
+                }
+            }
+            return stack.isEmpty();
+        }
+
+        /**
+         * Walks the rest in one go.
+         *
+         * @return this.
+         */
+        public Scan run() {
+            step(Long.MAX_VALUE / 2);
+            return this;
+        }
+
+        public boolean isDone() {
+            return totalBytes >= 0;
+        }
+
+        /**
+         * @return bytes of {@code bundle.writeToParcel}, or {@code -1} until {@link #isDone()}.
+         */
+        public long totalBytes() {
+            return totalBytes;
+        }
+
+        /**
+         * @return the {@code k} heaviest paths of this payload; complete once {@link #isDone()}.
+         */
+        public List<Entry> top(int k) {
+            final List<Entry> ret = new ArrayList<>(top);
+            Collections.sort(ret, BY_BYTES);
+            return ret.size() > k ? new ArrayList<>(ret.subList(0, k)) : ret;
+        }
+
+        private void visit(Frame frame) {
+            if (frame.index == frame.keys.length) {
+                stack.pop();
+                if (frame.path == null) {
+                    totalBytes = frame.keys.length == 0 ? estimator.sizeOf(frame.bundle) : frame.bytes;
+                    record(paths);
+                    paths.clear();
+                    return;
+                }
+                if (!frame.counted) {
+                    count(frame.path, frame.bytes);
+                    stack.peek().bytes += frame.bytes;
+                }
+                return;
+            }
+
+            final String key = frame.keys[frame.index++];
+            final Object value = frame.bundle.get(key);
+            final String path = frame.path == null ? key : frame.path + "/" + key;
+
+            if (value instanceof Bundle && !((Bundle) value).isEmpty() && frame.depth + 1 < maxDepth) {
+                stack.push(new Frame(path, (Bundle) value,
+                        estimator.sizeOfEntry(key, null) + BUNDLE_HEADER, frame.depth + 1, false));
+                return;
+            }
+            final int bytes = estimator.sizeOfEntry(key, value);
+            frame.bytes += bytes;
+            count(path, bytes);
+            if (value instanceof Intent && frame.depth + 1 < maxDepth) {
+                final Bundle extras = ((Intent) value).getExtras();
+                if (extras != null && !extras.isEmpty()) {
+                    // already counted as a whole; the frame only breaks the extras down
+                    stack.push(new Frame(path, extras, 0, frame.depth + 1, true));
+                }
+            }
+        }
+
+        private void count(String path, long bytes) {
+            final Entry entry = new Entry(path, bytes, bytes, 1, 0);
+            paths.add(entry);
+            top.add(entry);
+            if (top.size() > capacity) {
+                top.poll();
+            }
+        }
+
+    }
+
+    private static final class Frame {
+
+        final String path;
+        final Bundle bundle;
+        final String[] keys;
+        final int depth;
+        final boolean counted;
+        int index;
+        long bytes;
+
+        Frame(String path, Bundle bundle, long bytes, int depth, boolean counted) {
+            this.path = path;
+            this.bundle = bundle;
+            this.keys = bundle.keySet().toArray(new String[0]);
+            this.bytes = bytes;
+            this.depth = depth;
+            this.counted = counted;
+        }
+
+    }
+
+}
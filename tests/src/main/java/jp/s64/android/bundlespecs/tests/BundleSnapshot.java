@@ -0,0 +1,398 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Immutable, structurally shared Bundle.
+ *
+ * <p>Entries live in a hash array mapped trie, so a snapshot is just a reference (O(1)) and
+ * {@link #with(String, Object)} copies only the path from the root to the changed entry
+ * (O(log32 n)) instead of the whole tree {@code Bundle#deepCopy()} clones. Nested Bundles
+ * are held as nested snapshots, so {@link #withPath(String[], Object)} shares every
+ * untouched subtree too.</p>
+ *
+ * <p>Values are taken in and handed out with {@code deepCopy()} semantics ({@link BundleCopies}):
+ * arrays and ArrayLists are copied at the boundary, Binders, Serializables and other
+ * Parcelables are shared. Arrays returned by the getters must be treated as read-only.</p>
+ */
+public final class BundleSnapshot extends BundleLike {
+
+    public static final BundleSnapshot EMPTY = new BundleSnapshot(Node.EMPTY, 0);
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private final Node root;
+    private final int size;
+
+    private Set<String> keySet;
+
+    private BundleSnapshot(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /**
+     * Imports {@code bundle} once, like a {@code deepCopy()}; later versions share it.
+     */
+    public static BundleSnapshot of(Bundle bundle) {
+        BundleSnapshot ret = EMPTY;
+        for (String key : bundle.keySet()) {
+            ret = ret.with(key, bundle.get(key));
+        }
+        return ret;
+    }
+
+    /**
+     * @return a snapshot where {@code key} maps to {@code value}; {@code this} is unchanged.
+     */
+    public BundleSnapshot with(String key, Object value) {
+        final Entry entry = new Entry(key, importValue(value));
+        final Node.Result result = new Node.Result();
+        final Node newRoot = root.put(entry, 0, result);
+        return new BundleSnapshot(newRoot, result.replaced ? size : size + 1);
+    }
+
+    /**
+     * Sets {@code value} in the nested snapshot at {@code path[0..n-2]}, creating empty levels as needed.
+     *
+     * @throws IllegalArgumentException if a level on the path holds something other than a Bundle.
+     */
+    public BundleSnapshot withPath(String[] path, Object value) {
+        return withPath(path, 0, value);
+    }
+
+    private BundleSnapshot withPath(String[] path, int depth, Object value) {
+        if (depth == path.length - 1) {
+            return with(path[depth], value);
+        }
+        final Object current = root.get(path[depth], path[depth].hashCode(), 0);
+        final BundleSnapshot nested;
+        if (current == null) {
+            nested = EMPTY;
+        } else if (current instanceof BundleSnapshot) {
+            nested = (BundleSnapshot) current;
+        } else {
+            throw new IllegalArgumentException(path[depth] + " is not a Bundle: " + current.getClass().getName());
+        }
+        final Entry entry = new Entry(path[depth], nested.withPath(path, depth + 1, value));
+        final Node.Result result = new Node.Result();
+        return new BundleSnapshot(root.put(entry, 0, result), result.replaced ? size : size + 1);
+    }
+
+    /**
+     * @return a snapshot without {@code key}; {@code this} if it wasn't there.
+     */
+    public BundleSnapshot without(String key) {
+        final Node.Result result = new Node.Result();
+        final Node newRoot = root.remove(key, key.hashCode(), 0, result);
+        return result.replaced ? new BundleSnapshot(newRoot, size - 1) : this;
+    }
+
+    /**
+     * @return the nested snapshot at {@code key} without materializing it, or {@code null}.
+     */
+    public BundleSnapshot getSnapshot(String key) {
+        final Object ret = root.get(key, key.hashCode(), 0);
+        return ret instanceof BundleSnapshot ? (BundleSnapshot) ret : null;
+    }
+
+    /**
+     * Nested snapshots are handed out as fresh Bundles, so {@code getBundle}, {@code getParcelable}
+     * and {@code instanceof Bundle} behave as on a platform Bundle.
+     */
+    @Override
+    public Object get(String key) {
+        final Object ret = root.get(key, key.hashCode(), 0);
+        return ret instanceof BundleSnapshot ? ((BundleSnapshot) ret).toBundle() : ret;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return root.containsKey(key, key.hashCode(), 0);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        if (keySet == null) {
+            final Set<String> ret = new LinkedHashSet<>(size);
+            root.collectKeys(ret);
+            keySet = Collections.unmodifiableSet(ret);
+        }
+        return keySet;
+    }
+
+    /**
+     * Materializes a real Bundle for the IPC boundary, copying like {@code deepCopy()}.
+     */
+    @Override
+    public Bundle toBundle() {
+        final Bundle ret = new Bundle(size);
+        root.putInto(ret);
+        return ret;
+    }
+
+    private static Object importValue(Object value) {
+        if (value instanceof Bundle) {
+            return of((Bundle) value);
+        }
+        return BundleCopies.deepCopyValue(value);
+    }
+
+    static Object exportValue(Object value) {
+        if (value instanceof BundleSnapshot) {
+            return ((BundleSnapshot) value).toBundle();
+        }
+        return BundleCopies.deepCopyValue(value);
+    }
+
+    private static final class Entry {
+
+        final String key;
+        final int hash;
+        final Object value;
+
+        Entry(String key, Object value) {
+            this.key = key;
+            this.hash = key.hashCode();
+            this.value = value;
+        }
+
+    }
+
+    /**
+     * Bitmap indexed trie node. A slot holds an {@link Entry}, a child {@link Node},
+     * or an {@code Entry[]} of keys whose hashes fully collide.
+     */
+    private static final class Node {
+
+        static final Node EMPTY = new Node(0, new Object[0]);
+
+        static final class Result {
+
+            boolean replaced;
+
+        }
+
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        Object get(String key, int hash, int shift) {
+            final Object slot = slot(hash, shift);
+            if (slot instanceof Entry) {
+                final Entry entry = (Entry) slot;
+                return entry.hash == hash && entry.key.equals(key) ? entry.value : null;
+            } else if (slot instanceof Node) {
+                return ((Node) slot).get(key, hash, shift + BITS);
+            } else if (slot instanceof Entry[]) {
+                for (Entry entry : (Entry[]) slot) {
+                    if (entry.key.equals(key)) {
+                        return entry.value;
+                    }
+                }
+            }
+            return null;
+        }
+
+        boolean containsKey(String key, int hash, int shift) {
+            final Object slot = slot(hash, shift);
+            if (slot instanceof Entry) {
+                final Entry entry = (Entry) slot;
+                return entry.hash == hash && entry.key.equals(key);
+            } else if (slot instanceof Node) {
+                return ((Node) slot).containsKey(key, hash, shift + BITS);
+            } else if (slot instanceof Entry[]) {
+                for (Entry entry : (Entry[]) slot) {
+                    if (entry.key.equals(key)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        Node put(Entry entry, int shift, Result result) {
+            final int bit = bit(entry.hash, shift);
+            final int index = index(bit);
+
+            if ((bitmap & bit) == 0) {
+                final Object[] newSlots = new Object[slots.length + 1];
+                System.arraycopy(slots, 0, newSlots, 0, index);
+                newSlots[index] = entry;
+                System.arraycopy(slots, index, newSlots, index + 1, slots.length - index);
+                return new Node(bitmap | bit, newSlots);
+            }
+
+            final Object slot = slots[index];
+            final Object newSlot;
+            if (slot instanceof Entry) {
+                final Entry existing = (Entry) slot;
+                if (existing.key.equals(entry.key)) {
+                    result.replaced = true;
+                    newSlot = entry;
+                } else if (existing.hash == entry.hash) {
+                    newSlot = new Entry[] {existing, entry};
+                } else {
+                    newSlot = EMPTY
+                            .put(existing, shift + BITS, new Result())
+                            .put(entry, shift + BITS, new Result());
+                }
+            } else if (slot instanceof Node) {
+                newSlot = ((Node) slot).put(entry, shift + BITS, result);
+            } else if (((Entry[]) slot)[0].hash != entry.hash) {
+                final Entry[] collisions = (Entry[]) slot;
+                newSlot = new Node(bit(collisions[0].hash, shift + BITS), new Object[] {collisions})
+                        .put(entry, shift + BITS, result);
+            } else {
+                final Entry[] collisions = (Entry[]) slot;
+                Entry[] newCollisions = null;
+                for (int i = 0; i < collisions.length; i++) {
+                    if (collisions[i].key.equals(entry.key)) {
+                        result.replaced = true;
+                        newCollisions = collisions.clone();
+                        newCollisions[i] = entry;
+                        break;
+                    }
+                }
+                if (newCollisions == null) {
+                    newCollisions = new Entry[collisions.length + 1];
+                    System.arraycopy(collisions, 0, newCollisions, 0, collisions.length);
+                    newCollisions[collisions.length] = entry;
+                }
+                newSlot = newCollisions;
+            }
+            return replace(index, newSlot);
+        }
+
+        Node remove(String key, int hash, int shift, Result result) {
+            final int bit = bit(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            final int index = index(bit);
+            final Object slot = slots[index];
+
+            if (slot instanceof Entry) {
+                if (!((Entry) slot).key.equals(key)) {
+                    return this;
+                }
+                result.replaced = true;
+                return without(bit, index);
+            } else if (slot instanceof Node) {
+                final Node child = ((Node) slot).remove(key, hash, shift + BITS, result);
+                if (!result.replaced) {
+                    return this;
+                }
+                if (child.slots.length == 0) {
+                    return without(bit, index);
+                }
+                if (child.slots.length == 1 && !(child.slots[0] instanceof Node)) {
+                    return replace(index, child.slots[0]);
+                }
+                return replace(index, child);
+            } else {
+                final Entry[] collisions = (Entry[]) slot;
+                for (int i = 0; i < collisions.length; i++) {
+                    if (collisions[i].key.equals(key)) {
+                        result.replaced = true;
+                        if (collisions.length == 2) {
+                            return replace(index, collisions[1 - i]);
+                        }
+                        final Entry[] newCollisions = new Entry[collisions.length - 1];
+                        System.arraycopy(collisions, 0, newCollisions, 0, i);
+                        System.arraycopy(collisions, i + 1, newCollisions, i, collisions.length - i - 1);
+                        return replace(index, newCollisions);
+                    }
+                }
+                return this;
+            }
+        }
+
+        void collectKeys(Set<String> out) {
+            for (Object slot : slots) {
+                if (slot instanceof Entry) {
+                    out.add(((Entry) slot).key);
+                } else if (slot instanceof Node) {
+                    ((Node) slot).collectKeys(out);
+                } else {
+                    for (Entry entry : (Entry[]) slot) {
+                        out.add(entry.key);
+                    }
+                }
+            }
+        }
+
+        void putInto(Bundle out) {
+            for (Object slot : slots) {
+                if (slot instanceof Entry) {
+                    final Entry entry = (Entry) slot;
+                    BundleValues.put(out, entry.key, exportValue(entry.value));
+                } else if (slot instanceof Node) {
+                    ((Node) slot).putInto(out);
+                } else {
+                    for (Entry entry : (Entry[]) slot) {
+                        BundleValues.put(out, entry.key, exportValue(entry.value));
+                    }
+                }
+            }
+        }
+
+        private Object slot(int hash, int shift) {
+            final int bit = bit(hash, shift);
+            return (bitmap & bit) == 0 ? null : slots[index(bit)];
+        }
+
+        private Node replace(int index, Object slot) {
+            final Object[] newSlots = slots.clone();
+            newSlots[index] = slot;
+            return new Node(bitmap, newSlots);
+        }
+
+        private Node without(int bit, int index) {
+            final Object[] newSlots = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, newSlots, 0, index);
+            System.arraycopy(slots, index + 1, newSlots, index, slots.length - index - 1);
+            return new Node(bitmap & ~bit, newSlots);
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        private static int bit(int hash, int shift) {
+            return 1 << ((hash >>> shift) & MASK);
+        }
+
+    }
+
+}
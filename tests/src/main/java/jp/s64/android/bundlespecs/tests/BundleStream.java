@@ -0,0 +1,416 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Sends a Bundle too large for one binder transaction as a sequence of bounded frames, and
+ * rebuilds it on the other side while the frames are still arriving.
+ *
+ * <p>A marshalled Parcel can only be read once all of it is there, so the stream carries the
+ * entries one by one instead, each length-prefixed and encoded with {@link ValueCodec}:</p>
+ *
+ * <pre>
+ * int magic 'BSTR', int version, int count
+ * count x { int length, string key, value }
+ * </pre>
+ *
+ * <p>The bytes are cut into frames of at most {@code frameSize} bytes regardless of entry
+ * boundaries, and the last frame of a Bundle is sent short, so several Bundles can follow each
+ * other on one channel. The receiver decodes an entry as soon as its last byte arrives, so the
+ * first keys are usable while the rest is in flight; a single huge value is only decoded once
+ * it is complete.</p>
+ *
+ * <p>Transports plug in as a {@link FrameSink} and a {@link FrameSource}: a binder interface
+ * with one frame per call, a pipe or socket pair ({@link #sink(OutputStream)},
+ * {@link #source(InputStream)}), or an in-process {@link FrameQueue}. Backpressure comes from
+ * the transport blocking the sender: a full {@link FrameQueue}, a full pipe buffer, or a
+ * synchronous binder call. Binders can't be streamed; if a value holds one, the sender aborts
+ * the stream and the receiver fails instead of waiting forever.</p>
+ */
+public final class BundleStream {
+
+    static final int MAGIC = 0x42535452; // 'B' 'S' 'T' 'R'
+    static final int VERSION = 1;
+
+    /**
+     * Well below the 1 MB binder transaction buffer, which all transactions in a process share.
+     */
+    public static final int DEFAULT_FRAME_SIZE = 64 * 1024;
+
+    private static final int HEADER_SIZE = 4 * 3;
+    private static final int ABORTED = -1;
+
+    private static final Object[] NO_OBJECTS = new Object[0];
+
+    /**
+     * Sending end of a transport. Blocking here is how the receiver pushes back.
+     */
+    public interface FrameSink {
+
+        /**
+         * @param frame may be reused by the caller as soon as this returns.
+         */
+        void send(byte[] frame, int offset, int length) throws IOException;
+
+    }
+
+    /**
+     * Receiving end of a transport.
+     */
+    public interface FrameSource {
+
+        /**
+         * Blocks until the next frame arrives.
+         *
+         * @return the frame, valid until the next call, or {@code null} once the sender is gone.
+         */
+        ByteBuffer receive() throws IOException;
+
+    }
+
+    public interface Listener {
+
+        /**
+         * Called on the receiving thread as soon as an entry is complete.
+         */
+        void onEntry(String key, Object value);
+
+    }
+
+    private BundleStream() {
+    }
+
+    public static void send(Bundle bundle, FrameSink sink) throws IOException {
+        send(bundle, sink, DEFAULT_FRAME_SIZE);
+    }
+
+    /**
+     * Streams {@code bundle}; entries are encoded one at a time, so memory stays at about
+     * one frame plus the largest entry.
+     *
+     * @throws IllegalArgumentException if a value is or holds a Binder; the stream is aborted.
+     */
+    public static void send(Bundle bundle, FrameSink sink, int frameSize) throws IOException {
+        if (frameSize < HEADER_SIZE) {
+            throw new IllegalArgumentException("frameSize must be at least " + HEADER_SIZE + ": " + frameSize);
+        }
+        final Framer framer = new Framer(sink, frameSize);
+        final BufferWriter entry = new BufferWriter();
+        final List<Object> objects = new ArrayList<>(0);
+
+        entry.putInt(MAGIC).putInt(VERSION).putInt(bundle.size());
+        framer.write(entry.array(), 0, entry.position());
+
+        for (String key : bundle.keySet()) {
+            entry.reset();
+            entry.putInt(0).putString(key);
+            ValueCodec.write(entry, bundle.get(key), objects);
+            if (!objects.isEmpty()) {
+                entry.reset();
+                entry.putInt(ABORTED);
+                framer.write(entry.array(), 0, entry.position());
+                framer.flush();
+                throw new IllegalArgumentException(key + ": Binders can't be streamed");
+            }
+            entry.putInt(0, entry.position() - 4);
+            framer.write(entry.array(), 0, entry.position());
+        }
+        framer.flush();
+    }
+
+    public static Bundle receive(FrameSource source, ClassLoader loader) throws IOException {
+        final Bundle ret = new Bundle();
+        ret.setClassLoader(loader);
+        receive(source, loader, new Listener() {
+            @Override
+            public void onEntry(String key, Object value) {
+                BundleValues.put(ret, key, value);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Reads one Bundle, handing out each entry as soon as it is complete.
+     *
+     * @return the number of entries.
+     * @throws EOFException if the source ends before the Bundle does.
+     * @throws IOException if the sender aborted or the bytes aren't a stream.
+     */
+    public static int receive(FrameSource source, ClassLoader loader, Listener listener) throws IOException {
+        final Assembler assembler = new Assembler(loader, listener);
+        while (!assembler.isDone()) {
+            final ByteBuffer frame = source.receive();
+            if (frame == null) {
+                throw new EOFException("Stream ended after " + assembler.received + " entries");
+            }
+            assembler.feed(frame);
+            if (assembler.isDone() && frame.hasRemaining()) {
+                throw new IOException(frame.remaining() + " bytes after the last entry");
+            }
+        }
+        return assembler.count;
+    }
+
+    /**
+     * @return a sink writing each frame as {@code int length, bytes} to {@code out}.
+     */
+    public static FrameSink sink(OutputStream out) {
+        final DataOutputStream data = new DataOutputStream(out);
+        return new FrameSink() {
+            @Override
+            public void send(byte[] frame, int offset, int length) throws IOException {
+                data.writeInt(length);
+                data.write(frame, offset, length);
+                data.flush();
+            }
+        };
+    }
+
+    /**
+     * @return a source reading frames written by {@link #sink(OutputStream)} from {@code in}.
+     */
+    public static FrameSource source(InputStream in) {
+        final DataInputStream data = new DataInputStream(in);
+        return new FrameSource() {
+
+            private byte[] buffer = new byte[DEFAULT_FRAME_SIZE];
+
+            @Override
+            public ByteBuffer receive() throws IOException {
+                final int length;
+                try {
+                    length = data.readInt();
+                } catch (EOFException e) {
+                    return null;
+                }
+                if (length < 0) {
+                    throw new IOException("Negative frame length " + length);
+                }
+                if (length > buffer.length) {
+                    buffer = new byte[length];
+                }
+                data.readFully(buffer, 0, length);
+                return ByteBuffer.wrap(buffer, 0, length);
+            }
+        };
+    }
+
+    /**
+     * In-process transport holding at most {@code capacity} frames; a sender that gets that
+     * far ahead blocks until the receiver catches up.
+     */
+    public static final class FrameQueue implements FrameSink, FrameSource {
+
+        private static final byte[] END = new byte[0];
+
+        private final BlockingQueue<byte[]> frames;
+
+        public FrameQueue(int capacity) {
+            this.frames = new ArrayBlockingQueue<>(capacity);
+        }
+
+        @Override
+        public void send(byte[] frame, int offset, int length) throws IOException {
+            put(Arrays.copyOfRange(frame, offset, offset + length));
+        }
+
+        /**
+         * Tells the receiver no more frames will come.
+         */
+        public void close() throws IOException {
+            put(END);
+        }
+
+        @Override
+        public ByteBuffer receive() throws IOException {
+            final byte[] frame;
+            try {
+                frame = frames.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (frame == END) {
+                // stay closed for later receivers
+                frames.offer(END);
+                return null;
+            }
+            return ByteBuffer.wrap(frame);
+        }
+
+        private void put(byte[] frame) throws InterruptedIOException {
+            try {
+                frames.put(frame);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+    }
+
+    /**
+     * Cuts a byte stream into frames of exactly {@code frameSize} bytes, but for the last one.
+     */
+    private static final class Framer {
+
+        private final FrameSink sink;
+        private final byte[] frame;
+        private int length;
+
+        Framer(FrameSink sink, int frameSize) {
+            this.sink = sink;
+            this.frame = new byte[frameSize];
+        }
+
+        void write(byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                if (length == 0 && count >= frame.length) {
+                    sink.send(bytes, offset, frame.length);
+                    offset += frame.length;
+                    count -= frame.length;
+                    continue;
+                }
+                final int chunk = Math.min(frame.length - length, count);
+                System.arraycopy(bytes, offset, frame, length, chunk);
+                length += chunk;
+                offset += chunk;
+                count -= chunk;
+                if (length == frame.length) {
+                    flush();
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            if (length > 0) {
+                sink.send(frame, 0, length);
+                length = 0;
+            }
+        }
+
+    }
+
+    /**
+     * Incremental decoder: collects the header and each entry's length prefix, then the entry
+     * itself into an exactly sized array, and decodes it once that is full.
+     */
+    private static final class Assembler {
+
+        private final ClassLoader loader;
+        private final Listener listener;
+        private final ByteBuffer prefix = ByteBuffer.allocate(HEADER_SIZE);
+
+        private int count = -1;
+        private int received;
+        private byte[] entry;
+        private int entryLength;
+
+        Assembler(ClassLoader loader, Listener listener) {
+            this.loader = loader;
+            this.listener = listener;
+        }
+
+        boolean isDone() {
+            return count >= 0 && received == count;
+        }
+
+        void feed(ByteBuffer frame) throws IOException {
+            while (frame.hasRemaining() && !isDone()) {
+                if (entry == null) {
+                    fill(prefix, frame);
+                    if (prefix.hasRemaining()) {
+                        return;
+                    }
+                    prefix.flip();
+                    if (count < 0) {
+                        readHeader();
+                    } else {
+                        startEntry(prefix.getInt());
+                    }
+                    prefix.clear();
+                    prefix.limit(4);
+                } else {
+                    final int chunk = Math.min(entry.length - entryLength, frame.remaining());
+                    frame.get(entry, entryLength, chunk);
+                    entryLength += chunk;
+                    if (entryLength == entry.length) {
+                        decodeEntry();
+                    }
+                }
+            }
+        }
+
+        private void readHeader() throws IOException {
+            if (prefix.getInt() != MAGIC) {
+                throw new IOException("Not a BundleStream");
+            }
+            final int version = prefix.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported BundleStream version " + version);
+            }
+            count = prefix.getInt();
+        }
+
+        private void startEntry(int length) throws IOException {
+            if (length == ABORTED) {
+                throw new IOException("The sender aborted after " + received + " entries");
+            }
+            if (length < 4) {
+                throw new IOException("Malformed entry length " + length);
+            }
+            entry = new byte[length];
+            entryLength = 0;
+        }
+
+        private void decodeEntry() {
+            final ByteBuffer in = ByteBuffer.wrap(entry);
+            final String key = ValueCodec.readString(in);
+            final Object value = ValueCodec.read(in, NO_OBJECTS, loader);
+            entry = null;
+            received++;
+            listener.onEntry(key, value);
+        }
+
+        private static void fill(ByteBuffer to, ByteBuffer from) {
+            final int chunk = Math.min(to.remaining(), from.remaining());
+            final int limit = from.limit();
+            from.limit(from.position() + chunk);
+            to.put(from);
+            from.limit(limit);
+        }
+
+    }
+
+}
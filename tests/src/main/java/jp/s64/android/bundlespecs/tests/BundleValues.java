@@ -0,0 +1,128 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcelable;
+import android.util.Size;
+import android.util.SizeF;
+import android.util.SparseArray;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/**
+ * Puts an untyped value into a Bundle as-is.
+ *
+ * <p>Every {@code Bundle#putX} stores the reference into the same map, so picking any overload
+ * that accepts the runtime class keeps {@code Bundle#get(String)} and every typed getter
+ * behaving exactly as if the original {@code putX} had been used.</p>
+ */
+final class BundleValues {
+
+    private BundleValues() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static void put(Bundle bundle, String key, Object v) {
+        if (v == null) {
+            bundle.putString(key, null);
+        } else if (v instanceof Bundle) {
+            bundle.putBundle(key, (Bundle) v);
+        } else if (v instanceof Parcelable) {
+            bundle.putParcelable(key, (Parcelable) v);
+        } else if (v instanceof String) {
+            bundle.putString(key, (String) v);
+        } else if (v instanceof CharSequence) {
+            bundle.putCharSequence(key, (CharSequence) v);
+        } else if (v instanceof Integer) {
+            bundle.putInt(key, (Integer) v);
+        } else if (v instanceof Long) {
+            bundle.putLong(key, (Long) v);
+        } else if (v instanceof Short) {
+            bundle.putShort(key, (Short) v);
+        } else if (v instanceof Byte) {
+            bundle.putByte(key, (Byte) v);
+        } else if (v instanceof Boolean) {
+            bundle.putBoolean(key, (Boolean) v);
+        } else if (v instanceof Float) {
+            bundle.putFloat(key, (Float) v);
+        } else if (v instanceof Double) {
+            bundle.putDouble(key, (Double) v);
+        } else if (v instanceof Character) {
+            bundle.putChar(key, (Character) v);
+        } else if (v instanceof IBinder) {
+            putBinder(bundle, key, (IBinder) v);
+        } else if (ParcelValueType.isSize(v)) {
+            putSize(bundle, key, v);
+        } else if (ParcelValueType.isSizeF(v)) {
+            putSizeF(bundle, key, v);
+        } else if (v instanceof ArrayList) {
+            bundle.putParcelableArrayList(key, (ArrayList) v);
+        } else if (v instanceof SparseArray) {
+            bundle.putSparseParcelableArray(key, (SparseArray) v);
+        } else if (v instanceof Parcelable[]) {
+            bundle.putParcelableArray(key, (Parcelable[]) v);
+        } else if (v instanceof String[]) {
+            bundle.putStringArray(key, (String[]) v);
+        } else if (v instanceof CharSequence[]) {
+            bundle.putCharSequenceArray(key, (CharSequence[]) v);
+        } else if (v instanceof boolean[]) {
+            bundle.putBooleanArray(key, (boolean[]) v);
+        } else if (v instanceof byte[]) {
+            bundle.putByteArray(key, (byte[]) v);
+        } else if (v instanceof char[]) {
+            bundle.putCharArray(key, (char[]) v);
+        } else if (v instanceof short[]) {
+            bundle.putShortArray(key, (short[]) v);
+        } else if (v instanceof int[]) {
+            bundle.putIntArray(key, (int[]) v);
+        } else if (v instanceof long[]) {
+            bundle.putLongArray(key, (long[]) v);
+        } else if (v instanceof float[]) {
+            bundle.putFloatArray(key, (float[]) v);
+        } else if (v instanceof double[]) {
+            bundle.putDoubleArray(key, (double[]) v);
+        } else if (v instanceof Serializable) {
+            bundle.putSerializable(key, (Serializable) v);
+        } else {
+            throw new IllegalArgumentException("Bundle can't hold " + v.getClass().getName() + " (key " + key + ")");
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void putBinder(Bundle bundle, String key, IBinder value) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            throw new UnsupportedOperationException("Bundle#putBinder requires API 18");
+        }
+        bundle.putBinder(key, value);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void putSize(Bundle bundle, String key, Object value) {
+        bundle.putSize(key, (Size) value);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void putSizeF(Bundle bundle, String key, Object value) {
+        bundle.putSizeF(key, (SizeF) value);
+    }
+
+}
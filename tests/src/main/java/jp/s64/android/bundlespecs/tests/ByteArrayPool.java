@@ -0,0 +1,63 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/**
+ * Scratch {@code byte[]}s in power-of-two size classes, so that repeated encoding reuses buffers
+ * instead of allocating them.
+ *
+ * <p>A pool keeps at most {@code maxPerClass} buffers per class and never retains buffers larger
+ * than {@code maxBufferSize}; those are allocated and dropped as usual. It is thread-safe.</p>
+ */
+public final class ByteArrayPool {
+
+    /**
+     * Two buffers per class up to 1 MB, the size of the binder transaction buffer.
+     */
+    public static final ByteArrayPool DEFAULT = new ByteArrayPool(2, 1024 * 1024);
+
+    private final SizeClassPool<byte[]> classes;
+
+    public ByteArrayPool(int maxPerClass, int maxBufferSize) {
+        this.classes = new SizeClassPool<>(maxPerClass, maxBufferSize);
+    }
+
+    /**
+     * @return a buffer of at least {@code minSize} bytes with undefined content; give it back with {@link #release(byte[])}.
+     */
+    public byte[] acquire(int minSize) {
+        final byte[] ret = classes.poll(minSize);
+        return ret != null ? ret : new byte[SizeClassPool.capacity(minSize)];
+    }
+
+    public void release(byte[] buffer) {
+        classes.offer(buffer, buffer.length);
+    }
+
+    public long hitCount() {
+        return classes.hitCount();
+    }
+
+    public long missCount() {
+        return classes.missCount();
+    }
+
+    public void clear() {
+        classes.clear();
+    }
+
+}
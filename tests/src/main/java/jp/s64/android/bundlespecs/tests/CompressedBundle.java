@@ -0,0 +1,296 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable Bundle whose large {@code byte[]}, {@code int[]} and {@code long[]} values are kept
+ * {@link Lz4 LZ4} compressed, on the heap and through a Parcel.
+ *
+ * <p>An array is compressed when it is at least {@code thresholdBytes} long and shrinks by an
+ * eighth or more; anything else is held as-is. Compressed values are decompressed on every
+ * {@code get}, {@code getByteArray}, {@code getIntArray} or {@code getLongArray}, into a new
+ * array the caller owns, so keep the result instead of reading the key again. Scratch buffers
+ * come from a {@link ByteArrayPool}, so the only garbage is the stored and the returned arrays.</p>
+ */
+public final class CompressedBundle extends BundleLike implements Parcelable {
+
+    public static final int DEFAULT_THRESHOLD = 4 * 1024;
+
+    static final int RAW = 0;
+    static final int BYTES = 1;
+    static final int INTS = 2;
+    static final int LONGS = 3;
+
+    private final Map<String, Object> values;
+    private final ByteArrayPool pool;
+
+    private CompressedBundle(Map<String, Object> values, ByteArrayPool pool) {
+        this.values = values;
+        this.pool = pool;
+    }
+
+    public static CompressedBundle from(Bundle bundle) {
+        return from(bundle, DEFAULT_THRESHOLD, ByteArrayPool.DEFAULT);
+    }
+
+    /**
+     * @param thresholdBytes arrays smaller than this are never compressed.
+     */
+    public static CompressedBundle from(Bundle bundle, int thresholdBytes, ByteArrayPool pool) {
+        final Map<String, Object> values = new LinkedHashMap<>(bundle.size() * 2);
+        for (String key : bundle.keySet()) {
+            final Object value = bundle.get(key);
+            final Compressed compressed = Compressed.of(value, thresholdBytes, pool);
+            values.put(key, compressed != null ? compressed : value);
+        }
+        return new CompressedBundle(values, pool);
+    }
+
+    @Override
+    public Object get(String key) {
+        final Object ret = values.get(key);
+        return ret instanceof Compressed ? ((Compressed) ret).decompress(pool) : ret;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return values.containsKey(key);
+    }
+
+    public boolean isCompressed(String key) {
+        return values.get(key) instanceof Compressed;
+    }
+
+    /**
+     * @return bytes the compressed values occupy now.
+     */
+    public long compressedBytes() {
+        long ret = 0;
+        for (Object value : values.values()) {
+            if (value instanceof Compressed) {
+                ret += ((Compressed) value).data.length;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return bytes the compressed values occupy once decompressed.
+     */
+    public long uncompressedBytes() {
+        long ret = 0;
+        for (Object value : values.values()) {
+            if (value instanceof Compressed) {
+                ret += ((Compressed) value).rawBytes();
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(values.size());
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            dest.writeString(entry.getKey());
+            if (entry.getValue() instanceof Compressed) {
+                final Compressed compressed = (Compressed) entry.getValue();
+                dest.writeInt(compressed.type);
+                dest.writeInt(compressed.length);
+                dest.writeByteArray(compressed.data);
+            } else {
+                dest.writeInt(RAW);
+                dest.writeValue(entry.getValue());
+            }
+        }
+    }
+
+    public static final Creator<CompressedBundle> CREATOR = new Creator<CompressedBundle>() {
+
+        @Override
+        public CompressedBundle createFromParcel(Parcel source) {
+            final int size = source.readInt();
+            final Map<String, Object> values = new LinkedHashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                final String key = source.readString();
+                final int type = source.readInt();
+                if (type == RAW) {
+                    values.put(key, source.readValue(CompressedBundle.class.getClassLoader()));
+                } else {
+                    final int length = source.readInt();
+                    values.put(key, new Compressed(type, length, source.createByteArray()));
+                }
+            }
+            return new CompressedBundle(values, ByteArrayPool.DEFAULT);
+        }
+
+        @Override
+        public CompressedBundle[] newArray(int size) {
+            return new CompressedBundle[size];
+        }
+
+    };
+
+    static final class Compressed {
+
+        final int type;
+        /**
+         * Elements of the original array.
+         */
+        final int length;
+        final byte[] data;
+
+        Compressed(int type, int length, byte[] data) {
+            this.type = type;
+            this.length = length;
+            this.data = data;
+        }
+
+        /**
+         * @return {@code null} if {@code value} isn't a large enough array or doesn't compress well.
+         */
+        static Compressed of(Object value, int thresholdBytes, ByteArrayPool pool) {
+            final int type;
+            final int length;
+            final int rawBytes;
+            if (value instanceof byte[]) {
+                type = BYTES;
+                length = ((byte[]) value).length;
+                rawBytes = length;
+            } else if (value instanceof int[]) {
+                type = INTS;
+                length = ((int[]) value).length;
+                rawBytes = length * 4;
+            } else if (value instanceof long[]) {
+                type = LONGS;
+                length = ((long[]) value).length;
+                rawBytes = length * 8;
+            } else {
+                return null;
+            }
+            if (rawBytes < thresholdBytes || rawBytes == 0) {
+                return null;
+            }
+
+            final byte[] raw = type == BYTES ? (byte[]) value : pool.acquire(rawBytes);
+            final byte[] out = pool.acquire(Lz4.maxCompressedLength(rawBytes));
+            try {
+                if (type == INTS) {
+                    toBytes((int[]) value, raw);
+                } else if (type == LONGS) {
+                    toBytes((long[]) value, raw);
+                }
+                final int compressed = Lz4.compress(raw, 0, rawBytes, out, 0);
+                if (compressed > rawBytes - rawBytes / 8) {
+                    return null;
+                }
+                final byte[] data = new byte[compressed];
+                System.arraycopy(out, 0, data, 0, compressed);
+                return new Compressed(type, length, data);
+            } finally {
+                pool.release(out);
+                if (raw != value) {
+                    pool.release(raw);
+                }
+            }
+        }
+
+        int rawBytes() {
+            return type == BYTES ? length : length * (type == INTS ? 4 : 8);
+        }
+
+        Object decompress(ByteArrayPool pool) {
+            if (type == BYTES) {
+                final byte[] ret = new byte[length];
+                Lz4.decompress(data, 0, data.length, ret, 0, length);
+                return ret;
+            }
+            final int rawBytes = rawBytes();
+            final byte[] raw = pool.acquire(rawBytes);
+            try {
+                Lz4.decompress(data, 0, data.length, raw, 0, rawBytes);
+                return type == INTS ? toInts(raw, length) : toLongs(raw, length);
+            } finally {
+                pool.release(raw);
+            }
+        }
+
+        private static void toBytes(int[] values, byte[] out) {
+            for (int i = 0, o = 0; i < values.length; i++, o += 4) {
+                final int v = values[i];
+                out[o] = (byte) v;
+                out[o + 1] = (byte) (v >>> 8);
+                out[o + 2] = (byte) (v >>> 16);
+                out[o + 3] = (byte) (v >>> 24);
+            }
+        }
+
+        private static void toBytes(long[] values, byte[] out) {
+            for (int i = 0, o = 0; i < values.length; i++, o += 8) {
+                final long v = values[i];
+                for (int j = 0; j < 8; j++) {
+                    out[o + j] = (byte) (v >>> (j * 8));
+                }
+            }
+        }
+
+        private static int[] toInts(byte[] raw, int length) {
+            final int[] ret = new int[length];
+            for (int i = 0, o = 0; i < length; i++, o += 4) {
+                ret[i] = (raw[o] & 0xFF) | (raw[o + 1] & 0xFF) << 8 | (raw[o + 2] & 0xFF) << 16 | (raw[o + 3] & 0xFF) << 24;
+            }
+            return ret;
+        }
+
+        private static long[] toLongs(byte[] raw, int length) {
+            final long[] ret = new long[length];
+            for (int i = 0, o = 0; i < length; i++, o += 8) {
+                long v = 0;
+                for (int j = 7; j >= 0; j--) {
+                    v = (v << 8) | (raw[o + j] & 0xFF);
+                }
+                ret[i] = v;
+            }
+            return ret;
+        }
+
+    }
+
+}
@@ -0,0 +1,344 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcelable;
+import android.util.Size;
+import android.util.SizeF;
+import android.util.SparseArray;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Bundle-compatible container that can be shared between threads.
+ *
+ * <p>A platform Bundle isn't synchronized at all, and even a Bundle only ever read isn't safe:
+ * a Bundle restored from a Parcel unparcels its whole map on the first read, so two threads
+ * reading it for the first time race on its internal state. Here values live in a
+ * {@code ConcurrentHashMap}, so reads take no lock, and the typed getters of {@link BundleLike}
+ * behave like a Bundle's.</p>
+ *
+ * <p>Writes go through one of {@link #DEFAULT_STRIPES} striped read-write locks, used the
+ * other way round: writers share the read side of their key's stripe, so they only contend
+ * with each other in the map itself, and {@link #toBundle()} takes the write side of every
+ * stripe, so the exported Bundle is a snapshot no write is half-way through. {@link #keySet()}
+ * and {@link #size()} are weakly consistent like the map's.</p>
+ *
+ * <p>Values are stored as given, like {@code Bundle#putX} does: arrays and lists put here must
+ * not be mutated by other threads afterwards. Unlike a Bundle, it can't hold a {@code null} key;
+ * reading one finds nothing.</p>
+ */
+public final class ConcurrentBundle extends BundleLike {
+
+    public static final int DEFAULT_STRIPES = 16;
+
+    private static final Object NULL = new Object();
+
+    private final ConcurrentHashMap<String, Object> values;
+    private final ReentrantReadWriteLock[] stripes;
+
+    public ConcurrentBundle() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param stripes rounded up to a power of two.
+     */
+    public ConcurrentBundle(int stripes) {
+        if (stripes <= 0) {
+            throw new IllegalArgumentException("stripes must be positive: " + stripes);
+        }
+        final int count = Integer.highestOneBit(stripes) == stripes ? stripes : Integer.highestOneBit(stripes) << 1;
+        this.values = new ConcurrentHashMap<>(16, 0.75f, count);
+        this.stripes = new ReentrantReadWriteLock[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    /**
+     * Copies the entries of {@code bundle}, unparcelling it on the calling thread.
+     */
+    public ConcurrentBundle(Bundle bundle) {
+        this(DEFAULT_STRIPES);
+        putAll(bundle);
+    }
+
+    @Override
+    public Object get(String key) {
+        if (key == null) {
+            return null;
+        }
+        final Object ret = values.get(key);
+        return ret != NULL ? ret : null;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return key != null && values.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * @return a copy of the keys at some point during the call.
+     */
+    @Override
+    public Set<String> keySet() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(values.keySet()));
+    }
+
+    /**
+     * @return a Bundle holding exactly the entries present at one point in time.
+     */
+    @Override
+    public Bundle toBundle() {
+        for (ReentrantReadWriteLock stripe : stripes) {
+            stripe.writeLock().lock();
+        }
+        try {
+            final Bundle ret = new Bundle(values.size());
+            for (Map.Entry<String, Object> entry : values.entrySet()) {
+                final Object value = entry.getValue();
+                BundleValues.put(ret, entry.getKey(), value != NULL ? value : null);
+            }
+            return ret;
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                stripes[i].writeLock().unlock();
+            }
+        }
+    }
+
+    public ConcurrentBundle put(String key, Object value) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        final ReentrantReadWriteLock.ReadLock lock = stripe(key).readLock();
+        lock.lock();
+        try {
+            values.put(key, value != null ? value : NULL);
+        } finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * @return the value already there (which may be {@code null}), or {@code null} after putting {@code value}.
+     */
+    public Object putIfAbsent(String key, Object value) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        final ReentrantReadWriteLock.ReadLock lock = stripe(key).readLock();
+        lock.lock();
+        try {
+            final Object ret = values.putIfAbsent(key, value != null ? value : NULL);
+            return ret != NULL ? ret : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public ConcurrentBundle remove(String key) {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        final ReentrantReadWriteLock.ReadLock lock = stripe(key).readLock();
+        lock.lock();
+        try {
+            values.remove(key);
+        } finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    /**
+     * Puts each entry of {@code bundle}; other threads may see some of them before the rest.
+     */
+    public ConcurrentBundle putAll(Bundle bundle) {
+        for (String key : bundle.keySet()) {
+            put(key, bundle.get(key));
+        }
+        return this;
+    }
+
+    public void clear() {
+        for (ReentrantReadWriteLock stripe : stripes) {
+            stripe.writeLock().lock();
+        }
+        try {
+            values.clear();
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                stripes[i].writeLock().unlock();
+            }
+        }
+    }
+
+    public ConcurrentBundle putBoolean(String key, boolean value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putByte(String key, byte value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putChar(String key, char value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putShort(String key, short value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putInt(String key, int value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putLong(String key, long value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putFloat(String key, float value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putDouble(String key, double value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putString(String key, String value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putCharSequence(String key, CharSequence value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putParcelable(String key, Parcelable value) {
+        return put(key, value);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public ConcurrentBundle putSize(String key, Size value) {
+        return put(key, value);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public ConcurrentBundle putSizeF(String key, SizeF value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putParcelableArray(String key, Parcelable[] value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putParcelableArrayList(String key, ArrayList<? extends Parcelable> value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putSparseParcelableArray(String key, SparseArray<? extends Parcelable> value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putIntegerArrayList(String key, ArrayList<Integer> value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putStringArrayList(String key, ArrayList<String> value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putCharSequenceArrayList(String key, ArrayList<CharSequence> value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putSerializable(String key, Serializable value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putBooleanArray(String key, boolean[] value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putByteArray(String key, byte[] value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putShortArray(String key, short[] value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putCharArray(String key, char[] value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putIntArray(String key, int[] value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putLongArray(String key, long[] value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putFloatArray(String key, float[] value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putDoubleArray(String key, double[] value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putStringArray(String key, String[] value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putCharSequenceArray(String key, CharSequence[] value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putBundle(String key, Bundle value) {
+        return put(key, value);
+    }
+
+    public ConcurrentBundle putBinder(String key, IBinder value) {
+        return put(key, value);
+    }
+
+    private ReentrantReadWriteLock stripe(String key) {
+        final int hash = key.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (stripes.length - 1)];
+    }
+
+}
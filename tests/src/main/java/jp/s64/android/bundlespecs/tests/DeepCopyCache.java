@@ -0,0 +1,120 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of {@code deepCopy()}s keyed by {@link BundleKey structural equality}.
+ *
+ * <p>{@link #get(Bundle)} hands out one deep copy per distinct content, shared by every caller,
+ * so the result must be treated as read-only. A copy that was mutated anyway stops
+ * matching its key and is copied again on the next lookup.</p>
+ *
+ * <p>Whether this pays off depends on the payload: a lookup costs one
+ * {@link BundleEquality#hash64(Bundle)} plus one {@link BundleEquality#equals(Bundle, Bundle)}
+ * on a hit, see {@code DeepCopyCacheBenchmark}.</p>
+ */
+public final class DeepCopyCache {
+
+    private final int maxEntries;
+    private final LinkedHashMap<BundleKey, Bundle> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public DeepCopyCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<BundleKey, Bundle>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<BundleKey, Bundle> eldest) {
+                if (size() > DeepCopyCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @return a shared deep copy of {@code bundle}, made by the first caller with equal content.
+     */
+    public Bundle get(Bundle bundle) {
+        final BundleKey key = BundleKey.of(bundle);
+        synchronized (this) {
+            final Bundle ret = entries.get(key);
+            if (ret != null) {
+                hits++;
+                return ret;
+            }
+            misses++;
+        }
+
+        final Bundle copy = BundleCopies.deepCopy(bundle);
+        // deepCopy() keeps the content, so the hash carries over
+        final BundleKey copyKey = BundleKey.of(copy, key.hash64());
+        synchronized (this) {
+            final Bundle raced = entries.get(copyKey);
+            if (raced != null) {
+                return raced;
+            }
+            entries.put(copyKey, copy);
+        }
+        return copy;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int maxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized long hitCount() {
+        return hits;
+    }
+
+    public synchronized long missCount() {
+        return misses;
+    }
+
+    public synchronized long evictionCount() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DeepCopyCache{size=" + entries.size() + "/" + maxEntries
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "}";
+    }
+
+}
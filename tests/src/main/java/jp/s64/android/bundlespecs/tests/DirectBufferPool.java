@@ -0,0 +1,77 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Direct {@link ByteBuffer}s in power-of-two size classes, the {@link ByteArrayPool} of off-heap
+ * memory. Allocating a direct buffer is far slower than a {@code byte[]} and its memory is only
+ * freed when the buffer is collected, so buffers that are marshalled into over and over are
+ * worth keeping.
+ *
+ * <p>A pool keeps at most {@code maxPerClass} buffers per class and never retains buffers larger
+ * than {@code maxBufferSize}; those are allocated and dropped as usual. It is thread-safe.</p>
+ */
+public final class DirectBufferPool {
+
+    /**
+     * Two buffers per class up to 1 MB, the size of the binder transaction buffer.
+     */
+    public static final DirectBufferPool DEFAULT = new DirectBufferPool(2, 1024 * 1024);
+
+    private final SizeClassPool<ByteBuffer> classes;
+
+    public DirectBufferPool(int maxPerClass, int maxBufferSize) {
+        this.classes = new SizeClassPool<>(maxPerClass, maxBufferSize);
+    }
+
+    /**
+     * @return a cleared, big-endian direct buffer of at least {@code minSize} bytes with undefined
+     * content; give it back with {@link #release(ByteBuffer)}.
+     */
+    public ByteBuffer acquire(int minSize) {
+        final ByteBuffer ret = classes.poll(minSize);
+        if (ret == null) {
+            return ByteBuffer.allocateDirect(SizeClassPool.capacity(minSize));
+        }
+        ret.clear();
+        return ret.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Heap buffers and buffers of other sizes are ignored.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer.isDirect()) {
+            classes.offer(buffer, buffer.capacity());
+        }
+    }
+
+    public long hitCount() {
+        return classes.hitCount();
+    }
+
+    public long missCount() {
+        return classes.missCount();
+    }
+
+    public void clear() {
+        classes.clear();
+    }
+
+}
@@ -0,0 +1,578 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.text.Spanned;
+import android.util.Size;
+import android.util.SizeF;
+import android.util.SparseArray;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact Bundle serializer: every key is written once, in a per-payload dictionary,
+ * and referred to by index everywhere else.
+ *
+ * <pre>
+ * int magic 'BDKD', int version
+ * varint keyCount, keyCount x string
+ * bundle: varint size, size x { varint keyIndex, value }
+ * </pre>
+ *
+ * <p>Nested Bundles (also inside Lists and SparseArrays) share the root's dictionary, so a key
+ * repeated across a tree costs one varint per use. Numbers are varints ({@code int}, {@code long},
+ * {@code short} and their arrays zigzag encoded), {@code boolean[]} is packed 8 to a byte, and strings
+ * are a varint length plus 1 to 3 bytes per UTF-16 unit, so unpaired surrogates survive. Values
+ * without a dedicated tag are embedded as {@code Parcel#writeValue} bytes like in {@link ValueCodec},
+ * and decode to the same classes a Parcel round trip gives.</p>
+ *
+ * <p>Binders can't live in a {@code byte[]}: {@link #encode(Bundle)} rejects them, while
+ * {@link #writeToParcel(Bundle, Parcel)} keeps them in a side table as a Parcel keeps its objects.</p>
+ */
+public final class KeyDictionaryCodec {
+
+    static final int MAGIC = 0x42444B44; // 'B' 'D' 'K' 'D'
+    static final int VERSION = 1;
+
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte INTEGER = 2;
+    static final byte LONG = 3;
+    static final byte SHORT = 4;
+    static final byte BYTE = 5;
+    static final byte FALSE = 6;
+    static final byte TRUE = 7;
+    static final byte FLOAT = 8;
+    static final byte DOUBLE = 9;
+    static final byte CHAR = 10;
+    static final byte BOOLEAN_ARRAY = 11;
+    static final byte BYTE_ARRAY = 12;
+    static final byte CHAR_ARRAY = 13;
+    static final byte SHORT_ARRAY = 14;
+    static final byte INT_ARRAY = 15;
+    static final byte LONG_ARRAY = 16;
+    static final byte FLOAT_ARRAY = 17;
+    static final byte DOUBLE_ARRAY = 18;
+    static final byte STRING_ARRAY = 19;
+    static final byte CHAR_SEQUENCE_ARRAY = 20;
+    static final byte LIST = 21;
+    static final byte SPARSE_ARRAY = 22;
+    static final byte SIZE = 23;
+    static final byte SIZE_F = 24;
+    static final byte BUNDLE = 25;
+    static final byte PARCELLED = 26;
+    static final byte OBJECT = 27;
+
+    private KeyDictionaryCodec() {
+    }
+
+    /**
+     * @throws IllegalArgumentException if a value (e.g. a Binder) can only live in this process.
+     */
+    public static byte[] encode(Bundle bundle) {
+        return new Encoder(null).encode(bundle);
+    }
+
+    /**
+     * @param data bytes of {@link #encode(Bundle)}.
+     */
+    public static Bundle decode(byte[] data, ClassLoader loader) {
+        return new Decoder(ByteBuffer.wrap(data), new Object[0], loader).decode();
+    }
+
+    /**
+     * Writes the encoded bytes, then the values that can't be flattened with {@code Parcel#writeValue}.
+     */
+    public static void writeToParcel(Bundle bundle, Parcel dest) {
+        final List<Object> objects = new ArrayList<>();
+        dest.writeByteArray(new Encoder(objects).encode(bundle));
+        dest.writeInt(objects.size());
+        for (Object object : objects) {
+            dest.writeValue(object);
+        }
+    }
+
+    public static Bundle readFromParcel(Parcel source, ClassLoader loader) {
+        final byte[] data = source.createByteArray();
+        final Object[] objects = new Object[source.readInt()];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = source.readValue(loader);
+        }
+        return new Decoder(ByteBuffer.wrap(data), objects, loader).decode();
+    }
+
+    private static final class Encoder {
+
+        private final List<Object> objects;
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<String> keys = new ArrayList<>();
+        private final BufferWriter body = new BufferWriter();
+
+        /**
+         * @param objects receives values that can't be flattened; {@code null} rejects them.
+         */
+        Encoder(List<Object> objects) {
+            this.objects = objects;
+        }
+
+        byte[] encode(Bundle bundle) {
+            writeBundle(bundle);
+
+            final BufferWriter out = new BufferWriter(body.position() + keys.size() * 8 + 16);
+            out.putInt(MAGIC).putInt(VERSION).putVarInt(keys.size());
+            for (String key : keys) {
+                writeString(out, key);
+            }
+            out.put(body.array(), 0, body.position());
+            return out.toByteArray();
+        }
+
+        private void writeBundle(Bundle bundle) {
+            body.putVarInt(bundle.size());
+            for (String key : bundle.keySet()) {
+                Integer index = indices.get(key);
+                if (index == null) {
+                    index = keys.size();
+                    indices.put(key, index);
+                    keys.add(key);
+                }
+                body.putVarInt(index);
+                write(bundle.get(key));
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void write(Object v) {
+            final BufferWriter out = body;
+            if (v == null) {
+                out.put(NULL);
+            } else if (v instanceof String) {
+                writeString(out.put(STRING), (String) v);
+            } else if (v instanceof Integer) {
+                out.put(INTEGER).putVarInt(zigzag((Integer) v));
+            } else if (v instanceof Long) {
+                out.put(LONG).putVarLong(zigzag((Long) v));
+            } else if (v instanceof Short) {
+                out.put(SHORT).putVarInt(zigzag((Short) v));
+            } else if (v instanceof Byte) {
+                out.put(BYTE).put((Byte) v);
+            } else if (v instanceof Boolean) {
+                out.put((Boolean) v ? TRUE : FALSE);
+            } else if (v instanceof Float) {
+                out.put(FLOAT).putFloat((Float) v);
+            } else if (v instanceof Double) {
+                out.put(DOUBLE).putDouble((Double) v);
+            } else if (v instanceof Character) {
+                out.put(CHAR).putVarInt((Character) v);
+            } else if (v instanceof CharSequence && !(v instanceof Spanned)) {
+                writeString(out.put(STRING), v.toString());
+            } else if (v instanceof Bundle) {
+                out.put(BUNDLE);
+                writeBundle((Bundle) v);
+            } else if (v instanceof boolean[]) {
+                final boolean[] array = (boolean[]) v;
+                out.put(BOOLEAN_ARRAY).putVarInt(array.length);
+                for (int i = 0; i < array.length; i += 8) {
+                    int bits = 0;
+                    for (int j = 0; j < 8 && i + j < array.length; j++) {
+                        if (array[i + j]) {
+                            bits |= 1 << j;
+                        }
+                    }
+                    out.put((byte) bits);
+                }
+            } else if (v instanceof byte[]) {
+                final byte[] array = (byte[]) v;
+                out.put(BYTE_ARRAY).putVarInt(array.length).put(array, 0, array.length);
+            } else if (v instanceof char[]) {
+                final char[] array = (char[]) v;
+                out.put(CHAR_ARRAY).putVarInt(array.length);
+                for (char item : array) {
+                    out.putVarInt(item);
+                }
+            } else if (v instanceof short[]) {
+                final short[] array = (short[]) v;
+                out.put(SHORT_ARRAY).putVarInt(array.length);
+                for (short item : array) {
+                    out.putVarInt(zigzag(item));
+                }
+            } else if (v instanceof int[]) {
+                final int[] array = (int[]) v;
+                out.put(INT_ARRAY).putVarInt(array.length);
+                for (int item : array) {
+                    out.putVarInt(zigzag(item));
+                }
+            } else if (v instanceof long[]) {
+                final long[] array = (long[]) v;
+                out.put(LONG_ARRAY).putVarInt(array.length);
+                for (long item : array) {
+                    out.putVarLong(zigzag(item));
+                }
+            } else if (v instanceof float[]) {
+                final float[] array = (float[]) v;
+                out.put(FLOAT_ARRAY).putVarInt(array.length);
+                for (float item : array) {
+                    out.putFloat(item);
+                }
+            } else if (v instanceof double[]) {
+                final double[] array = (double[]) v;
+                out.put(DOUBLE_ARRAY).putVarInt(array.length);
+                for (double item : array) {
+                    out.putDouble(item);
+                }
+            } else if (v instanceof String[]) {
+                final String[] array = (String[]) v;
+                out.put(STRING_ARRAY).putVarInt(array.length);
+                for (String item : array) {
+                    writeString(out, item);
+                }
+            } else if (v instanceof CharSequence[] && !ValueCodec.hasSpans((CharSequence[]) v)) {
+                final CharSequence[] array = (CharSequence[]) v;
+                out.put(CHAR_SEQUENCE_ARRAY).putVarInt(array.length);
+                for (CharSequence item : array) {
+                    writeString(out, item != null ? item.toString() : null);
+                }
+            } else if (v instanceof List) {
+                final List<Object> list = (List<Object>) v;
+                final int size = list.size();
+                out.put(LIST).putVarInt(size);
+                for (int i = 0; i < size; i++) {
+                    write(list.get(i));
+                }
+            } else if (v instanceof SparseArray) {
+                final SparseArray<Object> array = (SparseArray<Object>) v;
+                final int size = array.size();
+                out.put(SPARSE_ARRAY).putVarInt(size);
+                int previous = 0;
+                for (int i = 0; i < size; i++) {
+                    // keys ascend, so the gaps stay small
+                    out.putVarInt(zigzag(array.keyAt(i) - previous));
+                    previous = array.keyAt(i);
+                    write(array.valueAt(i));
+                }
+            } else if (ParcelValueType.isSize(v)) {
+                writeSize(out, v);
+            } else if (ParcelValueType.isSizeF(v)) {
+                writeSizeF(out, v);
+            } else if (v instanceof IBinder) {
+                writeObject(v);
+            } else {
+                final byte[] parcelled = ValueCodec.marshall(v);
+                if (parcelled != null) {
+                    out.put(PARCELLED).putVarInt(parcelled.length).put(parcelled, 0, parcelled.length);
+                } else {
+                    writeObject(v);
+                }
+            }
+        }
+
+        private void writeObject(Object v) {
+            if (objects == null) {
+                throw new IllegalArgumentException(
+                        v.getClass().getName() + " can't be flattened to bytes; use writeToParcel");
+            }
+            body.put(OBJECT).putVarInt(objects.size());
+            objects.add(v);
+        }
+
+    }
+
+    private static final class Decoder {
+
+        private final ByteBuffer in;
+        private final Object[] objects;
+        private final ClassLoader loader;
+
+        private String[] keys;
+
+        Decoder(ByteBuffer in, Object[] objects, ClassLoader loader) {
+            this.in = in;
+            this.objects = objects;
+            this.loader = loader;
+        }
+
+        Bundle decode() {
+            if (in.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a KeyDictionaryCodec payload: " + Integer.toHexString(in.getInt(0)));
+            }
+            final int version = in.getInt();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported KeyDictionaryCodec version: " + version);
+            }
+            keys = new String[readVarInt(in)];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = readString(in);
+            }
+            return readBundle();
+        }
+
+        private Bundle readBundle() {
+            final int size = readVarInt(in);
+            final Bundle ret = new Bundle(size);
+            ret.setClassLoader(loader);
+            for (int i = 0; i < size; i++) {
+                final String key = keys[readVarInt(in)];
+                BundleValues.put(ret, key, read());
+            }
+            return ret;
+        }
+
+        private Object read() {
+            final byte tag = in.get();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case STRING:
+                    return readString(in);
+                case INTEGER:
+                    return unzigzag(readVarInt(in));
+                case LONG:
+                    return unzigzag(readVarLong(in));
+                case SHORT:
+                    return (short) unzigzag(readVarInt(in));
+                case BYTE:
+                    return in.get();
+                case FALSE:
+                    return false;
+                case TRUE:
+                    return true;
+                case FLOAT:
+                    return in.getFloat();
+                case DOUBLE:
+                    return in.getDouble();
+                case CHAR:
+                    return (char) readVarInt(in);
+                case BUNDLE:
+                    return readBundle();
+                case BOOLEAN_ARRAY: {
+                    final boolean[] ret = new boolean[readVarInt(in)];
+                    for (int i = 0; i < ret.length; i += 8) {
+                        final int bits = in.get();
+                        for (int j = 0; j < 8 && i + j < ret.length; j++) {
+                            ret[i + j] = (bits & (1 << j)) != 0;
+                        }
+                    }
+                    return ret;
+                }
+                case BYTE_ARRAY: {
+                    final byte[] ret = new byte[readVarInt(in)];
+                    in.get(ret);
+                    return ret;
+                }
+                case CHAR_ARRAY: {
+                    final char[] ret = new char[readVarInt(in)];
+                    for (int i = 0; i < ret.length; i++) {
+                        ret[i] = (char) readVarInt(in);
+                    }
+                    return ret;
+                }
+                case SHORT_ARRAY: {
+                    final short[] ret = new short[readVarInt(in)];
+                    for (int i = 0; i < ret.length; i++) {
+                        ret[i] = (short) unzigzag(readVarInt(in));
+                    }
+                    return ret;
+                }
+                case INT_ARRAY: {
+                    final int[] ret = new int[readVarInt(in)];
+                    for (int i = 0; i < ret.length; i++) {
+                        ret[i] = unzigzag(readVarInt(in));
+                    }
+                    return ret;
+                }
+                case LONG_ARRAY: {
+                    final long[] ret = new long[readVarInt(in)];
+                    for (int i = 0; i < ret.length; i++) {
+                        ret[i] = unzigzag(readVarLong(in));
+                    }
+                    return ret;
+                }
+                case FLOAT_ARRAY: {
+                    final float[] ret = new float[readVarInt(in)];
+                    in.asFloatBuffer().get(ret);
+                    in.position(in.position() + ret.length * 4);
+                    return ret;
+                }
+                case DOUBLE_ARRAY: {
+                    final double[] ret = new double[readVarInt(in)];
+                    in.asDoubleBuffer().get(ret);
+                    in.position(in.position() + ret.length * 8);
+                    return ret;
+                }
+                case STRING_ARRAY: {
+                    final String[] ret = new String[readVarInt(in)];
+                    for (int i = 0; i < ret.length; i++) {
+                        ret[i] = readString(in);
+                    }
+                    return ret;
+                }
+                case CHAR_SEQUENCE_ARRAY: {
+                    final CharSequence[] ret = new CharSequence[readVarInt(in)];
+                    for (int i = 0; i < ret.length; i++) {
+                        ret[i] = readString(in);
+                    }
+                    return ret;
+                }
+                case LIST: {
+                    final int size = readVarInt(in);
+                    final ArrayList<Object> ret = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        ret.add(read());
+                    }
+                    return ret;
+                }
+                case SPARSE_ARRAY: {
+                    final int size = readVarInt(in);
+                    final SparseArray<Object> ret = new SparseArray<>(size);
+                    int key = 0;
+                    for (int i = 0; i < size; i++) {
+                        key += unzigzag(readVarInt(in));
+                        ret.append(key, read());
+                    }
+                    return ret;
+                }
+                case SIZE:
+                    return readSize(in);
+                case SIZE_F:
+                    return readSizeF(in);
+                case PARCELLED:
+                    return ValueCodec.unmarshall(in, readVarInt(in), loader);
+                case OBJECT:
+                    return objects[readVarInt(in)];
+                default:
+                    throw new IllegalArgumentException("Unknown value tag " + tag + " at " + (in.position() - 1));
+            }
+        }
+
+    }
+
+    /**
+     * Varint length + 1 ({@code 0} for {@code null}), then every UTF-16 unit as 1 to 3 bytes.
+     */
+    static void writeString(BufferWriter out, String value) {
+        if (value == null) {
+            out.putVarInt(0);
+            return;
+        }
+        final int length = value.length();
+        out.putVarInt(length + 1);
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < 0x80) {
+                out.put((byte) c);
+            } else if (c < 0x800) {
+                out.put((byte) (0xC0 | (c >> 6)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            } else {
+                out.put((byte) (0xE0 | (c >> 12)));
+                out.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                out.put((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+    }
+
+    static String readString(ByteBuffer in) {
+        final int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            final int b = in.get() & 0xFF;
+            if (b < 0x80) {
+                chars[i] = (char) b;
+            } else if (b < 0xE0) {
+                chars[i] = (char) (((b & 0x1F) << 6) | (in.get() & 0x3F));
+            } else {
+                chars[i] = (char) (((b & 0x0F) << 12) | ((in.get() & 0x3F) << 6) | (in.get() & 0x3F));
+            }
+        }
+        return new String(chars);
+    }
+
+    static int readVarInt(ByteBuffer in) {
+        int ret = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            final byte b = in.get();
+            ret |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return ret;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint at " + in.position());
+    }
+
+    static long readVarLong(ByteBuffer in) {
+        long ret = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            final byte b = in.get();
+            ret |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return ret;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint at " + in.position());
+    }
+
+    private static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void writeSize(BufferWriter out, Object v) {
+        final Size size = (Size) v;
+        out.put(SIZE).putVarInt(zigzag(size.getWidth())).putVarInt(zigzag(size.getHeight()));
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void writeSizeF(BufferWriter out, Object v) {
+        final SizeF size = (SizeF) v;
+        out.put(SIZE_F).putFloat(size.getWidth()).putFloat(size.getHeight());
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static Object readSize(ByteBuffer in) {
+        return new Size(unzigzag(readVarInt(in)), unzigzag(readVarInt(in)));
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static Object readSizeF(ByteBuffer in) {
+        return new SizeF(in.getFloat(), in.getFloat());
+    }
+
+}
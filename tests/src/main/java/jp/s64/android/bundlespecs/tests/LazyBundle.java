@@ -0,0 +1,253 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Immutable Bundle whose values stay encoded until they are read.
+ *
+ * <p>A platform Bundle unparcels its whole map on the first {@code get}. Here the bytes start
+ * with an index of {@code (key hash, key offset, value offset)} sorted like {@code ArrayMap},
+ * so a lookup decodes nothing but the requested value:</p>
+ *
+ * <pre>
+ * int magic 'LZBN', int version, int count
+ * count x { int hash, int keyOffset, int valueOffset }
+ * keys and values, see {@link ValueCodec}
+ * </pre>
+ *
+ * <p>Values read back the way a Bundle that went through a Parcel does (a restored state):
+ * plain CharSequences become Strings, Lists become ArrayLists, and so on.</p>
+ */
+public final class LazyBundle extends BundleLike implements Parcelable {
+
+    static final int MAGIC = 0x4C5A424E; // 'L' 'Z' 'B' 'N'
+    static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 * 3;
+    private static final int INDEX_ENTRY_SIZE = 4 * 3;
+
+    private static final Object NOT_DECODED = new Object();
+
+    private final byte[] data;
+    private final ByteBuffer buffer;
+    private final Object[] objects;
+    private final int count;
+    private final Object[] values;
+
+    private ClassLoader classLoader = LazyBundle.class.getClassLoader();
+    private Set<String> keySet;
+    private int decodedCount;
+
+    private LazyBundle(byte[] data, Object[] objects) {
+        this.data = data;
+        this.buffer = ByteBuffer.wrap(data);
+        this.objects = objects;
+
+        if (data.length < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a LazyBundle");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported LazyBundle version " + buffer.getInt(4));
+        }
+        this.count = buffer.getInt(8);
+        this.values = new Object[count];
+        Arrays.fill(values, NOT_DECODED);
+    }
+
+    public static LazyBundle from(Bundle bundle) {
+        final String[] keys = bundle.keySet().toArray(new String[bundle.size()]);
+        Arrays.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String o1, String o2) {
+                final int h1 = o1.hashCode();
+                final int h2 = o2.hashCode();
+                return h1 != h2 ? (h1 < h2 ? -1 : 1) : o1.compareTo(o2);
+            }
+        });
+
+        final List<Object> objects = new ArrayList<>();
+        final BufferWriter out = new BufferWriter();
+        {
+            out.putInt(MAGIC).putInt(VERSION).putInt(keys.length);
+            out.position(HEADER_SIZE + keys.length * INDEX_ENTRY_SIZE);
+
+            for (int i = 0; i < keys.length; i++) {
+                final int entry = HEADER_SIZE + i * INDEX_ENTRY_SIZE;
+                out.putInt(entry, keys[i].hashCode());
+                out.putInt(entry + 4, out.position());
+                out.putString(keys[i]);
+                out.putInt(entry + 8, out.position());
+                ValueCodec.write(out, bundle.get(keys[i]), objects);
+            }
+        }
+        return new LazyBundle(out.toByteArray(), objects.toArray());
+    }
+
+    /**
+     * @param data bytes of {@link #toByteArray()}.
+     */
+    public static LazyBundle fromByteArray(byte[] data) {
+        return new LazyBundle(data, new Object[0]);
+    }
+
+    /**
+     * @throws IllegalStateException if a value (e.g. a Binder) can only live in this process.
+     */
+    public byte[] toByteArray() {
+        if (objects.length > 0) {
+            throw new IllegalStateException(objects.length + " values can't be flattened; use writeToParcel");
+        }
+        return data.clone();
+    }
+
+    public void setClassLoader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public Object get(String key) {
+        final int index = indexOf(key);
+        return index >= 0 ? valueAt(index) : null;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        if (keySet == null) {
+            final Set<String> ret = new LinkedHashSet<>(count);
+            final ByteBuffer in = buffer.duplicate();
+            for (int i = 0; i < count; i++) {
+                in.position(buffer.getInt(HEADER_SIZE + i * INDEX_ENTRY_SIZE + 4));
+                ret.add(ValueCodec.readString(in));
+            }
+            keySet = Collections.unmodifiableSet(ret);
+        }
+        return keySet;
+    }
+
+    /**
+     * @return how many values have been decoded so far.
+     */
+    public int decodedCount() {
+        return decodedCount;
+    }
+
+    private Object valueAt(int index) {
+        Object ret = values[index];
+        if (ret == NOT_DECODED) {
+            final ByteBuffer in = buffer.duplicate();
+            in.position(buffer.getInt(HEADER_SIZE + index * INDEX_ENTRY_SIZE + 8));
+            ret = ValueCodec.read(in, objects, classLoader);
+            values[index] = ret;
+            decodedCount++;
+        }
+        return ret;
+    }
+
+    private int indexOf(String key) {
+        final int hash = key.hashCode();
+
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int midHash = hashAt(mid);
+            if (midHash < hash) {
+                lo = mid + 1;
+            } else if (midHash > hash) {
+                hi = mid - 1;
+            } else {
+                for (int i = mid; i >= 0 && hashAt(i) == hash; i--) {
+                    if (keyEquals(i, key)) {
+                        return i;
+                    }
+                }
+                for (int i = mid + 1; i < count && hashAt(i) == hash; i++) {
+                    if (keyEquals(i, key)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private int hashAt(int index) {
+        return buffer.getInt(HEADER_SIZE + index * INDEX_ENTRY_SIZE);
+    }
+
+    private boolean keyEquals(int index, String key) {
+        return ValueCodec.stringEquals(buffer, buffer.getInt(HEADER_SIZE + index * INDEX_ENTRY_SIZE + 4), key);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeByteArray(data);
+        dest.writeInt(objects.length);
+        for (Object object : objects) {
+            dest.writeValue(object);
+        }
+    }
+
+    public static final Creator<LazyBundle> CREATOR = new Creator<LazyBundle>() {
+
+        @Override
+        public LazyBundle createFromParcel(Parcel source) {
+            final byte[] data = source.createByteArray();
+            final Object[] objects = new Object[source.readInt()];
+            for (int i = 0; i < objects.length; i++) {
+                objects[i] = source.readValue(LazyBundle.class.getClassLoader());
+            }
+            return new LazyBundle(data, objects);
+        }
+
+        @Override
+        public LazyBundle[] newArray(int size) {
+            return new LazyBundle[size];
+        }
+
+    };
+
+}
@@ -0,0 +1,248 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.Arrays;
+
+/**
+ * LZ4 block format (no frame, no checksum) in plain Java.
+ *
+ * <p>The compressor is LZ4's fast single-pass one: a hash table of recent 4-byte sequences,
+ * greedy matching, and the format's end-of-block rules (the last match starts at least
+ * {@value #MF_LIMIT} bytes before the end, the last {@value #LAST_LITERALS} bytes are literals).
+ * Its table is kept per thread, so neither direction allocates.</p>
+ */
+final class Lz4 {
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MF_LIMIT = 12;
+    private static final int MAX_DISTANCE = 65535;
+    private static final int HASH_LOG = 12;
+    private static final int SKIP_TRIGGER = 6;
+
+    private static final ThreadLocal<int[]> TABLE = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1 << HASH_LOG];
+        }
+    };
+
+    private Lz4() {
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * @param dest room for {@link #maxCompressedLength(int)} bytes from {@code destOffset}.
+     * @return bytes written to {@code dest}.
+     */
+    static int compress(byte[] src, int srcOffset, int length, byte[] dest, int destOffset) {
+        final int srcEnd = srcOffset + length;
+        final int matchLimit = srcEnd - LAST_LITERALS;
+        final int mfLimit = srcEnd - MF_LIMIT;
+
+        int s = srcOffset;
+        int anchor = srcOffset;
+        int d = destOffset;
+
+        if (length > MF_LIMIT) {
+            final int[] table = TABLE.get();
+            Arrays.fill(table, -1);
+            table[hash(readInt(src, s))] = 0;
+            s++;
+
+            search:
+            while (true) {
+                int ref;
+                {
+                    int step = 1;
+                    int attempts = 1 << SKIP_TRIGGER;
+                    while (true) {
+                        if (s > mfLimit) {
+                            break search;
+                        }
+                        ref = candidate(table, src, srcOffset, s);
+                        if (ref >= 0) {
+                            break;
+                        }
+                        // the longer nothing matches, the faster incompressible input is skipped
+                        s += step;
+                        step = attempts++ >>> SKIP_TRIGGER;
+                    }
+                }
+
+                while (s > anchor && ref > srcOffset && src[s - 1] == src[ref - 1]) {
+                    s--;
+                    ref--;
+                }
+
+                final int literals = s - anchor;
+                int tokenAt = d++;
+                int token = Math.min(literals, 15) << 4;
+                if (literals >= 15) {
+                    d = writeLength(dest, d, literals - 15);
+                }
+                System.arraycopy(src, anchor, dest, d, literals);
+                d += literals;
+
+                while (true) {
+                    dest[d++] = (byte) (s - ref);
+                    dest[d++] = (byte) ((s - ref) >>> 8);
+
+                    s += MIN_MATCH;
+                    ref += MIN_MATCH;
+                    final int start = s;
+                    while (s < matchLimit && src[s] == src[ref]) {
+                        s++;
+                        ref++;
+                    }
+                    final int matchLength = s - start;
+                    token |= Math.min(matchLength, 15);
+                    if (matchLength >= 15) {
+                        d = writeLength(dest, d, matchLength - 15);
+                    }
+                    dest[tokenAt] = (byte) token;
+                    anchor = s;
+
+                    if (s > mfLimit) {
+                        break search;
+                    }
+                    table[hash(readInt(src, s - 2))] = s - 2 - srcOffset;
+
+                    ref = candidate(table, src, srcOffset, s);
+                    if (ref < 0) {
+                        s++;
+                        break;
+                    }
+                    // a match right after a match: no literals in between
+                    tokenAt = d++;
+                    token = 0;
+                }
+            }
+        }
+
+        final int literals = srcEnd - anchor;
+        dest[d++] = (byte) (Math.min(literals, 15) << 4);
+        if (literals >= 15) {
+            d = writeLength(dest, d, literals - 15);
+        }
+        System.arraycopy(src, anchor, dest, d, literals);
+        return d + literals - destOffset;
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code src} isn't a block that decodes to exactly {@code length} bytes.
+     */
+    static void decompress(byte[] src, int srcOffset, int srcLength, byte[] dest, int destOffset, int length) {
+        final int srcEnd = srcOffset + srcLength;
+        final int destEnd = destOffset + length;
+
+        int s = srcOffset;
+        int d = destOffset;
+        try {
+            while (true) {
+                final int token = src[s++] & 0xFF;
+
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[s++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                if (literals > destEnd - d || literals > srcEnd - s) {
+                    throw malformed(s - srcOffset);
+                }
+                System.arraycopy(src, s, dest, d, literals);
+                s += literals;
+                d += literals;
+                if (s == srcEnd) {
+                    break;
+                }
+
+                final int offset = (src[s++] & 0xFF) | ((src[s++] & 0xFF) << 8);
+                int matchLength = token & 15;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[s++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+
+                int ref = d - offset;
+                if (offset == 0 || ref < destOffset || matchLength > destEnd - d) {
+                    throw malformed(s - srcOffset);
+                }
+                if (offset >= matchLength) {
+                    System.arraycopy(dest, ref, dest, d, matchLength);
+                    d += matchLength;
+                } else {
+                    // overlapping: the match repeats bytes it is producing
+                    final int end = d + matchLength;
+                    while (d < end) {
+                        dest[d++] = dest[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw malformed(s - srcOffset);
+        }
+        if (d != destEnd) {
+            throw new IllegalArgumentException("LZ4 block decodes to " + (d - destOffset) + " bytes, expected " + length);
+        }
+    }
+
+    private static int candidate(int[] table, byte[] src, int srcOffset, int s) {
+        final int sequence = readInt(src, s);
+        final int h = hash(sequence);
+        final int candidate = table[h];
+        table[h] = s - srcOffset;
+        if (candidate < 0) {
+            return -1;
+        }
+        final int ref = srcOffset + candidate;
+        return s - ref <= MAX_DISTANCE && readInt(src, ref) == sequence ? ref : -1;
+    }
+
+    private static int writeLength(byte[] dest, int d, int length) {
+        while (length >= 255) {
+            dest[d++] = (byte) 255;
+            length -= 255;
+        }
+        dest[d++] = (byte) length;
+        return d;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static int readInt(byte[] src, int i) {
+        return (src[i] & 0xFF) | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF) << 16 | (src[i + 3] & 0xFF) << 24;
+    }
+
+    private static IllegalArgumentException malformed(int at) {
+        return new IllegalArgumentException("Malformed LZ4 block at " + at);
+    }
+
+}
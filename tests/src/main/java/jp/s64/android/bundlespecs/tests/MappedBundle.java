@@ -0,0 +1,833 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.text.Spanned;
+import android.util.Size;
+import android.util.SizeF;
+import android.util.SparseArray;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Bundle persisted to a file and read back through a {@code MappedByteBuffer}, for restoring
+ * large saved state on cold start without reading and unparcelling all of it.
+ *
+ * <p>{@link #open(File)} maps the file and decodes nothing; like {@link LazyBundle}, each
+ * Bundle level starts with an index sorted like {@code ArrayMap}, so {@link #get(String)}
+ * decodes only the requested value, and {@link #getMappedBundle(String)} descends without
+ * decoding siblings. Primitive arrays are stored 8-byte aligned in the byte order of the
+ * device that wrote the file, so {@link #getIntBuffer(String)} and friends are views on the
+ * mapping itself: no copy, no byte swapping.</p>
+ *
+ * <pre>
+ * int magic 'MPBN' (big-endian), byte order (0 big, 1 little), 3 bytes padding,
+ * int version, int file length
+ * bundle: int count, int end, count x { int hash, int keyOffset, int valueOffset }, keys and values
+ * value: byte tag, then
+ *   primitives, Strings, String[], unspanned CharSequence[], Size, SizeF as in {@link ValueCodec}
+ *   byte[], char[], short[], int[], long[], float[], double[]: int length, padding to 8, elements
+ *   boolean[]: int length, one byte per element
+ *   List, SparseArray: int size, (int key,) nested values
+ *   Bundle: a nested bundle block
+ *   Serializable: int length, {@code ObjectOutputStream} bytes
+ *   anything else (Parcelable, Parcelable[], Spanned, PersistableBundle): int length, {@code Parcel#writeValue} bytes
+ * </pre>
+ *
+ * <p>Offsets are absolute {@code int}s, so a file holds less than 2 GB. Binders can't outlive
+ * the process and are rejected, at any depth. Note that Parcelables are stored as Parcel bytes,
+ * which the platform doesn't promise to keep readable across OS versions; prefer Serializable
+ * or primitive values for anything that must survive an update.</p>
+ *
+ * <p>The mapping stays valid after {@link #open(File)} returns and is released when the
+ * instance is collected. Replace the file with {@link #write(File, Bundle)} (a new file is
+ * renamed over the old one) rather than modifying it in place while it is mapped.</p>
+ */
+public final class MappedBundle extends BundleLike {
+
+    static final int MAGIC = 0x4D50424E; // 'M' 'P' 'B' 'N'
+    static final int VERSION = 1;
+
+    static final byte BUNDLE = 64;
+    static final byte SERIALIZABLE = 65;
+
+    private static final int HEADER_SIZE = 16;
+    private static final int BLOCK_HEADER_SIZE = 4 * 2;
+    private static final int INDEX_ENTRY_SIZE = 4 * 3;
+
+    private static final Object NOT_DECODED = new Object();
+
+    private final ByteBuffer buffer;
+    private final int offset;
+    private final int count;
+    private final Object[] values;
+
+    private ClassLoader classLoader;
+    private Set<String> keySet;
+    private int decodedCount;
+
+    private MappedBundle(ByteBuffer buffer, int offset, ClassLoader classLoader) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.count = buffer.getInt(offset);
+        this.values = new Object[count];
+        this.classLoader = classLoader;
+        Arrays.fill(values, NOT_DECODED);
+    }
+
+    /**
+     * Writes {@code bundle} to a sibling temporary file, syncs it and renames it over {@code file},
+     * so a crash leaves either the old or the new state.
+     *
+     * @throws IllegalArgumentException if a value is or holds a Binder or file descriptor, or if
+     *                                  a key, at any level, is {@code null}.
+     */
+    public static void write(File file, Bundle bundle) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        final FileOutputStream stream = new FileOutputStream(tmp);
+        try {
+            final Writer out = new Writer(stream.getChannel());
+            out.putInt(MAGIC);
+            out.put((byte) (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 1 : 0));
+            out.put((byte) 0).put((byte) 0).put((byte) 0);
+            out.order(ByteOrder.nativeOrder());
+            out.putInt(VERSION);
+            out.putInt(0);
+            out.writeBundle(bundle);
+            out.patchInt(12, out.offset());
+            out.flush();
+            stream.getChannel().force(true);
+        } catch (IOException | RuntimeException e) {
+            stream.close();
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw e;
+        }
+        stream.close();
+        if (!tmp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Maps {@code file} read-only. Only the header is read.
+     *
+     * @throws IOException if the file isn't a complete {@code MappedBundle} of a supported version.
+     */
+    public static MappedBundle open(File file) throws IOException {
+        final ByteBuffer buffer;
+        {
+            final RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                final long length = raf.length();
+                if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                    throw new IOException("Not a MappedBundle: " + file);
+                }
+                buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            } finally {
+                raf.close();
+            }
+        }
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a MappedBundle: " + file);
+        }
+        buffer.order(buffer.get(4) != 0 ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        if (buffer.getInt(8) != VERSION) {
+            throw new IOException("Unsupported MappedBundle version " + buffer.getInt(8));
+        }
+        if (buffer.getInt(12) != buffer.capacity()) {
+            throw new IOException("Truncated MappedBundle: " + file);
+        }
+        return new MappedBundle(buffer, HEADER_SIZE, MappedBundle.class.getClassLoader());
+    }
+
+    /**
+     * Used for Parcelables and Serializables decoded from now on, including in nested levels
+     * opened afterwards.
+     */
+    public void setClassLoader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Decodes the value once and caches it. Nested Bundles are handed out as Bundles holding
+     * every nested value; use {@link #getMappedBundle(String)} to keep them lazy.
+     */
+    @Override
+    public Object get(String key) {
+        final int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        Object ret = values[index];
+        if (ret == NOT_DECODED) {
+            final ByteBuffer in = reader(valueOffset(index));
+            ret = read(in, classLoader);
+            values[index] = ret;
+            decodedCount++;
+        }
+        return ret;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        if (keySet == null) {
+            final Set<String> ret = new LinkedHashSet<>(count);
+            final ByteBuffer in = reader(0);
+            for (int i = 0; i < count; i++) {
+                in.position(buffer.getInt(entry(i) + 4));
+                ret.add(ValueCodec.readString(in));
+            }
+            keySet = Collections.unmodifiableSet(ret);
+        }
+        return keySet;
+    }
+
+    /**
+     * @return how many values {@link #get(String)} has decoded so far.
+     */
+    public int decodedCount() {
+        return decodedCount;
+    }
+
+    /**
+     * @return the nested Bundle at {@code key} as another lazy view on the same mapping, or
+     * {@code null} if the value isn't a Bundle.
+     */
+    public MappedBundle getMappedBundle(String key) {
+        final int position = payload(key, BUNDLE);
+        return position >= 0 ? new MappedBundle(buffer, position, classLoader) : null;
+    }
+
+    /**
+     * @return a read-only view on the elements of the {@code byte[]} at {@code key}, or
+     * {@code null} if the value isn't a {@code byte[]}.
+     */
+    public ByteBuffer getByteBuffer(String key) {
+        return arrayView(key, ValueCodec.BYTE_ARRAY, 1);
+    }
+
+    /**
+     * @see #getByteBuffer(String)
+     */
+    public CharBuffer getCharBuffer(String key) {
+        final ByteBuffer view = arrayView(key, ValueCodec.CHAR_ARRAY, 2);
+        return view != null ? view.asCharBuffer() : null;
+    }
+
+    /**
+     * @see #getByteBuffer(String)
+     */
+    public ShortBuffer getShortBuffer(String key) {
+        final ByteBuffer view = arrayView(key, ValueCodec.SHORT_ARRAY, 2);
+        return view != null ? view.asShortBuffer() : null;
+    }
+
+    /**
+     * @see #getByteBuffer(String)
+     */
+    public IntBuffer getIntBuffer(String key) {
+        final ByteBuffer view = arrayView(key, ValueCodec.INT_ARRAY, 4);
+        return view != null ? view.asIntBuffer() : null;
+    }
+
+    /**
+     * @see #getByteBuffer(String)
+     */
+    public LongBuffer getLongBuffer(String key) {
+        final ByteBuffer view = arrayView(key, ValueCodec.LONG_ARRAY, 8);
+        return view != null ? view.asLongBuffer() : null;
+    }
+
+    /**
+     * @see #getByteBuffer(String)
+     */
+    public FloatBuffer getFloatBuffer(String key) {
+        final ByteBuffer view = arrayView(key, ValueCodec.FLOAT_ARRAY, 4);
+        return view != null ? view.asFloatBuffer() : null;
+    }
+
+    /**
+     * @see #getByteBuffer(String)
+     */
+    public DoubleBuffer getDoubleBuffer(String key) {
+        final ByteBuffer view = arrayView(key, ValueCodec.DOUBLE_ARRAY, 8);
+        return view != null ? view.asDoubleBuffer() : null;
+    }
+
+    private ByteBuffer arrayView(String key, byte tag, int elementSize) {
+        final int position = payload(key, tag);
+        if (position < 0) {
+            return null;
+        }
+        final int length = buffer.getInt(position);
+        final int start = align(position + 4);
+        final ByteBuffer in = reader(start);
+        in.limit(start + length * elementSize);
+        return in.slice().asReadOnlyBuffer().order(buffer.order());
+    }
+
+    /**
+     * @return the position after the tag if {@code key} holds a value tagged {@code tag}, else {@code -1}.
+     */
+    private int payload(String key, byte tag) {
+        final int index = indexOf(key);
+        if (index < 0) {
+            return -1;
+        }
+        final int position = valueOffset(index);
+        return buffer.get(position) == tag ? position + 1 : -1;
+    }
+
+    private ByteBuffer reader(int position) {
+        final ByteBuffer ret = buffer.duplicate().order(buffer.order());
+        ret.position(position);
+        return ret;
+    }
+
+    private int entry(int index) {
+        return offset + BLOCK_HEADER_SIZE + index * INDEX_ENTRY_SIZE;
+    }
+
+    private int valueOffset(int index) {
+        return buffer.getInt(entry(index) + 8);
+    }
+
+    /**
+     * @return the entry of {@code key}, or {@code -1}; never for {@code null}, which can't be written.
+     */
+    private int indexOf(String key) {
+        if (key == null) {
+            return -1;
+        }
+        final int hash = key.hashCode();
+
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int midHash = buffer.getInt(entry(mid));
+            if (midHash < hash) {
+                lo = mid + 1;
+            } else if (midHash > hash) {
+                hi = mid - 1;
+            } else {
+                for (int i = mid; i >= 0 && buffer.getInt(entry(i)) == hash; i--) {
+                    if (ValueCodec.stringEquals(buffer, buffer.getInt(entry(i) + 4), key)) {
+                        return i;
+                    }
+                }
+                for (int i = mid + 1; i < count && buffer.getInt(entry(i)) == hash; i++) {
+                    if (ValueCodec.stringEquals(buffer, buffer.getInt(entry(i) + 4), key)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private Object read(ByteBuffer in, ClassLoader loader) {
+        final byte tag = in.get();
+        switch (tag) {
+            case ValueCodec.BOOLEAN_ARRAY: {
+                final boolean[] ret = new boolean[in.getInt()];
+                for (int i = 0; i < ret.length; i++) {
+                    ret[i] = in.get() != 0;
+                }
+                return ret;
+            }
+            case ValueCodec.BYTE_ARRAY: {
+                final byte[] ret = new byte[in.getInt()];
+                in.position(align(in.position()));
+                in.get(ret);
+                return ret;
+            }
+            case ValueCodec.CHAR_ARRAY: {
+                final char[] ret = new char[in.getInt()];
+                in.position(align(in.position()));
+                in.asCharBuffer().get(ret);
+                in.position(in.position() + ret.length * 2);
+                return ret;
+            }
+            case ValueCodec.SHORT_ARRAY: {
+                final short[] ret = new short[in.getInt()];
+                in.position(align(in.position()));
+                in.asShortBuffer().get(ret);
+                in.position(in.position() + ret.length * 2);
+                return ret;
+            }
+            case ValueCodec.INT_ARRAY: {
+                final int[] ret = new int[in.getInt()];
+                in.position(align(in.position()));
+                in.asIntBuffer().get(ret);
+                in.position(in.position() + ret.length * 4);
+                return ret;
+            }
+            case ValueCodec.LONG_ARRAY: {
+                final long[] ret = new long[in.getInt()];
+                in.position(align(in.position()));
+                in.asLongBuffer().get(ret);
+                in.position(in.position() + ret.length * 8);
+                return ret;
+            }
+            case ValueCodec.FLOAT_ARRAY: {
+                final float[] ret = new float[in.getInt()];
+                in.position(align(in.position()));
+                in.asFloatBuffer().get(ret);
+                in.position(in.position() + ret.length * 4);
+                return ret;
+            }
+            case ValueCodec.DOUBLE_ARRAY: {
+                final double[] ret = new double[in.getInt()];
+                in.position(align(in.position()));
+                in.asDoubleBuffer().get(ret);
+                in.position(in.position() + ret.length * 8);
+                return ret;
+            }
+            case ValueCodec.LIST: {
+                final int size = in.getInt();
+                final ArrayList<Object> ret = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    ret.add(read(in, loader));
+                }
+                return ret;
+            }
+            case ValueCodec.SPARSE_ARRAY: {
+                final int size = in.getInt();
+                final SparseArray<Object> ret = new SparseArray<>(size);
+                for (int i = 0; i < size; i++) {
+                    final int key = in.getInt();
+                    ret.append(key, read(in, loader));
+                }
+                return ret;
+            }
+            case BUNDLE: {
+                final MappedBundle nested = new MappedBundle(buffer, in.position(), loader);
+                in.position(buffer.getInt(in.position() + 4));
+                final Bundle ret = nested.toBundle();
+                ret.setClassLoader(loader);
+                return ret;
+            }
+            case SERIALIZABLE: {
+                final byte[] bytes = new byte[in.getInt()];
+                in.get(bytes);
+                return deserialize(bytes, loader);
+            }
+            case ValueCodec.OBJECT:
+                throw new IllegalArgumentException("Unknown value tag " + tag + " at " + (in.position() - 1));
+            default:
+                // the remaining tags share ValueCodec's encoding
+                in.position(in.position() - 1);
+                return ValueCodec.read(in, new Object[0], loader);
+        }
+    }
+
+    private static Object deserialize(byte[] bytes, final ClassLoader loader) {
+        try {
+            final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes)) {
+                @Override
+                protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                    try {
+                        return Class.forName(desc.getName(), false, loader);
+                    } catch (ClassNotFoundException e) {
+                        return super.resolveClass(desc);
+                    }
+                }
+            };
+            return in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Could not read a Serializable", e);
+        }
+    }
+
+    private static byte[] serialize(Serializable value) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            final ObjectOutputStream out = new ObjectOutputStream(bytes);
+            out.writeObject(value);
+            out.close();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Could not write " + value.getClass().getName(), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static int align(int position) {
+        return (position + 7) & ~7;
+    }
+
+    /**
+     * Buffered, positioned writes to a channel in a chosen byte order; absolute offsets can be
+     * patched after the fact, in the buffer while they are still there.
+     */
+    private static final class Writer {
+
+        private static final int CAPACITY = 64 * 1024;
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(CAPACITY);
+        private final ByteBuffer scratch = ByteBuffer.allocate(8);
+        private long flushed;
+
+        Writer(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void order(ByteOrder order) {
+            buffer.order(order);
+            scratch.order(order);
+        }
+
+        int offset() {
+            final long ret = flushed + buffer.position();
+            if (ret > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("A MappedBundle must be smaller than 2 GB");
+            }
+            return (int) ret;
+        }
+
+        Writer put(byte value) throws IOException {
+            ensure(1).put(value);
+            return this;
+        }
+
+        Writer putInt(int value) throws IOException {
+            ensure(4).putInt(value);
+            return this;
+        }
+
+        void patchInt(int at, int value) throws IOException {
+            if (at >= flushed) {
+                buffer.putInt((int) (at - flushed), value);
+            } else {
+                scratch.clear();
+                scratch.putInt(value).flip();
+                while (scratch.hasRemaining()) {
+                    channel.write(scratch, at + scratch.position());
+                }
+            }
+        }
+
+        void patchInts(int at, int[] values) throws IOException {
+            if (at < flushed) {
+                if (at + values.length * 4 > flushed) {
+                    flush();
+                }
+                final ByteBuffer out = ByteBuffer.allocate(values.length * 4).order(buffer.order());
+                out.asIntBuffer().put(values);
+                while (out.hasRemaining()) {
+                    channel.write(out, at + out.position());
+                }
+            } else {
+                for (int i = 0; i < values.length; i++) {
+                    buffer.putInt((int) (at - flushed) + i * 4, values[i]);
+                }
+            }
+        }
+
+        void align() throws IOException {
+            final int padding = MappedBundle.align(offset()) - offset();
+            for (int i = 0; i < padding; i++) {
+                put((byte) 0);
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        private ByteBuffer ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+            return buffer;
+        }
+
+        void writeBundle(Bundle bundle) throws IOException {
+            final String[] keys = bundle.keySet().toArray(new String[bundle.size()]);
+            for (String key : keys) {
+                if (key == null) {
+                    throw new IllegalArgumentException("null keys can't be written");
+                }
+            }
+            Arrays.sort(keys, new Comparator<String>() {
+                @Override
+                public int compare(String o1, String o2) {
+                    final int h1 = o1.hashCode();
+                    final int h2 = o2.hashCode();
+                    return h1 != h2 ? (h1 < h2 ? -1 : 1) : o1.compareTo(o2);
+                }
+            });
+
+            final int start = offset();
+            putInt(keys.length);
+            putInt(0);
+            final int[] index = new int[keys.length * 3];
+            for (int i = 0; i < index.length; i++) {
+                putInt(0);
+            }
+            for (int i = 0; i < keys.length; i++) {
+                index[i * 3] = keys[i].hashCode();
+                index[i * 3 + 1] = offset();
+                putString(keys[i]);
+                index[i * 3 + 2] = offset();
+                writeValue(keys[i], bundle.get(keys[i]));
+            }
+            patchInt(start + 4, offset());
+            patchInts(start + BLOCK_HEADER_SIZE, index);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void writeValue(String key, Object v) throws IOException {
+            if (v instanceof IBinder) {
+                throw new IllegalArgumentException(key + ": a Binder can't be persisted");
+            } else if (v instanceof Bundle) {
+                put(BUNDLE);
+                writeBundle((Bundle) v);
+            } else if (v instanceof boolean[]) {
+                final boolean[] array = (boolean[]) v;
+                put(ValueCodec.BOOLEAN_ARRAY).putInt(array.length);
+                for (boolean item : array) {
+                    put((byte) (item ? 1 : 0));
+                }
+            } else if (v instanceof byte[]) {
+                final byte[] array = (byte[]) v;
+                put(ValueCodec.BYTE_ARRAY).putInt(array.length);
+                align();
+                putBytes(array);
+            } else if (v instanceof char[]) {
+                final char[] array = (char[]) v;
+                put(ValueCodec.CHAR_ARRAY).putInt(array.length);
+                align();
+                for (int i = 0; i < array.length; ) {
+                    final int chunk = Math.min(ensure(2).remaining() / 2, array.length - i);
+                    buffer.asCharBuffer().put(array, i, chunk);
+                    buffer.position(buffer.position() + chunk * 2);
+                    i += chunk;
+                }
+            } else if (v instanceof short[]) {
+                final short[] array = (short[]) v;
+                put(ValueCodec.SHORT_ARRAY).putInt(array.length);
+                align();
+                for (int i = 0; i < array.length; ) {
+                    final int chunk = Math.min(ensure(2).remaining() / 2, array.length - i);
+                    buffer.asShortBuffer().put(array, i, chunk);
+                    buffer.position(buffer.position() + chunk * 2);
+                    i += chunk;
+                }
+            } else if (v instanceof int[]) {
+                final int[] array = (int[]) v;
+                put(ValueCodec.INT_ARRAY).putInt(array.length);
+                align();
+                for (int i = 0; i < array.length; ) {
+                    final int chunk = Math.min(ensure(4).remaining() / 4, array.length - i);
+                    buffer.asIntBuffer().put(array, i, chunk);
+                    buffer.position(buffer.position() + chunk * 4);
+                    i += chunk;
+                }
+            } else if (v instanceof long[]) {
+                final long[] array = (long[]) v;
+                put(ValueCodec.LONG_ARRAY).putInt(array.length);
+                align();
+                for (int i = 0; i < array.length; ) {
+                    final int chunk = Math.min(ensure(8).remaining() / 8, array.length - i);
+                    buffer.asLongBuffer().put(array, i, chunk);
+                    buffer.position(buffer.position() + chunk * 8);
+                    i += chunk;
+                }
+            } else if (v instanceof float[]) {
+                final float[] array = (float[]) v;
+                put(ValueCodec.FLOAT_ARRAY).putInt(array.length);
+                align();
+                for (int i = 0; i < array.length; ) {
+                    final int chunk = Math.min(ensure(4).remaining() / 4, array.length - i);
+                    buffer.asFloatBuffer().put(array, i, chunk);
+                    buffer.position(buffer.position() + chunk * 4);
+                    i += chunk;
+                }
+            } else if (v instanceof double[]) {
+                final double[] array = (double[]) v;
+                put(ValueCodec.DOUBLE_ARRAY).putInt(array.length);
+                align();
+                for (int i = 0; i < array.length; ) {
+                    final int chunk = Math.min(ensure(8).remaining() / 8, array.length - i);
+                    buffer.asDoubleBuffer().put(array, i, chunk);
+                    buffer.position(buffer.position() + chunk * 8);
+                    i += chunk;
+                }
+            } else if (v instanceof List) {
+                final List<Object> list = (List<Object>) v;
+                final int size = list.size();
+                put(ValueCodec.LIST).putInt(size);
+                for (int i = 0; i < size; i++) {
+                    writeValue(key, list.get(i));
+                }
+            } else if (v instanceof SparseArray) {
+                final SparseArray<Object> array = (SparseArray<Object>) v;
+                final int size = array.size();
+                put(ValueCodec.SPARSE_ARRAY).putInt(size);
+                for (int i = 0; i < size; i++) {
+                    putInt(array.keyAt(i));
+                    writeValue(key, array.valueAt(i));
+                }
+            } else {
+                writeScalar(key, v);
+            }
+        }
+
+        private void writeScalar(String key, Object v) throws IOException {
+            if (v == null) {
+                put(ValueCodec.NULL);
+            } else if (v instanceof String) {
+                put(ValueCodec.STRING).putString((String) v);
+            } else if (v instanceof Integer) {
+                put(ValueCodec.INTEGER).putInt((Integer) v);
+            } else if (v instanceof Long) {
+                put(ValueCodec.LONG);
+                ensure(8).putLong((Long) v);
+            } else if (v instanceof Short) {
+                put(ValueCodec.SHORT);
+                ensure(2).putShort((Short) v);
+            } else if (v instanceof Byte) {
+                put(ValueCodec.BYTE).put((Byte) v);
+            } else if (v instanceof Boolean) {
+                put(ValueCodec.BOOLEAN).put((byte) ((Boolean) v ? 1 : 0));
+            } else if (v instanceof Float) {
+                put(ValueCodec.FLOAT);
+                ensure(4).putFloat((Float) v);
+            } else if (v instanceof Double) {
+                put(ValueCodec.DOUBLE);
+                ensure(8).putDouble((Double) v);
+            } else if (v instanceof Character) {
+                put(ValueCodec.CHAR);
+                ensure(2).putChar((Character) v);
+            } else if (v instanceof CharSequence && !(v instanceof Spanned)) {
+                put(ValueCodec.STRING).putString(v.toString());
+            } else if (v instanceof String[]) {
+                final String[] array = (String[]) v;
+                put(ValueCodec.STRING_ARRAY).putInt(array.length);
+                for (String item : array) {
+                    putString(item);
+                }
+            } else if (v instanceof CharSequence[] && !ValueCodec.hasSpans((CharSequence[]) v)) {
+                final CharSequence[] array = (CharSequence[]) v;
+                put(ValueCodec.CHAR_SEQUENCE_ARRAY).putInt(array.length);
+                for (CharSequence item : array) {
+                    putString(item != null ? item.toString() : null);
+                }
+            } else if (ParcelValueType.isSize(v)) {
+                writeSize(v);
+            } else if (ParcelValueType.isSizeF(v)) {
+                writeSizeF(v);
+            } else if (ParcelValueType.of(v) == ParcelValueType.SERIALIZABLE) {
+                final byte[] bytes = serialize((Serializable) v);
+                put(SERIALIZABLE).putInt(bytes.length);
+                putBytes(bytes);
+            } else {
+                final byte[] parcelled = ValueCodec.marshall(v);
+                if (parcelled == null) {
+                    throw new IllegalArgumentException(key + ": " + v.getClass().getName()
+                            + " holds a Binder or file descriptor and can't be persisted");
+                }
+                put(ValueCodec.PARCELLED).putInt(parcelled.length);
+                putBytes(parcelled);
+            }
+        }
+
+        private void putString(String value) throws IOException {
+            if (value == null) {
+                putInt(-1);
+                return;
+            }
+            final int length = value.length();
+            putInt(length);
+            for (int i = 0; i < length; i++) {
+                ensure(2).putChar(value.charAt(i));
+            }
+        }
+
+        private void putBytes(byte[] bytes) throws IOException {
+            for (int i = 0; i < bytes.length; ) {
+                final int chunk = Math.min(ensure(1).remaining(), bytes.length - i);
+                buffer.put(bytes, i, chunk);
+                i += chunk;
+            }
+        }
+
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private void writeSize(Object v) throws IOException {
+            final Size size = (Size) v;
+            put(ValueCodec.SIZE).putInt(size.getWidth()).putInt(size.getHeight());
+        }
+
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        private void writeSizeF(Object v) throws IOException {
+            final SizeF size = (SizeF) v;
+            put(ValueCodec.SIZE_F);
+            ensure(8).putFloat(size.getWidth()).putFloat(size.getHeight());
+        }
+
+    }
+
+}
@@ -0,0 +1,144 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Marshals a Bundle through a real {@link Parcel} and records bytes and write/read time,
+ * for the whole Bundle and for every top-level key.
+ *
+ * <p>Byte counts are only meaningful on a device: Robolectric's {@code ShadowParcel}
+ * does not reproduce the native layout.</p>
+ */
+public final class MarshalHarness {
+
+    public static final long KB = 1024;
+
+    /**
+     * 50 KB, 500 KB and the ~1 MB binder transaction buffer.
+     */
+    public static final long[] DEFAULT_BUDGETS = {50 * KB, 500 * KB, 1024 * KB};
+
+    private final long[] budgets;
+
+    public MarshalHarness() {
+        this(DEFAULT_BUDGETS);
+    }
+
+    public MarshalHarness(long... budgets) {
+        this.budgets = budgets.clone();
+        Arrays.sort(this.budgets);
+    }
+
+    public MarshalReport measure(Bundle bundle) {
+        final ClassLoader loader = bundle.getClassLoader() != null
+                ? bundle.getClassLoader()
+                : MarshalHarness.class.getClassLoader();
+
+        final int bytes;
+        final long writeNanos;
+        final long readNanos;
+        {
+            final Parcel parcel = Parcel.obtain();
+            try {
+                final long start = System.nanoTime();
+                bundle.writeToParcel(parcel, 0);
+                final long written = System.nanoTime();
+                bytes = parcel.dataSize();
+
+                parcel.setDataPosition(0);
+                final long readStart = System.nanoTime();
+                final Bundle read = parcel.readBundle(loader);
+                read.size(); // Bundle is unparcelled lazily
+                final long readEnd = System.nanoTime();
+
+                writeNanos = written - start;
+                readNanos = readEnd - readStart;
+            } finally {
+                parcel.recycle();
+            }
+        }
+
+        final List<MarshalReport.Entry> entries = new ArrayList<>(bundle.size());
+        for (String key : bundle.keySet()) {
+            entries.add(measure(key, bundle.get(key), loader));
+        }
+        Collections.sort(entries, new Comparator<MarshalReport.Entry>() {
+            @Override
+            public int compare(MarshalReport.Entry o1, MarshalReport.Entry o2) {
+                return o1.bytes != o2.bytes
+                        ? (o1.bytes < o2.bytes ? 1 : -1)
+                        : o1.key.compareTo(o2.key);
+            }
+        });
+
+        return new MarshalReport(bytes, writeNanos, readNanos, entries, budgets);
+    }
+
+    private static MarshalReport.Entry measure(String key, Object value, ClassLoader loader) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            final long start = System.nanoTime();
+            writeKey(parcel, key);
+            parcel.writeValue(value);
+            final long written = System.nanoTime();
+            final int bytes = parcel.dataSize();
+
+            parcel.setDataPosition(0);
+            final long readStart = System.nanoTime();
+            readKey(parcel, loader);
+            parcel.readValue(loader);
+            final long readEnd = System.nanoTime();
+
+            return new MarshalReport.Entry(
+                    key, ParcelValueType.of(value), bytes, written - start, readEnd - readStart
+            );
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    /**
+     * Keys are {@code writeString} since the ArrayMap based Bundle (API 21),
+     * and were {@code writeValue} (tag + string) before that.
+     */
+    private static void writeKey(Parcel parcel, String key) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            parcel.writeString(key);
+        } else {
+            parcel.writeValue(key);
+        }
+    }
+
+    private static void readKey(Parcel parcel, ClassLoader loader) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            parcel.readString();
+        } else {
+            parcel.readValue(loader);
+        }
+    }
+
+}
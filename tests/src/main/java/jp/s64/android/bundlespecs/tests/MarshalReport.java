@@ -0,0 +1,108 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Result of {@link MarshalHarness#measure(android.os.Bundle)}.
+ */
+public final class MarshalReport {
+
+    public static final class Entry {
+
+        public final String key;
+        public final ParcelValueType type;
+        public final int bytes;
+        public final long writeNanos;
+        public final long readNanos;
+
+        Entry(String key, ParcelValueType type, int bytes, long writeNanos, long readNanos) {
+            this.key = key;
+            this.type = type;
+            this.bytes = bytes;
+            this.writeNanos = writeNanos;
+            this.readNanos = readNanos;
+        }
+
+    }
+
+    /**
+     * Size of the whole {@code Bundle#writeToParcel} output, headers included.
+     */
+    public final int bytes;
+    public final long writeNanos;
+    public final long readNanos;
+
+    /**
+     * One entry per top-level key, heaviest first.
+     */
+    public final List<Entry> entries;
+
+    private final long[] budgets;
+
+    MarshalReport(int bytes, long writeNanos, long readNanos, List<Entry> entries, long[] budgets) {
+        this.bytes = bytes;
+        this.writeNanos = writeNanos;
+        this.readNanos = readNanos;
+        this.entries = Collections.unmodifiableList(entries);
+        this.budgets = budgets.clone();
+    }
+
+    public boolean exceeds(long budget) {
+        return bytes > budget;
+    }
+
+    /**
+     * @return the configured budgets this Bundle crosses, smallest first.
+     */
+    public List<Long> exceededBudgets() {
+        final List<Long> ret = new ArrayList<>();
+        for (long budget : budgets) {
+            if (exceeds(budget)) {
+                ret.add(budget);
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder ret = new StringBuilder();
+        {
+            ret.append(String.format(Locale.US,
+                    "%,d bytes, write %,d ns, read %,d ns", bytes, writeNanos, readNanos
+            ));
+            for (long budget : budgets) {
+                ret.append(String.format(Locale.US,
+                        "%n  budget %,d bytes: %s", budget, exceeds(budget) ? "EXCEEDED" : "ok"
+                ));
+            }
+            for (Entry entry : entries) {
+                ret.append(String.format(Locale.US,
+                        "%n  %-24s %-20s %,12d bytes %,12d ns %,12d ns",
+                        entry.key, entry.type, entry.bytes, entry.writeNanos, entry.readNanos
+                ));
+            }
+        }
+        return ret.toString();
+    }
+
+}
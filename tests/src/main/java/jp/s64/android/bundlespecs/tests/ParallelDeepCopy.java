@@ -0,0 +1,240 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Bundle;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * {@code Bundle#deepCopy()} that copies independent subtrees on a {@link ForkJoinPool}.
+ *
+ * <p>The result is what {@link BundleCopies} (and {@code deepCopy()}) gives: nested Bundles,
+ * PersistableBundles and ArrayLists are copied, primitive and {@code Object[]} arrays cloned,
+ * Binders, Serializables, other Parcelables, SparseArrays and {@code boolean[]} shared. 🚨</p>
+ *
+ * <p>Work is measured in entries, list elements and 64-element slices of arrays, and a tree
+ * lighter than {@code threshold} never leaves the calling thread. Inside a heavier one, a nested
+ * Bundle or ArrayList becomes its own task while the worker has few queued tasks nobody stole
+ * ({@code ForkJoinTask#getSurplusQueuedTaskCount()}), and is copied inline otherwise; sizing
+ * every subtree up front would cost a walk of the tree per level. The tree must not be mutated
+ * while it is copied. {@code ForkJoinPool} is API 21; below that, or without
+ * a pool, this is the sequential copy.</p>
+ */
+public final class ParallelDeepCopy {
+
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    private static final int ARRAY_SLICE = 64;
+    private static final int MAX_SURPLUS = 3;
+
+    private final ForkJoinPool pool;
+    private final int threshold;
+
+    /**
+     * Uses a pool as wide as {@code Runtime#availableProcessors()}, created on first use.
+     */
+    public ParallelDeepCopy() {
+        this(null, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param pool      runs the subtrees; {@code null} for the shared default pool.
+     * @param threshold work below which the whole tree is copied on the calling thread.
+     */
+    public ParallelDeepCopy(ForkJoinPool pool, int threshold) {
+        if (threshold < 0) {
+            throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+        }
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+    public Bundle deepCopy(Bundle bundle) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP || work(bundle, threshold) <= threshold) {
+            return (Bundle) copy(bundle);
+        }
+        return parallelDeepCopy(bundle);
+    }
+
+    /**
+     * Sequential copy. From API 26 a Bundle is the platform's own {@code deepCopy()}, which walks
+     * the map by index; before that it starts as a shallow {@code new Bundle(from)}, one array copy
+     * of its map, and only the values that {@link BundleCopies#isCopied(Object)} are put again.
+     */
+    @TargetApi(Build.VERSION_CODES.O)
+    static Object copy(Object value) {
+        if (value instanceof Bundle) {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+                return ((Bundle) value).deepCopy();
+            }
+            final Bundle from = (Bundle) value;
+            final Bundle ret = new Bundle(from);
+            for (String key : from.keySet()) {
+                final Object item = from.get(key);
+                if (BundleCopies.isCopied(item)) {
+                    BundleValues.put(ret, key, copy(item));
+                }
+            }
+            return ret;
+        } else if (value instanceof ArrayList) {
+            final ArrayList<?> from = (ArrayList<?>) value;
+            final int size = from.size();
+            final ArrayList<Object> ret = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                ret.add(copy(from.get(i)));
+            }
+            return ret;
+        }
+        return BundleCopies.deepCopyValue(value);
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private Bundle parallelDeepCopy(Bundle bundle) {
+        final ForkJoinPool pool = this.pool != null ? this.pool : DefaultPool.INSTANCE;
+        return (Bundle) pool.invoke(new CopyTask(bundle));
+    }
+
+    /**
+     * @return work of copying {@code value}, counted up to just past {@code limit}.
+     */
+    static int work(Object value, int limit) {
+        if (value instanceof Bundle) {
+            final Bundle bundle = (Bundle) value;
+            int ret = bundle.size();
+            for (String key : bundle.keySet()) {
+                if (ret > limit) {
+                    break;
+                }
+                ret += work(bundle.get(key), limit - ret);
+            }
+            return ret;
+        } else if (value instanceof ArrayList) {
+            final ArrayList<?> list = (ArrayList<?>) value;
+            int ret = list.size();
+            for (int i = 0, size = list.size(); i < size && ret <= limit; i++) {
+                ret += work(list.get(i), limit - ret);
+            }
+            return ret;
+        } else if (value != null && value.getClass().isArray() && BundleCopies.isCopied(value)) {
+            return Array.getLength(value) / ARRAY_SLICE;
+        }
+        return 0;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static final class CopyTask extends RecursiveTask<Object> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Object value;
+
+        CopyTask(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        protected Object compute() {
+            if (value instanceof Bundle) {
+                return copyBundle((Bundle) value);
+            }
+            return copyList((ArrayList<?>) value);
+        }
+
+        private Bundle copyBundle(Bundle from) {
+            final Bundle ret = new Bundle(from);
+
+            List<String> forkedKeys = null;
+            List<ForkJoinTask<Object>> forked = null;
+            for (String key : from.keySet()) {
+                final Object value = from.get(key);
+                if (!BundleCopies.isCopied(value)) {
+                    continue;
+                }
+                if (isHeavy(value)) {
+                    if (forked == null) {
+                        forkedKeys = new ArrayList<>();
+                        forked = new ArrayList<>();
+                    }
+                    forkedKeys.add(key);
+                    forked.add(new CopyTask(value).fork());
+                } else {
+                    BundleValues.put(ret, key, copy(value));
+                }
+            }
+            if (forked != null) {
+                // newest first, so this thread runs what nobody has stolen yet
+                for (int i = forked.size() - 1; i >= 0; i--) {
+                    BundleValues.put(ret, forkedKeys.get(i), forked.get(i).join());
+                }
+            }
+            return ret;
+        }
+
+        private ArrayList<Object> copyList(ArrayList<?> from) {
+            final int size = from.size();
+            final ArrayList<Object> ret = new ArrayList<>(size);
+            int[] forkedIndices = null;
+            List<ForkJoinTask<Object>> forked = null;
+            for (int i = 0; i < size; i++) {
+                final Object value = from.get(i);
+                if (isHeavy(value)) {
+                    if (forked == null) {
+                        forkedIndices = new int[size];
+                        forked = new ArrayList<>();
+                    }
+                    forkedIndices[forked.size()] = i;
+                    forked.add(new CopyTask(value).fork());
+                    ret.add(null);
+                } else {
+                    ret.add(copy(value));
+                }
+            }
+            if (forked != null) {
+                for (int i = forked.size() - 1; i >= 0; i--) {
+                    ret.set(forkedIndices[i], forked.get(i).join());
+                }
+            }
+            return ret;
+        }
+
+        private boolean isHeavy(Object value) {
+            if (value instanceof Bundle) {
+                return !((Bundle) value).isEmpty() && getSurplusQueuedTaskCount() <= MAX_SURPLUS;
+            } else if (value instanceof ArrayList) {
+                return !((ArrayList<?>) value).isEmpty() && getSurplusQueuedTaskCount() <= MAX_SURPLUS;
+            }
+            return false;
+        }
+
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static final class DefaultPool {
+
+        static final ForkJoinPool INSTANCE = new ForkJoinPool();
+
+    }
+
+}
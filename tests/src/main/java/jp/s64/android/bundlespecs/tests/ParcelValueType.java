@@ -0,0 +1,154 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Build;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Parcelable;
+import android.os.PersistableBundle;
+import android.util.Size;
+import android.util.SizeF;
+import android.util.SparseArray;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@code VAL_*} tag {@code Parcel#writeValue(Object)} picks for a value.
+ *
+ * <p>{@link #of(Object)} follows the same {@code instanceof} order as the platform,
+ * so e.g. a {@code float[]} resolves to {@link #SERIALIZABLE} 🚨 and a
+ * {@code Boolean} to {@link #BOOLEAN} although it is {@code Serializable}.</p>
+ */
+public enum ParcelValueType {
+
+    NULL(-1),
+    STRING(0),
+    INTEGER(1),
+    MAP(2),
+    BUNDLE(3),
+    PARCELABLE(4),
+    SHORT(5),
+    LONG(6),
+    FLOAT(7),
+    DOUBLE(8),
+    BOOLEAN(9),
+    CHAR_SEQUENCE(10),
+    LIST(11),
+    SPARSE_ARRAY(12),
+    BYTE_ARRAY(13),
+    STRING_ARRAY(14),
+    IBINDER(15),
+    PARCELABLE_ARRAY(16),
+    OBJECT_ARRAY(17),
+    INT_ARRAY(18),
+    LONG_ARRAY(19),
+    BYTE(20),
+    SERIALIZABLE(21),
+    SPARSE_BOOLEAN_ARRAY(22),
+    BOOLEAN_ARRAY(23),
+    CHAR_SEQUENCE_ARRAY(24),
+    PERSISTABLE_BUNDLE(25),
+    SIZE(26),
+    SIZE_F(27),
+    DOUBLE_ARRAY(28),
+    ;
+
+    public final int tag;
+
+    ParcelValueType(int tag) {
+        this.tag = tag;
+    }
+
+    public static ParcelValueType of(Object v) {
+        if (v == null) {
+            return NULL;
+        } else if (v instanceof String) {
+            return STRING;
+        } else if (v instanceof Integer) {
+            return INTEGER;
+        } else if (v instanceof Map) {
+            return MAP;
+        } else if (v instanceof Bundle) {
+            return BUNDLE;
+        } else if (isPersistableBundle(v)) {
+            return PERSISTABLE_BUNDLE;
+        } else if (v instanceof Parcelable) {
+            return PARCELABLE;
+        } else if (v instanceof Short) {
+            return SHORT;
+        } else if (v instanceof Long) {
+            return LONG;
+        } else if (v instanceof Float) {
+            return FLOAT;
+        } else if (v instanceof Double) {
+            return DOUBLE;
+        } else if (v instanceof Boolean) {
+            return BOOLEAN;
+        } else if (v instanceof CharSequence) {
+            return CHAR_SEQUENCE;
+        } else if (v instanceof List) {
+            return LIST;
+        } else if (v instanceof SparseArray) {
+            return SPARSE_ARRAY;
+        } else if (v instanceof boolean[]) {
+            return BOOLEAN_ARRAY;
+        } else if (v instanceof byte[]) {
+            return BYTE_ARRAY;
+        } else if (v instanceof String[]) {
+            return STRING_ARRAY;
+        } else if (v instanceof CharSequence[]) {
+            return CHAR_SEQUENCE_ARRAY;
+        } else if (v instanceof IBinder) {
+            return IBINDER;
+        } else if (v instanceof Parcelable[]) {
+            return PARCELABLE_ARRAY;
+        } else if (v instanceof int[]) {
+            return INT_ARRAY;
+        } else if (v instanceof long[]) {
+            return LONG_ARRAY;
+        } else if (v instanceof Byte) {
+            return BYTE;
+        } else if (isSize(v)) {
+            return SIZE;
+        } else if (isSizeF(v)) {
+            return SIZE_F;
+        } else if (v instanceof double[]) {
+            return DOUBLE_ARRAY;
+        } else if (v.getClass().isArray() && v.getClass().getComponentType() == Object.class) {
+            return OBJECT_ARRAY;
+        } else if (v instanceof Serializable) {
+            return SERIALIZABLE;
+        }
+        throw new IllegalArgumentException("Parcel: unable to marshal value " + v);
+    }
+
+    static boolean isPersistableBundle(Object v) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && v instanceof PersistableBundle;
+    }
+
+    static boolean isSize(Object v) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && v instanceof Size;
+    }
+
+    static boolean isSizeF(Object v) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP && v instanceof SizeF;
+    }
+
+}
@@ -0,0 +1,273 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.BadParcelableException;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Parcel format for lists of one Parcelable class: the class name is written once instead of
+ * once per element, and its {@code CREATOR} is looked up once per class and loader.
+ *
+ * <pre>
+ * int size (-1 for null)
+ * String className, null if the list mixes classes or holds only nulls
+ * homogeneous: int hasNulls, size x { [int present if hasNulls] element#writeToParcel }
+ * otherwise:   size x Parcel#writeParcelable
+ * </pre>
+ *
+ * <p>{@code Bundle#putParcelableArrayList} writes every element with {@code writeParcelable}, so
+ * a list of 1,000 Intents carries {@code "android.content.Intent"} 1,000 times. Mixed lists such
+ * as {@code { new Bundle(), new Intent() }} fall back to exactly that. Elements come back as a
+ * Parcel round trip makes them: by the {@code CREATOR} that {@code getField} finds on their class.</p>
+ *
+ * <p>To ship a list inside a Bundle, wrap it in {@link Packed}.</p>
+ */
+public final class ParcelableListCodec {
+
+    private static final Map<ClassLoader, Map<String, Parcelable.Creator<?>>> CREATORS = new WeakHashMap<>();
+
+    private ParcelableListCodec() {
+    }
+
+    public static void writeList(List<? extends Parcelable> list, Parcel dest, int flags) {
+        if (list == null) {
+            dest.writeInt(-1);
+            return;
+        }
+        final int size = list.size();
+        dest.writeInt(size);
+        if (size == 0) {
+            return;
+        }
+        final Class<?> type = commonClass(list);
+        if (type == null) {
+            dest.writeString(null);
+            for (int i = 0; i < size; i++) {
+                dest.writeParcelable(list.get(i), flags);
+            }
+            return;
+        }
+        dest.writeString(type.getName());
+        final boolean hasNulls = list.contains(null);
+        dest.writeInt(hasNulls ? 1 : 0);
+        for (int i = 0; i < size; i++) {
+            final Parcelable item = list.get(i);
+            if (hasNulls) {
+                dest.writeInt(item != null ? 1 : 0);
+            }
+            if (item != null) {
+                item.writeToParcel(dest, flags);
+            }
+        }
+    }
+
+    public static void writeArray(Parcelable[] array, Parcel dest, int flags) {
+        writeList(array != null ? Arrays.asList(array) : null, dest, flags);
+    }
+
+    /**
+     * @param loader finds the element class; {@code null} for the loader of this class.
+     * @throws BadParcelableException if the element class or its {@code CREATOR} can't be found.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Parcelable> ArrayList<T> readList(Parcel source, ClassLoader loader) {
+        final int size = source.readInt();
+        if (size < 0) {
+            return null;
+        }
+        final ArrayList<T> ret = new ArrayList<>(size);
+        if (size == 0) {
+            return ret;
+        }
+        final String name = source.readString();
+        if (name == null) {
+            for (int i = 0; i < size; i++) {
+                ret.add((T) source.readParcelable(loader));
+            }
+            return ret;
+        }
+        if (loader == null) {
+            loader = ParcelableListCodec.class.getClassLoader();
+        }
+        final Parcelable.Creator<?> creator = creator(name, loader);
+        final Parcelable.ClassLoaderCreator<?> withLoader = creator instanceof Parcelable.ClassLoaderCreator
+                ? (Parcelable.ClassLoaderCreator<?>) creator
+                : null;
+        final boolean hasNulls = source.readInt() != 0;
+        for (int i = 0; i < size; i++) {
+            if (hasNulls && source.readInt() == 0) {
+                ret.add(null);
+            } else if (withLoader != null) {
+                ret.add((T) withLoader.createFromParcel(source, loader));
+            } else {
+                ret.add((T) creator.createFromParcel(source));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @return a {@code Parcelable[]}, as {@code Bundle#getParcelableArray} returns.
+     */
+    public static Parcelable[] readArray(Parcel source, ClassLoader loader) {
+        final ArrayList<Parcelable> list = readList(source, loader);
+        return list != null ? list.toArray(new Parcelable[list.size()]) : null;
+    }
+
+    /**
+     * @return the class of every non-null element, or {@code null} if they differ or there are none.
+     */
+    static Class<?> commonClass(List<? extends Parcelable> list) {
+        Class<?> ret = null;
+        for (int i = 0, size = list.size(); i < size; i++) {
+            final Parcelable item = list.get(i);
+            if (item == null) {
+                continue;
+            }
+            if (ret == null) {
+                ret = item.getClass();
+            } else if (ret != item.getClass()) {
+                return null;
+            }
+        }
+        return ret;
+    }
+
+    static Parcelable.Creator<?> creator(String name, ClassLoader loader) {
+        synchronized (CREATORS) {
+            Map<String, Parcelable.Creator<?>> creators = CREATORS.get(loader);
+            if (creators == null) {
+                creators = new HashMap<>();
+                CREATORS.put(loader, creators);
+            }
+            Parcelable.Creator<?> ret = creators.get(name);
+            if (ret == null) {
+                ret = lookUpCreator(name, loader);
+                creators.put(name, ret);
+            }
+            return ret;
+        }
+    }
+
+    private static Parcelable.Creator<?> lookUpCreator(String name, ClassLoader loader) {
+        try {
+            final Class<?> type = Class.forName(name, false, loader);
+            if (!Parcelable.class.isAssignableFrom(type)) {
+                throw new BadParcelableException(name + " is not Parcelable");
+            }
+            final Field field = type.getField("CREATOR");
+            if (!Modifier.isStatic(field.getModifiers())
+                    || !Parcelable.Creator.class.isAssignableFrom(field.getType())) {
+                throw new BadParcelableException("CREATOR of " + name + " is not a static Parcelable.Creator");
+            }
+            final Parcelable.Creator<?> ret = (Parcelable.Creator<?>) field.get(null);
+            if (ret == null) {
+                throw new BadParcelableException("CREATOR of " + name + " is null");
+            }
+            return ret;
+        } catch (ClassNotFoundException e) {
+            throw new BadParcelableException(e);
+        } catch (NoSuchFieldException e) {
+            throw new BadParcelableException("Parcelable protocol requires a CREATOR on " + name);
+        } catch (IllegalAccessException e) {
+            throw new BadParcelableException(e);
+        }
+    }
+
+    /**
+     * A list that goes through a Bundle (or an Intent) in {@link ParcelableListCodec}'s format.
+     * Like any Parcelable value, it is shared, not copied, by {@code Bundle#deepCopy()}.
+     */
+    public static final class Packed<T extends Parcelable> implements Parcelable {
+
+        private final ArrayList<T> list;
+
+        private Packed(ArrayList<T> list) {
+            this.list = list;
+        }
+
+        /**
+         * @return a wrapper around a copy of {@code list}.
+         */
+        public static <T extends Parcelable> Packed<T> of(List<? extends T> list) {
+            return new Packed<>(new ArrayList<T>(list));
+        }
+
+        public static Packed<Parcelable> of(Parcelable[] array) {
+            return of(Arrays.asList(array));
+        }
+
+        /**
+         * @return the elements; changing the list changes what is written next.
+         */
+        public ArrayList<T> list() {
+            return list;
+        }
+
+        public Parcelable[] toArray() {
+            return list.toArray(new Parcelable[list.size()]);
+        }
+
+        @Override
+        public int describeContents() {
+            int ret = 0;
+            for (int i = 0, size = list.size(); i < size; i++) {
+                final T item = list.get(i);
+                ret |= item != null ? item.describeContents() : 0;
+            }
+            return ret;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            writeList(list, dest, flags);
+        }
+
+        @SuppressWarnings("rawtypes")
+        public static final Creator<Packed> CREATOR = new ClassLoaderCreator<Packed>() {
+
+            @Override
+            public Packed createFromParcel(Parcel source, ClassLoader loader) {
+                return new Packed<>(ParcelableListCodec.<Parcelable>readList(source, loader));
+            }
+
+            @Override
+            public Packed createFromParcel(Parcel source) {
+                return createFromParcel(source, null);
+            }
+
+            @Override
+            public Packed[] newArray(int size) {
+                return new Packed[size];
+            }
+
+        };
+
+    }
+
+}
@@ -0,0 +1,374 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@code SparseArray<Parcelable>} replacement for per-position state: sorted {@code int[]} keys,
+ * values in a parallel array, with bulk insert, range queries, value equality and a compact Parcel form.
+ *
+ * <pre>
+ * int size
+ * int DENSE, int firstKey          if the keys are firstKey, firstKey + 1, ...
+ * int SPARSE, size x int key       otherwise
+ * values in ParcelableListCodec's format
+ * </pre>
+ *
+ * <p>{@code putSparseParcelableArray} writes a {@code VAL_PARCELABLE} tag and the class name
+ * next to every value; here contiguous keys cost 8 bytes in total and a list of one class names
+ * it once. Convert with {@link #from(SparseArray)} and {@link #toSparseArray()} at the boundary
+ * to APIs that want a real SparseArray.</p>
+ *
+ * <p>Like SparseArray, not thread-safe, and {@code Bundle#deepCopy()} shares it.</p>
+ */
+public final class ParcelableSparseArray<T extends Parcelable> implements Parcelable {
+
+    static final int SPARSE = 0;
+    static final int DENSE = 1;
+
+    private static final int[] EMPTY_KEYS = new int[0];
+    private static final Object[] EMPTY_VALUES = new Object[0];
+
+    private int[] keys;
+    private Object[] values;
+    private int size;
+
+    public ParcelableSparseArray() {
+        this(0);
+    }
+
+    public ParcelableSparseArray(int capacity) {
+        keys = capacity > 0 ? new int[capacity] : EMPTY_KEYS;
+        values = capacity > 0 ? new Object[capacity] : EMPTY_VALUES;
+    }
+
+    /**
+     * Copies {@code array}, whose keys are already sorted, without searching.
+     */
+    public static <T extends Parcelable> ParcelableSparseArray<T> from(SparseArray<? extends T> array) {
+        final int size = array.size();
+        final ParcelableSparseArray<T> ret = new ParcelableSparseArray<>(size);
+        for (int i = 0; i < size; i++) {
+            ret.keys[i] = array.keyAt(i);
+            ret.values[i] = array.valueAt(i);
+        }
+        ret.size = size;
+        return ret;
+    }
+
+    public SparseArray<T> toSparseArray() {
+        final SparseArray<T> ret = new SparseArray<>(size);
+        for (int i = 0; i < size; i++) {
+            ret.append(keys[i], valueAt(i));
+        }
+        return ret;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int keyAt(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T valueAt(int index) {
+        checkIndex(index);
+        return (T) values[index];
+    }
+
+    /**
+     * @return the index of {@code key}, or a negative number as {@link Arrays#binarySearch(int[], int)} gives.
+     */
+    public int indexOfKey(int key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    public T get(int key) {
+        return get(key, null);
+    }
+
+    public T get(int key, T valueIfKeyNotFound) {
+        final int index = indexOfKey(key);
+        return index >= 0 ? valueAt(index) : valueIfKeyNotFound;
+    }
+
+    /**
+     * Appends in O(1) when {@code key} is greater than every key so far.
+     */
+    public void put(int key, T value) {
+        if (size == 0 || key > keys[size - 1]) {
+            ensureCapacity(size + 1);
+            keys[size] = key;
+            values[size] = value;
+            size++;
+            return;
+        }
+        final int index = indexOfKey(key);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+        final int insert = ~index;
+        ensureCapacity(size + 1);
+        System.arraycopy(keys, insert, keys, insert + 1, size - insert);
+        System.arraycopy(values, insert, values, insert + 1, size - insert);
+        keys[insert] = key;
+        values[insert] = value;
+        size++;
+    }
+
+    public void putAll(int[] keys, T[] values) {
+        putAll(keys, values, keys.length);
+    }
+
+    /**
+     * Puts {@code count} pairs. Keys in ascending order are merged in one pass; otherwise
+     * this is one {@link #put(int, Parcelable)} per pair. Later pairs win over existing keys.
+     */
+    public void putAll(int[] keys, T[] values, int count) {
+        if (count > keys.length || count > values.length) {
+            throw new IllegalArgumentException("count " + count + " exceeds the arrays");
+        }
+        for (int i = 1; i < count; i++) {
+            if (keys[i] <= keys[i - 1]) {
+                for (int j = 0; j < count; j++) {
+                    put(keys[j], values[j]);
+                }
+                return;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        if (size == 0 || keys[0] > this.keys[size - 1]) {
+            ensureCapacity(size + count);
+            System.arraycopy(keys, 0, this.keys, size, count);
+            System.arraycopy(values, 0, this.values, size, count);
+            size += count;
+            return;
+        }
+        merge(keys, values, count);
+    }
+
+    public void remove(int key) {
+        final int index = indexOfKey(key);
+        if (index >= 0) {
+            removeAt(index);
+        }
+    }
+
+    public void removeAt(int index) {
+        checkIndex(index);
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        values[--size] = null;
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * @return the index of the first key at or after {@code key}; {@link #size()} if there is none.
+     */
+    public int ceilingIndex(int key) {
+        final int index = indexOfKey(key);
+        return index >= 0 ? index : ~index;
+    }
+
+    /**
+     * @return the pairs with {@code fromKey <= key < toKey}, sharing the values.
+     */
+    public ParcelableSparseArray<T> range(int fromKey, int toKey) {
+        final int from = ceilingIndex(fromKey);
+        final int to = Math.max(from, ceilingIndex(toKey));
+        final ParcelableSparseArray<T> ret = new ParcelableSparseArray<>(to - from);
+        System.arraycopy(keys, from, ret.keys, 0, to - from);
+        System.arraycopy(values, from, ret.values, 0, to - from);
+        ret.size = to - from;
+        return ret;
+    }
+
+    /**
+     * @return whether the keys are {@code k, k + 1, ..., k + size - 1}, written without keys.
+     */
+    public boolean isDense() {
+        return size > 0 && (long) keys[size - 1] - keys[0] == size - 1;
+    }
+
+    /**
+     * Same keys, and values equal as in {@link BundleEquality#valueEquals(Object, Object)}.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ParcelableSparseArray)) {
+            return false;
+        }
+        final ParcelableSparseArray<?> other = (ParcelableSparseArray<?>) o;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (keys[i] != other.keys[i] || !BundleEquality.valueEquals(values[i], other.values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        long ret = size;
+        for (int i = 0; i < size; i++) {
+            ret = ret * 31 + keys[i];
+            ret = ret * 31 + BundleEquality.valueHash64(values[i]);
+        }
+        return (int) (ret ^ (ret >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder ret = new StringBuilder(size * 16).append('{');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                ret.append(", ");
+            }
+            ret.append(keys[i]).append('=').append(values[i]);
+        }
+        return ret.append('}').toString();
+    }
+
+    @Override
+    public int describeContents() {
+        int ret = 0;
+        for (int i = 0; i < size; i++) {
+            ret |= values[i] != null ? ((Parcelable) values[i]).describeContents() : 0;
+        }
+        return ret;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeInt(size);
+        if (size == 0) {
+            return;
+        }
+        if (isDense()) {
+            dest.writeInt(DENSE);
+            dest.writeInt(keys[0]);
+        } else {
+            dest.writeInt(SPARSE);
+            for (int i = 0; i < size; i++) {
+                dest.writeInt(keys[i]);
+            }
+        }
+        ParcelableListCodec.writeList((List<Parcelable>) (List<?>) Arrays.asList(values).subList(0, size), dest, flags);
+    }
+
+    @SuppressWarnings("rawtypes")
+    public static final Creator<ParcelableSparseArray> CREATOR = new ClassLoaderCreator<ParcelableSparseArray>() {
+
+        @Override
+        public ParcelableSparseArray createFromParcel(Parcel source, ClassLoader loader) {
+            final int size = source.readInt();
+            final ParcelableSparseArray<Parcelable> ret = new ParcelableSparseArray<>(size);
+            if (size == 0) {
+                return ret;
+            }
+            if (source.readInt() == DENSE) {
+                final int first = source.readInt();
+                for (int i = 0; i < size; i++) {
+                    ret.keys[i] = first + i;
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    ret.keys[i] = source.readInt();
+                }
+            }
+            final List<Parcelable> values = ParcelableListCodec.readList(source, loader);
+            if (values.size() != size) {
+                throw new IllegalStateException("expected " + size + " values but was " + values.size());
+            }
+            values.toArray(ret.values);
+            ret.size = size;
+            return ret;
+        }
+
+        @Override
+        public ParcelableSparseArray createFromParcel(Parcel source) {
+            return createFromParcel(source, null);
+        }
+
+        @Override
+        public ParcelableSparseArray[] newArray(int size) {
+            return new ParcelableSparseArray[size];
+        }
+
+    };
+
+    private void merge(int[] keys, Object[] values, int count) {
+        final int[] newKeys = new int[Math.max(size + count, this.keys.length)];
+        final Object[] newValues = new Object[newKeys.length];
+        int i = 0;
+        int j = 0;
+        int n = 0;
+        while (i < size || j < count) {
+            if (j == count || (i < size && this.keys[i] < keys[j])) {
+                newKeys[n] = this.keys[i];
+                newValues[n++] = this.values[i++];
+            } else {
+                if (i < size && this.keys[i] == keys[j]) {
+                    i++;
+                }
+                newKeys[n] = keys[j];
+                newValues[n++] = values[j++];
+            }
+        }
+        this.keys = newKeys;
+        this.values = newValues;
+        this.size = n;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > keys.length) {
+            final int newCapacity = Math.max(capacity, keys.length <= 4 ? 8 : keys.length * 2);
+            keys = Arrays.copyOf(keys, newCapacity);
+            values = Arrays.copyOf(values, newCapacity);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+
+}
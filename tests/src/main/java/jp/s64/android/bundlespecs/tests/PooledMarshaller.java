@@ -0,0 +1,199 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import android.os.Bundle;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Marshals Bundles into reusable direct {@link ByteBuffer}s instead of a fresh {@code Parcel}
+ * and the {@code byte[]} of {@code Parcel#marshall()} per call.
+ *
+ * <pre>
+ * int magic 'PMSH', int version
+ * bundle: int count, count x { key, value }
+ * </pre>
+ *
+ * <p>Keys and values are encoded by {@link ValueCodec} and read back as after a Parcel round
+ * trip; a value that is itself a Bundle is written as a nested bundle rather than through a
+ * Parcel. Parcelables and Serializables still go through {@code Parcel#writeValue}, and Binders
+ * and file descriptors can't be marshalled at all, as with {@code Parcel#marshall()}.</p>
+ *
+ * <p>{@link #marshal(Bundle, ByteBuffer)} writes into a caller's buffer. {@link #marshal(Bundle)}
+ * takes one from a {@link DirectBufferPool}, sized from the Bundles marshalled so far: the size
+ * hint follows larger Bundles at once and smaller ones by an eighth of the gap per call, so a
+ * steady stream of similar Bundles gets a buffer that fits on the first try. Buffers are read
+ * and written through {@code duplicate()}s, so the caller's byte order is left alone. It is
+ * thread-safe.</p>
+ */
+public final class PooledMarshaller {
+
+    static final int MAGIC = 0x504D5348; // 'P' 'M' 'S' 'H'
+    static final int VERSION = 1;
+
+    /**
+     * Follows {@link ValueCodec}'s tags.
+     */
+    static final byte BUNDLE = 64;
+
+    private static final int HEADER_SIZE = 4 * 2;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private final DirectBufferPool pool;
+
+    private volatile int sizeHint;
+
+    public PooledMarshaller() {
+        this(DirectBufferPool.DEFAULT);
+    }
+
+    public PooledMarshaller(DirectBufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Writes {@code bundle} at {@code dst}'s position and moves it past the written bytes.
+     *
+     * @return bytes written.
+     * @throws BufferOverflowException  if it doesn't fit; {@code dst}'s position is unchanged, but
+     *                                  its content past the position is undefined.
+     * @throws IllegalArgumentException if a value holds a Binder or a file descriptor; the same
+     *                                  goes for {@code dst}.
+     */
+    public int marshal(Bundle bundle, ByteBuffer dst) {
+        final ByteBuffer out = dst.duplicate();
+        final int start = out.position();
+        final BufferWriter writer = new BufferWriter(out);
+        final List<Object> objects = new ArrayList<>(0);
+        {
+            writer.putInt(MAGIC).putInt(VERSION);
+            writeBundle(writer, bundle, objects);
+        }
+        final int size = out.position() - start;
+        dst.position(out.position());
+        record(size);
+        return size;
+    }
+
+    /**
+     * @return a pooled direct buffer holding {@code bundle} between position 0 and its limit;
+     * give it back with {@link #release(ByteBuffer)} once it has been consumed.
+     * @throws IllegalArgumentException if a value holds a Binder or a file descriptor.
+     */
+    public ByteBuffer marshal(Bundle bundle) {
+        // the pool rounds up to a power of two, which is headroom enough
+        int capacity = Math.max(HEADER_SIZE + 4, sizeHint);
+        while (true) {
+            final ByteBuffer ret = pool.acquire(capacity);
+            try {
+                marshal(bundle, ret);
+                ret.flip();
+                return ret;
+            } catch (BufferOverflowException e) {
+                pool.release(ret);
+                if (ret.capacity() >= MAX_CAPACITY) {
+                    throw e;
+                }
+                capacity = ret.capacity() * 2;
+            } catch (RuntimeException e) {
+                pool.release(ret);
+                throw e;
+            }
+        }
+    }
+
+    public void release(ByteBuffer buffer) {
+        pool.release(buffer);
+    }
+
+    /**
+     * Reads a Bundle at {@code src}'s position, with this class's loader for Parcelables, and
+     * moves it past the read bytes.
+     */
+    public Bundle unmarshal(ByteBuffer src) {
+        return unmarshal(src, PooledMarshaller.class.getClassLoader());
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code src} wasn't written by {@link #marshal(Bundle, ByteBuffer)}.
+     */
+    public Bundle unmarshal(ByteBuffer src, ClassLoader loader) {
+        final ByteBuffer in = src.duplicate();
+        if (in.remaining() < HEADER_SIZE || in.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a PooledMarshaller buffer");
+        }
+        final int version = in.getInt();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported PooledMarshaller version " + version);
+        }
+        final Bundle ret = readBundle(in, loader);
+        src.position(in.position());
+        return ret;
+    }
+
+    /**
+     * @return the size the next pooled buffer is chosen for.
+     */
+    public int sizeHint() {
+        return sizeHint;
+    }
+
+    private void record(int size) {
+        // racing updates may lose one observation; the next call corrects it
+        final int hint = sizeHint;
+        sizeHint = size >= hint ? size : hint - ((hint - size) >> 3);
+    }
+
+    private static void writeBundle(BufferWriter out, Bundle bundle, List<Object> objects) {
+        out.putInt(bundle.size());
+        for (String key : bundle.keySet()) {
+            final Object value = bundle.get(key);
+            out.putString(key);
+            if (value instanceof Bundle) {
+                out.put(BUNDLE);
+                writeBundle(out, (Bundle) value, objects);
+                continue;
+            }
+            ValueCodec.write(out, value, objects);
+            if (!objects.isEmpty()) {
+                throw new IllegalArgumentException(key + " holds a Binder or a file descriptor, which can't be marshalled");
+            }
+        }
+    }
+
+    private static Bundle readBundle(ByteBuffer in, ClassLoader loader) {
+        final int count = in.getInt();
+        final Bundle ret = new Bundle(count);
+        {
+            ret.setClassLoader(loader);
+            for (int i = 0; i < count; i++) {
+                final String key = ValueCodec.readString(in);
+                if (in.get(in.position()) == BUNDLE) {
+                    in.get();
+                    ret.putBundle(key, readBundle(in, loader));
+                } else {
+                    BundleValues.put(ret, key, ValueCodec.read(in, null, loader));
+                }
+            }
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,528 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reusable Bundle builder that keeps primitives unboxed.
+ *
+ * <p>A platform Bundle stores everything in an {@code ArrayMap<String, Object>}, so every
+ * {@code putInt} boxes. Here keys are ids from a shared {@link Keys} table and values live in
+ * parallel arrays (a type tag and 64 raw bits per entry), so that putting, reading and
+ * {@link #clear() reusing} allocate nothing once the arrays have grown. {@code ArrayList<Integer>}
+ * payloads are kept as an {@code int[]} ({@link #addInt(int, int)}). A real {@link Bundle} is
+ * only built by {@link #toBundle()}.</p>
+ *
+ * <p>Typed getters keep Bundle semantics: {@code getInt} of a key put with {@code putLong}
+ * answers the default. Not thread-safe.</p>
+ */
+public final class PrimitiveBundle extends BundleLike {
+
+    /**
+     * Interned key table shared by every PrimitiveBundle of one schema; thread-safe.
+     */
+    public static final class Keys {
+
+        private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+        private volatile String[] names = new String[0];
+
+        public int id(String name) {
+            final Integer ret = ids.get(name);
+            return ret != null ? ret : intern(name);
+        }
+
+        public String name(int id) {
+            return names[id];
+        }
+
+        public int size() {
+            return names.length;
+        }
+
+        /**
+         * @return the id of {@code name}, or {@code -1} without interning it.
+         */
+        int find(String name) {
+            final Integer ret = ids.get(name);
+            return ret != null ? ret : -1;
+        }
+
+        private synchronized int intern(String name) {
+            final Integer existing = ids.get(name);
+            if (existing != null) {
+                return existing;
+            }
+            final int id = names.length;
+            final String[] newNames = Arrays.copyOf(names, id + 1);
+            newNames[id] = name;
+            names = newNames;
+            ids.put(name, id);
+            return id;
+        }
+
+    }
+
+    private static final byte BOOLEAN = 1;
+    private static final byte BYTE = 2;
+    private static final byte CHAR = 3;
+    private static final byte SHORT = 4;
+    private static final byte INT = 5;
+    private static final byte LONG = 6;
+    private static final byte FLOAT = 7;
+    private static final byte DOUBLE = 8;
+    private static final byte INT_LIST = 9;
+    private static final byte OBJECT = 10;
+
+    private final Keys keys;
+
+    private int[] slotOfKey;
+    private int[] keyOfSlot;
+    private byte[] types;
+    private long[] bits;
+    private Object[] objects;
+    private int size;
+
+    private IntList[] intListPool = new IntList[4];
+    private int intListPoolSize;
+
+    public PrimitiveBundle(Keys keys) {
+        this(keys, 8);
+    }
+
+    public PrimitiveBundle(Keys keys, int capacity) {
+        this.keys = keys;
+        this.slotOfKey = new int[Math.max(keys.size(), capacity)];
+        Arrays.fill(slotOfKey, -1);
+        this.keyOfSlot = new int[capacity];
+        this.types = new byte[capacity];
+        this.bits = new long[capacity];
+        this.objects = new Object[capacity];
+    }
+
+    public Keys keys() {
+        return keys;
+    }
+
+    /**
+     * Empties this builder and keeps every array (and int list) for the next use.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            slotOfKey[keyOfSlot[i]] = -1;
+            recycle(i);
+        }
+        size = 0;
+    }
+
+    public PrimitiveBundle putBoolean(int key, boolean value) {
+        return putBits(key, BOOLEAN, value ? 1 : 0);
+    }
+
+    public PrimitiveBundle putByte(int key, byte value) {
+        return putBits(key, BYTE, value);
+    }
+
+    public PrimitiveBundle putChar(int key, char value) {
+        return putBits(key, CHAR, value);
+    }
+
+    public PrimitiveBundle putShort(int key, short value) {
+        return putBits(key, SHORT, value);
+    }
+
+    public PrimitiveBundle putInt(int key, int value) {
+        return putBits(key, INT, value);
+    }
+
+    public PrimitiveBundle putLong(int key, long value) {
+        return putBits(key, LONG, value);
+    }
+
+    public PrimitiveBundle putFloat(int key, float value) {
+        return putBits(key, FLOAT, Float.floatToRawIntBits(value));
+    }
+
+    public PrimitiveBundle putDouble(int key, double value) {
+        return putBits(key, DOUBLE, Double.doubleToRawLongBits(value));
+    }
+
+    /**
+     * Appends to the {@code ArrayList<Integer>} at {@code key} without boxing, creating it if needed.
+     */
+    public PrimitiveBundle addInt(int key, int value) {
+        int slot = slotOf(key);
+        if (slot < 0 || types[slot] != INT_LIST) {
+            slot = slot < 0 ? append(key) : slot;
+            recycle(slot);
+            types[slot] = INT_LIST;
+            objects[slot] = obtainIntList();
+        }
+        ((IntList) objects[slot]).add(value);
+        return this;
+    }
+
+    /**
+     * Unboxes {@code value} into the int list path; {@code null} elements are not representable.
+     */
+    public PrimitiveBundle putIntegerArrayList(int key, List<Integer> value) {
+        remove(key);
+        final int slot = append(key);
+        types[slot] = INT_LIST;
+        final IntList list = obtainIntList();
+        for (int i = 0, size = value.size(); i < size; i++) {
+            list.add(value.get(i));
+        }
+        objects[slot] = list;
+        return this;
+    }
+
+    /**
+     * Stores any other Bundle value as a reference.
+     */
+    public PrimitiveBundle putObject(int key, Object value) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            slot = append(key);
+        } else {
+            recycle(slot);
+        }
+        types[slot] = OBJECT;
+        objects[slot] = value;
+        return this;
+    }
+
+    public PrimitiveBundle remove(int key) {
+        final int slot = slotOf(key);
+        if (slot < 0) {
+            return this;
+        }
+        recycle(slot);
+        final int last = size - 1;
+        if (slot != last) {
+            keyOfSlot[slot] = keyOfSlot[last];
+            types[slot] = types[last];
+            bits[slot] = bits[last];
+            objects[slot] = objects[last];
+            slotOfKey[keyOfSlot[slot]] = slot;
+        }
+        types[last] = 0;
+        objects[last] = null;
+        slotOfKey[key] = -1;
+        size = last;
+        return this;
+    }
+
+    public boolean getBoolean(int key, boolean defaultValue) {
+        final int slot = slotOf(key);
+        return slot >= 0 && types[slot] == BOOLEAN ? bits[slot] != 0 : defaultValue;
+    }
+
+    public byte getByte(int key, byte defaultValue) {
+        final int slot = slotOf(key);
+        return slot >= 0 && types[slot] == BYTE ? (byte) bits[slot] : defaultValue;
+    }
+
+    public char getChar(int key, char defaultValue) {
+        final int slot = slotOf(key);
+        return slot >= 0 && types[slot] == CHAR ? (char) bits[slot] : defaultValue;
+    }
+
+    public short getShort(int key, short defaultValue) {
+        final int slot = slotOf(key);
+        return slot >= 0 && types[slot] == SHORT ? (short) bits[slot] : defaultValue;
+    }
+
+    public int getInt(int key, int defaultValue) {
+        final int slot = slotOf(key);
+        return slot >= 0 && types[slot] == INT ? (int) bits[slot] : defaultValue;
+    }
+
+    public long getLong(int key, long defaultValue) {
+        final int slot = slotOf(key);
+        return slot >= 0 && types[slot] == LONG ? bits[slot] : defaultValue;
+    }
+
+    public float getFloat(int key, float defaultValue) {
+        final int slot = slotOf(key);
+        return slot >= 0 && types[slot] == FLOAT ? Float.intBitsToFloat((int) bits[slot]) : defaultValue;
+    }
+
+    public double getDouble(int key, double defaultValue) {
+        final int slot = slotOf(key);
+        return slot >= 0 && types[slot] == DOUBLE ? Double.longBitsToDouble(bits[slot]) : defaultValue;
+    }
+
+    /**
+     * @return number of elements of the int list at {@code key}, or {@code -1} if there is none.
+     */
+    public int intListSize(int key) {
+        final int slot = slotOf(key);
+        return slot >= 0 && types[slot] == INT_LIST ? ((IntList) objects[slot]).size : -1;
+    }
+
+    public int intListGet(int key, int index) {
+        final int slot = slotOf(key);
+        if (slot < 0 || types[slot] != INT_LIST) {
+            throw new IllegalArgumentException(keys.name(key) + " is not an int list");
+        }
+        final IntList list = (IntList) objects[slot];
+        if (index >= list.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + list.size);
+        }
+        return list.values[index];
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defaultValue) {
+        final int id = keys.find(key);
+        return id >= 0 ? getBoolean(id, defaultValue) : defaultValue;
+    }
+
+    @Override
+    public Byte getByte(String key, byte defaultValue) {
+        final int id = keys.find(key);
+        return id >= 0 ? getByte(id, defaultValue) : defaultValue;
+    }
+
+    @Override
+    public char getChar(String key, char defaultValue) {
+        final int id = keys.find(key);
+        return id >= 0 ? getChar(id, defaultValue) : defaultValue;
+    }
+
+    @Override
+    public short getShort(String key, short defaultValue) {
+        final int id = keys.find(key);
+        return id >= 0 ? getShort(id, defaultValue) : defaultValue;
+    }
+
+    @Override
+    public int getInt(String key, int defaultValue) {
+        final int id = keys.find(key);
+        return id >= 0 ? getInt(id, defaultValue) : defaultValue;
+    }
+
+    @Override
+    public long getLong(String key, long defaultValue) {
+        final int id = keys.find(key);
+        return id >= 0 ? getLong(id, defaultValue) : defaultValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defaultValue) {
+        final int id = keys.find(key);
+        return id >= 0 ? getFloat(id, defaultValue) : defaultValue;
+    }
+
+    @Override
+    public double getDouble(String key, double defaultValue) {
+        final int id = keys.find(key);
+        return id >= 0 ? getDouble(id, defaultValue) : defaultValue;
+    }
+
+    /**
+     * Boxes the value as the platform Bundle would hold it.
+     */
+    @Override
+    public Object get(String key) {
+        final int id = keys.find(key);
+        final int slot = id >= 0 ? slotOf(id) : -1;
+        return slot >= 0 ? valueAt(slot) : null;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        final int id = keys.find(key);
+        return id >= 0 && slotOf(id) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        final Set<String> ret = new LinkedHashSet<>(size);
+        for (int i = 0; i < size; i++) {
+            ret.add(keys.name(keyOfSlot[i]));
+        }
+        return Collections.unmodifiableSet(ret);
+    }
+
+    @Override
+    public Bundle toBundle() {
+        final Bundle ret = new Bundle(size);
+        writeTo(ret);
+        return ret;
+    }
+
+    /**
+     * Puts every entry into {@code out}; primitives are boxed here and nowhere else.
+     */
+    public void writeTo(Bundle out) {
+        for (int i = 0; i < size; i++) {
+            final String key = keys.name(keyOfSlot[i]);
+            switch (types[i]) {
+                case BOOLEAN:
+                    out.putBoolean(key, bits[i] != 0);
+                    break;
+                case BYTE:
+                    out.putByte(key, (byte) bits[i]);
+                    break;
+                case CHAR:
+                    out.putChar(key, (char) bits[i]);
+                    break;
+                case SHORT:
+                    out.putShort(key, (short) bits[i]);
+                    break;
+                case INT:
+                    out.putInt(key, (int) bits[i]);
+                    break;
+                case LONG:
+                    out.putLong(key, bits[i]);
+                    break;
+                case FLOAT:
+                    out.putFloat(key, Float.intBitsToFloat((int) bits[i]));
+                    break;
+                case DOUBLE:
+                    out.putDouble(key, Double.longBitsToDouble(bits[i]));
+                    break;
+                case INT_LIST:
+                    out.putIntegerArrayList(key, ((IntList) objects[i]).toArrayList());
+                    break;
+                default:
+                    BundleValues.put(out, key, objects[i]);
+                    break;
+            }
+        }
+    }
+
+    private Object valueAt(int slot) {
+        switch (types[slot]) {
+            case BOOLEAN:
+                return bits[slot] != 0;
+            case BYTE:
+                return (byte) bits[slot];
+            case CHAR:
+                return (char) bits[slot];
+            case SHORT:
+                return (short) bits[slot];
+            case INT:
+                return (int) bits[slot];
+            case LONG:
+                return bits[slot];
+            case FLOAT:
+                return Float.intBitsToFloat((int) bits[slot]);
+            case DOUBLE:
+                return Double.longBitsToDouble(bits[slot]);
+            case INT_LIST:
+                return ((IntList) objects[slot]).toArrayList();
+            default:
+                return objects[slot];
+        }
+    }
+
+    private PrimitiveBundle putBits(int key, byte type, long value) {
+        int slot = slotOf(key);
+        if (slot < 0) {
+            slot = append(key);
+        } else {
+            recycle(slot);
+        }
+        types[slot] = type;
+        bits[slot] = value;
+        return this;
+    }
+
+    private int slotOf(int key) {
+        return key < slotOfKey.length ? slotOfKey[key] : -1;
+    }
+
+    private int append(int key) {
+        if (key >= slotOfKey.length) {
+            final int oldLength = slotOfKey.length;
+            slotOfKey = Arrays.copyOf(slotOfKey, Math.max(key + 1, oldLength * 2));
+            Arrays.fill(slotOfKey, oldLength, slotOfKey.length, -1);
+        }
+        if (size == types.length) {
+            final int capacity = Math.max(8, size * 2);
+            keyOfSlot = Arrays.copyOf(keyOfSlot, capacity);
+            types = Arrays.copyOf(types, capacity);
+            bits = Arrays.copyOf(bits, capacity);
+            objects = Arrays.copyOf(objects, capacity);
+        }
+        final int slot = size++;
+        keyOfSlot[slot] = key;
+        slotOfKey[key] = slot;
+        return slot;
+    }
+
+    private void recycle(int slot) {
+        if (types[slot] == INT_LIST) {
+            final IntList list = (IntList) objects[slot];
+            list.size = 0;
+            if (intListPoolSize == intListPool.length) {
+                intListPool = Arrays.copyOf(intListPool, intListPoolSize * 2);
+            }
+            intListPool[intListPoolSize++] = list;
+        }
+        types[slot] = 0;
+        objects[slot] = null;
+    }
+
+    private IntList obtainIntList() {
+        if (intListPoolSize > 0) {
+            final IntList ret = intListPool[--intListPoolSize];
+            intListPool[intListPoolSize] = null;
+            return ret;
+        }
+        return new IntList();
+    }
+
+    private static final class IntList {
+
+        int[] values = new int[8];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        ArrayList<Integer> toArrayList() {
+            final ArrayList<Integer> ret = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                ret.add(values[i]);
+            }
+            return ret;
+        }
+
+    }
+
+}
@@ -0,0 +1,530 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Finds the values {@code Parcel#writeValue} hands to {@code ObjectOutputStream}, and rewrites
+ * the ones it has an {@link Adapter} for into values the Parcel writes natively.
+ *
+ * <p>Being {@code Serializable} is not what sends a value there: {@link ParcelValueType#of(Object)}
+ * gives Strings, Booleans and {@code ArrayList<String>} (the 🚨 of {@code testSerializableTypeCheck},
+ * {@code testBooleanTypeCheck} and {@code testStringArrayListTypeCheck}) tags of their own. What
+ * does reach {@code writeSerializable} is whatever has no tag: {@code char}, {@code short[]},
+ * {@code char[]}, {@code float[]}, enums, Sets and app classes, at any depth. Each pays for its
+ * class name, a stream header and class descriptors, plus a reflective walk on both sides.</p>
+ *
+ * <p>A rewritten value becomes a one-entry Bundle under {@code "\0" + id} holding the adapter's
+ * encoding. The receiver gets the original types back from {@link #restore(Bundle)}, with the same
+ * adapters registered; plain getters see the marker Bundle. Values inside other Parcelables, which
+ * may call {@code writeSerializable} themselves, and Map keys are not visited.</p>
+ *
+ * <p>Register adapters before sharing an instance between threads.</p>
+ */
+public final class SerializableRewriter {
+
+    /**
+     * Converts a Serializable type to and from a value with its own {@link ParcelValueType}.
+     */
+    public interface Adapter<T> {
+
+        /**
+         * @return a natively parcelled value, or {@code null} to leave {@code value} Serializable.
+         */
+        Object encode(T value);
+
+        T decode(Object encoded);
+
+    }
+
+    /**
+     * A value that {@code Parcel#writeValue} would serialize.
+     */
+    public static final class Finding {
+
+        /**
+         * Keys from the root Bundle joined by {@code /}, with {@code [index]} for List, array and
+         * SparseArray elements and {@code [key]} for Map values.
+         */
+        public final String path;
+
+        public final Class<?> type;
+
+        /**
+         * Id of the adapter {@link #rewrite(Bundle)} would use, or {@code null}.
+         */
+        public final String adapter;
+
+        Finding(String path, Class<?> type, String adapter) {
+            this.path = path;
+            this.type = type;
+            this.adapter = adapter;
+        }
+
+        @Override
+        public String toString() {
+            return path + ": " + type.getName() + (adapter != null ? " -> " + adapter : "");
+        }
+
+    }
+
+    static final String MARKER = "\0";
+
+    private static final class Registration {
+
+        final String id;
+        final String key;
+        final Adapter<Object> adapter;
+
+        Registration(String id, Adapter<Object> adapter) {
+            this.id = id;
+            this.key = MARKER + id;
+            this.adapter = adapter;
+        }
+
+    }
+
+    private final Map<Class<?>, Registration> byType = new HashMap<>();
+    private final Map<String, Registration> byId = new HashMap<>();
+
+    /**
+     * Has adapters for {@code char}, {@code short[]}, {@code char[]}, {@code float[]} and
+     * {@code HashSet}/{@code LinkedHashSet} of Strings.
+     */
+    public SerializableRewriter() {
+        register("char", Character.class, new Adapter<Character>() {
+            @Override
+            public Object encode(Character value) {
+                return (int) value;
+            }
+
+            @Override
+            public Character decode(Object encoded) {
+                return (char) (int) (Integer) encoded;
+            }
+        });
+        register("short[]", short[].class, new Adapter<short[]>() {
+            /**
+             * Two per int after the length, as compact as the serialized stream.
+             */
+            @Override
+            public Object encode(short[] value) {
+                final int[] ret = new int[1 + (value.length + 1) / 2];
+                ret[0] = value.length;
+                for (int i = 0; i < value.length; i++) {
+                    ret[1 + i / 2] |= (value[i] & 0xFFFF) << ((i & 1) * 16);
+                }
+                return ret;
+            }
+
+            @Override
+            public short[] decode(Object encoded) {
+                final int[] from = (int[]) encoded;
+                final short[] ret = new short[from[0]];
+                for (int i = 0; i < ret.length; i++) {
+                    ret[i] = (short) (from[1 + i / 2] >>> ((i & 1) * 16));
+                }
+                return ret;
+            }
+        });
+        register("char[]", char[].class, new Adapter<char[]>() {
+            @Override
+            public Object encode(char[] value) {
+                return new String(value);
+            }
+
+            @Override
+            public char[] decode(Object encoded) {
+                return ((String) encoded).toCharArray();
+            }
+        });
+        register("float[]", float[].class, new Adapter<float[]>() {
+            @Override
+            public Object encode(float[] value) {
+                final int[] ret = new int[value.length];
+                for (int i = 0; i < value.length; i++) {
+                    ret[i] = Float.floatToRawIntBits(value[i]);
+                }
+                return ret;
+            }
+
+            @Override
+            public float[] decode(Object encoded) {
+                final int[] from = (int[]) encoded;
+                final float[] ret = new float[from.length];
+                for (int i = 0; i < from.length; i++) {
+                    ret[i] = Float.intBitsToFloat(from[i]);
+                }
+                return ret;
+            }
+        });
+        register("HashSet<String>", SerializableRewriter.<HashSet<String>>setType(HashSet.class), new Adapter<HashSet<String>>() {
+            @Override
+            public Object encode(HashSet<String> value) {
+                return stringArrayOf(value);
+            }
+
+            @Override
+            public HashSet<String> decode(Object encoded) {
+                return new HashSet<>(Arrays.asList((String[]) encoded));
+            }
+        });
+        register("LinkedHashSet<String>", SerializableRewriter.<LinkedHashSet<String>>setType(LinkedHashSet.class), new Adapter<LinkedHashSet<String>>() {
+            @Override
+            public Object encode(LinkedHashSet<String> value) {
+                return stringArrayOf(value);
+            }
+
+            @Override
+            public LinkedHashSet<String> decode(Object encoded) {
+                return new LinkedHashSet<>(Arrays.asList((String[]) encoded));
+            }
+        });
+    }
+
+    /**
+     * Class literals can't carry {@code <String>}. The cast is safe as far as these adapters go:
+     * they match sets of any element type and {@code stringArrayOf} leaves other sets Serializable.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Class<T> setType(Class<? super T> type) {
+        return (Class<T>) type;
+    }
+
+    /**
+     * Registers an adapter for exactly {@code type} (subclasses are not matched, but enum
+     * constants with a body are). {@code id} goes over the wire, so keep it short and stable.
+     *
+     * @throws IllegalArgumentException if {@code id} or {@code type} is already registered.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> SerializableRewriter register(String id, Class<T> type, Adapter<T> adapter) {
+        if (byId.containsKey(id) || byType.containsKey(type)) {
+            throw new IllegalArgumentException("Already registered: " + id + ", " + type.getName());
+        }
+        final Registration registration = new Registration(id, (Adapter<Object>) adapter);
+        byId.put(id, registration);
+        byType.put(type, registration);
+        return this;
+    }
+
+    /**
+     * Encodes an enum by {@code name()}, which survives reordering the constants between the
+     * version that saved a state and the one restoring it.
+     */
+    public static <E extends Enum<E>> Adapter<E> enumAdapter(final Class<E> type) {
+        return new Adapter<E>() {
+            @Override
+            public Object encode(E value) {
+                return value.name();
+            }
+
+            @Override
+            public E decode(Object encoded) {
+                return Enum.valueOf(type, (String) encoded);
+            }
+        };
+    }
+
+    /**
+     * @return every value of the tree that would be serialized, depth first in key order.
+     */
+    public List<Finding> scan(Bundle bundle) {
+        final List<Finding> ret = new ArrayList<>();
+        for (String key : bundle.keySet()) {
+            scanValue(key, bundle.get(key), ret);
+        }
+        return ret;
+    }
+
+    /**
+     * @return {@code bundle} with every adapted value replaced; containers on the way to a
+     * replaced value are copied, everything else is shared. {@code bundle} itself if nothing changed.
+     */
+    public Bundle rewrite(Bundle bundle) {
+        return rewriteBundle(bundle);
+    }
+
+    /**
+     * Undoes {@link #rewrite(Bundle)} on the receiving side.
+     *
+     * @throws IllegalArgumentException if a marker names an adapter that isn't registered here.
+     */
+    public Bundle restore(Bundle bundle) {
+        return (Bundle) restoreValue(bundle);
+    }
+
+    private void scanValue(String path, Object v, List<Finding> out) {
+        switch (ParcelValueType.of(v)) {
+            case SERIALIZABLE: {
+                final Registration registration = byType.get(typeOf(v));
+                out.add(new Finding(path, typeOf(v), registration != null ? registration.id : null));
+                break;
+            }
+            case BUNDLE: {
+                final Bundle bundle = (Bundle) v;
+                for (String key : bundle.keySet()) {
+                    scanValue(path + "/" + key, bundle.get(key), out);
+                }
+                break;
+            }
+            case MAP:
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) v).entrySet()) {
+                    scanValue(path + "[" + entry.getKey() + "]", entry.getValue(), out);
+                }
+                break;
+            case LIST: {
+                final List<?> list = (List<?>) v;
+                for (int i = 0, size = list.size(); i < size; i++) {
+                    scanValue(path + "[" + i + "]", list.get(i), out);
+                }
+                break;
+            }
+            case OBJECT_ARRAY:
+            case PARCELABLE_ARRAY: {
+                final Object[] array = (Object[]) v;
+                for (int i = 0; i < array.length; i++) {
+                    scanValue(path + "[" + i + "]", array[i], out);
+                }
+                break;
+            }
+            case SPARSE_ARRAY: {
+                final SparseArray<?> array = (SparseArray<?>) v;
+                for (int i = 0, size = array.size(); i < size; i++) {
+                    scanValue(path + "[" + array.keyAt(i) + "]", array.valueAt(i), out);
+                }
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    private Object rewriteValue(Object v) {
+        switch (ParcelValueType.of(v)) {
+            case SERIALIZABLE: {
+                final Registration registration = byType.get(typeOf(v));
+                final Object encoded = registration != null ? registration.adapter.encode(v) : null;
+                if (encoded == null) {
+                    return v;
+                }
+                final Bundle ret = new Bundle(1);
+                BundleValues.put(ret, registration.key, encoded);
+                return ret;
+            }
+            case BUNDLE:
+                return rewriteBundle((Bundle) v);
+            case MAP: {
+                final Map<?, ?> map = (Map<?, ?>) v;
+                Map<Object, Object> ret = null;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    final Object value = rewriteValue(entry.getValue());
+                    if (value != entry.getValue()) {
+                        if (ret == null) {
+                            ret = new HashMap<Object, Object>(map);
+                        }
+                        ret.put(entry.getKey(), value);
+                    }
+                }
+                return ret != null ? ret : v;
+            }
+            case LIST: {
+                final List<?> list = (List<?>) v;
+                ArrayList<Object> ret = null;
+                for (int i = 0, size = list.size(); i < size; i++) {
+                    final Object value = rewriteValue(list.get(i));
+                    if (value != list.get(i)) {
+                        if (ret == null) {
+                            ret = new ArrayList<Object>(list);
+                        }
+                        ret.set(i, value);
+                    }
+                }
+                return ret != null ? ret : v;
+            }
+            case OBJECT_ARRAY:
+            case PARCELABLE_ARRAY: {
+                // a Parcelable[] only ever gets Bundles back, so the clone keeps its component type
+                final Object[] array = (Object[]) v;
+                Object[] ret = null;
+                for (int i = 0; i < array.length; i++) {
+                    final Object value = rewriteValue(array[i]);
+                    if (value != array[i]) {
+                        if (ret == null) {
+                            ret = array.clone();
+                        }
+                        ret[i] = value;
+                    }
+                }
+                return ret != null ? ret : v;
+            }
+            case SPARSE_ARRAY: {
+                final SparseArray<?> array = (SparseArray<?>) v;
+                SparseArray<Object> ret = null;
+                for (int i = 0, size = array.size(); i < size; i++) {
+                    final Object value = rewriteValue(array.valueAt(i));
+                    if (value != array.valueAt(i)) {
+                        if (ret == null) {
+                            ret = copyOf(array);
+                        }
+                        ret.setValueAt(i, value);
+                    }
+                }
+                return ret != null ? ret : v;
+            }
+            default:
+                return v;
+        }
+    }
+
+    private Bundle rewriteBundle(Bundle bundle) {
+        Bundle ret = null;
+        for (String key : bundle.keySet()) {
+            final Object value = bundle.get(key);
+            final Object rewritten = rewriteValue(value);
+            if (rewritten != value) {
+                if (ret == null) {
+                    ret = new Bundle(bundle);
+                }
+                BundleValues.put(ret, key, rewritten);
+            }
+        }
+        return ret != null ? ret : bundle;
+    }
+
+    private Object restoreValue(Object v) {
+        if (v instanceof Bundle) {
+            final Bundle bundle = (Bundle) v;
+            final Set<String> keys = bundle.keySet();
+            if (keys.size() == 1) {
+                final String key = keys.iterator().next();
+                if (key.startsWith(MARKER)) {
+                    final Registration registration = byId.get(key.substring(MARKER.length()));
+                    if (registration == null) {
+                        throw new IllegalArgumentException("No adapter registered for " + key.substring(MARKER.length()));
+                    }
+                    return registration.adapter.decode(bundle.get(key));
+                }
+            }
+            Bundle ret = null;
+            for (String key : keys) {
+                final Object value = bundle.get(key);
+                final Object restored = restoreValue(value);
+                if (restored != value) {
+                    if (ret == null) {
+                        ret = new Bundle(bundle);
+                    }
+                    BundleValues.put(ret, key, restored);
+                }
+            }
+            return ret != null ? ret : bundle;
+        } else if (v instanceof Map) {
+            final Map<?, ?> map = (Map<?, ?>) v;
+            Map<Object, Object> ret = null;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                final Object value = restoreValue(entry.getValue());
+                if (value != entry.getValue()) {
+                    if (ret == null) {
+                        ret = new HashMap<Object, Object>(map);
+                    }
+                    ret.put(entry.getKey(), value);
+                }
+            }
+            return ret != null ? ret : v;
+        } else if (v instanceof List) {
+            final List<?> list = (List<?>) v;
+            ArrayList<Object> ret = null;
+            for (int i = 0, size = list.size(); i < size; i++) {
+                final Object value = restoreValue(list.get(i));
+                if (value != list.get(i)) {
+                    if (ret == null) {
+                        ret = new ArrayList<Object>(list);
+                    }
+                    ret.set(i, value);
+                }
+            }
+            return ret != null ? ret : v;
+        } else if (v instanceof Object[]) {
+            final Object[] array = (Object[]) v;
+            Object[] ret = null;
+            for (int i = 0; i < array.length; i++) {
+                final Object value = restoreValue(array[i]);
+                if (value != array[i]) {
+                    if (ret == null) {
+                        ret = array.clone();
+                    }
+                    ret[i] = value;
+                }
+            }
+            return ret != null ? ret : v;
+        } else if (v instanceof SparseArray) {
+            final SparseArray<?> array = (SparseArray<?>) v;
+            SparseArray<Object> ret = null;
+            for (int i = 0, size = array.size(); i < size; i++) {
+                final Object value = restoreValue(array.valueAt(i));
+                if (value != array.valueAt(i)) {
+                    if (ret == null) {
+                        ret = copyOf(array);
+                    }
+                    ret.setValueAt(i, value);
+                }
+            }
+            return ret != null ? ret : v;
+        }
+        return v;
+    }
+
+    private static Class<?> typeOf(Object v) {
+        return v instanceof Enum ? ((Enum<?>) v).getDeclaringClass() : v.getClass();
+    }
+
+    /**
+     * @return the elements as a {@code String[]}, or {@code null} if one isn't a String.
+     */
+    private static String[] stringArrayOf(Collection<?> value) {
+        final String[] ret = new String[value.size()];
+        int i = 0;
+        for (Object element : value) {
+            if (element != null && !(element instanceof String)) {
+                return null;
+            }
+            ret[i++] = (String) element;
+        }
+        return ret;
+    }
+
+    private static SparseArray<Object> copyOf(SparseArray<?> from) {
+        final SparseArray<Object> ret = new SparseArray<>(from.size());
+        for (int i = 0, size = from.size(); i < size; i++) {
+            ret.append(from.keyAt(i), from.valueAt(i));
+        }
+        return ret;
+    }
+
+}
@@ -0,0 +1,108 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+import java.util.ArrayDeque;
+
+/**
+ * Buffers in power-of-two size classes, behind {@link ByteArrayPool} and {@link DirectBufferPool}.
+ *
+ * <p>Keeps at most {@code maxPerClass} buffers per class and none larger than {@code maxBufferSize}.
+ * It is thread-safe.</p>
+ */
+final class SizeClassPool<T> {
+
+    private static final int MIN_CLASS = 10; // 1 KB
+
+    private final int maxPerClass;
+    private final ArrayDeque<T>[] classes;
+
+    private long hits;
+    private long misses;
+
+    SizeClassPool(int maxPerClass, int maxBufferSize) {
+        if (maxPerClass < 0 || maxBufferSize <= 0) {
+            throw new IllegalArgumentException("maxPerClass " + maxPerClass + ", maxBufferSize " + maxBufferSize);
+        }
+        this.maxPerClass = maxPerClass;
+        @SuppressWarnings("unchecked")
+        final ArrayDeque<T>[] classes = (ArrayDeque<T>[]) new ArrayDeque<?>[sizeClass(maxBufferSize) + 1];
+        this.classes = classes;
+        for (int i = 0; i < classes.length; i++) {
+            classes[i] = new ArrayDeque<>(maxPerClass);
+        }
+    }
+
+    /**
+     * @return a pooled buffer of {@code minSize}'s class, or {@code null}: then allocate {@link #capacity(int)}.
+     */
+    T poll(int minSize) {
+        final int sizeClass = sizeClass(minSize);
+        if (sizeClass >= classes.length) {
+            return null;
+        }
+        synchronized (this) {
+            final T ret = classes[sizeClass].pollLast();
+            if (ret != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Keeps {@code buffer} unless its class is full or {@code capacity} isn't one of the classes.
+     */
+    void offer(T buffer, int capacity) {
+        final int sizeClass = sizeClass(capacity);
+        if (sizeClass >= classes.length || capacity != 1 << sizeClass) {
+            return;
+        }
+        synchronized (this) {
+            if (classes[sizeClass].size() < maxPerClass) {
+                classes[sizeClass].addLast(buffer);
+            }
+        }
+    }
+
+    synchronized long hitCount() {
+        return hits;
+    }
+
+    synchronized long missCount() {
+        return misses;
+    }
+
+    synchronized void clear() {
+        for (ArrayDeque<T> buffers : classes) {
+            buffers.clear();
+        }
+    }
+
+    /**
+     * @return the capacity to allocate for {@code minSize}: its class, or {@code minSize} past 1 GB.
+     */
+    static int capacity(int minSize) {
+        return Math.max(1 << Math.min(sizeClass(minSize), 30), minSize);
+    }
+
+    private static int sizeClass(int size) {
+        return size <= 1 << MIN_CLASS ? MIN_CLASS : 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+}
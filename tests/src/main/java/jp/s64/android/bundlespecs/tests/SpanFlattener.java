@@ -0,0 +1,477 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.text.ParcelableSpan;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.TextUtils;
+import android.text.style.CharacterStyle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Opt-in stage that slims {@code Spanned} text down before it goes into a Parcel.
+ *
+ * <p>{@code TextUtils#writeToParcel} writes every {@code ParcelableSpan} with its type, its fields
+ * and its range, so text styled character by character, or with the same span set twice, costs far
+ * more than its characters. This stage:</p>
+ * <ul>
+ * <li>drops spans outside the {@link #keep(Class[])} whitelist (by default every span a Parcel keeps:
+ * ParcelableSpans, also when wrapped by {@code CharacterStyle#wrap}; other spans never survive a
+ * Parcel anyway),</li>
+ * <li>drops a span with the same type, fields, range and flags as an earlier one ({@link #dedupe(boolean)}),</li>
+ * <li>merges equal {@code CharacterStyle} spans that touch or overlap into one ({@link #merge(boolean)});
+ * paragraph spans are left alone, since two bullets are not one bullet.</li>
+ * </ul>
+ *
+ * <p>Text that ends up without spans becomes a {@code String}, as a Parcel round trip would make it.
+ * Containers are copied only along the paths that changed. Pass a {@link Report} only while tuning
+ * the policy: it marshals every changed text twice to measure what was saved.</p>
+ */
+public final class SpanFlattener {
+
+    /**
+     * What {@link #flatten(Bundle, Report)} did, summed over calls until {@link #clear()}.
+     */
+    public static final class Report {
+
+        private int texts;
+        private int spansBefore;
+        private int spansAfter;
+        private long bytesBefore;
+        private long bytesAfter;
+        private long marshalNanosBefore;
+        private long marshalNanosAfter;
+        private long flattenNanos;
+
+        /**
+         * @return Spanned values seen.
+         */
+        public int texts() {
+            return texts;
+        }
+
+        public int spansBefore() {
+            return spansBefore;
+        }
+
+        public int spansAfter() {
+            return spansAfter;
+        }
+
+        /**
+         * @return bytes of {@code TextUtils#writeToParcel} of the changed texts, before and after.
+         */
+        public long bytesSaved() {
+            return bytesBefore - bytesAfter;
+        }
+
+        public long bytesBefore() {
+            return bytesBefore;
+        }
+
+        public long bytesAfter() {
+            return bytesAfter;
+        }
+
+        /**
+         * @return marshalling time saved on the changed texts, net of the time spent flattening.
+         */
+        public long nanosSaved() {
+            return marshalNanosBefore - marshalNanosAfter - flattenNanos;
+        }
+
+        public long marshalNanosBefore() {
+            return marshalNanosBefore;
+        }
+
+        public long marshalNanosAfter() {
+            return marshalNanosAfter;
+        }
+
+        public long flattenNanos() {
+            return flattenNanos;
+        }
+
+        public void clear() {
+            texts = spansBefore = spansAfter = 0;
+            bytesBefore = bytesAfter = marshalNanosBefore = marshalNanosAfter = flattenNanos = 0;
+        }
+
+        @Override
+        public String toString() {
+            return texts + " texts, " + spansBefore + " -> " + spansAfter + " spans, "
+                    + bytesBefore + " -> " + bytesAfter + " bytes, "
+                    + (marshalNanosBefore / 1000) + " -> " + (marshalNanosAfter / 1000) + " + "
+                    + (flattenNanos / 1000) + " us";
+        }
+
+    }
+
+    private List<Class<?>> whitelist;
+    private boolean dedupe = true;
+    private boolean merge = true;
+
+    /**
+     * Keeps only spans that are instances of one of {@code types}, after unwrapping
+     * {@code CharacterStyle#getUnderlying()}; no types drops every span.
+     *
+     * @return this.
+     */
+    public SpanFlattener keep(Class<?>... types) {
+        whitelist = Arrays.asList(types.clone());
+        return this;
+    }
+
+    /**
+     * @return this.
+     */
+    public SpanFlattener dedupe(boolean dedupe) {
+        this.dedupe = dedupe;
+        return this;
+    }
+
+    /**
+     * @return this.
+     */
+    public SpanFlattener merge(boolean merge) {
+        this.merge = merge;
+        return this;
+    }
+
+    /**
+     * @return {@code bundle} if nothing changed, otherwise a copy of the changed path.
+     */
+    public Bundle flatten(Bundle bundle) {
+        return flatten(bundle, null);
+    }
+
+    /**
+     * @param report receives what was saved; may be {@code null}.
+     */
+    public Bundle flatten(Bundle bundle, Report report) {
+        Bundle ret = null;
+        for (String key : bundle.keySet()) {
+            final Object value = bundle.get(key);
+            final Object flattened = flattenValue(value, report);
+            if (flattened != value) {
+                if (ret == null) {
+                    ret = new Bundle(bundle);
+                }
+                BundleValues.put(ret, key, flattened);
+            }
+        }
+        return ret != null ? ret : bundle;
+    }
+
+    /**
+     * @return {@code text} if nothing changed, a {@code String} if no span is left.
+     */
+    public CharSequence flatten(CharSequence text) {
+        return flatten(text, null);
+    }
+
+    public CharSequence flatten(CharSequence text, Report report) {
+        if (!(text instanceof Spanned)) {
+            return text;
+        }
+        final long start = System.nanoTime();
+        final Spanned spanned = (Spanned) text;
+        final Object[] spans = spanned.getSpans(0, spanned.length(), Object.class);
+        final List<Range> kept = ranges(spanned, spans);
+        final CharSequence ret;
+        if (kept.size() == spans.length) {
+            ret = text;
+        } else if (kept.isEmpty()) {
+            ret = text.toString();
+        } else {
+            final SpannableString out = new SpannableString(text.toString());
+            for (Range range : kept) {
+                out.setSpan(range.span, range.start, range.end, range.flags);
+            }
+            ret = out;
+        }
+        if (report != null) {
+            report.flattenNanos += System.nanoTime() - start;
+            report.texts++;
+            report.spansBefore += spans.length;
+            report.spansAfter += kept.size();
+            if (ret != text) {
+                measure(text, report, true);
+                measure(ret, report, false);
+            }
+        }
+        return ret;
+    }
+
+    private Object flattenValue(Object v, Report report) {
+        switch (ParcelValueType.of(v)) {
+            case CHAR_SEQUENCE:
+                return flatten((CharSequence) v, report);
+            case CHAR_SEQUENCE_ARRAY: {
+                final CharSequence[] array = (CharSequence[]) v;
+                CharSequence[] ret = null;
+                for (int i = 0; i < array.length; i++) {
+                    final CharSequence value = flatten(array[i], report);
+                    if (value != array[i]) {
+                        if (ret == null) {
+                            ret = array.clone();
+                        }
+                        ret[i] = value;
+                    }
+                }
+                return ret != null ? ret : v;
+            }
+            case LIST: {
+                final List<?> list = (List<?>) v;
+                ArrayList<Object> ret = null;
+                for (int i = 0, size = list.size(); i < size; i++) {
+                    final Object value = flattenValue(list.get(i), report);
+                    if (value != list.get(i)) {
+                        if (ret == null) {
+                            ret = new ArrayList<Object>(list);
+                        }
+                        ret.set(i, value);
+                    }
+                }
+                return ret != null ? ret : v;
+            }
+            case BUNDLE:
+                return flatten((Bundle) v, report);
+            default:
+                return v;
+        }
+    }
+
+    private List<Range> ranges(Spanned spanned, Object[] spans) {
+        final List<Range> ret = new ArrayList<>(spans.length);
+        for (int i = 0; i < spans.length; i++) {
+            final Object span = spans[i];
+            if (isKept(span)) {
+                ret.add(new Range(span, spanned.getSpanStart(span), spanned.getSpanEnd(span),
+                        spanned.getSpanFlags(span), i));
+            }
+        }
+        if ((!dedupe && !merge) || ret.size() < 2) {
+            return ret;
+        }
+
+        final Map<SpanKey, List<Range>> groups = new LinkedHashMap<>();
+        for (Range range : ret) {
+            add(groups, new SpanKey(parcelled(range.span).getClass(), range.flags, null), range);
+        }
+        if (groups.size() < ret.size()) {
+            // only spans sharing a class and flags need their fields compared
+            final Parcel parcel = Parcel.obtain();
+            try {
+                final List<List<Range>> byType = new ArrayList<>(groups.values());
+                groups.clear();
+                for (List<Range> group : byType) {
+                    for (Range range : group) {
+                        final ParcelableSpan span = parcelled(range.span);
+                        final byte[] content = group.size() > 1 ? content(span, parcel) : null;
+                        add(groups, new SpanKey(span.getClass(), range.flags, content), range);
+                    }
+                }
+            } finally {
+                parcel.recycle();
+            }
+        }
+        ret.clear();
+        for (List<Range> group : groups.values()) {
+            if (merge && group.get(0).span instanceof CharacterStyle) {
+                mergeInto(group, ret);
+            } else {
+                dedupeInto(group, ret);
+            }
+        }
+        Collections.sort(ret, Range.BY_ORDER);
+        return ret;
+    }
+
+    private static void add(Map<SpanKey, List<Range>> groups, SpanKey key, Range range) {
+        List<Range> group = groups.get(key);
+        if (group == null) {
+            group = new ArrayList<>(2);
+            groups.put(key, group);
+        }
+        group.add(range);
+    }
+
+    /**
+     * @return what {@code TextUtils#writeToParcel} writes for {@code span} besides its range.
+     */
+    private static byte[] content(ParcelableSpan span, Parcel parcel) {
+        parcel.setDataPosition(0);
+        parcel.setDataSize(0);
+        parcel.writeInt(span.getSpanTypeId());
+        span.writeToParcel(parcel, 0);
+        return parcel.marshall();
+    }
+
+    private boolean isKept(Object span) {
+        final ParcelableSpan parcelled = parcelled(span);
+        if (parcelled == null) {
+            return false;
+        }
+        if (whitelist == null) {
+            return true;
+        }
+        for (Class<?> type : whitelist) {
+            if (type.isInstance(parcelled)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the span {@code TextUtils#writeToParcel} writes for {@code span}, which unwraps
+     * {@code CharacterStyle#wrap}; {@code null} if it writes none.
+     */
+    private static ParcelableSpan parcelled(Object span) {
+        final Object ret = span instanceof CharacterStyle ? ((CharacterStyle) span).getUnderlying() : span;
+        return ret instanceof ParcelableSpan ? (ParcelableSpan) ret : null;
+    }
+
+    private void dedupeInto(List<Range> group, List<Range> out) {
+        if (!dedupe) {
+            out.addAll(group);
+            return;
+        }
+        outer:
+        for (int i = 0; i < group.size(); i++) {
+            final Range range = group.get(i);
+            for (int j = 0; j < i; j++) {
+                if (group.get(j).start == range.start && group.get(j).end == range.end) {
+                    continue outer;
+                }
+            }
+            out.add(range);
+        }
+    }
+
+    private static void mergeInto(List<Range> group, List<Range> out) {
+        Collections.sort(group, Range.BY_START);
+        Range current = group.get(0);
+        for (int i = 1; i < group.size(); i++) {
+            final Range next = group.get(i);
+            if (next.start <= current.end) {
+                current = new Range(current.span, current.start, Math.max(current.end, next.end),
+                        current.flags, Math.min(current.order, next.order));
+            } else {
+                out.add(current);
+                current = next;
+            }
+        }
+        out.add(current);
+    }
+
+    private static void measure(CharSequence text, Report report, boolean before) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            final long start = System.nanoTime();
+            TextUtils.writeToParcel(text, parcel, 0);
+            final long nanos = System.nanoTime() - start;
+            if (before) {
+                report.bytesBefore += parcel.dataSize();
+                report.marshalNanosBefore += nanos;
+            } else {
+                report.bytesAfter += parcel.dataSize();
+                report.marshalNanosAfter += nanos;
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    private static final class Range {
+
+        static final Comparator<Range> BY_START = new Comparator<Range>() {
+            @Override
+            public int compare(Range o1, Range o2) {
+                return o1.start != o2.start ? (o1.start < o2.start ? -1 : 1) : (o1.order < o2.order ? -1 : 1);
+            }
+        };
+
+        static final Comparator<Range> BY_ORDER = new Comparator<Range>() {
+            @Override
+            public int compare(Range o1, Range o2) {
+                return o1.order < o2.order ? -1 : (o1.order == o2.order ? 0 : 1);
+            }
+        };
+
+        final Object span;
+        final int start;
+        final int end;
+        final int flags;
+        final int order;
+
+        Range(Object span, int start, int end, int flags, int order) {
+            this.span = span;
+            this.start = start;
+            this.end = end;
+            this.flags = flags;
+            this.order = order;
+        }
+
+    }
+
+    /**
+     * A span's class, its flags and, when compared with others of both, the bytes
+     * {@code TextUtils#writeToParcel} writes for it.
+     */
+    private static final class SpanKey {
+
+        final Class<?> type;
+        final int flags;
+        final byte[] content;
+        final int hash;
+
+        SpanKey(Class<?> type, int flags, byte[] content) {
+            this.type = type;
+            this.flags = flags;
+            this.content = content;
+            this.hash = (type.hashCode() * 31 + flags) * 31 + Arrays.hashCode(content);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof SpanKey)) {
+                return false;
+            }
+            final SpanKey other = (SpanKey) o;
+            return type == other.type && flags == other.flags && Arrays.equals(content, other.content);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
+}
@@ -0,0 +1,99 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Debug;
+
+import java.lang.reflect.Method;
+
+/**
+ * Bytes allocated by the current thread.
+ *
+ * <p>On a JVM (Robolectric) this is {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes},
+ * looked up reflectively since {@code android.jar} has no {@code java.lang.management}. On a device
+ * it falls back to {@link Debug#getThreadAllocSize()}, which counts only between {@link #start()} and
+ * {@link #stop()} and wraps at 2 GB.</p>
+ */
+@SuppressWarnings("deprecation")
+public final class ThreadAllocations {
+
+    private static final Object BEAN;
+    private static final Method GET_THREAD_ALLOCATED_BYTES;
+
+    static {
+        Object bean = null;
+        Method method = null;
+        try {
+            bean = Class.forName("java.lang.management.ManagementFactory")
+                    .getMethod("getThreadMXBean")
+                    .invoke(null);
+            method = Class.forName("com.sun.management.ThreadMXBean")
+                    .getMethod("getThreadAllocatedBytes", long.class);
+            method.invoke(bean, Thread.currentThread().getId());
+        } catch (Exception e) {
+            bean = null;
+            method = null;
+        }
+        BEAN = bean;
+        GET_THREAD_ALLOCATED_BYTES = method;
+    }
+
+    private ThreadAllocations() {
+    }
+
+    /**
+     * @return whether {@link #currentThread()} is backed by {@code ThreadMXBean}.
+     */
+    public static boolean isThreadMXBeanSupported() {
+        return GET_THREAD_ALLOCATED_BYTES != null;
+    }
+
+    /**
+     * Turns on the VM-wide {@link Debug} allocation counter when there is no {@code ThreadMXBean};
+     * it slows every allocation down, so pair this with {@link #stop()}.
+     */
+    public static void start() {
+        if (GET_THREAD_ALLOCATED_BYTES == null) {
+            Debug.startAllocCounting();
+        }
+    }
+
+    /**
+     * Turns off what {@link #start()} turned on.
+     */
+    public static void stop() {
+        if (GET_THREAD_ALLOCATED_BYTES == null) {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    /**
+     * @return bytes allocated by the current thread so far, or {@code -1} if unsupported;
+     *         on a device it only moves after {@link #start()}.
+     */
+    public static long currentThread() {
+        if (GET_THREAD_ALLOCATED_BYTES != null) {
+            try {
+                return (Long) GET_THREAD_ALLOCATED_BYTES.invoke(BEAN, Thread.currentThread().getId());
+            } catch (Exception e) {
+                return -1;
+            }
+        }
+        return Debug.getThreadAllocSize() & 0xffffffffL;
+    }
+
+}
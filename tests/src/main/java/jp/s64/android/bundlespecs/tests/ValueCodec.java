@@ -0,0 +1,403 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.Parcel;
+import android.text.Spanned;
+import android.util.Size;
+import android.util.SizeF;
+import android.util.SparseArray;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Byte encoding of single Bundle values, shared by the alternative containers and wire formats.
+ *
+ * <p>Decoded values have the same classes a Bundle hands out after a Parcel round trip:
+ * lists come back as {@code ArrayList}, plain CharSequences as {@code String},
+ * {@code char[]}/{@code short[]}/{@code float[]} as themselves and so on.
+ * Everything without a dedicated tag ({@code Bundle}, {@code Parcelable}, {@code Serializable},
+ * {@code Spanned}, ...) is embedded as the bytes of {@code Parcel#writeValue}. Values that
+ * can't be flattened to bytes at all (binders, or Parcelables holding binders) are kept as
+ * live references in a side table, like a Parcel keeps its objects.</p>
+ */
+final class ValueCodec {
+
+    static final byte NULL = 0;
+    static final byte STRING = 1;
+    static final byte INTEGER = 2;
+    static final byte LONG = 3;
+    static final byte SHORT = 4;
+    static final byte BYTE = 5;
+    static final byte BOOLEAN = 6;
+    static final byte FLOAT = 7;
+    static final byte DOUBLE = 8;
+    static final byte CHAR = 9;
+    static final byte BOOLEAN_ARRAY = 10;
+    static final byte BYTE_ARRAY = 11;
+    static final byte CHAR_ARRAY = 12;
+    static final byte SHORT_ARRAY = 13;
+    static final byte INT_ARRAY = 14;
+    static final byte LONG_ARRAY = 15;
+    static final byte FLOAT_ARRAY = 16;
+    static final byte DOUBLE_ARRAY = 17;
+    static final byte STRING_ARRAY = 18;
+    static final byte CHAR_SEQUENCE_ARRAY = 19;
+    static final byte LIST = 20;
+    static final byte SPARSE_ARRAY = 21;
+    static final byte SIZE = 22;
+    static final byte SIZE_F = 23;
+    static final byte PARCELLED = 24;
+    static final byte OBJECT = 25;
+
+    private ValueCodec() {
+    }
+
+    /**
+     * @param objects receives values that can't be flattened; they are referenced by index.
+     */
+    @SuppressWarnings("unchecked")
+    static void write(BufferWriter out, Object v, List<Object> objects) {
+        if (v == null) {
+            out.put(NULL);
+        } else if (v instanceof String) {
+            out.put(STRING).putString((String) v);
+        } else if (v instanceof Integer) {
+            out.put(INTEGER).putInt((Integer) v);
+        } else if (v instanceof Long) {
+            out.put(LONG).putLong((Long) v);
+        } else if (v instanceof Short) {
+            out.put(SHORT).putShort((Short) v);
+        } else if (v instanceof Byte) {
+            out.put(BYTE).put((Byte) v);
+        } else if (v instanceof Boolean) {
+            out.put(BOOLEAN).put((byte) ((Boolean) v ? 1 : 0));
+        } else if (v instanceof Float) {
+            out.put(FLOAT).putFloat((Float) v);
+        } else if (v instanceof Double) {
+            out.put(DOUBLE).putDouble((Double) v);
+        } else if (v instanceof Character) {
+            out.put(CHAR).putChar((Character) v);
+        } else if (v instanceof CharSequence && !(v instanceof Spanned)) {
+            out.put(STRING).putString(v.toString());
+        } else if (v instanceof boolean[]) {
+            final boolean[] array = (boolean[]) v;
+            out.put(BOOLEAN_ARRAY).putInt(array.length);
+            for (boolean item : array) {
+                out.put((byte) (item ? 1 : 0));
+            }
+        } else if (v instanceof byte[]) {
+            final byte[] array = (byte[]) v;
+            out.put(BYTE_ARRAY).putInt(array.length).put(array, 0, array.length);
+        } else if (v instanceof char[]) {
+            final char[] array = (char[]) v;
+            out.put(CHAR_ARRAY).putInt(array.length);
+            for (char item : array) {
+                out.putChar(item);
+            }
+        } else if (v instanceof short[]) {
+            final short[] array = (short[]) v;
+            out.put(SHORT_ARRAY).putInt(array.length);
+            for (short item : array) {
+                out.putShort(item);
+            }
+        } else if (v instanceof int[]) {
+            final int[] array = (int[]) v;
+            out.put(INT_ARRAY).putInt(array.length);
+            for (int item : array) {
+                out.putInt(item);
+            }
+        } else if (v instanceof long[]) {
+            final long[] array = (long[]) v;
+            out.put(LONG_ARRAY).putInt(array.length);
+            for (long item : array) {
+                out.putLong(item);
+            }
+        } else if (v instanceof float[]) {
+            final float[] array = (float[]) v;
+            out.put(FLOAT_ARRAY).putInt(array.length);
+            for (float item : array) {
+                out.putFloat(item);
+            }
+        } else if (v instanceof double[]) {
+            final double[] array = (double[]) v;
+            out.put(DOUBLE_ARRAY).putInt(array.length);
+            for (double item : array) {
+                out.putDouble(item);
+            }
+        } else if (v instanceof String[]) {
+            final String[] array = (String[]) v;
+            out.put(STRING_ARRAY).putInt(array.length);
+            for (String item : array) {
+                out.putString(item);
+            }
+        } else if (v instanceof CharSequence[] && !hasSpans((CharSequence[]) v)) {
+            final CharSequence[] array = (CharSequence[]) v;
+            out.put(CHAR_SEQUENCE_ARRAY).putInt(array.length);
+            for (CharSequence item : array) {
+                out.putString(item != null ? item.toString() : null);
+            }
+        } else if (v instanceof List) {
+            final List<Object> list = (List<Object>) v;
+            final int size = list.size();
+            out.put(LIST).putInt(size);
+            for (int i = 0; i < size; i++) {
+                write(out, list.get(i), objects);
+            }
+        } else if (v instanceof SparseArray) {
+            final SparseArray<Object> array = (SparseArray<Object>) v;
+            final int size = array.size();
+            out.put(SPARSE_ARRAY).putInt(size);
+            for (int i = 0; i < size; i++) {
+                out.putInt(array.keyAt(i));
+                write(out, array.valueAt(i), objects);
+            }
+        } else if (ParcelValueType.isSize(v)) {
+            writeSize(out, v);
+        } else if (ParcelValueType.isSizeF(v)) {
+            writeSizeF(out, v);
+        } else if (v instanceof IBinder) {
+            out.put(OBJECT).putInt(objects.size());
+            objects.add(v);
+        } else {
+            final byte[] parcelled = marshall(v);
+            if (parcelled != null) {
+                out.put(PARCELLED).putInt(parcelled.length).put(parcelled, 0, parcelled.length);
+            } else {
+                out.put(OBJECT).putInt(objects.size());
+                objects.add(v);
+            }
+        }
+    }
+
+    static Object read(ByteBuffer in, Object[] objects, ClassLoader loader) {
+        final byte tag = in.get();
+        switch (tag) {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case INTEGER:
+                return in.getInt();
+            case LONG:
+                return in.getLong();
+            case SHORT:
+                return in.getShort();
+            case BYTE:
+                return in.get();
+            case BOOLEAN:
+                return in.get() != 0;
+            case FLOAT:
+                return in.getFloat();
+            case DOUBLE:
+                return in.getDouble();
+            case CHAR:
+                return in.getChar();
+            case BOOLEAN_ARRAY: {
+                final boolean[] ret = new boolean[in.getInt()];
+                for (int i = 0; i < ret.length; i++) {
+                    ret[i] = in.get() != 0;
+                }
+                return ret;
+            }
+            case BYTE_ARRAY: {
+                final byte[] ret = new byte[in.getInt()];
+                in.get(ret);
+                return ret;
+            }
+            case CHAR_ARRAY: {
+                final char[] ret = new char[in.getInt()];
+                in.asCharBuffer().get(ret);
+                in.position(in.position() + ret.length * 2);
+                return ret;
+            }
+            case SHORT_ARRAY: {
+                final short[] ret = new short[in.getInt()];
+                in.asShortBuffer().get(ret);
+                in.position(in.position() + ret.length * 2);
+                return ret;
+            }
+            case INT_ARRAY: {
+                final int[] ret = new int[in.getInt()];
+                in.asIntBuffer().get(ret);
+                in.position(in.position() + ret.length * 4);
+                return ret;
+            }
+            case LONG_ARRAY: {
+                final long[] ret = new long[in.getInt()];
+                in.asLongBuffer().get(ret);
+                in.position(in.position() + ret.length * 8);
+                return ret;
+            }
+            case FLOAT_ARRAY: {
+                final float[] ret = new float[in.getInt()];
+                in.asFloatBuffer().get(ret);
+                in.position(in.position() + ret.length * 4);
+                return ret;
+            }
+            case DOUBLE_ARRAY: {
+                final double[] ret = new double[in.getInt()];
+                in.asDoubleBuffer().get(ret);
+                in.position(in.position() + ret.length * 8);
+                return ret;
+            }
+            case STRING_ARRAY: {
+                final String[] ret = new String[in.getInt()];
+                for (int i = 0; i < ret.length; i++) {
+                    ret[i] = readString(in);
+                }
+                return ret;
+            }
+            case CHAR_SEQUENCE_ARRAY: {
+                final CharSequence[] ret = new CharSequence[in.getInt()];
+                for (int i = 0; i < ret.length; i++) {
+                    ret[i] = readString(in);
+                }
+                return ret;
+            }
+            case LIST: {
+                final int size = in.getInt();
+                final ArrayList<Object> ret = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    ret.add(read(in, objects, loader));
+                }
+                return ret;
+            }
+            case SPARSE_ARRAY: {
+                final int size = in.getInt();
+                final SparseArray<Object> ret = new SparseArray<>(size);
+                for (int i = 0; i < size; i++) {
+                    final int key = in.getInt();
+                    ret.append(key, read(in, objects, loader));
+                }
+                return ret;
+            }
+            case SIZE:
+                return readSize(in);
+            case SIZE_F:
+                return readSizeF(in);
+            case PARCELLED:
+                return unmarshall(in, in.getInt(), loader);
+            case OBJECT:
+                return objects[in.getInt()];
+            default:
+                throw new IllegalArgumentException("Unknown value tag " + tag + " at " + (in.position() - 1));
+        }
+    }
+
+    static String readString(ByteBuffer in) {
+        final int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = in.getChar();
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Compares a {@link BufferWriter#putString(String) length-prefixed} string at {@code offset}
+     * with {@code value} without decoding it.
+     */
+    static boolean stringEquals(ByteBuffer in, int offset, String value) {
+        final int length = value.length();
+        if (in.getInt(offset) != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (in.getChar(offset + 4 + i * 2) != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return bytes of {@code Parcel#writeValue(v)}, or {@code null} if the Parcel holds binders or FDs.
+     * @throws RuntimeException whatever {@code writeValue} throws, e.g. for a value it can't write.
+     */
+    static byte[] marshall(Object v) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeValue(v);
+            try {
+                return parcel.marshall();
+            } catch (RuntimeException e) {
+                return null;
+            }
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    static Object unmarshall(ByteBuffer in, int length, ClassLoader loader) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            if (in.hasArray()) {
+                parcel.unmarshall(in.array(), in.arrayOffset() + in.position(), length);
+                in.position(in.position() + length);
+            } else {
+                final byte[] copy = new byte[length];
+                in.get(copy);
+                parcel.unmarshall(copy, 0, length);
+            }
+            parcel.setDataPosition(0);
+            return parcel.readValue(loader);
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+    static boolean hasSpans(CharSequence[] array) {
+        for (CharSequence item : array) {
+            if (item instanceof Spanned) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void writeSize(BufferWriter out, Object v) {
+        final Size size = (Size) v;
+        out.put(SIZE).putInt(size.getWidth()).putInt(size.getHeight());
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static void writeSizeF(BufferWriter out, Object v) {
+        final SizeF size = (SizeF) v;
+        out.put(SIZE_F).putFloat(size.getWidth()).putFloat(size.getHeight());
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static Object readSize(ByteBuffer in) {
+        return new Size(in.getInt(), in.getInt());
+    }
+
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private static Object readSizeF(ByteBuffer in) {
+        return new SizeF(in.getFloat(), in.getFloat());
+    }
+
+}
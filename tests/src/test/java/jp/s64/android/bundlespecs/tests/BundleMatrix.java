@@ -0,0 +1,547 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcel;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Every {@code putX} × every {@code getY} × {@link Mode}, the matrix {@code BundleTest} spells
+ * out by hand for a few cells.
+ *
+ * <p>Each {@link Put} row is sharded into its own task on a thread pool. Robolectric's
+ * {@code ShadowParcel} keeps its buffers in an unsynchronized static map, so parcel round
+ * trips (and the lazy unparcelling they leave behind) run under {@link #PARCEL_LOCK};
+ * everything else runs in parallel.</p>
+ *
+ * <p>On Robolectric, {@link Mode#PARCEL} cells reflect {@code ShadowParcel}, which keeps
+ * String instances (so they read {@link Outcome#SAME} where a device gives
+ * {@link Outcome#EQUAL}) and doesn't carry Binders.</p>
+ */
+final class BundleMatrix {
+
+    static final String KEY = BundleShape.KEY;
+
+    private static final Object PARCEL_LOCK = new Object();
+
+    enum Mode {
+        ORIGINAL,
+        DEEP_COPY,
+        PARCEL,
+    }
+
+    enum Outcome {
+
+        /** the very instance that was put; for boxed primitives, an equal value */
+        SAME('='),
+        /** a structurally equal copy ({@link BundleEquality}) */
+        EQUAL('~'),
+        /** something else, e.g. a coerced type */
+        DIFFERENT('*'),
+        /** {@code null}, or the default for primitive getters */
+        ABSENT('.'),
+        THROWN('!'),
+        /** the put, getter or mode doesn't exist on this API level */
+        UNSUPPORTED('-'),
+        ;
+
+        final char symbol;
+
+        Outcome(char symbol) {
+            this.symbol = symbol;
+        }
+
+    }
+
+    /**
+     * A {@code putX} call: every {@link BundleShape}, plus the puts {@code BundleTest} doesn't cover.
+     */
+    static final class Put {
+
+        final String name;
+        final BundleShape shape;
+        private final Object extra;
+
+        private Put(String name, BundleShape shape, Object extra) {
+            this.name = name;
+            this.shape = shape;
+            this.extra = extra;
+        }
+
+        Bundle create() {
+            final Bundle ret = new Bundle();
+            if (shape != null) {
+                // index 1 and two elements, like the BundleTest fixtures
+                shape.put(ret, KEY, 1, 2);
+            } else {
+                BundleValues.put(ret, KEY, extra);
+            }
+            return ret;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+
+        static List<Put> all() {
+            final List<Put> ret = new ArrayList<>();
+            for (BundleShape shape : BundleShape.values()) {
+                if (shape.isSupported()) {
+                    ret.add(new Put(shape.method() + "(" + shape.name() + ")", shape, null));
+                }
+            }
+            ret.add(new Put("putInt", null, 1));
+            ret.add(new Put("putString", null, "1"));
+            ret.add(new Put("putStringArray", null, new String[] {"0", "1"}));
+            return ret;
+        }
+
+    }
+
+    enum Getter {
+        GET("get") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.get(KEY);
+            }
+        },
+        GET_BOOLEAN("getBoolean") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getBoolean(KEY, alternative);
+            }
+        },
+        GET_BYTE("getByte") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getByte(KEY, alternative ? (byte) 1 : (byte) 2);
+            }
+        },
+        GET_CHAR("getChar") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getChar(KEY, alternative ? 'a' : 'b');
+            }
+        },
+        GET_SHORT("getShort") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getShort(KEY, alternative ? (short) 1 : (short) 2);
+            }
+        },
+        GET_INT("getInt") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getInt(KEY, alternative ? 1 : 2);
+            }
+        },
+        GET_LONG("getLong") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getLong(KEY, alternative ? 1 : 2);
+            }
+        },
+        GET_FLOAT("getFloat") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getFloat(KEY, alternative ? 1 : 2);
+            }
+        },
+        GET_DOUBLE("getDouble") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getDouble(KEY, alternative ? 1 : 2);
+            }
+        },
+        GET_STRING("getString") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getString(KEY);
+            }
+        },
+        GET_CHAR_SEQUENCE("getCharSequence") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getCharSequence(KEY);
+            }
+        },
+        GET_BUNDLE("getBundle") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getBundle(KEY);
+            }
+        },
+        GET_PARCELABLE("getParcelable") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getParcelable(KEY);
+            }
+        },
+        GET_PARCELABLE_ARRAY("getParcelableArray") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getParcelableArray(KEY);
+            }
+        },
+        GET_PARCELABLE_ARRAY_LIST("getParcelableArrayList") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getParcelableArrayList(KEY);
+            }
+        },
+        GET_SPARSE_PARCELABLE_ARRAY("getSparseParcelableArray") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getSparseParcelableArray(KEY);
+            }
+        },
+        GET_SERIALIZABLE("getSerializable") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getSerializable(KEY);
+            }
+        },
+        GET_INTEGER_ARRAY_LIST("getIntegerArrayList") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getIntegerArrayList(KEY);
+            }
+        },
+        GET_STRING_ARRAY_LIST("getStringArrayList") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getStringArrayList(KEY);
+            }
+        },
+        GET_CHAR_SEQUENCE_ARRAY_LIST("getCharSequenceArrayList") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getCharSequenceArrayList(KEY);
+            }
+        },
+        GET_BOOLEAN_ARRAY("getBooleanArray") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getBooleanArray(KEY);
+            }
+        },
+        GET_BYTE_ARRAY("getByteArray") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getByteArray(KEY);
+            }
+        },
+        GET_SHORT_ARRAY("getShortArray") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getShortArray(KEY);
+            }
+        },
+        GET_CHAR_ARRAY("getCharArray") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getCharArray(KEY);
+            }
+        },
+        GET_INT_ARRAY("getIntArray") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getIntArray(KEY);
+            }
+        },
+        GET_LONG_ARRAY("getLongArray") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getLongArray(KEY);
+            }
+        },
+        GET_FLOAT_ARRAY("getFloatArray") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getFloatArray(KEY);
+            }
+        },
+        GET_DOUBLE_ARRAY("getDoubleArray") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getDoubleArray(KEY);
+            }
+        },
+        GET_STRING_ARRAY("getStringArray") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getStringArray(KEY);
+            }
+        },
+        GET_CHAR_SEQUENCE_ARRAY("getCharSequenceArray") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getCharSequenceArray(KEY);
+            }
+        },
+        GET_BINDER("getBinder") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getBinder(KEY);
+            }
+        },
+        GET_SIZE("getSize") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getSize(KEY);
+            }
+        },
+        GET_SIZE_F("getSizeF") {
+            @Override
+            Object get(Bundle bundle, boolean alternative) {
+                return bundle.getSizeF(KEY);
+            }
+        },
+        ;
+
+        final String method;
+
+        Getter(String method) {
+            this.method = method;
+        }
+
+        /**
+         * @param alternative selects the other of two defaults, so that a default can be told from a value.
+         */
+        abstract Object get(Bundle bundle, boolean alternative);
+
+    }
+
+    /**
+     * Outcomes indexed {@code [put][getter][mode]}.
+     */
+    static final class Result {
+
+        final List<Put> puts;
+        final Outcome[][][] outcomes;
+
+        Result(List<Put> puts) {
+            this.puts = puts;
+            this.outcomes = new Outcome[puts.size()][Getter.values().length][Mode.values().length];
+        }
+
+        Outcome get(String put, Getter getter, Mode mode) {
+            for (int i = 0; i < puts.size(); i++) {
+                if (puts.get(i).name.equals(put)) {
+                    return outcomes[i][getter.ordinal()][mode.ordinal()];
+                }
+            }
+            throw new IllegalArgumentException(put);
+        }
+
+        /**
+         * One line per put, listing only getters that see something in at least one mode.
+         * Each cell is three symbols: original, deepCopy, parcel round trip.
+         */
+        String toTable() {
+            int width = 0;
+            for (Put put : puts) {
+                width = Math.max(width, put.name.length());
+            }
+
+            final StringBuilder ret = new StringBuilder();
+            ret.append("# ");
+            for (Outcome outcome : Outcome.values()) {
+                ret.append(outcome.symbol).append(' ').append(outcome.name().toLowerCase()).append("  ");
+            }
+            ret.append("| cells: original, deepCopy, parcel\n");
+            for (int i = 0; i < puts.size(); i++) {
+                ret.append(puts.get(i).name);
+                for (int pad = puts.get(i).name.length(); pad < width; pad++) {
+                    ret.append(' ');
+                }
+                ret.append(" |");
+                for (Getter getter : Getter.values()) {
+                    final Outcome[] cell = outcomes[i][getter.ordinal()];
+                    boolean seen = false;
+                    for (Outcome outcome : cell) {
+                        seen |= outcome != Outcome.ABSENT && outcome != Outcome.UNSUPPORTED;
+                    }
+                    if (seen) {
+                        ret.append(' ').append(getter.method).append(' ');
+                        for (Outcome outcome : cell) {
+                            ret.append(outcome.symbol);
+                        }
+                    }
+                }
+                ret.append('\n');
+            }
+            return ret.toString();
+        }
+
+        /**
+         * Every cell as {@code put<TAB>getter<TAB>mode<TAB>symbol}, for {@code CrossSdkTest} to diff.
+         */
+        String toTsv() {
+            final StringBuilder ret = new StringBuilder();
+            for (int i = 0; i < puts.size(); i++) {
+                for (Getter getter : Getter.values()) {
+                    for (Mode mode : Mode.values()) {
+                        ret.append(puts.get(i).name).append('\t')
+                                .append(getter.method).append('\t')
+                                .append(mode.name()).append('\t')
+                                .append(outcomes[i][getter.ordinal()][mode.ordinal()].symbol).append('\n');
+                    }
+                }
+            }
+            return ret.toString();
+        }
+
+    }
+
+    private BundleMatrix() {
+    }
+
+    static Result run(int threads) throws Exception {
+        final List<Put> puts = Put.all();
+        final Result ret = new Result(puts);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>(puts.size());
+            for (int i = 0; i < puts.size(); i++) {
+                final int index = i;
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        evaluate(puts.get(index), ret.outcomes[index]);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        return ret;
+    }
+
+    private static void evaluate(Put put, Outcome[][] out) {
+        final Bundle org = put.create();
+        final Object value = org.get(KEY);
+
+        for (Mode mode : Mode.values()) {
+            final Bundle bundle;
+            switch (mode) {
+                case ORIGINAL:
+                    bundle = org;
+                    break;
+                case DEEP_COPY:
+                    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+                        for (Getter getter : Getter.values()) {
+                            out[getter.ordinal()][mode.ordinal()] = Outcome.UNSUPPORTED;
+                        }
+                        continue;
+                    }
+                    bundle = org.deepCopy();
+                    break;
+                default:
+                    bundle = roundTrip(org);
+                    break;
+            }
+            for (Getter getter : Getter.values()) {
+                out[getter.ordinal()][mode.ordinal()] = outcome(value, bundle, getter);
+            }
+        }
+    }
+
+    private static Outcome outcome(Object value, Bundle bundle, Getter getter) {
+        final Object ret;
+        try {
+            ret = getter.get(bundle, false);
+            if (ret == null) {
+                return Outcome.ABSENT;
+            }
+            if (!ret.equals(getter.get(bundle, true))) {
+                // the default came back
+                return Outcome.ABSENT;
+            }
+        } catch (NoSuchMethodError e) {
+            return Outcome.UNSUPPORTED;
+        } catch (RuntimeException e) {
+            return Outcome.THROWN;
+        }
+        if (ret == value) {
+            return Outcome.SAME;
+        }
+        if (BundleEquality.valueEquals(value, ret)) {
+            final boolean boxed = value instanceof Number || value instanceof Boolean || value instanceof Character;
+            return boxed ? Outcome.SAME : Outcome.EQUAL;
+        }
+        return Outcome.DIFFERENT;
+    }
+
+    private static Bundle roundTrip(Bundle org) {
+        synchronized (PARCEL_LOCK) {
+            final Parcel parcel = Parcel.obtain();
+            try {
+                org.writeToParcel(parcel, 0);
+                parcel.setDataPosition(0);
+                final Bundle ret = parcel.readBundle(BundleMatrix.class.getClassLoader());
+                unparcel(ret);
+                return ret;
+            } finally {
+                parcel.recycle();
+            }
+        }
+    }
+
+    /**
+     * Forces every lazily parcelled Bundle below {@code value} to read its Parcel now.
+     */
+    private static void unparcel(Object value) {
+        if (value instanceof Bundle) {
+            final Bundle bundle = (Bundle) value;
+            for (String key : bundle.keySet()) {
+                unparcel(bundle.get(key));
+            }
+        } else if (value instanceof Intent) {
+            final Intent intent = (Intent) value;
+            intent.hasExtra(KEY); // unparcels the extras in place
+            unparcel(intent.getExtras());
+        } else if (value instanceof Object[]) {
+            for (Object element : (Object[]) value) {
+                unparcel(element);
+            }
+        } else if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                unparcel(element);
+            }
+        } else if (value instanceof SparseArray) {
+            final SparseArray<?> array = (SparseArray<?>) value;
+            for (int i = 0; i < array.size(); i++) {
+                unparcel(array.valueAt(i));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import jp.s64.android.bundlespecs.tests.BundleMatrix.Getter;
+import jp.s64.android.bundlespecs.tests.BundleMatrix.Mode;
+import jp.s64.android.bundlespecs.tests.BundleMatrix.Outcome;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Runs {@link BundleMatrix} on the JVM and writes the table to {@code build/reports/bundleMatrix-<sdk>.txt}.
+ * The assertions pin the cells {@code BundleTest} checks on a targetSdkVersion device.
+ */
+@RunWith(SdkTestRunner.class)
+@Config(manifest = Config.NONE)
+public class BundleMatrixTest {
+
+    private static BundleMatrix.Result result;
+
+    @BeforeClass
+    public static void runMatrix() throws Exception {
+        final long started = System.nanoTime();
+        result = BundleMatrix.run(Runtime.getRuntime().availableProcessors());
+        final long millis = (System.nanoTime() - started) / 1000000;
+
+        final String table = result.toTable();
+        System.out.println(table + "(" + millis + " ms)");
+
+        final int sdk = SdkTestRunner.sdk();
+        Reports.write("bundleMatrix-" + sdk + ".txt", table);
+        Reports.write("bundleMatrix-" + sdk + ".tsv", result.toTsv());
+    }
+
+    @Test
+    public void testShardingIsDeterministic() throws Exception {
+        final BundleMatrix.Result sequential = BundleMatrix.run(1);
+
+        assertEquals(result.toTable(), sequential.toTable());
+    }
+
+    @Test
+    public void testGetReturnsWhatWasPut() {
+        for (int i = 0; i < result.puts.size(); i++) {
+            assertEquals(result.puts.get(i).name, Outcome.SAME, result.outcomes[i][Getter.GET.ordinal()][Mode.ORIGINAL.ordinal()]);
+        }
+    }
+
+    @Test
+    public void testBundleTestCells() {
+        // testBundleTypeCheck / testParcelableTypeCheck_1
+        assertCell("putBundle(BUNDLE)", Getter.GET_PARCELABLE, Outcome.SAME, Outcome.EQUAL, Outcome.EQUAL);
+        // testByteArrayTypeCheck
+        assertCell("putByteArray(BYTE_ARRAY)", Getter.GET_STRING, Outcome.ABSENT, Outcome.ABSENT, Outcome.ABSENT);
+        // testBooleanArrayTypeCheck 🚨
+        assertCell("putBooleanArray(BOOLEAN_ARRAY)", Getter.GET_BOOLEAN_ARRAY, Outcome.SAME, Outcome.SAME, Outcome.EQUAL);
+        // testIntArrayTypeCheck
+        assertCell("putIntArray(INT_ARRAY)", Getter.GET_INT_ARRAY, Outcome.SAME, Outcome.EQUAL, Outcome.EQUAL);
+        // testSparseParcelableArrayTypeCheck: deepCopy() shares the SparseArray 🚨
+        assertCell("putSparseParcelableArray(SPARSE_PARCELABLE_ARRAY)", Getter.GET_SPARSE_PARCELABLE_ARRAY, Outcome.SAME, Outcome.SAME, Outcome.EQUAL);
+        assertCell("putSparseParcelableArray(SPARSE_PARCELABLE_ARRAY)", Getter.GET_PARCELABLE_ARRAY, Outcome.ABSENT, Outcome.ABSENT, Outcome.ABSENT);
+        // testSerializableTypeCheck: a String put as Serializable is a String 🚨
+        assertCell("putSerializable(SERIALIZABLE)", Getter.GET_STRING, Outcome.SAME, Outcome.SAME, null);
+        // a float[] travels as VAL_SERIALIZABLE 🚨
+        assertCell("putFloatArray(FLOAT_ARRAY)", Getter.GET_SERIALIZABLE, Outcome.SAME, Outcome.EQUAL, Outcome.EQUAL);
+        // testLongTypeCheck: no widening or narrowing
+        assertCell("putLong(LONG)", Getter.GET_INT, Outcome.ABSENT, Outcome.ABSENT, Outcome.ABSENT);
+        assertCell("putInt", Getter.GET_LONG, Outcome.ABSENT, Outcome.ABSENT, Outcome.ABSENT);
+    }
+
+    /**
+     * @param parcel {@code null} where Robolectric differs from a device, see {@link BundleMatrix}.
+     */
+    private static void assertCell(String put, Getter getter, Outcome original, Outcome deepCopy, Outcome parcel) {
+        final Outcome[] expected = {original, deepCopy, parcel};
+        final Outcome[] actual = new Outcome[Mode.values().length];
+        for (Mode mode : Mode.values()) {
+            actual[mode.ordinal()] = result.get(put, getter, mode);
+            if (expected[mode.ordinal()] == null) {
+                expected[mode.ordinal()] = actual[mode.ordinal()];
+            }
+        }
+        assertArrayEquals(put + " " + getter.method, expected, actual);
+    }
+
+}
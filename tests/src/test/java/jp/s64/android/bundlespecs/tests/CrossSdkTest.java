@@ -0,0 +1,326 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Reruns {@link BundleMatrixTest} and {@link SdkLatencyTest} once per API level, each in its own
+ * forked JVM on Robolectric's android-all jar for that level, and writes
+ * {@code build/reports/crossSdk.txt}. The report lists the failing assertions, the matrix cells
+ * that differ from targetSdkVersion and the copy/marshal latency of every level.
+ *
+ * <p>Skipped unless {@code -Dbundlespecs.crossSdk} is set:</p>
+ * <pre>./gradlew :tests:testDebugUnitTest --tests '*CrossSdkTest' -PcrossSdk=all -PcrossSdk.forks=4</pre>
+ */
+public class CrossSdkTest {
+
+    static final String LEVELS_PROPERTY = "bundlespecs.crossSdk";
+    static final String FORKS_PROPERTY = "bundlespecs.crossSdk.forks";
+
+    /**
+     * minSdkVersion..targetSdkVersion as far as Robolectric 3.8 has android-all jars; there is none for 20.
+     * The last level is the baseline the others are diffed against.
+     */
+    static final int[] ALL_LEVELS = {16, 17, 18, 19, 21, 22, 23, 24, 25, 26, 27};
+
+    private static final Pattern FAILURE = Pattern.compile("^\\d+\\) (\\w+)\\(([\\w.$]+)\\)$");
+
+    static final class Fork {
+
+        final int sdk;
+        final int exitCode;
+        final long millis;
+        final List<String> failures;
+        final File log;
+
+        Fork(int sdk, int exitCode, long millis, List<String> failures, File log) {
+            this.sdk = sdk;
+            this.exitCode = exitCode;
+            this.millis = millis;
+            this.failures = failures;
+            this.log = log;
+        }
+
+    }
+
+    @Test
+    public void testEveryLevel() throws Exception {
+        final String levels = System.getProperty(LEVELS_PROPERTY);
+        assumeTrue("pass -PcrossSdk=all, or a list of API levels, to run", levels != null);
+
+        final int[] sdks = levels.trim().equals("all") ? ALL_LEVELS : parseInts(levels);
+        final int forks = Integer.getInteger(FORKS_PROPERTY, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+
+        final ExecutorService executor = Executors.newFixedThreadPool(forks);
+        final List<Fork> results = new ArrayList<>(sdks.length);
+        try {
+            final List<Future<Fork>> futures = new ArrayList<>(sdks.length);
+            for (final int sdk : sdks) {
+                futures.add(executor.submit(new Callable<Fork>() {
+                    @Override
+                    public Fork call() throws Exception {
+                        return fork(sdk);
+                    }
+                }));
+            }
+            for (Future<Fork> future : futures) {
+                results.add(future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        final String report = report(results);
+        System.out.println(report);
+        System.out.println("Wrote " + Reports.write("crossSdk.txt", report));
+
+        // a level Robolectric itself can't boot (e.g. API 16 with Config.NONE on 3.8) is reported, not fatal
+        final Fork baseline = results.get(results.size() - 1);
+        assertNotNull("API " + baseline.sdk + " did not run, see " + baseline.log, Reports.read("bundleMatrix-" + baseline.sdk + ".tsv"));
+    }
+
+    private static Fork fork(int sdk) throws IOException, InterruptedException {
+        // results of an earlier run must not pass for this one
+        Reports.file("bundleMatrix-" + sdk + ".tsv").delete();
+        Reports.file("sdkLatency-" + sdk + ".tsv").delete();
+
+        final List<String> command = new ArrayList<>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.add("-Xmx1g");
+        command.add("-cp");
+        command.add(classPath());
+        for (String name : System.getProperties().stringPropertyNames()) {
+            final boolean forwarded = name.startsWith("robolectric.")
+                    || (name.startsWith("bundlespecs.") && !name.startsWith(LEVELS_PROPERTY) && !name.equals(SdkTestRunner.SDK_PROPERTY));
+            if (forwarded) {
+                command.add("-D" + name + "=" + System.getProperty(name));
+            }
+        }
+        command.add("-D" + SdkTestRunner.SDK_PROPERTY + "=" + sdk);
+        command.add(JUnitCore.class.getName());
+        command.add(BundleMatrixTest.class.getName());
+        command.add(SdkLatencyTest.class.getName());
+
+        final File log = Reports.file("crossSdk-" + sdk + ".log");
+        final long started = System.nanoTime();
+        final Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+        final int exitCode = process.waitFor();
+        final long millis = (System.nanoTime() - started) / 1000000;
+
+        final List<String> failures = new ArrayList<>();
+        final String output = Reports.read(log.getName());
+        if (output != null) {
+            for (String line : output.split("\n")) {
+                final Matcher matcher = FAILURE.matcher(line.trim());
+                if (matcher.matches()) {
+                    final String className = matcher.group(2);
+                    failures.add(className.substring(className.lastIndexOf('.') + 1) + "#" + matcher.group(1));
+                }
+            }
+        }
+        return new Fork(sdk, exitCode, millis, failures, log);
+    }
+
+    private static String report(List<Fork> forks) throws IOException {
+        final StringBuilder ret = new StringBuilder();
+        final int baseline = forks.get(forks.size() - 1).sdk;
+
+        ret.append("# Runs\n");
+        for (Fork fork : forks) {
+            ret.append("API ").append(fork.sdk)
+                    .append(": exit ").append(fork.exitCode)
+                    .append(", ").append(fork.millis).append(" ms");
+            if (!fork.failures.isEmpty()) {
+                ret.append(", failing ").append(fork.failures);
+            }
+            ret.append('\n');
+        }
+
+        ret.append("\n# Matrix cells that differ from API ").append(baseline).append('\n');
+        final Map<String, String> expected = matrix(baseline);
+        for (Fork fork : forks) {
+            if (fork.sdk == baseline) {
+                continue;
+            }
+            final Map<String, String> actual = matrix(fork.sdk);
+            if (actual == null || expected == null) {
+                ret.append("API ").append(fork.sdk).append(": did not run, see ").append(fork.log).append('\n');
+                continue;
+            }
+            // a put, getter or mode missing on this level shows up once, not as every cell it spans
+            final Set<String> unsupported = unsupported(actual);
+            final List<String> flips = new ArrayList<>();
+            for (Map.Entry<String, String> cell : expected.entrySet()) {
+                final String[] parts = cell.getKey().split("\t");
+                final String outcome = actual.get(cell.getKey());
+                if (outcome == null || unsupported.contains(parts[0]) || unsupported.contains(parts[1]) || unsupported.contains(parts[2])) {
+                    continue;
+                }
+                if (!outcome.equals(cell.getValue())) {
+                    flips.add(parts[0] + " " + parts[1] + " " + parts[2] + " " + cell.getValue() + "->" + outcome);
+                }
+            }
+            for (String key : expected.keySet()) {
+                final String put = key.substring(0, key.indexOf('\t'));
+                if (!actual.containsKey(key)) {
+                    unsupported.add(put);
+                }
+            }
+            ret.append("API ").append(fork.sdk).append(": ").append(flips.size()).append(" cells differ");
+            if (!unsupported.isEmpty()) {
+                ret.append(", unavailable ").append(unsupported);
+            }
+            ret.append('\n');
+            for (String flip : flips) {
+                ret.append("    ").append(flip).append('\n');
+            }
+        }
+
+        ret.append("\n# Median latency (ns)\n");
+        final Map<String, Map<Integer, String>> latency = new LinkedHashMap<>();
+        for (Fork fork : forks) {
+            final String tsv = Reports.read("sdkLatency-" + fork.sdk + ".tsv");
+            if (tsv == null) {
+                continue;
+            }
+            for (String line : tsv.split("\n")) {
+                final String[] parts = line.split("\t");
+                if (!latency.containsKey(parts[0])) {
+                    latency.put(parts[0], new LinkedHashMap<Integer, String>());
+                }
+                latency.get(parts[0]).put(fork.sdk, parts[1]);
+            }
+        }
+        ret.append(String.format("%-24s", "op"));
+        for (Fork fork : forks) {
+            ret.append(String.format("%12s", "API " + fork.sdk));
+        }
+        ret.append('\n');
+        for (Map.Entry<String, Map<Integer, String>> row : latency.entrySet()) {
+            ret.append(String.format("%-24s", row.getKey()));
+            for (Fork fork : forks) {
+                final String value = row.getValue().get(fork.sdk);
+                ret.append(String.format("%12s", value != null ? value : "-"));
+            }
+            ret.append('\n');
+        }
+        return ret.toString();
+    }
+
+    private static int[] parseInts(String value) {
+        final String[] values = value.split(",");
+        final int[] ret = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            ret[i] = Integer.parseInt(values[i].trim());
+        }
+        return ret;
+    }
+
+    /**
+     * @return {@code put<TAB>getter<TAB>mode} to outcome symbol, or {@code null} if that level didn't run.
+     */
+    private static Map<String, String> matrix(int sdk) throws IOException {
+        final String tsv = Reports.read("bundleMatrix-" + sdk + ".tsv");
+        if (tsv == null) {
+            return null;
+        }
+        final Map<String, String> ret = new LinkedHashMap<>();
+        for (String line : tsv.split("\n")) {
+            final int tab = line.lastIndexOf('\t');
+            ret.put(line.substring(0, tab), line.substring(tab + 1));
+        }
+        return ret;
+    }
+
+    /**
+     * @return puts, getters and modes whose every cell is {@link BundleMatrix.Outcome#UNSUPPORTED}.
+     */
+    private static Set<String> unsupported(Map<String, String> matrix) {
+        final Map<String, Boolean> all = new LinkedHashMap<>();
+        for (Map.Entry<String, String> cell : matrix.entrySet()) {
+            final boolean isUnsupported = cell.getValue().equals(String.valueOf(BundleMatrix.Outcome.UNSUPPORTED.symbol));
+            for (String part : cell.getKey().split("\t")) {
+                final Boolean previous = all.get(part);
+                all.put(part, (previous == null || previous) && isUnsupported);
+            }
+        }
+        final Set<String> ret = new LinkedHashSet<>();
+        for (Map.Entry<String, Boolean> entry : all.entrySet()) {
+            if (entry.getValue()) {
+                ret.add(entry.getKey());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * The test runtime classpath; Gradle's test workers put it on the system class loader, not {@code java.class.path}.
+     */
+    private static String classPath() throws IOException {
+        final Set<String> ret = new LinkedHashSet<>();
+        final ClassLoader loader = ClassLoader.getSystemClassLoader();
+        if (loader instanceof URLClassLoader) {
+            for (URL url : ((URLClassLoader) loader).getURLs()) {
+                if (url.getProtocol().equals("file")) {
+                    try {
+                        ret.add(new File(url.toURI()).getPath());
+                    } catch (URISyntaxException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        }
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            ret.add(entry);
+        }
+        final StringBuilder joined = new StringBuilder();
+        for (String entry : ret) {
+            if (joined.length() > 0) {
+                joined.append(File.pathSeparator);
+            }
+            joined.append(entry);
+        }
+        return joined.toString();
+    }
+
+}
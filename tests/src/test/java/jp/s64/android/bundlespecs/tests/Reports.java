@@ -0,0 +1,79 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Text reports under {@code -Dbundlespecs.reports} ({@code build/reports} of the module by default).
+ */
+final class Reports {
+
+    static final String DIR_PROPERTY = "bundlespecs.reports";
+
+    private Reports() {
+    }
+
+    static File file(String name) {
+        final File dir = new File(System.getProperty(DIR_PROPERTY, "build/reports"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IllegalStateException("Could not create " + dir);
+        }
+        return new File(dir, name);
+    }
+
+    static File write(String name, String content) throws IOException {
+        final File ret = file(name);
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(ret), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return ret;
+    }
+
+    /**
+     * @return the content of {@code name}, or {@code null} if it wasn't written.
+     */
+    static String read(String name) throws IOException {
+        final File file = file(name);
+        if (!file.isFile()) {
+            return null;
+        }
+        final StringBuilder ret = new StringBuilder();
+        final Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            final char[] buffer = new char[8192];
+            int read;
+            while ((read = reader.read(buffer)) >= 0) {
+                ret.append(buffer, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        return ret.toString();
+    }
+
+}
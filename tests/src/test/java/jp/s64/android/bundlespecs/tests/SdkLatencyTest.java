@@ -0,0 +1,133 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Parcel;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Median copy and marshal latency of one {@link BundleGenerator} payload on the current API level,
+ * written to {@code build/reports/sdkLatency-<sdk>.tsv} for {@link CrossSdkTest} to line up.
+ * A smoke probe, not a benchmark: the {@code :benchmarks} module covers targetSdkVersion in depth.
+ */
+@RunWith(SdkTestRunner.class)
+@Config(manifest = Config.NONE)
+public class SdkLatencyTest {
+
+    private static final int WARMUP = 5;
+    private static final int TRIALS = 15;
+
+    interface Op {
+        Object run();
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        final Bundle org = new BundleGenerator(0).keys(200).depth(2).fanout(2).generate();
+        final byte[] parcelled = marshall(org);
+
+        final Map<String, Op> ops = new LinkedHashMap<>();
+        ops.put("copyConstructor", new Op() {
+            @Override
+            public Object run() {
+                return new Bundle(org);
+            }
+        });
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            ops.put("deepCopy", new Op() {
+                @Override
+                public Object run() {
+                    return org.deepCopy();
+                }
+            });
+        }
+        ops.put("BundleCopies.deepCopy", new Op() {
+            @Override
+            public Object run() {
+                return BundleCopies.deepCopy(org);
+            }
+        });
+        ops.put("marshal", new Op() {
+            @Override
+            public Object run() {
+                return marshall(org);
+            }
+        });
+        ops.put("unmarshal", new Op() {
+            @Override
+            public Object run() {
+                final Parcel parcel = Parcel.obtain();
+                try {
+                    parcel.unmarshall(parcelled, 0, parcelled.length);
+                    parcel.setDataPosition(0);
+                    final Bundle ret = parcel.readBundle(SdkLatencyTest.class.getClassLoader());
+                    ret.size(); // unparcel
+                    return ret;
+                } finally {
+                    parcel.recycle();
+                }
+            }
+        });
+
+        final StringBuilder tsv = new StringBuilder();
+        for (Map.Entry<String, Op> entry : ops.entrySet()) {
+            final long nanos = median(entry.getValue());
+            assertTrue(entry.getKey(), nanos > 0);
+            tsv.append(entry.getKey()).append('\t').append(nanos).append('\n');
+        }
+        tsv.append("parcelledBytes\t").append(parcelled.length).append('\n');
+
+        System.out.print(tsv);
+        Reports.write("sdkLatency-" + SdkTestRunner.sdk() + ".tsv", tsv.toString());
+    }
+
+    private static long median(Op op) {
+        for (int i = 0; i < WARMUP; i++) {
+            op.run();
+        }
+        final long[] nanos = new long[TRIALS];
+        for (int i = 0; i < TRIALS; i++) {
+            final long started = System.nanoTime();
+            op.run();
+            nanos[i] = System.nanoTime() - started;
+        }
+        Arrays.sort(nanos);
+        return nanos[TRIALS / 2];
+    }
+
+    private static byte[] marshall(Bundle bundle) {
+        final Parcel parcel = Parcel.obtain();
+        try {
+            parcel.writeBundle(bundle);
+            return parcel.marshall();
+        } finally {
+            parcel.recycle();
+        }
+    }
+
+}
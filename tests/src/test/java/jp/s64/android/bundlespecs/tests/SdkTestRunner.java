@@ -0,0 +1,49 @@
+package jp.s64.android.bundlespecs.tests;
+
+/*
+ * Copyright (C) 2018 Shuma Yoshioka
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.junit.runners.model.InitializationError;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+/**
+ * Robolectric runner whose API level comes from {@code -Dbundlespecs.sdk} (default: targetSdkVersion),
+ * so that {@link CrossSdkTest} can rerun the same classes against every android-all jar.
+ * Test classes must not set {@code sdk} in their own {@code @Config}.
+ */
+public class SdkTestRunner extends RobolectricTestRunner {
+
+    static final String SDK_PROPERTY = "bundlespecs.sdk";
+    static final int TARGET_SDK = 27;
+
+    public SdkTestRunner(Class<?> testClass) throws InitializationError {
+        super(testClass);
+    }
+
+    static int sdk() {
+        return Integer.getInteger(SDK_PROPERTY, TARGET_SDK);
+    }
+
+    @Override
+    protected Config buildGlobalConfig() {
+        return new Config.Builder(super.buildGlobalConfig())
+                .setSdk(sdk())
+                .setManifest(Config.NONE)
+                .build();
+    }
+
+}